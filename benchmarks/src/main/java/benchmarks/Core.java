@@ -0,0 +1,84 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+
+/**
+ * handles to the network classes. the network lives in the unnamed package, which code in a
+ * named package can not import, and JMH does not accept benchmarks in the unnamed package, so
+ * the benchmarks call the network through method handles. the handles are static final and
+ * called with invokeExact, so the JIT inlines them like direct calls.
+ * every handle takes and returns Object for the network types
+ */
+final class Core {
+
+  private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+  static final MethodHandle NEW_NEURON = constructor("Neuron",
+      MethodType.methodType(Object.class, int.class), int.class);
+  static final MethodHandle NEURON_FIRE = method("Neuron", "fire",
+      MethodType.methodType(double.class, Object.class, double[].class), double[].class);
+  static final MethodHandle NEW_HIDDEN_LAYER = constructor("HiddenLayer",
+      MethodType.methodType(Object.class, int.class, int.class), int.class, int.class);
+  static final MethodHandle LAYER_PROPAGATE = method("NeuralLayer", "propagate",
+      MethodType.methodType(double[].class, Object.class, double[].class), double[].class);
+  static final MethodHandle SIGMOID = method("ActivationFunction", "sigmoid",
+      MethodType.methodType(Object.class));
+  static final MethodHandle NEW_NETWORK = constructor("NeuralNetwork",
+      MethodType.methodType(Object.class, int.class, int.class, Object.class, long.class),
+      int.class, int.class, type("ActivationFunction"), long.class);
+  static final MethodHandle ADD_HIDDEN_LAYER = method("NeuralNetwork", "addHiddenLayer",
+      MethodType.methodType(void.class, Object.class, int.class), int.class);
+  static final MethodHandle CLASSIFY = method("NeuralNetwork", "classify",
+      MethodType.methodType(double[].class, Object.class, double[].class), double[].class);
+  static final MethodHandle NEW_ARRAY_DATASET = constructor("ArrayDataset",
+      MethodType.methodType(Object.class, double[][].class, int.class), double[][].class,
+      int.class);
+  static final MethodHandle NEW_BATCH_SOURCE = constructor("DatasetBatchSource",
+      MethodType.methodType(Object.class, Object.class, int.class), type("Dataset"), int.class);
+  static final MethodHandle VALIDATE = method("NeuralNetwork", "validate",
+      MethodType.methodType(Object.class, Object.class, Object.class), type("Dataset"));
+  static final MethodHandle TRAIN = method("NeuralNetwork", "train",
+      MethodType.methodType(void.class, Object.class, Object.class, Object.class, double.class,
+          int.class),
+      type("BatchSource"), type("Dataset"), double.class, int.class);
+  // private method of the training loop, benchmarked without the rest of train
+  static final MethodHandle TRAIN_EPOCH = method("NeuralNetwork", "trainEpoch",
+      MethodType.methodType(void.class, Object.class, Object.class, double[][].class,
+          double.class, Object.class),
+      type("BatchSource"), double[][].class, double.class, type("ParallelTrainer"));
+
+  private Core() {
+  }
+
+  static Class<?> type(String name) {
+    try {
+      return Class.forName(name);
+    } catch (ClassNotFoundException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private static MethodHandle constructor(String className, MethodType type,
+                                          Class<?>... parameters) {
+    try {
+      return LOOKUP.unreflectConstructor(type(className).getConstructor(parameters))
+          .asType(type);
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private static MethodHandle method(String className, String name, MethodType type,
+                                     Class<?>... parameters) {
+    try {
+      Method method = type(className).getDeclaredMethod(name, parameters);
+      method.setAccessible(true);
+      return LOOKUP.unreflect(method).asType(type);
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+}
@@ -0,0 +1,46 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * single example forward pass of a hidden layer, with the layer shapes of the benchmark
+ * topologies
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LayerBenchmark {
+
+  // inputs-neurons
+  @Param({"8-3", "3-8", "784-30", "30-20", "784-512", "512-512", "512-10"})
+  public String shape;
+
+  private Object layer;
+  private double[] input;
+
+  @Setup
+  public void setup() throws Throwable {
+    int[] sizes = Synthetic.sizes(shape);
+    layer = (Object) Core.NEW_HIDDEN_LAYER.invokeExact(sizes[0], sizes[1]);
+    input = Synthetic.input(sizes[0], 1);
+  }
+
+  @Benchmark
+  public double[] propagate() throws Throwable {
+    return (double[]) Core.LAYER_PROPAGATE.invokeExact(layer, input);
+  }
+}
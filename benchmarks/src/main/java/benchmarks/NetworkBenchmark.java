@@ -0,0 +1,58 @@
+package benchmarks;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * inference: classifying a single example, and the validation pass
+ * run by the training loop
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NetworkBenchmark {
+
+  private static final int VALIDATION_SIZE = 1000;
+
+  @Param({"8-3-8", "784-30-20-10", "784-512-512-10"})
+  public String topology;
+
+  private Object network;
+  private double[] input;
+  private Object validation;
+
+  @Setup
+  public void setup() throws Throwable {
+    int[] sizes = Synthetic.sizes(topology);
+    int inputCount = sizes[0];
+    network = Synthetic.network(topology);
+    double[][] examples = Synthetic.examples(inputCount, sizes[sizes.length - 1],
+        VALIDATION_SIZE, 2);
+    input = Arrays.copyOf(examples[0], inputCount);
+    validation = (Object) Core.NEW_ARRAY_DATASET.invokeExact(examples, inputCount);
+  }
+
+  @Benchmark
+  public double[] classify() throws Throwable {
+    return (double[]) Core.CLASSIFY.invokeExact(network, input);
+  }
+
+  @Benchmark
+  public Object validate() throws Throwable {
+    return (Object) Core.VALIDATE.invokeExact(network, validation);
+  }
+}
@@ -0,0 +1,43 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * weighted sum of a single neuron
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NeuronBenchmark {
+
+  @Param({"8", "30", "512", "784"})
+  public int inputCount;
+
+  private Object neuron;
+  private double[] input;
+
+  @Setup
+  public void setup() throws Throwable {
+    neuron = (Object) Core.NEW_NEURON.invokeExact(inputCount);
+    input = Synthetic.input(inputCount, 1);
+  }
+
+  @Benchmark
+  public double fire() throws Throwable {
+    return (double) Core.NEURON_FIRE.invokeExact(neuron, input);
+  }
+}
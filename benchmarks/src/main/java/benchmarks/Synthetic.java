@@ -0,0 +1,86 @@
+package benchmarks;
+
+import java.util.Random;
+
+/**
+ * synthetic data and networks, so the benchmarks run without the mnist files
+ */
+final class Synthetic {
+
+  private Synthetic() {
+  }
+
+  /**
+   * examples of a classification problem: every class has a random prototype, the inputs of an
+   * example are its class's prototype plus noise, the outputs are the one-hot class
+   * @param inputCount number of inputs
+   * @param outputCount number of classes
+   * @param count number of examples
+   * @param seed seed of the generator
+   * @return one example per row, first the inputs, then the outputs
+   */
+  static double[][] examples(int inputCount, int outputCount, int count, long seed) {
+    Random random = new Random(seed);
+    double[][] prototypes = new double[outputCount][inputCount];
+    for (double[] prototype : prototypes) {
+      for (int i = 0; i < inputCount; i++) {
+        prototype[i] = random.nextDouble() < 0.2 ? 1 : 0;
+      }
+    }
+    double[][] ret = new double[count][inputCount + outputCount];
+    for (double[] example : ret) {
+      int label = random.nextInt(outputCount);
+      for (int i = 0; i < inputCount; i++) {
+        double value = prototypes[label][i] * 0.7 + random.nextGaussian() * 0.2;
+        example[i] = Math.min(1, Math.max(0, value));
+      }
+      example[inputCount + label] = 1;
+    }
+    return ret;
+  }
+
+  /**
+   * random input vector
+   * @param length number of elements
+   * @param seed seed of the generator
+   * @return values in [0, 1)
+   */
+  static double[] input(int length, long seed) {
+    Random random = new Random(seed);
+    double[] ret = new double[length];
+    for (int i = 0; i < length; i++) {
+      ret[i] = random.nextDouble();
+    }
+    return ret;
+  }
+
+  /**
+   * parses a topology: layer sizes separated by dashes, inputs first
+   * @param topology topology, for example 784-30-20-10
+   * @return size of every layer
+   */
+  static int[] sizes(String topology) {
+    String[] parts = topology.split("-");
+    int[] ret = new int[parts.length];
+    for (int i = 0; i < parts.length; i++) {
+      ret[i] = Integer.parseInt(parts[i]);
+    }
+    return ret;
+  }
+
+  /**
+   * builds a seeded sigmoid network
+   * @param topology layer sizes separated by dashes, inputs first
+   * @return the network
+   */
+  static Object network(String topology) throws Throwable {
+    int[] sizes = sizes(topology);
+    Object actFcn = (Object) Core.SIGMOID.invokeExact();
+    Object network = (Object) Core.NEW_NETWORK.invokeExact(sizes[0], sizes[sizes.length - 1],
+        actFcn, 42L);
+    for (int i = 1; i < sizes.length - 1; i++) {
+      Core.ADD_HIDDEN_LAYER.invokeExact(network, sizes[i]);
+    }
+    return network;
+  }
+}
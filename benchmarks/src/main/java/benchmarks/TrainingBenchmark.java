@@ -0,0 +1,61 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * one training epoch (forward pass, backpropagation and weight updates of every batch) on a
+ * single thread, without the validation passes of train
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TrainingBenchmark {
+
+  private static final int EPOCH_SIZE = 1024;
+
+  @Param({"8-3-8", "784-30-20-10", "784-512-512-10"})
+  public String topology;
+
+  @Param({"1", "16", "64", "256"})
+  public int batchSize;
+
+  private Object network;
+  private Object source;
+  private double[][] batch;
+
+  @Setup
+  public void setup() throws Throwable {
+    int[] sizes = Synthetic.sizes(topology);
+    int inputCount = sizes[0];
+    network = Synthetic.network(topology);
+    double[][] examples = Synthetic.examples(inputCount, sizes[sizes.length - 1], EPOCH_SIZE,
+        3);
+    Object dataset = (Object) Core.NEW_ARRAY_DATASET.invokeExact(examples, inputCount);
+    source = (Object) Core.NEW_BATCH_SOURCE.invokeExact(dataset, batchSize);
+    batch = new double[batchSize][];
+    // a short training run allocates the training buffers of the network
+    Object validation = (Object) Core.NEW_ARRAY_DATASET.invokeExact(
+        new double[][] {examples[0]}, inputCount);
+    Core.TRAIN.invokeExact(network, source, validation, 0.1, 1);
+  }
+
+  @Benchmark
+  public Object epoch() throws Throwable {
+    Core.TRAIN_EPOCH.invokeExact(network, source, batch, 0.1, (Object) null);
+    return network;
+  }
+}
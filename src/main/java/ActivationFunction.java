@@ -1,38 +1,403 @@
 
-import java.util.function.DoubleFunction;
-
 public class ActivationFunction {
-  private DoubleFunction<Double> function;
-  private DoubleFunction<Double> derivative;
-  private String functionType;
-
-  private ActivationFunction(DoubleFunction<Double> function, DoubleFunction<Double> derivative,
-                             String functionType) {
-    this.function = function;
-    this.derivative = derivative;
+
+  /*
+   * the functions are selected with a switch instead of being stored as lambdas, so the array
+   * kernels are tight primitive loops the JIT can compile without a call per element.
+   * the ordinals are stored in model files, new types have to be added at the end
+   */
+  private enum Type { SIGMOID, LINEAR, RECTIFIER, LEAKY_RECTIFIER, TANH, SOFTMAX }
+
+  private final Type type;
+  // slope of the negative half of the leaky rectifier
+  private final double alpha;
+  private final String functionType;
+
+  private ActivationFunction(Type type, double alpha, String functionType) {
+    this.type = type;
+    this.alpha = alpha;
     this.functionType = functionType;
   }
 
   public static ActivationFunction sigmoid() {
-    return new ActivationFunction(x -> 1.0 / (Math.exp(-x) + 1),
-        x -> Math.exp(-x) / Math.pow(Math.exp(-x) + 1.0, 2), "Sigmoid");
+    return new ActivationFunction(Type.SIGMOID, 0, "Sigmoid");
   }
 
   public static ActivationFunction linear() {
-    return new ActivationFunction(x -> x,
-        x -> 1.0, "Linear");
+    return new ActivationFunction(Type.LINEAR, 0, "Linear");
   }
 
   public static ActivationFunction rectifier() {
-    return new ActivationFunction(x -> x > 0 ? x : 0,
-        x -> x > 0 ? 1.0 : 0, "Rectifier");
+    return new ActivationFunction(Type.RECTIFIER, 0, "Rectifier");
+  }
+
+  /**
+   * rectifier letting a small part of negative inputs through, so its neurons can not die
+   * @param alpha slope for negative inputs, usually around 0.01
+   * @return leaky rectifier function
+   */
+  public static ActivationFunction leakyRectifier(double alpha) {
+    return new ActivationFunction(Type.LEAKY_RECTIFIER, alpha, "LeakyRectifier");
+  }
+
+  public static ActivationFunction tanh() {
+    return new ActivationFunction(Type.TANH, 0, "Tanh");
+  }
+
+  /**
+   * softmax function: turns the outputs of the layer into a probability distribution. it is not
+   * an element-wise function, so it can only be applied on whole layer outputs (applyInPlace).
+   * a network with softmax output layer is trained on the cross-entropy error
+   * @return softmax function
+   */
+  public static ActivationFunction softmax() {
+    return new ActivationFunction(Type.SOFTMAX, 0, "Softmax");
+  }
+
+  /**
+   * getter for the function name
+   * @return name of the function
+   */
+  public String getFunctionType() {
+    return functionType;
+  }
+
+  /**
+   * code of the function in model files
+   * @return index of the function type
+   */
+  int getTypeCode() {
+    return type.ordinal();
+  }
+
+  /**
+   * getter for the parameter of the function (the negative slope of the leaky rectifier)
+   * @return parameter of the function, 0 for functions without one
+   */
+  double getParameter() {
+    return alpha;
+  }
+
+  /**
+   * recreates a function stored in a model file
+   * @param typeCode code returned by getTypeCode
+   * @param parameter parameter returned by getParameter
+   * @return the function
+   */
+  static ActivationFunction fromTypeCode(int typeCode, double parameter) {
+    Type[] types = Type.values();
+    if (typeCode < 0 || typeCode >= types.length) {
+      throw new IllegalArgumentException("Unknown activation function code: " + typeCode);
+    }
+    switch (types[typeCode]) {
+      case SIGMOID:
+        return sigmoid();
+      case RECTIFIER:
+        return rectifier();
+      case LEAKY_RECTIFIER:
+        return leakyRectifier(parameter);
+      case TANH:
+        return tanh();
+      case SOFTMAX:
+        return softmax();
+      default:
+        return linear();
+    }
   }
 
   public double apply(double x) {
-    return function.apply(x);
+    switch (type) {
+      case SIGMOID:
+        return 1.0 / (Math.exp(-x) + 1);
+      case RECTIFIER:
+        return x > 0 ? x : 0;
+      case LEAKY_RECTIFIER:
+        return x > 0 ? x : alpha * x;
+      case TANH:
+        return Math.tanh(x);
+      case SOFTMAX:
+        throw new UnsupportedOperationException("Softmax has to be applied on a whole layer");
+      default:
+        return x;
+    }
   }
 
   public double applyDerivative(double x) {
-    return derivative.apply(x);
+    switch (type) {
+      case SIGMOID:
+        double s = 1.0 / (Math.exp(-x) + 1);
+        return s * (1 - s);
+      case RECTIFIER:
+        return x > 0 ? 1.0 : 0;
+      case LEAKY_RECTIFIER:
+        return x > 0 ? 1.0 : alpha;
+      case TANH:
+        double t = Math.tanh(x);
+        return 1 - t * t;
+      case SOFTMAX:
+        throw new UnsupportedOperationException("Softmax has to be applied on a whole layer");
+      default:
+        return 1.0;
+    }
+  }
+
+  /**
+   * applies the function on the weighted sums of a layer, overwriting them with the outputs
+   * @param z array holding the weighted sums
+   * @param off index of the first weighted sum
+   * @param len number of neurons in the layer
+   */
+  public void applyInPlace(double[] z, int off, int len) {
+    int end = off + len;
+    switch (type) {
+      case SIGMOID:
+        for (int i = off; i < end; i++) {
+          z[i] = 1.0 / (Math.exp(-z[i]) + 1);
+        }
+        break;
+      case RECTIFIER:
+        for (int i = off; i < end; i++) {
+          z[i] = Math.max(z[i], 0);
+        }
+        break;
+      case LEAKY_RECTIFIER:
+        for (int i = off; i < end; i++) {
+          z[i] = z[i] > 0 ? z[i] : alpha * z[i];
+        }
+        break;
+      case TANH:
+        for (int i = off; i < end; i++) {
+          z[i] = Math.tanh(z[i]);
+        }
+        break;
+      case SOFTMAX:
+        // shifting by the maximum keeps exp from overflowing
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = off; i < end; i++) {
+          max = Math.max(max, z[i]);
+        }
+        double sum = 0;
+        for (int i = off; i < end; i++) {
+          z[i] = Math.exp(z[i] - max);
+          sum += z[i];
+        }
+        for (int i = off; i < end; i++) {
+          z[i] /= sum;
+        }
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * chain rule step of backpropagation: multiplies the errors of a layer's outputs by the
+   * derivative of the function. the derivative is computed from the outputs of the function, so
+   * the weighted sums do not have to be kept
+   * @param y array holding the outputs of the layer
+   * @param off index of the first output
+   * @param len number of neurons in the layer
+   * @param delta array holding the errors, overwritten with the errors of the weighted sums
+   * @param deltaOff index of the first error
+   */
+  public void derivativeFromOutput(double[] y, int off, int len, double[] delta, int deltaOff) {
+    switch (type) {
+      case SIGMOID:
+        for (int i = 0; i < len; i++) {
+          delta[deltaOff + i] *= y[off + i] * (1 - y[off + i]);
+        }
+        break;
+      case RECTIFIER:
+        for (int i = 0; i < len; i++) {
+          delta[deltaOff + i] = y[off + i] > 0 ? delta[deltaOff + i] : 0;
+        }
+        break;
+      case LEAKY_RECTIFIER:
+        for (int i = 0; i < len; i++) {
+          delta[deltaOff + i] *= y[off + i] > 0 ? 1.0 : alpha;
+        }
+        break;
+      case TANH:
+        for (int i = 0; i < len; i++) {
+          delta[deltaOff + i] *= 1 - y[off + i] * y[off + i];
+        }
+        break;
+      case SOFTMAX:
+        // the jacobian is not diagonal: d_i = y_i * (e_i - sum_j(e_j * y_j))
+        double dot = 0;
+        for (int i = 0; i < len; i++) {
+          dot += delta[deltaOff + i] * y[off + i];
+        }
+        for (int i = 0; i < len; i++) {
+          delta[deltaOff + i] = y[off + i] * (delta[deltaOff + i] - dot);
+        }
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * computes the error function of an output layer using this function, the one whose gradient
+   * outputError computes: (t-o)^2/2 summed over the outputs for element-wise functions, the
+   * cross-entropy -sum(t*ln(o)) for softmax
+   * @param y array holding the outputs of the layer
+   * @param off index of the first output
+   * @param len number of neurons in the layer
+   * @param target array holding the expected outputs
+   * @param targetOff index of the first expected output
+   * @return error of the example
+   */
+  public double loss(double[] y, int off, int len, double[] target, int targetOff) {
+    double ret = 0;
+    if (type == Type.SOFTMAX) {
+      for (int i = 0; i < len; i++) {
+        double t = target[targetOff + i];
+        if (t != 0) {
+          // an output rounded to zero would make the error infinite
+          ret -= t * Math.log(Math.max(y[off + i], Double.MIN_NORMAL));
+        }
+      }
+    } else {
+      for (int i = 0; i < len; i++) {
+        double diff = y[off + i] - target[targetOff + i];
+        ret += diff * diff / 2;
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * computes the errors of the weighted sums of an output layer using this function.
+   * for element-wise functions the error function is (t-o)^2/2, for softmax it is the
+   * cross-entropy, whose gradient combined with the softmax derivative is simply t-o
+   * @param y array holding the outputs of the layer
+   * @param off index of the first output
+   * @param len number of neurons in the layer
+   * @param target array holding the expected outputs
+   * @param targetOff index of the first expected output
+   * @param delta array receiving the errors
+   * @param deltaOff index of the first error
+   */
+  public void outputError(double[] y, int off, int len, double[] target, int targetOff,
+                          double[] delta, int deltaOff) {
+    for (int i = 0; i < len; i++) {
+      delta[deltaOff + i] = target[targetOff + i] - y[off + i];
+    }
+    if (type != Type.SOFTMAX) {
+      derivativeFromOutput(y, off, len, delta, deltaOff);
+    }
+  }
+
+  /**
+   * single precision version of applyInPlace(double[], int, int)
+   * @param z array holding the weighted sums
+   * @param off index of the first weighted sum
+   * @param len number of neurons in the layer
+   */
+  public void applyInPlace(float[] z, int off, int len) {
+    int end = off + len;
+    switch (type) {
+      case SIGMOID:
+        for (int i = off; i < end; i++) {
+          z[i] = (float) (1.0 / (Math.exp(-z[i]) + 1));
+        }
+        break;
+      case RECTIFIER:
+        for (int i = off; i < end; i++) {
+          z[i] = Math.max(z[i], 0f);
+        }
+        break;
+      case LEAKY_RECTIFIER:
+        for (int i = off; i < end; i++) {
+          z[i] = z[i] > 0 ? z[i] : (float) (alpha * z[i]);
+        }
+        break;
+      case TANH:
+        for (int i = off; i < end; i++) {
+          z[i] = (float) Math.tanh(z[i]);
+        }
+        break;
+      case SOFTMAX:
+        float max = Float.NEGATIVE_INFINITY;
+        for (int i = off; i < end; i++) {
+          max = Math.max(max, z[i]);
+        }
+        double sum = 0;
+        for (int i = off; i < end; i++) {
+          z[i] = (float) Math.exp(z[i] - max);
+          sum += z[i];
+        }
+        for (int i = off; i < end; i++) {
+          z[i] = (float) (z[i] / sum);
+        }
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * single precision version of derivativeFromOutput(double[], int, int, double[], int)
+   * @param y array holding the outputs of the layer
+   * @param off index of the first output
+   * @param len number of neurons in the layer
+   * @param delta array holding the errors, overwritten with the errors of the weighted sums
+   * @param deltaOff index of the first error
+   */
+  public void derivativeFromOutput(float[] y, int off, int len, float[] delta, int deltaOff) {
+    switch (type) {
+      case SIGMOID:
+        for (int i = 0; i < len; i++) {
+          delta[deltaOff + i] *= y[off + i] * (1 - y[off + i]);
+        }
+        break;
+      case RECTIFIER:
+        for (int i = 0; i < len; i++) {
+          delta[deltaOff + i] = y[off + i] > 0 ? delta[deltaOff + i] : 0;
+        }
+        break;
+      case LEAKY_RECTIFIER:
+        for (int i = 0; i < len; i++) {
+          delta[deltaOff + i] *= y[off + i] > 0 ? 1f : (float) alpha;
+        }
+        break;
+      case TANH:
+        for (int i = 0; i < len; i++) {
+          delta[deltaOff + i] *= 1 - y[off + i] * y[off + i];
+        }
+        break;
+      case SOFTMAX:
+        float dot = 0;
+        for (int i = 0; i < len; i++) {
+          dot += delta[deltaOff + i] * y[off + i];
+        }
+        for (int i = 0; i < len; i++) {
+          delta[deltaOff + i] = y[off + i] * (delta[deltaOff + i] - dot);
+        }
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * single precision version of outputError(double[], int, int, double[], int, double[], int)
+   * @param y array holding the outputs of the layer
+   * @param off index of the first output
+   * @param len number of neurons in the layer
+   * @param target array holding the expected outputs
+   * @param targetOff index of the first expected output
+   * @param delta array receiving the errors
+   * @param deltaOff index of the first error
+   */
+  public void outputError(float[] y, int off, int len, float[] target, int targetOff,
+                          float[] delta, int deltaOff) {
+    for (int i = 0; i < len; i++) {
+      delta[deltaOff + i] = target[targetOff + i] - y[off + i];
+    }
+    if (type != Type.SOFTMAX) {
+      derivativeFromOutput(y, off, len, delta, deltaOff);
+    }
   }
 }
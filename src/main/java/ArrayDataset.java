@@ -0,0 +1,38 @@
+
+/**
+ * data set of examples already on the heap, one example per row. rows are handed out without
+ * copying
+ */
+public class ArrayDataset implements Dataset {
+
+  private final double[][] data;
+  private final int inputCount;
+
+  /**
+   * @param data examples, first the inputs, then the expected outputs in every row
+   * @param inputCount number of inputs in a row, the rest of the row is the expected output
+   */
+  public ArrayDataset(double[][] data, int inputCount) {
+    if (data.length == 0 || data[0].length <= inputCount) {
+      throw new IllegalArgumentException("Invalid data set");
+    }
+    this.data = data;
+    this.inputCount = inputCount;
+  }
+
+  @Override public int size() {
+    return data.length;
+  }
+
+  @Override public int getInputCount() {
+    return inputCount;
+  }
+
+  @Override public int getOutputCount() {
+    return data[0].length - inputCount;
+  }
+
+  @Override public double[] getExample(int index, double[] buffer) {
+    return data[index];
+  }
+}
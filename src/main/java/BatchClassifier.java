@@ -0,0 +1,26 @@
+
+/**
+ * model able to classify a batch of examples in one pass
+ */
+public interface BatchClassifier {
+
+  /**
+   * getter for the number of inputs
+   * @return number of inputs in the network
+   */
+  int getInputCount();
+
+  /**
+   * getter for the number of outputs
+   * @return number of outputs in the network
+   */
+  int getOutputCount();
+
+  /**
+   * feeds a batch of examples stored in a single row-major array through the network
+   * @param in input matrix, rows x inputCount elements
+   * @param rows number of examples
+   * @param out output matrix, rows x outputCount elements, receives the network output
+   */
+  void classifyBatch(double[] in, int rows, double[] out);
+}
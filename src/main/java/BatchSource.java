@@ -0,0 +1,38 @@
+
+/**
+ * supplies the training examples of an epoch one mini-batch at a time, so training never needs
+ * the whole data set at once
+ */
+public interface BatchSource {
+
+  /**
+   * getter for the batch size
+   * @return largest number of examples returned by nextBatch
+   */
+  int getBatchSize();
+
+  /**
+   * getter for the number of inputs of an example
+   * @return number of network inputs
+   */
+  int getInputCount();
+
+  /**
+   * getter for the number of expected outputs of an example
+   * @return number of network outputs
+   */
+  int getOutputCount();
+
+  /**
+   * starts a new pass over the data, called before the first batch of every epoch
+   */
+  void startEpoch();
+
+  /**
+   * fetches the next batch of the epoch. the rows stay valid until the next call, and must not
+   * be modified by the caller
+   * @param batch array of at least getBatchSize() elements receiving the examples
+   * @return number of examples in the batch, 0 at the end of the epoch
+   */
+  int nextBatch(double[][] batch);
+}
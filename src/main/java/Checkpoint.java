@@ -0,0 +1,303 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * state of a training run at a batch boundary, enough to continue the run in a new process: the
+ * topology and weights of the network, the optimizer and its state, and the position of the run.
+ * the training thread copies the state into the arrays of a checkpoint, which are reused by the
+ * next capture, and the checkpointer thread writes them.
+ * file format, all numbers little-endian:
+ * <pre>
+ * header  magic "MLPC", int version, int layer count, int optimizer code,
+ *         3 doubles optimizer parameters, long optimizer step, long batches of the run,
+ *         long batches of the network, double training rate, int epochs of the run,
+ *         int finished epochs, int batches of the current epoch, int reserved
+ * layers  per layer: int input count, int neuron count, int activation function code,
+ *         int reserved, double activation function parameter
+ * data    per layer: weight block and biases. then, if the optimizer has them, the first
+ *         moments of every trained layer (weights and biases), then the second moments likewise
+ * </pre>
+ */
+class Checkpoint {
+
+  static final int MAGIC = 0x43504C4D; // "MLPC" in little-endian
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 88;
+  static final int LAYER_ENTRY_SIZE = 24;
+
+  // per layer, input layer first. the moments of the input layer are null
+  int[] inputCounts;
+  int[] neuronCounts;
+  ActivationFunction[] actFcns;
+  double[][] weights;
+  double[][] biases;
+  Optimizer optimizer;
+  double[][] firstWeights;
+  double[][] firstBiases;
+  double[][] secondWeights;
+  double[][] secondBiases;
+  long step;
+  // position of the run: batches since its start, batches of the network, finished epochs and
+  // batches of the current epoch
+  long runBatches;
+  long trainedBatches;
+  int epoch;
+  int batch;
+  // arguments of the run
+  double trainingRate;
+  int maxIterations;
+
+  /**
+   * copies the weights and the optimizer state of a network, reusing the arrays of the previous
+   * capture when the topology is the same
+   * @param layers layers of the network, input layer first
+   * @param state optimizer state of the network
+   */
+  void capture(List<NeuralLayer> layers, OptimizerState state) {
+    int layerCount = layers.size();
+    if (weights == null || weights.length != layerCount) {
+      inputCounts = new int[layerCount];
+      neuronCounts = new int[layerCount];
+      actFcns = new ActivationFunction[layerCount];
+      weights = new double[layerCount][];
+      biases = new double[layerCount][];
+      firstWeights = new double[layerCount][];
+      firstBiases = new double[layerCount][];
+      secondWeights = new double[layerCount][];
+      secondBiases = new double[layerCount][];
+    }
+    optimizer = state.getOptimizer();
+    Gradients first = state.getFirstMoments();
+    Gradients second = state.getSecondMoments();
+    for (int i = 0; i < layerCount; i++) {
+      NeuralLayer layer = layers.get(i);
+      inputCounts[i] = layer.getInputCount();
+      neuronCounts[i] = layer.getLayerNeuronCount();
+      actFcns[i] = layer.getActFcn();
+      weights[i] = copy(layer.getWeightStorage(), weights[i]);
+      biases[i] = copy(layer.getBiasStorage(), biases[i]);
+      if (i > 0) {
+        firstWeights[i] = (first != null) ? copy(first.weights[i], firstWeights[i]) : null;
+        firstBiases[i] = (first != null) ? copy(first.biases[i], firstBiases[i]) : null;
+        secondWeights[i] = (second != null) ? copy(second.weights[i], secondWeights[i]) : null;
+        secondBiases[i] = (second != null) ? copy(second.biases[i], secondBiases[i]) : null;
+      }
+    }
+    step = state.getStep();
+  }
+
+  private static double[] copy(DoubleStorage src, double[] dest) {
+    if (dest == null || dest.length != src.length()) {
+      return src.toArray();
+    }
+    src.copyTo(dest, 0);
+    return dest;
+  }
+
+  /**
+   * copies the optimizer state of the checkpoint into the state of a network
+   * @param state state of the same optimizer and topology
+   */
+  void restore(OptimizerState state) {
+    Gradients first = state.getFirstMoments();
+    Gradients second = state.getSecondMoments();
+    for (int i = 1; i < weights.length; i++) {
+      if (first != null) {
+        first.weights[i].copyFrom(firstWeights[i], 0);
+        first.biases[i].copyFrom(firstBiases[i], 0);
+      }
+      if (second != null) {
+        second.weights[i].copyFrom(secondWeights[i], 0);
+        second.biases[i].copyFrom(secondBiases[i], 0);
+      }
+    }
+    state.setStep(step);
+  }
+
+  /**
+   * writes the checkpoint into a file and forces it to the disk
+   * @param path path of the file, replaced if it exists
+   * @throws IOException if the file can not be written
+   */
+  void write(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      int layerCount = weights.length;
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + LAYER_ENTRY_SIZE * layerCount)
+          .order(ByteOrder.LITTLE_ENDIAN);
+      header.putInt(MAGIC).putInt(VERSION).putInt(layerCount).putInt(optimizer.getTypeCode());
+      for (double parameter : optimizer.getParameters()) {
+        header.putDouble(parameter);
+      }
+      header.putLong(step).putLong(runBatches).putLong(trainedBatches).putDouble(trainingRate)
+          .putInt(maxIterations).putInt(epoch).putInt(batch).putInt(0);
+      for (int i = 0; i < layerCount; i++) {
+        header.putInt(inputCounts[i]).putInt(neuronCounts[i]).putInt(actFcns[i].getTypeCode())
+            .putInt(0).putDouble(actFcns[i].getParameter());
+      }
+      header.flip();
+      ModelFile.writeFully(channel, header, 0);
+      ByteBuffer chunk = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+      long position = header.capacity();
+      for (double[][] arrays : dataArrays()) {
+        for (double[] values : arrays) {
+          if (values != null) {
+            position = ModelFile.writeDoubles(channel, chunk, values, position);
+          }
+        }
+      }
+      channel.force(true);
+    }
+  }
+
+  /**
+   * the data arrays in file order, null for the moments of the input layer and the moments the
+   * optimizer does not have
+   */
+  private double[][][] dataArrays() {
+    int layerCount = weights.length;
+    double[][][] ret = new double[3][][];
+    ret[0] = new double[2 * layerCount][];
+    ret[1] = new double[2 * layerCount][];
+    ret[2] = new double[2 * layerCount][];
+    for (int i = 0; i < layerCount; i++) {
+      ret[0][2 * i] = weights[i];
+      ret[0][2 * i + 1] = biases[i];
+      ret[1][2 * i] = firstWeights[i];
+      ret[1][2 * i + 1] = firstBiases[i];
+      ret[2][2 * i] = secondWeights[i];
+      ret[2][2 * i + 1] = secondBiases[i];
+    }
+    return ret;
+  }
+
+  /**
+   * reads a checkpoint file
+   * @param path path of the file
+   * @return the checkpoint
+   * @throws IOException if the file can not be read or is not a valid checkpoint file
+   */
+  static Checkpoint read(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      readFully(channel, header, 0);
+      header.flip();
+      if (header.getInt() != MAGIC) {
+        throw new IOException("Invalid checkpoint file: unknown magic number");
+      }
+      int version = header.getInt();
+      if (version != VERSION) {
+        throw new IOException("Invalid checkpoint file: unsupported version " + version);
+      }
+      int layerCount = header.getInt();
+      if (layerCount < 2 || layerCount > (channel.size() - HEADER_SIZE) / LAYER_ENTRY_SIZE) {
+        throw new IOException("Invalid checkpoint file: bad layer count");
+      }
+      Checkpoint ret = new Checkpoint();
+      int optimizerCode = header.getInt();
+      double[] parameters = {header.getDouble(), header.getDouble(), header.getDouble()};
+      ret.step = header.getLong();
+      ret.runBatches = header.getLong();
+      ret.trainedBatches = header.getLong();
+      ret.trainingRate = header.getDouble();
+      ret.maxIterations = header.getInt();
+      ret.epoch = header.getInt();
+      ret.batch = header.getInt();
+      try {
+        ret.optimizer = Optimizer.fromTypeCode(optimizerCode, parameters);
+      } catch (IllegalArgumentException e) {
+        throw new IOException("Invalid checkpoint file: " + e.getMessage());
+      }
+      ByteBuffer table = ByteBuffer.allocate(LAYER_ENTRY_SIZE * layerCount)
+          .order(ByteOrder.LITTLE_ENDIAN);
+      readFully(channel, table, HEADER_SIZE);
+      table.flip();
+      ret.inputCounts = new int[layerCount];
+      ret.neuronCounts = new int[layerCount];
+      ret.actFcns = new ActivationFunction[layerCount];
+      ret.weights = new double[layerCount][];
+      ret.biases = new double[layerCount][];
+      ret.firstWeights = new double[layerCount][];
+      ret.firstBiases = new double[layerCount][];
+      ret.secondWeights = new double[layerCount][];
+      ret.secondBiases = new double[layerCount][];
+      long dataSize = 0;
+      for (int i = 0; i < layerCount; i++) {
+        int inputCount = table.getInt();
+        int neuronCount = table.getInt();
+        int actCode = table.getInt();
+        table.getInt();
+        double actParameter = table.getDouble();
+        // the input layer has a single input per neuron, every other layer reads the one before
+        int previousCount = (i == 0) ? 1 : ret.neuronCounts[i - 1];
+        if (neuronCount < 1 || inputCount != previousCount) {
+          throw new IOException("Invalid checkpoint file: bad topology in layer " + i);
+        }
+        try {
+          ret.actFcns[i] = ActivationFunction.fromTypeCode(actCode, actParameter);
+        } catch (IllegalArgumentException e) {
+          throw new IOException("Invalid checkpoint file: " + e.getMessage());
+        }
+        ret.inputCounts[i] = inputCount;
+        ret.neuronCounts[i] = neuronCount;
+        long weightCount = (long) inputCount * neuronCount;
+        int moments = (i == 0) ? 0 : (ret.optimizer.hasFirstMoment() ? 1 : 0) +
+            (ret.optimizer.hasSecondMoment() ? 1 : 0);
+        dataSize += 8 * (weightCount + neuronCount) * (1 + moments);
+        if (weightCount > Integer.MAX_VALUE ||
+            HEADER_SIZE + LAYER_ENTRY_SIZE * layerCount + dataSize > channel.size()) {
+          throw new IOException("Invalid checkpoint file: truncated data of layer " + i);
+        }
+        ret.weights[i] = new double[(int) weightCount];
+        ret.biases[i] = new double[neuronCount];
+        if (i > 0 && ret.optimizer.hasFirstMoment()) {
+          ret.firstWeights[i] = new double[(int) weightCount];
+          ret.firstBiases[i] = new double[neuronCount];
+        }
+        if (i > 0 && ret.optimizer.hasSecondMoment()) {
+          ret.secondWeights[i] = new double[(int) weightCount];
+          ret.secondBiases[i] = new double[neuronCount];
+        }
+      }
+      ByteBuffer chunk = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+      long position = HEADER_SIZE + LAYER_ENTRY_SIZE * layerCount;
+      for (double[][] arrays : ret.dataArrays()) {
+        for (double[] values : arrays) {
+          if (values != null) {
+            position = readDoubles(channel, chunk, values, position);
+          }
+        }
+      }
+      return ret;
+    }
+  }
+
+  private static long readDoubles(FileChannel channel, ByteBuffer chunk, double[] values,
+                                  long position) throws IOException {
+    for (int i = 0; i < values.length; ) {
+      chunk.clear();
+      int count = Math.min(values.length - i, chunk.capacity() / 8);
+      chunk.limit(8 * count);
+      readFully(channel, chunk, position);
+      chunk.flip();
+      chunk.asDoubleBuffer().get(values, i, count);
+      position += 8L * count;
+      i += count;
+    }
+    return position;
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer dst, long position)
+      throws IOException {
+    while (dst.hasRemaining()) {
+      if (channel.read(dst, position + dst.position()) < 0) {
+        throw new IOException("Invalid checkpoint file: truncated");
+      }
+    }
+  }
+}
@@ -0,0 +1,198 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * writes the checkpoints of training runs (see NeuralNetwork.setCheckpointing) into a directory
+ * without pausing training for disk I/O. the training thread only copies the state into memory
+ * the checkpointer owns; a background thread writes the copy into a temporary file, forces it
+ * to the disk and renames it atomically, forcing the directory entry too, so the directory
+ * never holds a partly written checkpoint. the last few checkpoints are kept, older ones are
+ * deleted.
+ * a single copy is kept in memory: when a checkpoint is due while the previous one is still being
+ * written, it is skipped and counted instead of making training wait
+ */
+public class Checkpointer implements AutoCloseable {
+
+  private static final String PREFIX = "checkpoint-";
+  private static final String SUFFIX = ".mlpc";
+  private static final Checkpoint STOP = new Checkpoint();
+
+  private final Path directory;
+  private final int keep;
+  // the copy written by the background thread, reused by every checkpoint
+  private final Checkpoint buffer = new Checkpoint();
+  private final AtomicBoolean writing = new AtomicBoolean();
+  private final BlockingQueue<Checkpoint> queue = new ArrayBlockingQueue<>(1);
+  private final AtomicLong written = new AtomicLong();
+  private final AtomicLong skipped = new AtomicLong();
+  private final Thread writer;
+  private volatile Path lastPath;
+  private volatile Throwable lastError;
+
+  /**
+   * @param directory directory of the checkpoint files, created if it does not exist
+   * @param keep number of checkpoints kept
+   * @throws IOException if the directory can not be created
+   */
+  public Checkpointer(Path directory, int keep) throws IOException {
+    if (keep < 1) {
+      throw new IllegalArgumentException("Invalid number of kept checkpoints");
+    }
+    this.directory = Files.createDirectories(directory);
+    this.keep = keep;
+    this.writer = new Thread(this::write, "training-checkpoints");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * finds the newest checkpoint of a directory, the one to resume from
+   * @param directory directory of the checkpoint files
+   * @return path of the newest checkpoint, null if there is none
+   * @throws IOException if the directory can not be read
+   */
+  public static Path latest(Path directory) throws IOException {
+    List<Path> checkpoints = list(directory);
+    return checkpoints.isEmpty() ? null : checkpoints.get(checkpoints.size() - 1);
+  }
+
+  /**
+   * lists the complete checkpoints of a directory, temporary files are skipped
+   * @param directory directory of the checkpoint files
+   * @return paths of the checkpoints, oldest first
+   * @throws IOException if the directory can not be read
+   */
+  private static List<Path> list(Path directory) throws IOException {
+    List<Path> ret = new ArrayList<>();
+    if (!Files.isDirectory(directory)) {
+      return ret;
+    }
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+        PREFIX + "*" + SUFFIX)) {
+      for (Path path : stream) {
+        ret.add(path);
+      }
+    }
+    // the batch counts in the names are zero padded, so the names sort in time order
+    Collections.sort(ret);
+    return ret;
+  }
+
+  /**
+   * takes the memory for a new checkpoint
+   * @return the checkpoint to capture the state into, null if the previous checkpoint is still
+   *         being written and this one is skipped, or if the writer thread has stopped
+   */
+  Checkpoint acquire() {
+    if (!writer.isAlive()) {
+      // nobody would write the checkpoint or release the buffer
+      return null;
+    }
+    if (!writing.compareAndSet(false, true)) {
+      skipped.incrementAndGet();
+      return null;
+    }
+    return buffer;
+  }
+
+  /**
+   * hands a captured checkpoint to the background thread
+   * @param checkpoint the checkpoint returned by acquire
+   */
+  void submit(Checkpoint checkpoint) {
+    // the queue is empty: a single checkpoint is in flight at a time
+    queue.add(checkpoint);
+  }
+
+  /**
+   * body of the writer thread: writes the submitted checkpoints until the checkpointer is
+   * closed
+   */
+  private void write() {
+    while (true) {
+      Checkpoint checkpoint;
+      try {
+        checkpoint = queue.take();
+      } catch (InterruptedException e) {
+        return;
+      }
+      if (checkpoint == STOP) {
+        return;
+      }
+      try {
+        String name = String.format("%s%020d%s", PREFIX, checkpoint.trainedBatches, SUFFIX);
+        Path target = directory.resolve(name);
+        Path temporary = directory.resolve(name + ".tmp");
+        checkpoint.write(temporary);
+        ModelFile.replace(temporary, target);
+        lastPath = target;
+        written.incrementAndGet();
+        List<Path> checkpoints = list(directory);
+        for (int i = 0; i < checkpoints.size() - keep; i++) {
+          Files.deleteIfExists(checkpoints.get(i));
+        }
+      } catch (Throwable e) {
+        // errors too, the buffer is released and the next checkpoint may succeed
+        lastError = e;
+      } finally {
+        writing.set(false);
+      }
+    }
+  }
+
+  /**
+   * getter for the number of written checkpoints
+   * @return number of checkpoints written successfully
+   */
+  public long getWrittenCount() {
+    return written.get();
+  }
+
+  /**
+   * getter for the number of skipped checkpoints
+   * @return number of checkpoints skipped because the previous one was still being written
+   */
+  public long getSkippedCount() {
+    return skipped.get();
+  }
+
+  /**
+   * getter for the last written checkpoint
+   * @return path of the last checkpoint written, null if none was written yet
+   */
+  public Path getLastPath() {
+    return lastPath;
+  }
+
+  /**
+   * getter for the last write error
+   * @return last exception or error thrown while writing a checkpoint, null if there was none
+   */
+  public Throwable getLastError() {
+    return lastError;
+  }
+
+  /**
+   * finishes writing the checkpoint in flight and stops the background thread
+   */
+  @Override public void close() {
+    if (!writer.isAlive()) {
+      return;
+    }
+    try {
+      queue.put(STOP);
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,50 @@
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * writes the metrics into a csv file, one line per epoch. the layer columns are added with the
+ * first line, so every network written into a file must have the same number of layers
+ */
+public class CsvMetricSink implements MetricSink {
+
+  private final BufferedWriter writer;
+  private boolean headerWritten;
+
+  /**
+   * @param path path of the file, replaced if it exists
+   * @throws IOException if the file can not be created
+   */
+  public CsvMetricSink(Path path) throws IOException {
+    writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+  }
+
+  @Override public void accept(TrainingMetrics metrics) throws IOException {
+    if (!headerWritten) {
+      writer.write("epoch,loss,accuracy,examples,elapsed_ns,examples_per_s,update_ns," +
+          "allocated_bytes");
+      for (int i = 0; i < metrics.getLayerCount(); i++) {
+        writer.write(",forward_ns_" + i + ",backward_ns_" + i);
+      }
+      writer.newLine();
+      headerWritten = true;
+    }
+    writer.write(metrics.getEpoch() + "," + metrics.getLoss() + "," + metrics.getAccuracy() +
+        "," + metrics.getExampleCount() + "," + metrics.getElapsedNanos() + "," +
+        metrics.getExamplesPerSecond() + "," + metrics.getUpdateNanos() + "," +
+        metrics.getAllocatedBytes());
+    for (int i = 0; i < metrics.getLayerCount(); i++) {
+      writer.write("," + metrics.getForwardNanos(i) + "," + metrics.getBackwardNanos(i));
+    }
+    writer.newLine();
+    // every epoch is readable while training is still running
+    writer.flush();
+  }
+
+  @Override public void close() throws IOException {
+    writer.close();
+  }
+}
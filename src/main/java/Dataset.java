@@ -0,0 +1,38 @@
+
+/**
+ * random access collection of training examples. an example is a row in the format the networks
+ * train on: first the inputs, then the expected outputs.
+ * implementations decide where the examples live (heap arrays, mapped files, generated on the
+ * fly), the network only fetches the rows it needs for the current batch
+ */
+public interface Dataset {
+
+  /**
+   * getter for the number of examples
+   * @return number of examples in the data set
+   */
+  int size();
+
+  /**
+   * getter for the number of inputs of an example
+   * @return number of network inputs
+   */
+  int getInputCount();
+
+  /**
+   * getter for the number of expected outputs of an example
+   * @return number of network outputs
+   */
+  int getOutputCount();
+
+  /**
+   * fetches an example. implementations either write the example into the buffer and return
+   * it, or return a row they already hold without copying. the returned row must not be
+   * modified by the caller
+   * @param index index of the example
+   * @param buffer array of at least getInputCount() + getOutputCount() elements the example can
+   *               be written into
+   * @return the example
+   */
+  double[] getExample(int index, double[] buffer);
+}
@@ -0,0 +1,136 @@
+
+import java.util.Random;
+
+/**
+ * batch source reading the examples of a data set, either in order or shuffled.
+ * shuffling permutes indexes, the examples themselves are never moved. to keep the reads of file
+ * backed data sets local, the data set is split into chunks of consecutive examples: the order of
+ * the chunks is shuffled, and the examples are shuffled within each chunk. a chunk is finished
+ * before the next one is started
+ */
+public class DatasetBatchSource implements BatchSource {
+
+  private final Dataset dataset;
+  private final int batchSize;
+  private final int chunkSize;
+  private final long seed;
+  private final boolean shuffle;
+  // buffers for data sets that write their examples instead of handing out rows
+  private final double[][] buffers;
+  private final int[] chunkOrder;
+  private final int[] chunkPermutation;
+  private int epoch;
+  private int chunkPosition;
+  private int offsetPosition;
+  private Random random;
+
+  /**
+   * batch source returning the examples in their original order
+   * @param dataset data set to read
+   * @param batchSize number of examples per batch
+   */
+  public DatasetBatchSource(Dataset dataset, int batchSize) {
+    this(dataset, batchSize, Math.max(1, dataset.size()), 0, false);
+  }
+
+  /**
+   * batch source returning the examples in a different random order in every epoch
+   * @param dataset data set to read
+   * @param batchSize number of examples per batch
+   * @param chunkSize number of consecutive examples shuffled together
+   * @param seed seed of the shuffling, the same seed gives the same order in every run
+   */
+  public DatasetBatchSource(Dataset dataset, int batchSize, int chunkSize, long seed) {
+    this(dataset, batchSize, chunkSize, seed, true);
+  }
+
+  private DatasetBatchSource(Dataset dataset, int batchSize, int chunkSize, long seed,
+                             boolean shuffle) {
+    if (batchSize < 1 || chunkSize < 1) {
+      throw new IllegalArgumentException("Invalid batch or chunk size");
+    }
+    this.dataset = dataset;
+    this.batchSize = batchSize;
+    this.chunkSize = chunkSize;
+    this.seed = seed;
+    this.shuffle = shuffle;
+    this.buffers = new double[batchSize][dataset.getInputCount() + dataset.getOutputCount()];
+    this.chunkOrder = new int[(dataset.size() + chunkSize - 1) / chunkSize];
+    this.chunkPermutation = new int[shuffle ? chunkSize : 0];
+    this.chunkPosition = chunkOrder.length;
+  }
+
+  @Override public int getBatchSize() {
+    return batchSize;
+  }
+
+  @Override public int getInputCount() {
+    return dataset.getInputCount();
+  }
+
+  @Override public int getOutputCount() {
+    return dataset.getOutputCount();
+  }
+
+  @Override public void startEpoch() {
+    for (int i = 0; i < chunkOrder.length; i++) {
+      chunkOrder[i] = i;
+    }
+    if (shuffle) {
+      // every epoch has its own generator, so an epoch's order does not depend on the previous
+      // epochs
+      random = new Random(seed + 0x9E3779B97F4A7C15L * epoch);
+      shuffle(chunkOrder, chunkOrder.length);
+      startChunk();
+    }
+    epoch++;
+    chunkPosition = 0;
+    offsetPosition = 0;
+  }
+
+  @Override public int nextBatch(double[][] batch) {
+    int rows = 0;
+    while (rows < batchSize && chunkPosition < chunkOrder.length) {
+      int chunkStart = chunkOrder[chunkPosition] * chunkSize;
+      int chunkLength = Math.min(chunkSize, dataset.size() - chunkStart);
+      if (offsetPosition == (shuffle ? chunkSize : chunkLength)) {
+        chunkPosition++;
+        offsetPosition = 0;
+        if (shuffle && chunkPosition < chunkOrder.length) {
+          startChunk();
+        }
+        continue;
+      }
+      int offset = shuffle ? chunkPermutation[offsetPosition] : offsetPosition;
+      offsetPosition++;
+      // the permutation covers a whole chunk, the last chunk may be shorter
+      if (offset < chunkLength) {
+        batch[rows] = dataset.getExample(chunkStart + offset, buffers[rows]);
+        rows++;
+      }
+    }
+    return rows;
+  }
+
+  /**
+   * draws the order of the examples within the next chunk
+   */
+  private void startChunk() {
+    for (int i = 0; i < chunkSize; i++) {
+      chunkPermutation[i] = i;
+    }
+    shuffle(chunkPermutation, chunkSize);
+  }
+
+  /**
+   * Fisher-Yates shuffle of the first n elements
+   */
+  private void shuffle(int[] array, int n) {
+    for (int i = n - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      int tmp = array[i];
+      array[i] = array[j];
+      array[j] = tmp;
+    }
+  }
+}
@@ -0,0 +1,69 @@
+/**
+ * the dense double kernels the layers spend their time in, behind Kernels. ScalarKernels is the
+ * portable implementation and the reference for correctness; VectorApiKernels (src/main/java17)
+ * runs them on the SIMD registers of the cpu when the jdk.incubator.vector module is enabled.
+ * matrices are row-major double arrays
+ */
+interface DenseKernels {
+
+  /**
+   * dot product of two vectors
+   * @param a first vector
+   * @param aOff index of the first element of a
+   * @param b second vector
+   * @param bOff index of the first element of b
+   * @param len length of the vectors
+   * @return sum of a[i] * b[i]
+   */
+  double dot(double[] a, int aOff, double[] b, int bOff, int len);
+
+  /**
+   * y += alpha * x
+   * @param alpha multiplier of x
+   * @param x vector added to y
+   * @param xOff index of the first element of x
+   * @param y vector updated in place
+   * @param yOff index of the first element of y
+   * @param len length of the vectors
+   */
+  void axpy(double alpha, double[] x, int xOff, double[] y, int yOff, int len);
+
+  /**
+   * four rows of the matrix product with the transposed weight matrix and bias:
+   * Y = X * W^T + b, every weight loaded from memory is used four times
+   * @param w matrix, wRows x cols
+   * @param b bias vector, wRows elements
+   * @param wRows number of rows in w
+   * @param cols number of columns in w and x
+   * @param x input matrix
+   * @param xOff index of the first element of the four rows of x
+   * @param y output matrix
+   * @param yOff index of the first element of the four rows of y
+   */
+  void gemmABt4(double[] w, double[] b, int wRows, int cols, double[] x, int xOff, double[] y,
+                int yOff);
+
+  /**
+   * matrix product: Y = D * W
+   * @param d left matrix, rows x wRows
+   * @param rows number of rows in d
+   * @param w right matrix, wRows x cols
+   * @param wRows number of rows in w
+   * @param cols number of columns in w
+   * @param y output matrix, rows x cols
+   */
+  void gemmAB(double[] d, int rows, double[] w, int wRows, int cols, double[] y);
+
+  /**
+   * matrix product with the transposed left matrix: G = D^T * X, plus the column sums of D
+   * @param d left matrix, rows x dCols
+   * @param dCols number of columns in d
+   * @param rows number of rows in d and x
+   * @param x right matrix, rows x cols
+   * @param cols number of columns in x
+   * @param g output matrix, dCols x cols
+   * @param colSums output vector receiving the column sums of d
+   */
+  void gemmAtB(double[] d, int dCols, int rows, double[] x, int cols, double[] g,
+               double[] colSums);
+}
@@ -0,0 +1,152 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+
+/**
+ * memory of a weight block or bias vector, or of one of their update or optimizer buffers:
+ * either a double array on the heap, or a direct buffer outside of it. exactly one of array and
+ * buffer is set. the kernels run on the array when there is one, and on the scalar buffer
+ * kernels otherwise.
+ * direct storage keeps wide layers out of the heap, so their weights add neither to the heap
+ * size nor to the work of the garbage collector; the memory is freed when the storage is
+ * garbage collected. the buffer is in the native byte order and only accessed with absolute
+ * indexes, its position never moves, so it can be shared by threads like an array
+ */
+final class DoubleStorage {
+
+  final double[] array;
+  final DoubleBuffer buffer;
+
+  private DoubleStorage(double[] array, DoubleBuffer buffer) {
+    this.array = array;
+    this.buffer = buffer;
+  }
+
+  /**
+   * allocates storage filled with zeros
+   * @param length number of elements
+   * @param direct true for a direct buffer outside the heap, false for a heap array
+   * @return the storage
+   * @throws IllegalArgumentException if direct storage would be larger than 2GB
+   */
+  static DoubleStorage allocate(int length, boolean direct) {
+    if (!direct) {
+      return new DoubleStorage(new double[length], null);
+    }
+    // a buffer, like a mapping, can not be larger than 2GB
+    if (length > Integer.MAX_VALUE / 8) {
+      throw new IllegalArgumentException("Cant allocate: " + length + " elements are too many " +
+          "for a direct buffer");
+    }
+    return new DoubleStorage(null, ByteBuffer.allocateDirect(8 * length)
+        .order(ByteOrder.nativeOrder()).asDoubleBuffer());
+  }
+
+  /**
+   * tells where the elements are stored
+   * @return true for a direct buffer, false for a heap array
+   */
+  boolean isDirect() {
+    return buffer != null;
+  }
+
+  /**
+   * getter for the size
+   * @return number of elements
+   */
+  int length() {
+    return (array != null) ? array.length : buffer.capacity();
+  }
+
+  /**
+   * getter for an element
+   * @param index index of the element
+   * @return value of the element
+   */
+  double get(int index) {
+    return (array != null) ? array[index] : buffer.get(index);
+  }
+
+  /**
+   * setter for an element
+   * @param index index of the element
+   * @param value new value of the element
+   */
+  void set(int index, double value) {
+    if (array != null) {
+      array[index] = value;
+    } else {
+      buffer.put(index, value);
+    }
+  }
+
+  /**
+   * sets every element
+   * @param value value of the elements
+   */
+  void fill(double value) {
+    if (array != null) {
+      Arrays.fill(array, value);
+    } else {
+      for (int i = 0; i < buffer.capacity(); i++) {
+        buffer.put(i, value);
+      }
+    }
+  }
+
+  /**
+   * copies the elements into an array
+   * @param dest array receiving the elements
+   * @param offset index of the first element in dest
+   */
+  void copyTo(double[] dest, int offset) {
+    if (array != null) {
+      System.arraycopy(array, 0, dest, offset, array.length);
+    } else {
+      buffer.duplicate().get(dest, offset, buffer.capacity());
+    }
+  }
+
+  /**
+   * overwrites the elements with values from an array
+   * @param src array holding the values
+   * @param offset index of the first value in src
+   */
+  void copyFrom(double[] src, int offset) {
+    if (array != null) {
+      System.arraycopy(src, offset, array, 0, array.length);
+    } else {
+      buffer.duplicate().put(src, offset, buffer.capacity());
+    }
+  }
+
+  /**
+   * copies the elements into a new heap array
+   * @return array holding the elements
+   */
+  double[] toArray() {
+    double[] ret = new double[length()];
+    copyTo(ret, 0);
+    return ret;
+  }
+
+  /**
+   * copies the elements into new storage, on the heap or outside of it
+   * @param direct true for a direct buffer, false for a heap array
+   * @return the copy
+   */
+  DoubleStorage copy(boolean direct) {
+    DoubleStorage ret = allocate(length(), direct);
+    ret.asBuffer().put(asBuffer());
+    return ret;
+  }
+
+  /**
+   * view of the elements for bulk copies, with its own position
+   * @return buffer over the elements, position 0 and limit the number of elements
+   */
+  DoubleBuffer asBuffer() {
+    return (array != null) ? DoubleBuffer.wrap(array) : buffer.duplicate();
+  }
+}
@@ -0,0 +1,165 @@
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * batched evaluation of a network on a data set. the examples are split into one contiguous
+ * shard per worker, every shard is pushed through the layers in blocks with its own buffers,
+ * and the shard results are added up in shard order, so the result does not depend on the
+ * scheduling of the workers
+ */
+class Evaluator {
+
+  private final ExecutionPlan plan;
+  private final ForkJoinPool pool;
+  private final Shard[] shards;
+  private final int inputCount;
+  private final int outputCount;
+  private final int classCount;
+  // the error function is the one the output layer is trained with
+  private final ActivationFunction outputFcn;
+
+  /**
+   * @param plan compiled layers of the network
+   * @param pool pool running the shards, null to evaluate on the calling thread
+   * @param shardCount number of shards, ignored without a pool
+   */
+  Evaluator(ExecutionPlan plan, ForkJoinPool pool, int shardCount) {
+    this.plan = plan;
+    this.pool = pool;
+    this.inputCount = plan.getInputCount();
+    this.outputCount = plan.getOutputCount();
+    this.classCount = (outputCount == 1) ? 2 : outputCount;
+    this.outputFcn = plan.getOutputActFcn();
+    shards = new Shard[(pool == null) ? 1 : shardCount];
+    for (int i = 0; i < shards.length; i++) {
+      shards[i] = new Shard(plan.getWidth());
+    }
+  }
+
+  /**
+   * class of an example: position of the largest value, or a threshold at 0.5 for a single value
+   * @param values outputs or expected outputs
+   * @param off index of the first value
+   * @param len number of values
+   * @return index of the class
+   */
+  static int classOf(double[] values, int off, int len) {
+    if (len == 1) {
+      return values[off] >= 0.5 ? 1 : 0;
+    }
+    int ret = 0;
+    for (int i = 1; i < len; i++) {
+      if (values[off + i] > values[off + ret]) {
+        ret = i;
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * evaluates the network on a data set
+   * @param data examples, first the inputs, then the expected outputs
+   * @return loss, accuracy and confusion matrix
+   */
+  ValidationResult evaluate(Dataset data) {
+    int size = data.size();
+    for (int i = 0; i < shards.length; i++) {
+      shards[i].reset(data, (int) ((long) i * size / shards.length),
+          (int) ((long) (i + 1) * size / shards.length));
+    }
+    if (shards.length == 1) {
+      shards[0].compute();
+    } else {
+      pool.invoke(new ShardTask(0, shards.length));
+    }
+    double loss = 0;
+    long[][] confusion = new long[classCount][classCount];
+    for (Shard shard : shards) {
+      loss += shard.loss;
+      for (int i = 0; i < classCount; i++) {
+        for (int j = 0; j < classCount; j++) {
+          confusion[i][j] += shard.confusion[i][j];
+        }
+      }
+    }
+    return new ValidationResult(loss, size, confusion);
+  }
+
+  /**
+   * a range of examples and the buffers to evaluate them
+   */
+  private class Shard {
+    final double[] example;
+    final double[] inBlock;
+    final double[] targets;
+    final double[] outBlock;
+    final double[] bufferA;
+    final double[] bufferB;
+    final long[][] confusion = new long[classCount][classCount];
+    Dataset data;
+    int from;
+    int to;
+    double loss;
+
+    Shard(int width) {
+      example = new double[inputCount + outputCount];
+      inBlock = new double[ExecutionPlan.BLOCK_ROWS * inputCount];
+      targets = new double[ExecutionPlan.BLOCK_ROWS * outputCount];
+      outBlock = new double[ExecutionPlan.BLOCK_ROWS * outputCount];
+      bufferA = new double[ExecutionPlan.BLOCK_ROWS * width];
+      bufferB = new double[ExecutionPlan.BLOCK_ROWS * width];
+    }
+
+    void reset(Dataset data, int from, int to) {
+      this.data = data;
+      this.from = from;
+      this.to = to;
+      loss = 0;
+      for (long[] row : confusion) {
+        Arrays.fill(row, 0);
+      }
+    }
+
+    void compute() {
+      for (int start = from; start < to; start += ExecutionPlan.BLOCK_ROWS) {
+        int rows = Math.min(ExecutionPlan.BLOCK_ROWS, to - start);
+        // separate input from output while packing the examples into a block
+        for (int r = 0; r < rows; r++) {
+          double[] row = data.getExample(start + r, example);
+          System.arraycopy(row, 0, inBlock, r * inputCount, inputCount);
+          System.arraycopy(row, inputCount, targets, r * outputCount, outputCount);
+        }
+        plan.run(inBlock, 0, rows, outBlock, 0, bufferA, bufferB);
+        for (int r = 0; r < rows; r++) {
+          int row = r * outputCount;
+          loss += outputFcn.loss(outBlock, row, outputCount, targets, row);
+          confusion[classOf(targets, row, outputCount)][classOf(outBlock, row, outputCount)]++;
+        }
+      }
+    }
+  }
+
+  /**
+   * evaluates the shards [lo, hi)
+   */
+  private class ShardTask extends RecursiveAction {
+    private final int lo;
+    private final int hi;
+
+    ShardTask(int lo, int hi) {
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    @Override protected void compute() {
+      if (hi - lo == 1) {
+        shards[lo].compute();
+        return;
+      }
+      int mid = (lo + hi) >>> 1;
+      invokeAll(new ShardTask(lo, mid), new ShardTask(mid, hi));
+    }
+  }
+}
@@ -0,0 +1,207 @@
+import java.util.List;
+
+/**
+ * the layers of a network compiled into a flat list of steps for inference. the input layer is
+ * skipped when it passes the inputs through unchanged (the default), otherwise it is a single
+ * scale and shift loop; every other layer is one fused kernel computing the weighted sums, the
+ * biases and the activation function. the steps read the weight storage of the layers, so the
+ * plan follows training, but it has to be compiled again when the topology changes or the
+ * weights move off-heap (the steps of off-heap layers run the buffer kernels).
+ * the plan holds no mutable state, so it can be shared by any number of threads. the
+ * intermediate buffers are allocated by every call, sized by its batch; callers running many
+ * batches (validation) pass buffers of their own
+ */
+class ExecutionPlan {
+
+  // number of examples pushed through the steps together, small enough for the intermediate
+  // results to stay in cache
+  static final int BLOCK_ROWS = 64;
+
+  private final InputLayer inputLayer;
+  private final int inputCount;
+  private final int outputCount;
+  // one step per layer after the input layer
+  private final DoubleStorage[] weights;
+  private final DoubleStorage[] biases;
+  private final int[] inputCounts;
+  private final int[] neuronCounts;
+  private final ActivationFunction[] actFcns;
+  // size of a row of the intermediate buffers: the widest layer, the scaled inputs included
+  private final int width;
+
+  /**
+   * compiles the layers of a network
+   * @param layers layers of the network, input layer first
+   */
+  ExecutionPlan(List<NeuralLayer> layers) {
+    inputLayer = (InputLayer) layers.get(0);
+    int stepCount = layers.size() - 1;
+    weights = new DoubleStorage[stepCount];
+    biases = new DoubleStorage[stepCount];
+    inputCounts = new int[stepCount];
+    neuronCounts = new int[stepCount];
+    actFcns = new ActivationFunction[stepCount];
+    int maxWidth = inputLayer.getLayerNeuronCount();
+    for (int s = 0; s < stepCount; s++) {
+      NeuralLayer layer = layers.get(s + 1);
+      weights[s] = layer.getWeightStorage();
+      biases[s] = layer.getBiasStorage();
+      inputCounts[s] = layer.getInputCount();
+      neuronCounts[s] = layer.getLayerNeuronCount();
+      actFcns[s] = layer.getActFcn();
+      maxWidth = Math.max(maxWidth, neuronCounts[s]);
+    }
+    inputCount = inputLayer.getLayerNeuronCount();
+    outputCount = neuronCounts[stepCount - 1];
+    width = maxWidth;
+  }
+
+  /**
+   * getter for the number of inputs
+   * @return number of inputs of an example
+   */
+  int getInputCount() {
+    return inputCount;
+  }
+
+  /**
+   * getter for the number of outputs
+   * @return number of outputs of an example
+   */
+  int getOutputCount() {
+    return outputCount;
+  }
+
+  /**
+   * getter for the activation function of the output layer
+   * @return function of the last step, which also defines the error function of the network
+   */
+  ActivationFunction getOutputActFcn() {
+    return actFcns[actFcns.length - 1];
+  }
+
+  /**
+   * getter for the buffer size
+   * @return number of elements a buffer of run needs per example
+   */
+  int getWidth() {
+    return width;
+  }
+
+  /**
+   * runs the plan on a matrix of examples, with buffers sized for the batch. buffers kept per
+   * thread would hold BLOCK_ROWS rows of the widest layer for the lifetime of every thread
+   * classifying with the network, a single example only needs a row
+   * @param in input matrix, rows x inputCount
+   * @param inOffset index of the first input
+   * @param rows number of examples
+   * @param out output matrix, rows x outputCount
+   * @param outOffset index of the first output
+   */
+  void run(double[] in, int inOffset, int rows, double[] out, int outOffset) {
+    int size = Math.min(rows, BLOCK_ROWS) * width;
+    run(in, inOffset, rows, out, outOffset, new double[size], new double[size]);
+  }
+
+  /**
+   * runs the plan on a matrix of examples with the given buffers
+   * @param in input matrix, rows x inputCount
+   * @param inOffset index of the first input
+   * @param rows number of examples
+   * @param out output matrix, rows x outputCount
+   * @param outOffset index of the first output
+   * @param bufferA intermediate buffer, at least min(rows, BLOCK_ROWS) * getWidth() elements
+   * @param bufferB intermediate buffer, at least min(rows, BLOCK_ROWS) * getWidth() elements
+   */
+  void run(double[] in, int inOffset, int rows, double[] out, int outOffset, double[] bufferA,
+           double[] bufferB) {
+    // checked once per call: the input layer can be changed through its neurons at any time
+    boolean identity = inputLayer.isIdentity();
+    for (int start = 0; start < rows; start += BLOCK_ROWS) {
+      int blockRows = Math.min(BLOCK_ROWS, rows - start);
+      double[] src = in;
+      int srcOffset = inOffset + start * inputCount;
+      double[] dst = bufferA;
+      if (!identity) {
+        inputLayer.propagateBatch(src, srcOffset, blockRows, dst, 0);
+        src = dst;
+        srcOffset = 0;
+        dst = bufferB;
+      }
+      int last = weights.length - 1;
+      for (int s = 0; s < last; s++) {
+        step(s, src, srcOffset, blockRows, dst, 0);
+        src = dst;
+        srcOffset = 0;
+        dst = (dst == bufferA) ? bufferB : bufferA;
+      }
+      step(last, src, srcOffset, blockRows, out, outOffset + start * outputCount);
+    }
+  }
+
+  /**
+   * runs the plan on a batch of sparse examples, with buffers sized for the batch. the input
+   * layer has to preserve zeros and the values must already be scaled by it
+   * @param in input rows
+   * @param out output matrix, rows x outputCount
+   */
+  void run(SparseBatch in, double[] out) {
+    int rows = in.getRowCount();
+    int size = Math.min(rows, BLOCK_ROWS) * width;
+    double[] bufferA = new double[size];
+    double[] bufferB = new double[size];
+    int last = weights.length - 1;
+    for (int start = 0; start < rows; start += BLOCK_ROWS) {
+      int blockRows = Math.min(BLOCK_ROWS, rows - start);
+      // the first step gathers the weights of the nonzero inputs, the rest runs like run
+      double[] dst = (last == 0) ? out : bufferA;
+      int dstOffset = (last == 0) ? start * outputCount : 0;
+      if (weights[0].array != null) {
+        Kernels.spmmABt(weights[0].array, biases[0].array, neuronCounts[0], inputCounts[0],
+            in.rowStart, in.index, in.value, start, blockRows, dst, dstOffset);
+      } else {
+        Kernels.spmmABt(weights[0].buffer, biases[0].buffer, neuronCounts[0], inputCounts[0],
+            in.rowStart, in.index, in.value, start, blockRows, dst, dstOffset);
+      }
+      for (int r = 0; r < blockRows; r++) {
+        actFcns[0].applyInPlace(dst, dstOffset + r * neuronCounts[0], neuronCounts[0]);
+      }
+      double[] src = dst;
+      dst = bufferB;
+      for (int s = 1; s < last; s++) {
+        step(s, src, 0, blockRows, dst, 0);
+        double[] tmp = src;
+        src = dst;
+        dst = tmp;
+      }
+      if (last > 0) {
+        step(last, src, 0, blockRows, out, start * outputCount);
+      }
+    }
+  }
+
+  /**
+   * runs a step on a block of examples. a single example is a matrix-vector product, where the
+   * dot product kernel keeps four independent sums over the columns; larger blocks use the tiled
+   * matrix product, which reuses every weight for four examples
+   */
+  private void step(int s, double[] in, int inOffset, int rows, double[] out, int outOffset) {
+    if (weights[s].array == null) {
+      if (rows == 1) {
+        Kernels.gemv(weights[s].buffer, biases[s].buffer, neuronCounts[s], inputCounts[s], in,
+            inOffset, out, outOffset);
+        actFcns[s].applyInPlace(out, outOffset, neuronCounts[s]);
+      } else {
+        Kernels.gemmABt(weights[s].buffer, biases[s].buffer, neuronCounts[s], inputCounts[s], in,
+            inOffset, rows, out, outOffset, actFcns[s]);
+      }
+    } else if (rows == 1) {
+      Kernels.gemv(weights[s].array, biases[s].array, neuronCounts[s], inputCounts[s], in,
+          inOffset, out, outOffset);
+      actFcns[s].applyInPlace(out, outOffset, neuronCounts[s]);
+    } else {
+      Kernels.gemmABt(weights[s].array, biases[s].array, neuronCounts[s], inputCounts[s], in,
+          inOffset, rows, out, outOffset, actFcns[s]);
+    }
+  }
+}
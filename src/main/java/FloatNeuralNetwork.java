@@ -0,0 +1,292 @@
+
+/**
+ * single precision (float32) version of NeuralNetwork. weights, examples and intermediate
+ * results are floats, so inference and training move half as many bytes as the double network,
+ * and twice as many examples fit in the same heap.
+ * a float network is created from a double network and can be converted back, so models can be
+ * built and inspected with the NeuralNetwork api and trained or served in single precision
+ */
+public class FloatNeuralNetwork {
+
+  // number of examples pushed through the layers together by classifyBatch
+  private static final int BATCH_BLOCK_ROWS = 64;
+
+  private final int inputCount;
+  private final int outputCount;
+  // hidden and output layers, the input layer is folded into the first of them
+  private final Layer[] layers;
+
+  /**
+   * layer of a float network: row-major weight block, bias vector and activation function
+   */
+  private static final class Layer {
+    final int inputCount;
+    final int neuronCount;
+    final float[] weights;
+    final float[] biases;
+    final ActivationFunction actFcn;
+
+    Layer(int inputCount, int neuronCount, ActivationFunction actFcn) {
+      this.inputCount = inputCount;
+      this.neuronCount = neuronCount;
+      this.weights = new float[inputCount * neuronCount];
+      this.biases = new float[neuronCount];
+      this.actFcn = actFcn;
+    }
+
+    void propagateBatch(float[] in, int inOffset, int rows, float[] out, int outOffset) {
+      Kernels.gemmABt(weights, biases, neuronCount, inputCount, in, inOffset, rows, out,
+          outOffset);
+      for (int r = 0; r < rows; r++) {
+        actFcn.applyInPlace(out, outOffset + r * neuronCount, neuronCount);
+      }
+    }
+  }
+
+  /**
+   * converts a double network to single precision. the network's input layer only scales and
+   * shifts every input, so it is folded into the weights of the first hidden layer
+   * @param network network to be converted
+   */
+  public FloatNeuralNetwork(NeuralNetwork network) {
+    NeuralLayer inputLayer = network.getLayer(0);
+    this.inputCount = inputLayer.getLayerNeuronCount();
+    this.outputCount = network.getLayer(network.getLayerCount() - 1).getLayerNeuronCount();
+    this.layers = new Layer[network.getLayerCount() - 1];
+    for (int l = 1; l < network.getLayerCount(); l++) {
+      NeuralLayer source = network.getLayer(l);
+      Layer layer = new Layer(source.getInputCount(), source.getLayerNeuronCount(),
+          source.getActFcn());
+      double[] weights = source.getWeightStorage().toArray();
+      double[] biases = source.getBiasStorage().toArray();
+      double[] scale = inputLayer.getWeightBlock();
+      double[] shift = inputLayer.getBiasVector();
+      for (int i = 0; i < layer.neuronCount; i++) {
+        double bias = biases[i];
+        for (int j = 0; j < layer.inputCount; j++) {
+          double w = weights[i * layer.inputCount + j];
+          if (l == 1) {
+            // w * (scale * x + shift) = (w * scale) * x + w * shift
+            bias += w * shift[j];
+            w *= scale[j];
+          }
+          layer.weights[i * layer.inputCount + j] = (float) w;
+        }
+        layer.biases[i] = (float) bias;
+      }
+      layers[l - 1] = layer;
+    }
+  }
+
+  /**
+   * converts the network back to double precision
+   * @return a double network with the same topology, activation functions and weights
+   */
+  public NeuralNetwork toNeuralNetwork() {
+    NeuralNetwork ret = new NeuralNetwork(inputCount, outputCount,
+        layers[layers.length - 1].actFcn);
+    for (int l = 0; l < layers.length - 1; l++) {
+      ret.addHiddenLayer(layers[l].neuronCount, layers[l].actFcn);
+    }
+    for (int l = 0; l < layers.length; l++) {
+      double[] weights = ret.getLayer(l + 1).getWeightBlock();
+      double[] biases = ret.getLayer(l + 1).getBiasVector();
+      for (int i = 0; i < weights.length; i++) {
+        weights[i] = layers[l].weights[i];
+      }
+      for (int i = 0; i < biases.length; i++) {
+        biases[i] = layers[l].biases[i];
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * converts a double data set (one example per row) to single precision
+   * @param data examples to be converted
+   * @return the same examples as floats
+   */
+  public static float[][] toFloat(double[][] data) {
+    float[][] ret = new float[data.length][];
+    for (int i = 0; i < data.length; i++) {
+      ret[i] = new float[data[i].length];
+      for (int j = 0; j < data[i].length; j++) {
+        ret[i][j] = (float) data[i][j];
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * getter for the number of inputs
+   * @return number of inputs in the network
+   */
+  public int getInputCount() {
+    return inputCount;
+  }
+
+  /**
+   * getter for the number of outputs
+   * @return number of outputs in the network
+   */
+  public int getOutputCount() {
+    return outputCount;
+  }
+
+  /**
+   * feeds data through the network and returns the output
+   * @param in input data, has to have as many elements as there are inputs in the network
+   * @return returns the network output
+   */
+  public float[] classify(float[] in) {
+    if (in.length != inputCount) {
+      throw new IllegalArgumentException("Cant classify: input number mismatch");
+    }
+    float[] ret = new float[outputCount];
+    classifyBatch(in, 1, ret);
+    return ret;
+  }
+
+  /**
+   * feeds a batch of examples stored in a single row-major array through the network
+   * @param in input matrix, rows x inputCount elements
+   * @param rows number of examples
+   * @param out output matrix, rows x outputCount elements, receives the network output
+   */
+  public void classifyBatch(float[] in, int rows, float[] out) {
+    if (rows < 0 || in.length < rows * inputCount || out.length < rows * outputCount) {
+      throw new IllegalArgumentException("Cant classify: input number mismatch");
+    }
+    int width = 0;
+    for (Layer layer : layers) {
+      width = Math.max(width, layer.neuronCount);
+    }
+    // sized for the batch, a single example only needs a row per layer
+    int blockSize = Math.min(rows, BATCH_BLOCK_ROWS);
+    float[] bufferA = new float[blockSize * width];
+    float[] bufferB = new float[blockSize * width];
+    for (int start = 0; start < rows; start += BATCH_BLOCK_ROWS) {
+      int blockRows = Math.min(BATCH_BLOCK_ROWS, rows - start);
+      float[] src = in;
+      int srcOffset = start * inputCount;
+      float[] dst = bufferA;
+      for (int l = 0; l < layers.length - 1; l++) {
+        layers[l].propagateBatch(src, srcOffset, blockRows, dst, 0);
+        src = dst;
+        srcOffset = 0;
+        dst = (dst == bufferA) ? bufferB : bufferA;
+      }
+      layers[layers.length - 1].propagateBatch(src, srcOffset, blockRows, out,
+          start * outputCount);
+    }
+  }
+
+  /**
+   * mini-batch backpropagation, same algorithm as NeuralNetwork.train in single precision
+   * @param trainingData examples to train on, first the inputs, then the outputs in every row
+   * @param trainingRate see any ML book
+   * @param maxIterations number of passes over the training data
+   * @param batchSize number of examples per weight update
+   */
+  public void train(float[][] trainingData, float trainingRate, int maxIterations,
+                    int batchSize) {
+    if (trainingData[0].length != inputCount + outputCount || trainingRate <= 0 ||
+        batchSize < 1) {
+      throw new IllegalArgumentException("Invalid training data");
+    }
+    batchSize = Math.min(batchSize, trainingData.length);
+    // batch matrices and update buffers, allocated once for the whole run
+    float[] input = new float[batchSize * inputCount];
+    float[][] outputs = new float[layers.length][];
+    float[][] deltas = new float[layers.length][];
+    float[][] weightUpdates = new float[layers.length][];
+    float[][] biasUpdates = new float[layers.length][];
+    for (int l = 0; l < layers.length; l++) {
+      outputs[l] = new float[batchSize * layers[l].neuronCount];
+      deltas[l] = new float[batchSize * layers[l].neuronCount];
+      weightUpdates[l] = new float[layers[l].weights.length];
+      biasUpdates[l] = new float[layers[l].neuronCount];
+    }
+    Layer outputLayer = layers[layers.length - 1];
+
+    for (int iteration = 0; iteration < maxIterations; iteration++) {
+      for (int start = 0; start < trainingData.length; start += batchSize) {
+        int rows = Math.min(batchSize, trainingData.length - start);
+        for (int r = 0; r < rows; r++) {
+          System.arraycopy(trainingData[start + r], 0, input, r * inputCount, inputCount);
+        }
+        // forward pass, keeping every layer's output
+        layers[0].propagateBatch(input, 0, rows, outputs[0], 0);
+        for (int l = 1; l < layers.length; l++) {
+          layers[l].propagateBatch(outputs[l - 1], 0, rows, outputs[l], 0);
+        }
+        // output error, the expected outputs are read from the examples after the inputs
+        for (int r = 0; r < rows; r++) {
+          int row = r * outputCount;
+          outputLayer.actFcn.outputError(outputs[layers.length - 1], row, outputCount,
+              trainingData[start + r], inputCount, deltas[layers.length - 1], row);
+        }
+        // backward pass with the old weights
+        for (int l = layers.length - 1; l >= 0; l--) {
+          Layer layer = layers[l];
+          float[] layerInput = (l == 0) ? input : outputs[l - 1];
+          Kernels.gemmAtB(deltas[l], layer.neuronCount, rows, layerInput, layer.inputCount,
+              weightUpdates[l], biasUpdates[l]);
+          if (l > 0) {
+            Kernels.gemmAB(deltas[l], rows, layer.weights, layer.neuronCount, layer.inputCount,
+                deltas[l - 1]);
+            int width = layers[l - 1].neuronCount;
+            for (int r = 0; r < rows; r++) {
+              layers[l - 1].actFcn.derivativeFromOutput(outputs[l - 1], r * width, width,
+                  deltas[l - 1], r * width);
+            }
+          }
+        }
+        // update the whole network with the averaged updates
+        float scale = trainingRate / rows;
+        for (int l = 0; l < layers.length; l++) {
+          Kernels.axpy(scale, weightUpdates[l], 0, layers[l].weights, 0,
+              layers[l].weights.length);
+          Kernels.axpy(scale, biasUpdates[l], 0, layers[l].biases, 0, layers[l].neuronCount);
+        }
+      }
+    }
+  }
+
+  /**
+   * calculates the error function on a given set of data
+   * @param data examples, first the inputs, then the outputs in every row
+   * @return sum of the error function (t-o)^2/2 over every output and example
+   */
+  public double error(float[][] data) {
+    double ret = 0;
+    float[] input = new float[BATCH_BLOCK_ROWS * inputCount];
+    float[] output = new float[BATCH_BLOCK_ROWS * outputCount];
+    for (int start = 0; start < data.length; start += BATCH_BLOCK_ROWS) {
+      int rows = Math.min(BATCH_BLOCK_ROWS, data.length - start);
+      for (int r = 0; r < rows; r++) {
+        System.arraycopy(data[start + r], 0, input, r * inputCount, inputCount);
+      }
+      classifyBatch(input, rows, output);
+      for (int r = 0; r < rows; r++) {
+        for (int j = 0; j < outputCount; j++) {
+          double diff = output[r * outputCount + j] - data[start + r][inputCount + j];
+          ret += diff * diff / 2;
+        }
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Object string representation
+   * @return returns a string with info about the network size
+   */
+  @Override public String toString() {
+    String ret = "Float network has " + (layers.length + 1) + " layers";
+    for (Layer l : layers) {
+      ret += "\nNumber of neurons: " + l.neuronCount;
+    }
+    return ret;
+  }
+}
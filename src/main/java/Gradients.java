@@ -0,0 +1,169 @@
+
+import java.util.List;
+
+/**
+ * buffers holding the weight and bias updates (the negative gradient of the error function) of
+ * every layer in a network. index i belongs to layer i, the input layer has no buffers since its
+ * weights are never trained.
+ * when the updates of the first trained layer were computed from sparse inputs, only the columns
+ * of the inputs that were nonzero in the batch (the active inputs) can hold nonzero updates, and
+ * the buffers keep track of them so clearing, adding and applying the updates can skip the rest.
+ * the buffers of a layer are stored like its weights, on the heap or off-heap
+ */
+class Gradients {
+
+  final DoubleStorage[] weights;
+  final DoubleStorage[] biases;
+  // active input columns of layer 1, in activeInputs[0 .. activeInputCount - 1] and flagged in
+  // inputActive. activeInputCount is -1 if any column may hold nonzero updates
+  private final int[] activeInputs;
+  private final boolean[] inputActive;
+  private int activeInputCount = -1;
+
+  /**
+   * allocates the buffers, sized from the network topology
+   * @param layers layers of the network, input layer first
+   */
+  Gradients(List<NeuralLayer> layers) {
+    weights = new DoubleStorage[layers.size()];
+    biases = new DoubleStorage[layers.size()];
+    for (int i = 1; i < layers.size(); i++) {
+      NeuralLayer layer = layers.get(i);
+      boolean direct = layer.getWeightStorage().isDirect();
+      weights[i] = DoubleStorage.allocate(layer.getLayerNeuronCount() * layer.getInputCount(),
+          direct);
+      biases[i] = DoubleStorage.allocate(layer.getLayerNeuronCount(), direct);
+    }
+    activeInputs = new int[layers.get(1).getInputCount()];
+    inputActive = new boolean[activeInputs.length];
+  }
+
+  /**
+   * getter for the active inputs
+   * @return number of active input columns of layer 1, -1 if every column may be active
+   */
+  int getActiveInputCount() {
+    return activeInputCount;
+  }
+
+  /**
+   * getter for the active inputs
+   * @return the active input columns of layer 1 in the first getActiveInputCount() elements
+   */
+  int[] getActiveInputs() {
+    return activeInputs;
+  }
+
+  /**
+   * marks every input column of layer 1 as active, after its updates were computed from dense
+   * inputs
+   */
+  void setDenseInputs() {
+    for (int k = 0; k < activeInputCount; k++) {
+      inputActive[activeInputs[k]] = false;
+    }
+    activeInputCount = -1;
+  }
+
+  /**
+   * moves the buffers into direct buffers outside the heap, or back into heap arrays, keeping
+   * their values
+   * @param offHeap true to store the buffers off-heap
+   */
+  void setOffHeap(boolean offHeap) {
+    for (int i = 1; i < weights.length; i++) {
+      if (weights[i].isDirect() != offHeap) {
+        weights[i] = weights[i].copy(offHeap);
+        biases[i] = biases[i].copy(offHeap);
+      }
+    }
+  }
+
+  /**
+   * prepares the updates of layer 1 for sparse inputs: clears the updates of the active columns
+   * (of every column after dense inputs), so no column is active any more
+   */
+  void clearInputs() {
+    DoubleStorage g = weights[1];
+    int cols = activeInputs.length;
+    if (activeInputCount < 0) {
+      g.fill(0);
+    } else {
+      for (int row = 0; row < g.length(); row += cols) {
+        for (int k = 0; k < activeInputCount; k++) {
+          g.set(row + activeInputs[k], 0);
+        }
+      }
+      for (int k = 0; k < activeInputCount; k++) {
+        inputActive[activeInputs[k]] = false;
+      }
+    }
+    activeInputCount = 0;
+  }
+
+  /**
+   * marks the columns of the nonzero elements of sparse inputs as active
+   * @param in inputs the updates of layer 1 were computed from
+   */
+  void markInputs(SparseBatch in) {
+    if (activeInputCount < 0) {
+      return;
+    }
+    for (int k = 0; k < in.getNonzeroCount(); k++) {
+      int column = in.index[k];
+      if (!inputActive[column]) {
+        inputActive[column] = true;
+        activeInputs[activeInputCount++] = column;
+      }
+    }
+  }
+
+  /**
+   * adds the updates of another buffer (of the same network) to this one
+   * @param other buffer to be added
+   */
+  void add(Gradients other) {
+    for (int i = 1; i < weights.length; i++) {
+      if (i == 1 && other.activeInputCount >= 0) {
+        addInputs(other);
+      } else {
+        add(other.weights[i], weights[i]);
+        if (i == 1) {
+          setDenseInputs();
+        }
+      }
+      add(other.biases[i], biases[i]);
+    }
+  }
+
+  /**
+   * y += x, for the storage of the same layer in two buffers
+   */
+  private static void add(DoubleStorage x, DoubleStorage y) {
+    if (y.array != null) {
+      Kernels.axpy(1, x.array, 0, y.array, 0, y.array.length);
+    } else {
+      Kernels.axpy(1, x.buffer, 0, y.buffer, 0, y.buffer.capacity());
+    }
+  }
+
+  /**
+   * adds the active columns of the layer 1 updates of another buffer to this one
+   * @param other buffer to be added, with sparse layer 1 updates
+   */
+  private void addInputs(Gradients other) {
+    DoubleStorage g = weights[1];
+    DoubleStorage h = other.weights[1];
+    int cols = activeInputs.length;
+    for (int k = 0; k < other.activeInputCount; k++) {
+      int column = other.activeInputs[k];
+      for (int j = column; j < g.length(); j += cols) {
+        g.set(j, g.get(j) + h.get(j));
+      }
+      if (activeInputCount >= 0 && !inputActive[column]) {
+        inputActive[column] = true;
+        activeInputs[activeInputCount++] = column;
+      }
+    }
+  }
+}
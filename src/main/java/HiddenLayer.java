@@ -1,4 +1,6 @@
 
+import java.util.Random;
+
 public class HiddenLayer extends NeuralLayer {
 
   /**
@@ -13,20 +15,33 @@ public class HiddenLayer extends NeuralLayer {
   protected HiddenLayer(int inputCount, int neuronCount, ActivationFunction actFcn) {
     super(inputCount, neuronCount, actFcn);
   }
+
+  protected HiddenLayer(int inputCount, int neuronCount, ActivationFunction actFcn, Random rand) {
+    super(inputCount, neuronCount, actFcn, rand);
+  }
+
   /**
    * processes the layer input and returns the output of neurons as an array
    * @param in input data array
    * @return output of layer
    */
   @Override public double[] propagate(double[] in) {
-    //feed the input through the neurons one at a time (room for improvement!)
-    double[] ret = new double[getLayerNeuronCount()];
-    for (int i = 0; i < ret.length; i++) {
-      ret[i] = getActFcn().apply(getNeuron(i).fire(in));
+    if (in.length != getInputCount()) {
+      throw new IllegalArgumentException("Inappropriate input length: HiddenLayer");
     }
+
+    //compute the weighted sums over the layer's weight block, then apply the activation function
+    double[] ret = new double[getLayerNeuronCount()];
+    weightedSum(in, ret);
+    getActFcn().applyInPlace(ret, 0, ret.length);
     return ret;
   }
 
+  @Override protected void propagateBatch(double[] in, int inOffset, int rows, double[] out,
+                                          int outOffset) {
+    activateBatch(in, inOffset, rows, out, outOffset);
+  }
+
   /**
    * Object string representation
    * @return returns a string with info about the network size and type
@@ -0,0 +1,68 @@
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * keeps the metrics in memory: the last epochs, and histograms of the throughput and of the
+ * epoch time with power of two buckets. can be read from any thread while training runs
+ */
+public class HistogramMetricSink implements MetricSink {
+
+  private static final int BUCKETS = 64;
+
+  private final int historySize;
+  private final List<TrainingMetrics> history = new ArrayList<>();
+  private final long[] throughput = new long[BUCKETS];
+  private final long[] epochTime = new long[BUCKETS];
+
+  /**
+   * @param historySize number of epochs kept
+   */
+  public HistogramMetricSink(int historySize) {
+    if (historySize < 0) {
+      throw new IllegalArgumentException("Invalid history size");
+    }
+    this.historySize = historySize;
+  }
+
+  @Override public synchronized void accept(TrainingMetrics metrics) {
+    if (historySize > 0) {
+      if (history.size() == historySize) {
+        history.remove(0);
+      }
+      history.add(metrics);
+    }
+    throughput[bucket((long) metrics.getExamplesPerSecond())]++;
+    epochTime[bucket(metrics.getElapsedNanos() / 1000)]++;
+  }
+
+  private static int bucket(long value) {
+    return 64 - Long.numberOfLeadingZeros(Math.max(0, value));
+  }
+
+  /**
+   * getter for the last epochs
+   * @return metrics of the last epochs, oldest first
+   */
+  public synchronized List<TrainingMetrics> getHistory() {
+    return new ArrayList<>(history);
+  }
+
+  /**
+   * histogram of the throughput
+   * @return element 0 counts the epochs under 1 example per second, element i the epochs with
+   *         [2^(i-1), 2^i) examples per second
+   */
+  public synchronized long[] getThroughputHistogram() {
+    return throughput.clone();
+  }
+
+  /**
+   * histogram of the epoch time
+   * @return element 0 counts the epochs under 1 microsecond, element i the epochs lasting
+   *         [2^(i-1), 2^i) microseconds
+   */
+  public synchronized long[] getEpochTimeHistogram() {
+    return epochTime.clone();
+  }
+}
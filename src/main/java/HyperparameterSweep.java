@@ -0,0 +1,177 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * trains many networks with different hyperparameters at once. every trial trains its own
+ * network on a single thread of a work-stealing pool, so a pool runs as many trials at a time as
+ * it has threads, and a thread that finishes a small trial steals the next one. the trials share
+ * the training and validation data sets, which they only read, and every trial reads them in its
+ * own shuffled order.
+ * with successive halving the trials are trained in rounds (rungs): the first rung trains every
+ * trial for a few epochs, then only the best part of the trials is trained further, for
+ * reduction times as many epochs in total, and so on up to the full number of epochs. poor
+ * trials are stopped early, and the time is spent on the promising ones
+ */
+public class HyperparameterSweep {
+
+  private final Dataset training;
+  private final Dataset validation;
+  private final ActivationFunction outputFcn;
+  private ForkJoinPool pool;
+  private long seed;
+  // successive halving: epochs of the first rung and the reduction factor, 0 to train every
+  // trial for the full number of epochs
+  private int minEpochs;
+  private int reduction;
+
+  /**
+   * @param training data to train the networks on, shared by every trial
+   * @param validation data to validate the networks on, shared by every trial
+   * @param outputFcn activation function of the output layer of every network
+   */
+  public HyperparameterSweep(Dataset training, Dataset validation,
+                             ActivationFunction outputFcn) {
+    if (training.getInputCount() != validation.getInputCount() ||
+        training.getOutputCount() != validation.getOutputCount() || training.size() == 0) {
+      throw new IllegalArgumentException("Invalid training data");
+    }
+    this.training = training;
+    this.validation = validation;
+    this.outputFcn = outputFcn;
+  }
+
+  /**
+   * sets the pool running the trials
+   * @param pool pool running the trials. if null, the common pool is used
+   */
+  public void setPool(ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
+  /**
+   * sets the seed of the weight initialization and of the shuffling. trial i uses seed + i, so
+   * sweeps with the same seed and trials give the same results
+   * @param seed base seed of the trials
+   */
+  public void setSeed(long seed) {
+    this.seed = seed;
+  }
+
+  /**
+   * turns successive halving on: after the first minEpochs epochs only the best trials, one in
+   * reduction, are trained further, for reduction times as many epochs in total, and so on
+   * @param minEpochs epochs of the first rung
+   * @param reduction ratio of the trials of two rungs, at least 2
+   */
+  public void setSuccessiveHalving(int minEpochs, int reduction) {
+    if (minEpochs < 1 || reduction < 2) {
+      throw new IllegalArgumentException("Invalid successive halving settings");
+    }
+    this.minEpochs = minEpochs;
+    this.reduction = reduction;
+  }
+
+  /**
+   * turns successive halving off, every trial is trained for the full number of epochs
+   */
+  public void disableSuccessiveHalving() {
+    this.minEpochs = 0;
+    this.reduction = 0;
+  }
+
+  /**
+   * runs the trials
+   * @param trials hyperparameters of the trials (see SearchSpace)
+   * @param maxEpochs number of epochs of the trials that are not stopped
+   * @return results of every trial
+   */
+  public SweepReport run(List<TrialConfig> trials, int maxEpochs) {
+    if (maxEpochs < 1) {
+      throw new IllegalArgumentException("Invalid epoch count");
+    }
+    List<Trial> running = new ArrayList<>();
+    List<TrialResult> results = new ArrayList<>();
+    for (int i = 0; i < trials.size(); i++) {
+      Trial trial = new Trial(trials.get(i), seed + i);
+      running.add(trial);
+      results.add(trial.result);
+    }
+    ForkJoinPool trialPool = (pool != null) ? pool : ForkJoinPool.commonPool();
+    int epochs = (minEpochs > 0) ? Math.min(minEpochs, maxEpochs) : maxEpochs;
+    long start = System.nanoTime();
+    while (!running.isEmpty()) {
+      List<RungTask> tasks = new ArrayList<>();
+      for (Trial trial : running) {
+        tasks.add(new RungTask(trial, epochs));
+      }
+      for (RungTask task : tasks) {
+        trialPool.execute(task);
+      }
+      for (RungTask task : tasks) {
+        task.join();
+      }
+      if (epochs == maxEpochs) {
+        break;
+      }
+      // the best trials go on to the next rung, NaN losses (diverged trials) rank last
+      running.sort((a, b) -> Double.compare(a.result.getLoss(), b.result.getLoss()));
+      int keep = Math.max(1, running.size() / reduction);
+      for (Trial trial : running.subList(keep, running.size())) {
+        trial.result.stop();
+      }
+      running = new ArrayList<>(running.subList(0, keep));
+      epochs = (int) Math.min(maxEpochs, (long) epochs * reduction);
+    }
+    return new SweepReport(results, System.nanoTime() - start);
+  }
+
+  /**
+   * a network being trained, with its own view of the training data
+   */
+  private final class Trial {
+    private final TrialResult result;
+    private final NeuralNetwork network;
+    private final BatchSource source;
+
+    Trial(TrialConfig config, long trialSeed) {
+      network = config.buildNetwork(training.getInputCount(), training.getOutputCount(),
+          outputFcn, trialSeed);
+      int batchSize = Math.min(config.getBatchSize(), training.size());
+      source = new DatasetBatchSource(training, batchSize, training.size(), trialSeed);
+      result = new TrialResult(config, network);
+    }
+
+    /**
+     * trains the network until it has been trained for the given number of epochs
+     * @param epochs total number of epochs
+     */
+    void trainUntil(int epochs) {
+      double rate = result.getConfig().getTrainingRate();
+      while (result.getEpochs() < epochs) {
+        long start = System.nanoTime();
+        network.train(source, validation, rate, 1);
+        result.addEpoch(network.getLastValidation(), training.size(),
+            System.nanoTime() - start);
+      }
+    }
+  }
+
+  /**
+   * trains a trial up to the epochs of a rung
+   */
+  private static final class RungTask extends RecursiveAction {
+    private final Trial trial;
+    private final int epochs;
+
+    RungTask(Trial trial, int epochs) {
+      this.trial = trial;
+      this.epochs = epochs;
+    }
+
+    @Override protected void compute() {
+      trial.trainUntil(epochs);
+    }
+  }
+}
@@ -0,0 +1,239 @@
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * data set stored in IDX files (the format of the mnist data set): an idx3-ubyte (or any other
+ * unsigned byte IDX) file with the samples and an idx1-ubyte file with their labels.
+ * the files are memory mapped and the samples stay raw bytes outside the heap. normalization and
+ * one-hot encoding of the labels happen when examples are fetched, in the row format the networks
+ * train on: first the inputs, then the expected outputs
+ */
+public class IdxDataset implements Dataset {
+
+  private static final int UNSIGNED_BYTE = 0x08;
+
+  private final int size;
+  private final int inputCount;
+  private final int classCount;
+  private final int[] sampleDimensions;
+  // a single mapping can not be larger than 2GB, so large files are mapped in chunks
+  private final int samplesPerChunk;
+  private final MappedByteBuffer[] sampleChunks;
+  private final MappedByteBuffer labels;
+  private final double scale;
+  private final double targetOff;
+  private final double targetOn;
+
+  /**
+   * opens a data set with 10 classes, pixels scaled to [0, 1] and 0/1 expected outputs
+   * @param samples path of the sample file (idx3-ubyte)
+   * @param labels path of the label file (idx1-ubyte)
+   * @throws IOException if the files can not be read or are not valid IDX files
+   */
+  public IdxDataset(Path samples, Path labels) throws IOException {
+    this(samples, labels, 10, 1.0 / 255, 0, 1);
+  }
+
+  /**
+   * opens a data set
+   * @param samples path of the sample file (idx3-ubyte)
+   * @param labels path of the label file (idx1-ubyte)
+   * @param classCount number of classes, the size of the one-hot expected output
+   * @param scale multiplier applied to every raw sample byte
+   * @param targetOff expected output value of the wrong classes
+   * @param targetOn expected output value of the labelled class
+   * @throws IOException if the files can not be read or are not valid IDX files
+   */
+  public IdxDataset(Path samples, Path labels, int classCount, double scale, double targetOff,
+                    double targetOn) throws IOException {
+    this.classCount = classCount;
+    this.scale = scale;
+    this.targetOff = targetOff;
+    this.targetOn = targetOn;
+
+    try (FileChannel channel = FileChannel.open(samples, StandardOpenOption.READ)) {
+      int[] dimensions = readHeader(channel);
+      size = dimensions[0];
+      sampleDimensions = new int[dimensions.length - 1];
+      int count = 1;
+      for (int i = 1; i < dimensions.length; i++) {
+        sampleDimensions[i - 1] = dimensions[i];
+        count *= dimensions[i];
+      }
+      inputCount = count;
+      long dataStart = 4 + 4L * dimensions.length;
+      if (channel.size() < dataStart + (long) size * inputCount) {
+        throw new IOException("Invalid IDX file: truncated sample data");
+      }
+      samplesPerChunk = Math.max(1, Integer.MAX_VALUE / Math.max(1, inputCount));
+      sampleChunks = new MappedByteBuffer[(size + samplesPerChunk - 1) / samplesPerChunk];
+      for (int i = 0; i < sampleChunks.length; i++) {
+        long first = (long) i * samplesPerChunk;
+        long chunkSamples = Math.min(samplesPerChunk, size - first);
+        sampleChunks[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+            dataStart + first * inputCount, chunkSamples * inputCount);
+      }
+    }
+
+    try (FileChannel channel = FileChannel.open(labels, StandardOpenOption.READ)) {
+      int[] dimensions = readHeader(channel);
+      if (dimensions.length != 1 || dimensions[0] != size) {
+        throw new IOException("Invalid IDX file: label count does not match sample count");
+      }
+      if (channel.size() < 8L + size) {
+        throw new IOException("Invalid IDX file: truncated label data");
+      }
+      this.labels = channel.map(FileChannel.MapMode.READ_ONLY, 8, size);
+    }
+  }
+
+  /**
+   * parses the header of an IDX file: magic number (two zero bytes, data type, dimension count)
+   * followed by the big-endian size of every dimension
+   * @param channel channel of the file
+   * @return size of every dimension, the first one is the number of samples
+   * @throws IOException if the header is not a valid unsigned byte IDX header
+   */
+  private static int[] readHeader(FileChannel channel) throws IOException {
+    ByteBuffer magic = ByteBuffer.allocate(4);
+    readFully(channel, magic, 0);
+    if (magic.get(0) != 0 || magic.get(1) != 0 || magic.get(2) != UNSIGNED_BYTE ||
+        magic.get(3) < 1) {
+      throw new IOException("Invalid IDX file: unsupported magic number");
+    }
+    ByteBuffer header = ByteBuffer.allocate(4 * magic.get(3));
+    readFully(channel, header, 4);
+    int[] ret = new int[magic.get(3)];
+    for (int i = 0; i < ret.length; i++) {
+      ret[i] = header.getInt(4 * i);
+      if (ret[i] < 0) {
+        throw new IOException("Invalid IDX file: negative dimension");
+      }
+    }
+    return ret;
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer dst, long position)
+      throws IOException {
+    while (dst.hasRemaining()) {
+      if (channel.read(dst, position + dst.position()) < 0) {
+        throw new IOException("Invalid IDX file: truncated header");
+      }
+    }
+  }
+
+  /**
+   * getter for the number of examples
+   * @return number of samples in the files
+   */
+  @Override public int size() {
+    return size;
+  }
+
+  /**
+   * getter for the network input count this data set needs
+   * @return number of values in a sample (28 * 28 for mnist)
+   */
+  @Override public int getInputCount() {
+    return inputCount;
+  }
+
+  /**
+   * getter for the network output count this data set needs
+   * @return number of classes
+   */
+  @Override public int getOutputCount() {
+    return classCount;
+  }
+
+  /**
+   * getter for the shape of a sample
+   * @return size of every dimension of a sample (28, 28 for mnist)
+   */
+  public int[] getSampleDimensions() {
+    return sampleDimensions.clone();
+  }
+
+  /**
+   * getter for the label of an example
+   * @param index index of the example
+   * @return class of the example
+   */
+  public int getLabel(int index) {
+    return labels.get(index) & 0xFF;
+  }
+
+  /**
+   * writes the normalized sample of an example into an array
+   * @param index index of the example
+   * @param dest array receiving the inputs
+   * @param offset index of the first input in dest
+   */
+  public void getInput(int index, double[] dest, int offset) {
+    // absolute reads do not move the buffer position, so concurrent readers are safe
+    MappedByteBuffer chunk = sampleChunks[index / samplesPerChunk];
+    int start = (index % samplesPerChunk) * inputCount;
+    for (int i = 0; i < inputCount; i++) {
+      dest[offset + i] = (chunk.get(start + i) & 0xFF) * scale;
+    }
+  }
+
+  /**
+   * writes an example in training format into an array: the normalized inputs followed by the
+   * one-hot expected outputs
+   * @param index index of the example
+   * @param dest array receiving the example, at least inputCount + classCount long
+   * @return dest
+   */
+  @Override public double[] getExample(int index, double[] dest) {
+    getInput(index, dest, 0);
+    for (int i = 0; i < classCount; i++) {
+      dest[inputCount + i] = targetOff;
+    }
+    int label = getLabel(index);
+    if (label >= classCount) {
+      throw new IllegalStateException("Label " + label + " is out of the class range");
+    }
+    dest[inputCount + label] = targetOn;
+    return dest;
+  }
+
+  /**
+   * writes a range of examples in training format into the given rows
+   * @param start index of the first example
+   * @param dest rows receiving the examples
+   */
+  public void getExamples(int start, double[][] dest) {
+    for (int i = 0; i < dest.length; i++) {
+      getExample(start + i, dest[i]);
+    }
+  }
+
+  /**
+   * returns a range of examples in training format
+   * @param start index of the first example
+   * @param count number of examples
+   * @return one example per row: first the inputs, then the expected outputs
+   */
+  public double[][] getExamples(int start, int count) {
+    if (start < 0 || count < 0 || start + count > size) {
+      throw new IndexOutOfBoundsException("Example range out of the data set");
+    }
+    double[][] ret = new double[count][inputCount + classCount];
+    getExamples(start, ret);
+    return ret;
+  }
+
+  /**
+   * Object string representation
+   * @return returns a string with info about the data set size
+   */
+  @Override public String toString() {
+    return "IDX data set with " + size + " examples of " + inputCount + " inputs";
+  }
+}
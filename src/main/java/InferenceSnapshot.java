@@ -0,0 +1,165 @@
+
+import java.util.List;
+
+/**
+ * immutable copy of a network's weights for inference. the weights are copied when the snapshot
+ * is taken and never change afterwards, so a snapshot can be used by any number of threads at
+ * once without locking, while the network it was taken from keeps training.
+ * the input layer only scales and shifts the inputs, so it is folded into the first hidden layer
+ */
+public final class InferenceSnapshot implements BatchClassifier {
+
+  // number of examples pushed through the layers together by classifyBatch
+  private static final int BATCH_BLOCK_ROWS = 64;
+
+  private final int inputCount;
+  private final int outputCount;
+  private final int maxLayerWidth;
+  private final long version;
+  // hidden and output layers
+  private final int[] inputCounts;
+  private final int[] neuronCounts;
+  private final ActivationFunction[] actFcns;
+  private final double[][] weights;
+  private final double[][] biases;
+
+  /**
+   * copies the weights of a network
+   * @param layers layers of the network, input layer first
+   * @param version number of batches the network was trained on when the snapshot was taken
+   */
+  InferenceSnapshot(List<NeuralLayer> layers, long version) {
+    this.version = version;
+    int layerCount = layers.size() - 1;
+    inputCounts = new int[layerCount];
+    neuronCounts = new int[layerCount];
+    actFcns = new ActivationFunction[layerCount];
+    weights = new double[layerCount][];
+    biases = new double[layerCount][];
+    double[] scale = layers.get(0).getWeightBlock();
+    double[] shift = layers.get(0).getBiasVector();
+    int width = 0;
+    for (int l = 0; l < layerCount; l++) {
+      NeuralLayer layer = layers.get(l + 1);
+      inputCounts[l] = layer.getInputCount();
+      neuronCounts[l] = layer.getLayerNeuronCount();
+      actFcns[l] = layer.getActFcn();
+      weights[l] = layer.getWeightStorage().toArray();
+      biases[l] = layer.getBiasStorage().toArray();
+      width = Math.max(width, neuronCounts[l]);
+    }
+    // w * (scale * x + shift) = (w * scale) * x + w * shift
+    for (int i = 0; i < neuronCounts[0]; i++) {
+      for (int j = 0; j < inputCounts[0]; j++) {
+        int index = i * inputCounts[0] + j;
+        biases[0][i] += weights[0][index] * shift[j];
+        weights[0][index] *= scale[j];
+      }
+    }
+    inputCount = inputCounts[0];
+    outputCount = neuronCounts[layerCount - 1];
+    maxLayerWidth = width;
+  }
+
+  /**
+   * getter for the version of the snapshot
+   * @return number of batches the network was trained on when the snapshot was taken
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * getter for the number of inputs
+   * @return number of inputs in the network
+   */
+  @Override public int getInputCount() {
+    return inputCount;
+  }
+
+  /**
+   * getter for the number of outputs
+   * @return number of outputs in the network
+   */
+  @Override public int getOutputCount() {
+    return outputCount;
+  }
+
+  /**
+   * getter for the weights of a layer, with the input layer folded into the first one
+   * @param layer index of the layer, 0 is the first hidden layer
+   * @return row-major weight block of the layer, must not be modified
+   */
+  double[] getWeightBlock(int layer) {
+    return weights[layer];
+  }
+
+  /**
+   * getter for the biases of a layer, with the input layer folded into the first one
+   * @param layer index of the layer, 0 is the first hidden layer
+   * @return bias vector of the layer, must not be modified
+   */
+  double[] getBiasVector(int layer) {
+    return biases[layer];
+  }
+
+  /**
+   * feeds data through the network and returns the output
+   * @param in input data, has to have as many elements as there are inputs in the network
+   * @return returns the network output
+   */
+  public double[] classify(double[] in) {
+    if (in.length != inputCount) {
+      throw new IllegalArgumentException("Cant classify: input number mismatch");
+    }
+    double[] ret = new double[outputCount];
+    classifyBatch(in, 1, ret);
+    return ret;
+  }
+
+  /**
+   * feeds a batch of examples stored in a single row-major array through the network
+   * @param in input matrix, rows x inputCount elements
+   * @param rows number of examples
+   * @param out output matrix, rows x outputCount elements, receives the network output
+   */
+  @Override public void classifyBatch(double[] in, int rows, double[] out) {
+    if (rows < 0 || in.length < rows * inputCount || out.length < rows * outputCount) {
+      throw new IllegalArgumentException("Cant classify: input number mismatch");
+    }
+    // the buffers belong to the call, concurrent calls share nothing but the read-only weights
+    double[] bufferA = new double[Math.min(rows, BATCH_BLOCK_ROWS) * maxLayerWidth];
+    double[] bufferB = new double[Math.min(rows, BATCH_BLOCK_ROWS) * maxLayerWidth];
+    int last = neuronCounts.length - 1;
+    for (int start = 0; start < rows; start += BATCH_BLOCK_ROWS) {
+      int blockRows = Math.min(BATCH_BLOCK_ROWS, rows - start);
+      double[] src = in;
+      int srcOffset = start * inputCount;
+      double[] dst = bufferA;
+      for (int l = 0; l <= last; l++) {
+        double[] target = (l == last) ? out : dst;
+        int targetOffset = (l == last) ? start * outputCount : 0;
+        Kernels.gemmABt(weights[l], biases[l], neuronCounts[l], inputCounts[l], src, srcOffset,
+            blockRows, target, targetOffset);
+        for (int r = 0; r < blockRows; r++) {
+          actFcns[l].applyInPlace(target, targetOffset + r * neuronCounts[l], neuronCounts[l]);
+        }
+        src = dst;
+        srcOffset = 0;
+        dst = (dst == bufferA) ? bufferB : bufferA;
+      }
+    }
+  }
+
+  /**
+   * Object string representation
+   * @return returns a string with info about the network size
+   */
+  @Override public String toString() {
+    String ret = "Snapshot " + version + " has " + (neuronCounts.length + 1) + " layers";
+    for (int n : neuronCounts) {
+      ret += "\nNumber of neurons: " + n;
+    }
+    return ret;
+  }
+}
@@ -28,13 +28,76 @@ public class InputLayer extends NeuralLayer {
       throw new IllegalArgumentException("Inappropriate array length: InputLayer");
     }
 
-    //feed the input through the neurons one at a time (room for improvement!)
     double[] ret = new double[getLayerNeuronCount()];
-    for (int i = 0; i < ret.length; i++) {
-      ret[i] = getActFcn().apply(getNeuron(i).fire(in[i]));
+    propagateBatch(in, 0, 1, ret, 0);
+    return ret;
+  }
+
+  @Override protected void propagateBatch(double[] in, int inOffset, int rows, double[] out,
+                                          int outOffset) {
+    // every neuron handles a single input, so the weight matrix is diagonal: scale and shift
+    // every column instead of doing a full matrix product. the activation function is linear
+    int neuronCount = getLayerNeuronCount();
+    if (isIdentity()) {
+      System.arraycopy(in, inOffset, out, outOffset, rows * neuronCount);
+      return;
     }
+    double[] scale = getWeightBlock();
+    double[] shift = getBiasVector();
+    for (int r = 0; r < rows; r++) {
+      int inRow = inOffset + r * neuronCount;
+      int outRow = outOffset + r * neuronCount;
+      for (int i = 0; i < neuronCount; i++) {
+        out[outRow + i] = scale[i] * in[inRow + i] + shift[i];
+      }
+    }
+  }
 
-    return ret;
+  /**
+   * tells whether the layer passes its inputs through unchanged (weights 1, biases 0, which is
+   * the default), so it can be skipped
+   * @return true if the output of the layer is its input
+   */
+  boolean isIdentity() {
+    double[] scale = getWeightBlock();
+    for (double s : scale) {
+      if (s != 1) {
+        return false;
+      }
+    }
+    return preservesZeros();
+  }
+
+  @Override protected void propagateBatch(SparseBatch in, int firstRow, int rows, double[] out,
+                                          int outOffset) {
+    // the shift in every column, plus the scaled nonzero inputs. training and the execution plan
+    // skip the layer when it preserves zeros, and pass the batch to the first hidden layer
+    int neuronCount = getLayerNeuronCount();
+    double[] scale = getWeightBlock();
+    double[] shift = getBiasVector();
+    for (int r = 0; r < rows; r++) {
+      int outRow = outOffset + r * neuronCount;
+      System.arraycopy(shift, 0, out, outRow, neuronCount);
+      for (int k = in.rowStart[firstRow + r]; k < in.rowStart[firstRow + r + 1]; k++) {
+        int i = in.index[k];
+        out[outRow + i] += scale[i] * in.value[k];
+      }
+    }
+  }
+
+  /**
+   * tells whether the layer maps zero inputs to zero outputs (no shift, which is the default).
+   * the activation function is linear, so the scaled nonzero inputs are then the whole output of
+   * the layer, and sparse inputs can skip it
+   * @return true if zero inputs stay zero
+   */
+  boolean preservesZeros() {
+    for (double shift : getBiasVector()) {
+      if (shift != 0) {
+        return false;
+      }
+    }
+    return true;
   }
 
   /**
@@ -0,0 +1,606 @@
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+
+/**
+ * dense linear algebra kernels used by the layers' forward and backward passes. matrices are
+ * row-major double arrays.
+ * the double kernels of the training and inference paths run on VectorApiKernels, which uses
+ * the SIMD registers of the cpu, when the jvm is 17 or newer and runs with
+ * --add-modules jdk.incubator.vector; otherwise, or with -Dmlp.kernels=scalar, on the portable
+ * ScalarKernels, which is also the reference implementation the vector kernels are checked
+ * against. the choice is made once, when the class is loaded
+ */
+final class Kernels {
+
+  // implementation of the dense double kernels, constant so the JIT inlines its methods
+  private static final DenseKernels DENSE = loadDenseKernels();
+
+  private Kernels() {
+  }
+
+  /**
+   * picks the implementation of the dense kernels
+   * @return the Vector API kernels if they can be loaded, the scalar kernels otherwise
+   */
+  private static DenseKernels loadDenseKernels() {
+    if (!"scalar".equals(System.getProperty("mlp.kernels"))) {
+      try {
+        // compiled separately for java 17 (src/main/java17), only linked when it is loaded
+        return (DenseKernels) Class.forName("VectorApiKernels").getDeclaredConstructor()
+            .newInstance();
+      } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+        // older jvm (UnsupportedClassVersionError), module not enabled (NoClassDefFoundError)
+        // or no SIMD registers
+      }
+    }
+    return new ScalarKernels();
+  }
+
+  /**
+   * getter for the implementation of the dense kernels
+   * @return the kernels the double versions below run on
+   */
+  static DenseKernels getDenseKernels() {
+    return DENSE;
+  }
+
+  /**
+   * dot product of two vectors
+   * @param a first vector
+   * @param aOff index of the first element of a
+   * @param b second vector
+   * @param bOff index of the first element of b
+   * @param len length of the vectors
+   * @return sum of a[i] * b[i]
+   */
+  static double dot(double[] a, int aOff, double[] b, int bOff, int len) {
+    return DENSE.dot(a, aOff, b, bOff, len);
+  }
+
+  /**
+   * y += alpha * x
+   * @param alpha multiplier of x
+   * @param x vector added to y
+   * @param xOff index of the first element of x
+   * @param y vector updated in place
+   * @param yOff index of the first element of y
+   * @param len length of the vectors
+   */
+  static void axpy(double alpha, double[] x, int xOff, double[] y, int yOff, int len) {
+    DENSE.axpy(alpha, x, xOff, y, yOff, len);
+  }
+
+  /**
+   * matrix-vector product with bias: y = W * x + b
+   * @param w matrix, rows x cols
+   * @param b bias vector, rows elements
+   * @param rows number of rows in w
+   * @param cols number of columns in w
+   * @param x input vector
+   * @param xOff index of the first element of x
+   * @param y output vector
+   * @param yOff index of the first element of y
+   */
+  static void gemv(double[] w, double[] b, int rows, int cols, double[] x, int xOff, double[] y,
+                   int yOff) {
+    for (int i = 0; i < rows; i++) {
+      y[yOff + i] = DENSE.dot(w, i * cols, x, xOff, cols) + b[i];
+    }
+  }
+
+  /**
+   * matrix product with the transposed weight matrix and bias: Y = X * W^T + b.
+   * four rows of X are processed together so every weight loaded from memory is used four times
+   * @param w matrix, wRows x cols
+   * @param b bias vector, wRows elements
+   * @param wRows number of rows in w
+   * @param cols number of columns in w and x
+   * @param x input matrix, xRows x cols
+   * @param xOff index of the first element of x
+   * @param xRows number of rows in x
+   * @param y output matrix, xRows x wRows
+   * @param yOff index of the first element of y
+   */
+  static void gemmABt(double[] w, double[] b, int wRows, int cols, double[] x, int xOff,
+                      int xRows, double[] y, int yOff) {
+    gemmABt(w, b, wRows, cols, x, xOff, xRows, y, yOff, null);
+  }
+
+  /**
+   * fused layer kernel: Y = act(X * W^T + b). the activation function is applied on every tile of
+   * four output rows as soon as it is complete, while it is still in the L1 cache, instead of in
+   * a separate pass over the whole output
+   * @param w matrix, wRows x cols
+   * @param b bias vector, wRows elements
+   * @param wRows number of rows in w
+   * @param cols number of columns in w and x
+   * @param x input matrix, xRows x cols
+   * @param xOff index of the first element of x
+   * @param xRows number of rows in x
+   * @param y output matrix, xRows x wRows
+   * @param yOff index of the first element of y
+   * @param act activation function applied on every output row, null for none
+   */
+  static void gemmABt(double[] w, double[] b, int wRows, int cols, double[] x, int xOff,
+                      int xRows, double[] y, int yOff, ActivationFunction act) {
+    int r = 0;
+    for (; r + 4 <= xRows; r += 4) {
+      int y0 = yOff + r * wRows;
+      DENSE.gemmABt4(w, b, wRows, cols, x, xOff + r * cols, y, y0);
+      if (act != null) {
+        for (int t = 0; t < 4; t++) {
+          act.applyInPlace(y, y0 + t * wRows, wRows);
+        }
+      }
+    }
+    // remaining rows one at a time
+    for (; r < xRows; r++) {
+      gemv(w, b, wRows, cols, x, xOff + r * cols, y, yOff + r * wRows);
+      if (act != null) {
+        act.applyInPlace(y, yOff + r * wRows, wRows);
+      }
+    }
+  }
+
+  /**
+   * matrix product: Y = D * W. the weight matrix is walked row by row, so the memory is read
+   * sequentially, and every weight row is used for four rows of D at a time
+   * @param d left matrix, rows x wRows
+   * @param rows number of rows in d
+   * @param w right matrix, wRows x cols
+   * @param wRows number of rows in w
+   * @param cols number of columns in w
+   * @param y output matrix, rows x cols
+   */
+  static void gemmAB(double[] d, int rows, double[] w, int wRows, int cols, double[] y) {
+    DENSE.gemmAB(d, rows, w, wRows, cols, y);
+  }
+
+  /**
+   * matrix product with the transposed left matrix: G = D^T * X, plus the column sums of D.
+   * every row of G is finished before moving on to the next, so it stays in cache while the rows
+   * of X are added to it
+   * @param d left matrix, rows x dCols
+   * @param dCols number of columns in d
+   * @param rows number of rows in d and x
+   * @param x right matrix, rows x cols
+   * @param cols number of columns in x
+   * @param g output matrix, dCols x cols
+   * @param colSums output vector receiving the column sums of d
+   */
+  static void gemmAtB(double[] d, int dCols, int rows, double[] x, int cols, double[] g,
+                      double[] colSums) {
+    DENSE.gemmAtB(d, dCols, rows, x, cols, g, colSums);
+  }
+
+  // sparse versions of the first layer kernels: the inputs are a CSR matrix (see SparseBatch),
+  // only the weights of the nonzero inputs are read or written
+
+  /**
+   * matrix product with a sparse input: Y = X * W^T + b. every weight row gathers the columns of
+   * the nonzero inputs of an example, four weight rows at a time so every index and value read
+   * is used four times
+   * @param w weight matrix, wRows x cols
+   * @param b bias vector, wRows elements
+   * @param wRows number of rows in w
+   * @param cols number of columns in w
+   * @param rowStart start of every row of x in index and value, the first used one is firstRow
+   * @param index column of every nonzero element of x
+   * @param value every nonzero element of x
+   * @param firstRow index of the first row of x used
+   * @param xRows number of rows of x used
+   * @param y output matrix, xRows x wRows
+   * @param yOff index of the first element of y
+   */
+  static void spmmABt(double[] w, double[] b, int wRows, int cols, int[] rowStart, int[] index,
+                      double[] value, int firstRow, int xRows, double[] y, int yOff) {
+    for (int r = 0; r < xRows; r++) {
+      int from = rowStart[firstRow + r];
+      int to = rowStart[firstRow + r + 1];
+      int y0 = yOff + r * wRows;
+      int i = 0;
+      for (; i + 4 <= wRows; i += 4) {
+        int w0 = i * cols;
+        int w1 = w0 + cols;
+        int w2 = w1 + cols;
+        int w3 = w2 + cols;
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        for (int k = from; k < to; k++) {
+          int j = index[k];
+          double xj = value[k];
+          s0 += w[w0 + j] * xj;
+          s1 += w[w1 + j] * xj;
+          s2 += w[w2 + j] * xj;
+          s3 += w[w3 + j] * xj;
+        }
+        y[y0 + i] = s0 + b[i];
+        y[y0 + i + 1] = s1 + b[i + 1];
+        y[y0 + i + 2] = s2 + b[i + 2];
+        y[y0 + i + 3] = s3 + b[i + 3];
+      }
+      for (; i < wRows; i++) {
+        int row = i * cols;
+        double s = 0;
+        for (int k = from; k < to; k++) {
+          s += w[row + index[k]] * value[k];
+        }
+        y[y0 + i] = s + b[i];
+      }
+    }
+  }
+
+  /**
+   * matrix product with the transposed left matrix and a sparse right matrix: G += D^T * X, plus
+   * the column sums of D. only the elements of G in the columns of the nonzero elements of X are
+   * written, the caller has to clear them first
+   * @param d left matrix, rows x dCols
+   * @param dCols number of columns in d
+   * @param rows number of rows in d and x
+   * @param rowStart start of every row of x in index and value
+   * @param index column of every nonzero element of x
+   * @param value every nonzero element of x
+   * @param cols number of columns in x
+   * @param g output matrix, dCols x cols
+   * @param colSums output vector receiving the column sums of d
+   */
+  static void spmmAtB(double[] d, int dCols, int rows, int[] rowStart, int[] index,
+                      double[] value, int cols, double[] g, double[] colSums) {
+    for (int i = 0; i < dCols; i++) {
+      int row = i * cols;
+      double sum = 0;
+      for (int r = 0; r < rows; r++) {
+        double di = d[r * dCols + i];
+        sum += di;
+        for (int k = rowStart[r]; k < rowStart[r + 1]; k++) {
+          g[row + index[k]] += di * value[k];
+        }
+      }
+      colSums[i] = sum;
+    }
+  }
+
+  // single precision versions of the kernels above, used by FloatNeuralNetwork. they read half
+  // as many bytes per weight, the accumulators stay in float like the data
+
+  static float dot(float[] a, int aOff, float[] b, int bOff, int len) {
+    float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+    int i = 0;
+    for (; i + 4 <= len; i += 4) {
+      s0 += a[aOff + i] * b[bOff + i];
+      s1 += a[aOff + i + 1] * b[bOff + i + 1];
+      s2 += a[aOff + i + 2] * b[bOff + i + 2];
+      s3 += a[aOff + i + 3] * b[bOff + i + 3];
+    }
+    for (; i < len; i++) {
+      s0 += a[aOff + i] * b[bOff + i];
+    }
+    return (s0 + s1) + (s2 + s3);
+  }
+
+  static void axpy(float alpha, float[] x, int xOff, float[] y, int yOff, int len) {
+    for (int i = 0; i < len; i++) {
+      y[yOff + i] += alpha * x[xOff + i];
+    }
+  }
+
+  static void gemv(float[] w, float[] b, int rows, int cols, float[] x, int xOff, float[] y,
+                   int yOff) {
+    for (int i = 0; i < rows; i++) {
+      y[yOff + i] = dot(w, i * cols, x, xOff, cols) + b[i];
+    }
+  }
+
+  static void gemmABt(float[] w, float[] b, int wRows, int cols, float[] x, int xOff,
+                      int xRows, float[] y, int yOff) {
+    int r = 0;
+    for (; r + 4 <= xRows; r += 4) {
+      int x0 = xOff + r * cols;
+      int x1 = x0 + cols;
+      int x2 = x1 + cols;
+      int x3 = x2 + cols;
+      int y0 = yOff + r * wRows;
+      for (int i = 0; i < wRows; i++) {
+        int row = i * cols;
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        for (int j = 0; j < cols; j++) {
+          float wij = w[row + j];
+          s0 += wij * x[x0 + j];
+          s1 += wij * x[x1 + j];
+          s2 += wij * x[x2 + j];
+          s3 += wij * x[x3 + j];
+        }
+        float bi = b[i];
+        y[y0 + i] = s0 + bi;
+        y[y0 + wRows + i] = s1 + bi;
+        y[y0 + 2 * wRows + i] = s2 + bi;
+        y[y0 + 3 * wRows + i] = s3 + bi;
+      }
+    }
+    for (; r < xRows; r++) {
+      gemv(w, b, wRows, cols, x, xOff + r * cols, y, yOff + r * wRows);
+    }
+  }
+
+  static void gemmAB(float[] d, int rows, float[] w, int wRows, int cols, float[] y) {
+    Arrays.fill(y, 0, rows * cols, 0);
+    for (int r = 0; r < rows; r++) {
+      for (int i = 0; i < wRows; i++) {
+        axpy(d[r * wRows + i], w, i * cols, y, r * cols, cols);
+      }
+    }
+  }
+
+  static void gemmAtB(float[] d, int dCols, int rows, float[] x, int cols, float[] g,
+                      float[] colSums) {
+    for (int i = 0; i < dCols; i++) {
+      int row = i * cols;
+      Arrays.fill(g, row, row + cols, 0);
+      float sum = 0;
+      for (int r = 0; r < rows; r++) {
+        float di = d[r * dCols + i];
+        axpy(di, x, r * cols, g, row, cols);
+        sum += di;
+      }
+      colSums[i] = sum;
+    }
+  }
+
+  // versions of the kernels reading the weights from a buffer, used by MappedModel to run on
+  // mapped or direct weights without copying them to the heap, and by the layers, updates and
+  // optimizer state stored off-heap (see DoubleStorage). absolute reads and writes do not move
+  // the buffer position, so a buffer can be shared by any number of threads. the loops are the
+  // ones of ScalarKernels, so off-heap training takes the same steps as scalar training on the
+  // heap
+
+  static double dot(DoubleBuffer a, int aOff, double[] b, int bOff, int len) {
+    double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+    int i = 0;
+    for (; i + 4 <= len; i += 4) {
+      s0 += a.get(aOff + i) * b[bOff + i];
+      s1 += a.get(aOff + i + 1) * b[bOff + i + 1];
+      s2 += a.get(aOff + i + 2) * b[bOff + i + 2];
+      s3 += a.get(aOff + i + 3) * b[bOff + i + 3];
+    }
+    for (; i < len; i++) {
+      s0 += a.get(aOff + i) * b[bOff + i];
+    }
+    return (s0 + s1) + (s2 + s3);
+  }
+
+  static void gemv(DoubleBuffer w, DoubleBuffer b, int rows, int cols, double[] x, int xOff,
+                   double[] y, int yOff) {
+    for (int i = 0; i < rows; i++) {
+      y[yOff + i] = dot(w, i * cols, x, xOff, cols) + b.get(i);
+    }
+  }
+
+  static void gemmABt(DoubleBuffer w, DoubleBuffer b, int wRows, int cols, double[] x, int xOff,
+                      int xRows, double[] y, int yOff, ActivationFunction act) {
+    int r = 0;
+    for (; r + 4 <= xRows; r += 4) {
+      int x0 = xOff + r * cols;
+      int x1 = x0 + cols;
+      int x2 = x1 + cols;
+      int x3 = x2 + cols;
+      int y0 = yOff + r * wRows;
+      for (int i = 0; i < wRows; i++) {
+        int row = i * cols;
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        for (int j = 0; j < cols; j++) {
+          double wij = w.get(row + j);
+          s0 += wij * x[x0 + j];
+          s1 += wij * x[x1 + j];
+          s2 += wij * x[x2 + j];
+          s3 += wij * x[x3 + j];
+        }
+        double bi = b.get(i);
+        y[y0 + i] = s0 + bi;
+        y[y0 + wRows + i] = s1 + bi;
+        y[y0 + 2 * wRows + i] = s2 + bi;
+        y[y0 + 3 * wRows + i] = s3 + bi;
+      }
+      if (act != null) {
+        for (int t = 0; t < 4; t++) {
+          act.applyInPlace(y, y0 + t * wRows, wRows);
+        }
+      }
+    }
+    for (; r < xRows; r++) {
+      gemv(w, b, wRows, cols, x, xOff + r * cols, y, yOff + r * wRows);
+      if (act != null) {
+        act.applyInPlace(y, yOff + r * wRows, wRows);
+      }
+    }
+  }
+
+  static void axpy(double alpha, DoubleBuffer x, int xOff, DoubleBuffer y, int yOff, int len) {
+    for (int i = 0; i < len; i++) {
+      y.put(yOff + i, y.get(yOff + i) + alpha * x.get(xOff + i));
+    }
+  }
+
+  static void gemmAB(double[] d, int rows, DoubleBuffer w, int wRows, int cols, double[] y) {
+    Arrays.fill(y, 0, rows * cols, 0);
+    int r = 0;
+    for (; r + 4 <= rows; r += 4) {
+      int y0 = r * cols;
+      int y1 = y0 + cols;
+      int y2 = y1 + cols;
+      int y3 = y2 + cols;
+      int d0 = r * wRows;
+      for (int i = 0; i < wRows; i++) {
+        int row = i * cols;
+        double a0 = d[d0 + i];
+        double a1 = d[d0 + wRows + i];
+        double a2 = d[d0 + 2 * wRows + i];
+        double a3 = d[d0 + 3 * wRows + i];
+        for (int j = 0; j < cols; j++) {
+          double wij = w.get(row + j);
+          y[y0 + j] += wij * a0;
+          y[y1 + j] += wij * a1;
+          y[y2 + j] += wij * a2;
+          y[y3 + j] += wij * a3;
+        }
+      }
+    }
+    for (; r < rows; r++) {
+      int y0 = r * cols;
+      for (int i = 0; i < wRows; i++) {
+        int row = i * cols;
+        double di = d[r * wRows + i];
+        for (int j = 0; j < cols; j++) {
+          y[y0 + j] += di * w.get(row + j);
+        }
+      }
+    }
+  }
+
+  static void gemmAtB(double[] d, int dCols, int rows, double[] x, int cols, DoubleBuffer g,
+                      DoubleBuffer colSums) {
+    for (int i = 0; i < dCols; i++) {
+      int row = i * cols;
+      for (int j = 0; j < cols; j++) {
+        g.put(row + j, 0);
+      }
+      double sum = 0;
+      int r = 0;
+      for (; r + 4 <= rows; r += 4) {
+        double d0 = d[r * dCols + i];
+        double d1 = d[(r + 1) * dCols + i];
+        double d2 = d[(r + 2) * dCols + i];
+        double d3 = d[(r + 3) * dCols + i];
+        int x0 = r * cols;
+        int x1 = x0 + cols;
+        int x2 = x1 + cols;
+        int x3 = x2 + cols;
+        for (int j = 0; j < cols; j++) {
+          g.put(row + j, g.get(row + j) +
+              (d0 * x[x0 + j] + d1 * x[x1 + j] + d2 * x[x2 + j] + d3 * x[x3 + j]));
+        }
+        sum += d0 + d1 + d2 + d3;
+      }
+      for (; r < rows; r++) {
+        double di = d[r * dCols + i];
+        int x0 = r * cols;
+        for (int j = 0; j < cols; j++) {
+          g.put(row + j, g.get(row + j) + di * x[x0 + j]);
+        }
+        sum += di;
+      }
+      colSums.put(i, sum);
+    }
+  }
+
+  static void spmmABt(DoubleBuffer w, DoubleBuffer b, int wRows, int cols, int[] rowStart,
+                      int[] index, double[] value, int firstRow, int xRows, double[] y,
+                      int yOff) {
+    for (int r = 0; r < xRows; r++) {
+      int from = rowStart[firstRow + r];
+      int to = rowStart[firstRow + r + 1];
+      int y0 = yOff + r * wRows;
+      int i = 0;
+      for (; i + 4 <= wRows; i += 4) {
+        int w0 = i * cols;
+        int w1 = w0 + cols;
+        int w2 = w1 + cols;
+        int w3 = w2 + cols;
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        for (int k = from; k < to; k++) {
+          int j = index[k];
+          double xj = value[k];
+          s0 += w.get(w0 + j) * xj;
+          s1 += w.get(w1 + j) * xj;
+          s2 += w.get(w2 + j) * xj;
+          s3 += w.get(w3 + j) * xj;
+        }
+        y[y0 + i] = s0 + b.get(i);
+        y[y0 + i + 1] = s1 + b.get(i + 1);
+        y[y0 + i + 2] = s2 + b.get(i + 2);
+        y[y0 + i + 3] = s3 + b.get(i + 3);
+      }
+      for (; i < wRows; i++) {
+        int row = i * cols;
+        double s = 0;
+        for (int k = from; k < to; k++) {
+          s += w.get(row + index[k]) * value[k];
+        }
+        y[y0 + i] = s + b.get(i);
+      }
+    }
+  }
+
+  static void spmmAtB(double[] d, int dCols, int rows, int[] rowStart, int[] index,
+                      double[] value, int cols, DoubleBuffer g, DoubleBuffer colSums) {
+    for (int i = 0; i < dCols; i++) {
+      int row = i * cols;
+      double sum = 0;
+      for (int r = 0; r < rows; r++) {
+        double di = d[r * dCols + i];
+        sum += di;
+        for (int k = rowStart[r]; k < rowStart[r + 1]; k++) {
+          int j = row + index[k];
+          g.put(j, g.get(j) + di * value[k]);
+        }
+      }
+      colSums.put(i, sum);
+    }
+  }
+
+  // int8 versions used by QuantizedNetwork: the products of two bytes are summed in int
+  // accumulators, which can not overflow for rows shorter than 2^31 / 127^2 (133144) elements
+
+  static int dot(byte[] a, int aOff, byte[] b, int bOff, int len) {
+    int s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+    int i = 0;
+    for (; i + 4 <= len; i += 4) {
+      s0 += a[aOff + i] * b[bOff + i];
+      s1 += a[aOff + i + 1] * b[bOff + i + 1];
+      s2 += a[aOff + i + 2] * b[bOff + i + 2];
+      s3 += a[aOff + i + 3] * b[bOff + i + 3];
+    }
+    for (; i < len; i++) {
+      s0 += a[aOff + i] * b[bOff + i];
+    }
+    return (s0 + s1) + (s2 + s3);
+  }
+
+  /**
+   * integer matrix product with the transposed weight matrix: Y = X * W^T, without bias
+   * @param w matrix, wRows x cols
+   * @param wRows number of rows in w
+   * @param cols number of columns in w and x
+   * @param x input matrix, xRows x cols
+   * @param xRows number of rows in x
+   * @param y output matrix, xRows x wRows
+   */
+  static void gemmABt(byte[] w, int wRows, int cols, byte[] x, int xRows, int[] y) {
+    int r = 0;
+    for (; r + 4 <= xRows; r += 4) {
+      int x0 = r * cols;
+      int x1 = x0 + cols;
+      int x2 = x1 + cols;
+      int x3 = x2 + cols;
+      int y0 = r * wRows;
+      for (int i = 0; i < wRows; i++) {
+        int row = i * cols;
+        int s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        for (int j = 0; j < cols; j++) {
+          int wij = w[row + j];
+          s0 += wij * x[x0 + j];
+          s1 += wij * x[x1 + j];
+          s2 += wij * x[x2 + j];
+          s3 += wij * x[x3 + j];
+        }
+        y[y0 + i] = s0;
+        y[y0 + wRows + i] = s1;
+        y[y0 + 2 * wRows + i] = s2;
+        y[y0 + 3 * wRows + i] = s3;
+      }
+    }
+    for (; r < xRows; r++) {
+      for (int i = 0; i < wRows; i++) {
+        y[r * wRows + i] = dot(w, i * cols, x, r * cols, cols);
+      }
+    }
+  }
+}
@@ -0,0 +1,97 @@
+
+/**
+ * learning rate as a function of the training step (the number of batches trained on since the
+ * start of the training run). a schedule scales the rate given to train, so the same schedule
+ * works with any base rate
+ */
+public class LearningRateSchedule {
+
+  private enum Type { CONSTANT, STEP, COSINE, WARMUP }
+
+  private final Type type;
+  // steps between two decays, length of the cosine or of the warmup
+  private final long steps;
+  // decay of the step schedule, smallest rate of the cosine schedule (relative to the base)
+  private final double factor;
+  // schedule following the warmup
+  private final LearningRateSchedule next;
+
+  private LearningRateSchedule(Type type, long steps, double factor, LearningRateSchedule next) {
+    if (type != Type.CONSTANT && steps < 1) {
+      throw new IllegalArgumentException("Invalid schedule length");
+    }
+    if (factor < 0) {
+      throw new IllegalArgumentException("Invalid schedule factor");
+    }
+    this.type = type;
+    this.steps = steps;
+    this.factor = factor;
+    this.next = next;
+  }
+
+  /**
+   * the base rate at every step, the default of the networks
+   * @return constant schedule
+   */
+  public static LearningRateSchedule constant() {
+    return new LearningRateSchedule(Type.CONSTANT, 0, 1, null);
+  }
+
+  /**
+   * step decay: the rate is multiplied by factor every given number of steps
+   * @param steps number of steps between two decays
+   * @param factor multiplier of the rate, usually 0.1 - 0.5
+   * @return step schedule
+   */
+  public static LearningRateSchedule step(long steps, double factor) {
+    return new LearningRateSchedule(Type.STEP, steps, factor, null);
+  }
+
+  /**
+   * cosine annealing: the rate follows half a cosine wave from the base rate down to
+   * minFactor * base rate, and stays there after the given number of steps
+   * @param steps length of the decay
+   * @param minFactor smallest rate relative to the base rate
+   * @return cosine schedule
+   */
+  public static LearningRateSchedule cosine(long steps, double minFactor) {
+    return new LearningRateSchedule(Type.COSINE, steps, minFactor, null);
+  }
+
+  /**
+   * linear warmup: the rate grows from base / steps to the base rate during the given number of
+   * steps, then follows another schedule started from step 0
+   * @param steps length of the warmup
+   * @param next schedule after the warmup
+   * @return warmup schedule
+   */
+  public static LearningRateSchedule warmup(long steps, LearningRateSchedule next) {
+    if (next == null) {
+      throw new IllegalArgumentException("Missing schedule after the warmup");
+    }
+    return new LearningRateSchedule(Type.WARMUP, steps, 1, next);
+  }
+
+  /**
+   * computes the rate of a step
+   * @param baseRate rate given to train
+   * @param step number of batches trained on before this one in the training run
+   * @return learning rate of the step
+   */
+  public double rate(double baseRate, long step) {
+    switch (type) {
+      case STEP:
+        return baseRate * Math.pow(factor, step / steps);
+      case COSINE:
+        double progress = Math.min(step, steps) / (double) steps;
+        return baseRate * (factor + (1 - factor) * (1 + Math.cos(Math.PI * progress)) / 2);
+      case WARMUP:
+        if (step < steps) {
+          return baseRate * (step + 1) / steps;
+        }
+        return next.rate(baseRate, step - steps);
+      default:
+        return baseRate;
+    }
+  }
+}
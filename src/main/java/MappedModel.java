@@ -0,0 +1,224 @@
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.file.Path;
+
+/**
+ * read-only network running inference on weights kept outside the java heap, either memory
+ * mapped from a model file (see NeuralNetwork.save) or copied into direct buffers with
+ * allocateDirect. the weights are never copied to the heap: the kernels read them in place, so
+ * large models add neither to the heap size nor to the work of the garbage collector.
+ * opening a model file only reads the header, and the operating system pages the weights in on
+ * first use. processes mapping the same file share its pages in the page cache; a file on a
+ * tmpfs (such as /dev/shm) stays in memory, and can be backed by huge pages when the kernel
+ * enables them for shared memory.
+ * the weights can not change, so a model can be used by any number of threads at once
+ */
+public class MappedModel implements BatchClassifier {
+
+  // number of examples pushed through the layers together by classifyBatch
+  private static final int BATCH_BLOCK_ROWS = 64;
+
+  private final int inputCount;
+  private final int outputCount;
+  private final int maxLayerWidth;
+  // per layer, input layer first: size, activation function and views of the weights
+  private final int[] inputCounts;
+  private final int[] neuronCounts;
+  private final ActivationFunction[] actFcns;
+  private final DoubleBuffer[] weights;
+  private final DoubleBuffer[] biases;
+  // the input layer passes the inputs through unchanged, classifyBatch skips it
+  private final boolean identityInput;
+
+  /**
+   * maps a model file
+   * @param path path of the model file
+   * @throws IOException if the file can not be read or is not a valid model file
+   */
+  public MappedModel(Path path) throws IOException {
+    this(ModelFile.map(path));
+  }
+
+  private MappedModel(ModelFile.LayerEntry[] entries) {
+    int layerCount = entries.length;
+    inputCounts = new int[layerCount];
+    neuronCounts = new int[layerCount];
+    actFcns = new ActivationFunction[layerCount];
+    weights = new DoubleBuffer[layerCount];
+    biases = new DoubleBuffer[layerCount];
+    int width = 0;
+    for (int i = 0; i < layerCount; i++) {
+      ModelFile.LayerEntry entry = entries[i];
+      inputCounts[i] = entry.inputCount;
+      neuronCounts[i] = entry.neuronCount;
+      actFcns[i] = entry.actFcn;
+      width = Math.max(width, entry.neuronCount);
+      ByteBuffer data = entry.data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+      int weightCount = entry.neuronCount * entry.inputCount;
+      weights[i] = data.asDoubleBuffer();
+      data.position(8 * weightCount);
+      biases[i] = data.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+    }
+    inputCount = neuronCounts[0];
+    outputCount = neuronCounts[layerCount - 1];
+    maxLayerWidth = width;
+    identityInput = isIdentity(weights[0], biases[0], actFcns[0]);
+  }
+
+  /**
+   * copies the weights of a network into direct buffers, outside the java heap, for serving. the
+   * copy is independent of the network, which can be trained further or dropped; to keep the
+   * weights, updates and optimizer state of a training network off-heap too, see
+   * NeuralNetwork.setOffHeap. the buffers are freed when the model is garbage collected
+   * @param network network to copy
+   * @return a model running inference on the copied weights
+   * @throws IllegalArgumentException if a layer has more than 2GB of weights
+   */
+  public static MappedModel allocateDirect(NeuralNetwork network) {
+    ModelFile.LayerEntry[] entries = new ModelFile.LayerEntry[network.getLayerCount()];
+    for (int i = 0; i < entries.length; i++) {
+      NeuralLayer layer = network.getLayer(i);
+      DoubleStorage layerWeights = layer.getWeightStorage();
+      DoubleStorage layerBiases = layer.getBiasStorage();
+      // a buffer, like a mapping, can not be larger than 2GB
+      long size = 8L * (layerWeights.length() + layerBiases.length());
+      if (size > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("Cant allocate: layer " + i + " is too large");
+      }
+      ByteBuffer data = ByteBuffer.allocateDirect((int) size).order(ByteOrder.LITTLE_ENDIAN);
+      data.asDoubleBuffer().put(layerWeights.asBuffer()).put(layerBiases.asBuffer());
+      entries[i] = new ModelFile.LayerEntry(layer.getInputCount(),
+          layer.getLayerNeuronCount(), layer.getActFcn(), 0, data);
+    }
+    return new MappedModel(entries);
+  }
+
+  private static boolean isIdentity(DoubleBuffer scale, DoubleBuffer shift,
+                                    ActivationFunction actFcn) {
+    if (actFcn.getTypeCode() != ActivationFunction.linear().getTypeCode()) {
+      return false;
+    }
+    for (int i = 0; i < scale.limit(); i++) {
+      if (scale.get(i) != 1 || shift.get(i) != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * getter for the number of inputs
+   * @return number of inputs in the network
+   */
+  @Override public int getInputCount() {
+    return inputCount;
+  }
+
+  /**
+   * getter for the number of outputs
+   * @return number of outputs in the network
+   */
+  @Override public int getOutputCount() {
+    return outputCount;
+  }
+
+  /**
+   * getter for network size
+   * @return number of layers in the network, input layer included
+   */
+  public int getLayerCount() {
+    return neuronCounts.length;
+  }
+
+  /**
+   * feeds data through the network and returns the output
+   * @param in input data, has to have as many elements as there are inputs in the network
+   * @return returns the network output
+   */
+  public double[] classify(double[] in) {
+    if (in.length != inputCount) {
+      throw new IllegalArgumentException("Cant classify: input number mismatch");
+    }
+    double[] ret = new double[outputCount];
+    classifyBatch(in, 1, ret);
+    return ret;
+  }
+
+  /**
+   * feeds a batch of examples stored in a single row-major array through the network
+   * @param in input matrix, rows x inputCount elements
+   * @param rows number of examples
+   * @param out output matrix, rows x outputCount elements, receives the network output
+   */
+  @Override public void classifyBatch(double[] in, int rows, double[] out) {
+    if (rows < 0 || in.length < rows * inputCount || out.length < rows * outputCount) {
+      throw new IllegalArgumentException("Cant classify: input number mismatch");
+    }
+    // sized for the batch, a single example only needs a row per layer
+    int blockSize = Math.min(rows, BATCH_BLOCK_ROWS);
+    double[] bufferA = new double[blockSize * maxLayerWidth];
+    double[] bufferB = new double[blockSize * maxLayerWidth];
+    int last = neuronCounts.length - 1;
+    for (int start = 0; start < rows; start += BATCH_BLOCK_ROWS) {
+      int blockRows = Math.min(BATCH_BLOCK_ROWS, rows - start);
+      int inOffset = start * inputCount;
+      double[] src = in;
+      int srcOffset = inOffset;
+      if (!identityInput) {
+        // the input layer scales and shifts every input
+        for (int r = 0; r < blockRows; r++) {
+          for (int j = 0; j < inputCount; j++) {
+            bufferA[r * inputCount + j] = weights[0].get(j) *
+                in[inOffset + r * inputCount + j] + biases[0].get(j);
+          }
+          actFcns[0].applyInPlace(bufferA, r * inputCount, inputCount);
+        }
+        src = bufferA;
+        srcOffset = 0;
+      }
+      double[] dst = bufferB;
+      for (int l = 1; l <= last; l++) {
+        double[] target = (l == last) ? out : dst;
+        int targetOffset = (l == last) ? start * outputCount : 0;
+        Kernels.gemmABt(weights[l], biases[l], neuronCounts[l], inputCounts[l], src, srcOffset,
+            blockRows, target, targetOffset, actFcns[l]);
+        src = dst;
+        srcOffset = 0;
+        dst = (dst == bufferA) ? bufferB : bufferA;
+      }
+    }
+  }
+
+  /**
+   * copies the model into a trainable network
+   * @return a network with the same topology, activation functions and weights
+   */
+  public NeuralNetwork toNeuralNetwork() {
+    int last = neuronCounts.length - 1;
+    NeuralNetwork ret = new NeuralNetwork(inputCount, outputCount, actFcns[last]);
+    for (int l = 1; l < last; l++) {
+      ret.addHiddenLayer(neuronCounts[l], actFcns[l]);
+    }
+    for (int l = 0; l <= last; l++) {
+      // relative reads on duplicates, the shared views are not modified
+      weights[l].duplicate().get(ret.getLayer(l).getWeightBlock());
+      biases[l].duplicate().get(ret.getLayer(l).getBiasVector());
+    }
+    return ret;
+  }
+
+  /**
+   * Object string representation
+   * @return returns a string with info about the network size
+   */
+  @Override public String toString() {
+    String ret = "Mapped network has " + neuronCounts.length + " layers";
+    for (int n : neuronCounts) {
+      ret += "\nNumber of neurons: " + n;
+    }
+    return ret;
+  }
+}
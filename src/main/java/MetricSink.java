@@ -0,0 +1,23 @@
+
+import java.io.IOException;
+
+/**
+ * destination of training metrics. sinks are called from the telemetry thread only, one metric
+ * at a time, so they do not have to be thread-safe and may block without slowing down training
+ */
+public interface MetricSink {
+
+  /**
+   * handles the metrics of an epoch
+   * @param metrics measurements of the epoch
+   * @throws IOException if the metrics can not be written
+   */
+  void accept(TrainingMetrics metrics) throws IOException;
+
+  /**
+   * releases the resources of the sink, called when the telemetry is closed
+   * @throws IOException if the remaining metrics can not be written
+   */
+  default void close() throws IOException {
+  }
+}
@@ -0,0 +1,269 @@
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * inference front end coalescing single-example requests into batches. any number of threads
+ * submit examples, a dispatcher thread collects them into a batch until it is full or its
+ * oldest request waited long enough, classifies the batch in one pass, and completes the
+ * requests' futures. a batch reads every weight once, instead of once per request.
+ * the request queue is bounded: when it is full, new requests are rejected instead of letting
+ * the latency grow without limit
+ */
+public class MicroBatcher implements AutoCloseable {
+
+  /**
+   * a queued example and the future receiving its output
+   */
+  private static final class Request {
+    final double[] input;
+    final CompletableFuture<double[]> result = new CompletableFuture<>();
+
+    Request(double[] input) {
+      this.input = input;
+    }
+  }
+
+  // marks the end of the requests, queued by close
+  private static final Request END = new Request(null);
+
+  private final Supplier<? extends BatchClassifier> model;
+  private final int inputCount;
+  private final int outputCount;
+  private final int maxBatchSize;
+  private final long maxWaitNanos;
+  private final BlockingQueue<Request> queue;
+  private final Thread dispatcher;
+  private volatile boolean closed;
+  // set when the dispatcher thread stops, after close or a failure, requests are rejected then
+  private volatile boolean stopped;
+  // index i counts the batches of i examples
+  private final AtomicLongArray batchSizes;
+  // index 0 counts the batches started on an empty queue, index i the ones started with a
+  // queue depth in [2^(i-1), 2^i)
+  private final AtomicLongArray queueDepths;
+
+  /**
+   * micro-batcher classifying with a fixed model
+   * @param model model classifying the batches, only called from the dispatcher thread
+   * @param maxBatchSize largest number of examples in a batch
+   * @param maxWaitMicros longest time a request waits for others to join its batch
+   * @param queueCapacity largest number of requests waiting for a batch
+   */
+  public MicroBatcher(BatchClassifier model, int maxBatchSize, long maxWaitMicros,
+                      int queueCapacity) {
+    this(() -> model, model.getInputCount(), model.getOutputCount(), maxBatchSize,
+        maxWaitMicros, queueCapacity);
+  }
+
+  /**
+   * micro-batcher serving a network that keeps training: every batch is classified with the
+   * model returned by the supplier at that moment, for example the last published snapshot of
+   * the network (NeuralNetwork.getPublishedSnapshot)
+   * @param model supplier of the model, called once per batch on the dispatcher thread
+   * @param inputCount number of inputs of the models
+   * @param outputCount number of outputs of the models
+   * @param maxBatchSize largest number of examples in a batch
+   * @param maxWaitMicros longest time a request waits for others to join its batch
+   * @param queueCapacity largest number of requests waiting for a batch
+   */
+  public MicroBatcher(Supplier<? extends BatchClassifier> model, int inputCount,
+                      int outputCount, int maxBatchSize, long maxWaitMicros,
+                      int queueCapacity) {
+    if (maxBatchSize < 1 || maxWaitMicros < 0 || queueCapacity < 1) {
+      throw new IllegalArgumentException("Invalid batching parameters");
+    }
+    this.model = model;
+    this.inputCount = inputCount;
+    this.outputCount = outputCount;
+    this.maxBatchSize = maxBatchSize;
+    this.maxWaitNanos = TimeUnit.MICROSECONDS.toNanos(maxWaitMicros);
+    // one extra slot, so close can always queue the end marker
+    this.queue = new ArrayBlockingQueue<>(queueCapacity + 1);
+    this.batchSizes = new AtomicLongArray(maxBatchSize + 1);
+    this.queueDepths = new AtomicLongArray(33 - Integer.numberOfLeadingZeros(queueCapacity));
+    this.dispatcher = new Thread(this::dispatch, "micro-batcher");
+    dispatcher.setDaemon(true);
+    dispatcher.start();
+  }
+
+  /**
+   * queues an example for classification
+   * @param in input data, has to have as many elements as there are inputs in the network. must
+   *           not be modified until the result is complete
+   * @return future completed with the network output, or exceptionally if the request was
+   *         rejected (full queue, closed batcher, failed dispatcher) or the classification
+   *         failed
+   */
+  public CompletableFuture<double[]> submit(double[] in) {
+    if (in.length != inputCount) {
+      throw new IllegalArgumentException("Cant classify: input number mismatch");
+    }
+    Request request = new Request(in);
+    // the last slot of the queue is reserved for the end marker
+    if (closed || stopped || queue.remainingCapacity() <= 1 || !queue.offer(request)) {
+      request.result.completeExceptionally(new RejectedExecutionException(
+          closed || stopped ? "Micro-batcher is closed" : "Request queue is full"));
+    } else if (stopped && queue.remove(request)) {
+      // the dispatcher stopped while the request was queued, and will not take it any more
+      request.result.completeExceptionally(new RejectedExecutionException(
+          "Micro-batcher is closed"));
+    }
+    return request.result;
+  }
+
+  /**
+   * classifies an example, waiting for its batch to be processed
+   * @param in input data, has to have as many elements as there are inputs in the network
+   * @return returns the network output
+   */
+  public double[] classify(double[] in) {
+    return submit(in).join();
+  }
+
+  /**
+   * getter for the number of requests waiting for a batch
+   * @return current length of the request queue
+   */
+  public int getQueueDepth() {
+    return queue.size();
+  }
+
+  /**
+   * histogram of the batch sizes
+   * @return element i is the number of batches of i examples processed so far
+   */
+  public long[] getBatchSizeHistogram() {
+    return toArray(batchSizes);
+  }
+
+  /**
+   * histogram of the queue depth, sampled when a batch is started
+   * @return element 0 is the number of batches started with an empty queue, element i the
+   *         number of batches started with [2^(i-1), 2^i) requests waiting
+   */
+  public long[] getQueueDepthHistogram() {
+    return toArray(queueDepths);
+  }
+
+  private static long[] toArray(AtomicLongArray array) {
+    long[] ret = new long[array.length()];
+    for (int i = 0; i < ret.length; i++) {
+      ret[i] = array.get(i);
+    }
+    return ret;
+  }
+
+  /**
+   * body of the dispatcher thread
+   */
+  private void dispatch() {
+    List<Request> batch = new ArrayList<>(maxBatchSize);
+    double[] in = new double[maxBatchSize * inputCount];
+    double[] out = new double[maxBatchSize * outputCount];
+    boolean end = false;
+    Throwable failure = null;
+    try {
+      while (!end) {
+        Request first = queue.take();
+        if (first == END) {
+          break;
+        }
+        int bucket = 32 - Integer.numberOfLeadingZeros(queue.size());
+        queueDepths.incrementAndGet(Math.min(bucket, queueDepths.length() - 1));
+        batch.add(first);
+        // wait for more requests until the batch is full or the first one waited long enough
+        long deadline = System.nanoTime() + maxWaitNanos;
+        while (batch.size() < maxBatchSize) {
+          Request next = queue.poll();
+          if (next == null) {
+            long remaining = deadline - System.nanoTime();
+            next = (remaining > 0) ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+            if (next == null) {
+              break;
+            }
+          }
+          if (next == END) {
+            end = true;
+            break;
+          }
+          batch.add(next);
+        }
+        process(batch, in, out);
+        batch.clear();
+      }
+    } catch (InterruptedException e) {
+      // not expected, close uses the end marker
+    } catch (Throwable e) {
+      // the dispatcher can not go on, the waiting requests fail instead of waiting forever
+      failure = e;
+    }
+    // submit rejects the requests from now on, and the ones that raced with close or with the
+    // failure are rejected here
+    stopped = true;
+    RejectedExecutionException rejection = (failure == null)
+        ? new RejectedExecutionException("Micro-batcher is closed")
+        : new RejectedExecutionException("Micro-batcher dispatcher failed", failure);
+    for (Request request : batch) {
+      request.result.completeExceptionally(rejection);
+    }
+    for (Request request = queue.poll(); request != null; request = queue.poll()) {
+      if (request != END) {
+        request.result.completeExceptionally(rejection);
+      }
+    }
+  }
+
+  /**
+   * classifies a batch in one pass and completes its futures
+   */
+  private void process(List<Request> batch, double[] in, double[] out) {
+    int rows = batch.size();
+    batchSizes.incrementAndGet(rows);
+    try {
+      for (int r = 0; r < rows; r++) {
+        System.arraycopy(batch.get(r).input, 0, in, r * inputCount, inputCount);
+      }
+      BatchClassifier classifier = model.get();
+      if (classifier == null) {
+        throw new IllegalStateException("No model to classify with");
+      }
+      classifier.classifyBatch(in, rows, out);
+      for (int r = 0; r < rows; r++) {
+        double[] ret = new double[outputCount];
+        System.arraycopy(out, r * outputCount, ret, 0, outputCount);
+        batch.get(r).result.complete(ret);
+      }
+    } catch (Throwable e) {
+      // errors too, an OutOfMemoryError in one batch must not leave its requests waiting
+      for (Request request : batch) {
+        request.result.completeExceptionally(e);
+      }
+    }
+  }
+
+  /**
+   * stops accepting requests, processes the ones already queued, and waits for the dispatcher
+   * thread to finish
+   */
+  @Override public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      // queued after every accepted request, the dispatcher processes them before it stops
+      queue.put(END);
+      dispatcher.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
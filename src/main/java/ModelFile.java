@@ -0,0 +1,260 @@
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * binary model file format. all numbers are little-endian:
+ * <pre>
+ * header       magic "MLPM", int version, int layer count, int reserved
+ * layer table  per layer: int input count, int neuron count, int activation function code,
+ *              int reserved, double activation function parameter, long data offset
+ * layer data   per layer: weight block (neuron count x input count doubles, row-major),
+ *              followed by the biases (neuron count doubles)
+ * </pre>
+ * the first layer is the input layer of the network (input count 1). the data of every layer
+ * starts at a multiple of DATA_ALIGNMENT, so it can be mapped on its own and read in place
+ */
+final class ModelFile {
+
+  static final int MAGIC = 0x4D504C4D; // "MLPM" in little-endian
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 16;
+  static final int LAYER_ENTRY_SIZE = 32;
+  static final int DATA_ALIGNMENT = 4096;
+
+  /**
+   * description of a layer read from the layer table, with a view of its data once the layer is
+   * mapped (or allocated off the heap, see MappedModel.allocateDirect)
+   */
+  static final class LayerEntry {
+    final int inputCount;
+    final int neuronCount;
+    final ActivationFunction actFcn;
+    final long dataOffset;
+    // little-endian, weight block followed by the biases, null until mapped
+    final ByteBuffer data;
+
+    LayerEntry(int inputCount, int neuronCount, ActivationFunction actFcn, long dataOffset) {
+      this(inputCount, neuronCount, actFcn, dataOffset, null);
+    }
+
+    LayerEntry(int inputCount, int neuronCount, ActivationFunction actFcn, long dataOffset,
+               ByteBuffer data) {
+      this.inputCount = inputCount;
+      this.neuronCount = neuronCount;
+      this.actFcn = actFcn;
+      this.dataOffset = dataOffset;
+      this.data = data;
+    }
+
+    /**
+     * @return number of bytes of the layer data
+     */
+    long dataSize() {
+      return 8L * ((long) neuronCount * inputCount + neuronCount);
+    }
+  }
+
+  private ModelFile() {
+  }
+
+  /**
+   * writes the layers of a network into a model file, replacing the file if it exists. the file
+   * is written under a temporary name and renamed once it is complete, so processes that mapped
+   * the previous file keep reading it, and the new file is never seen half written
+   * @param layers layers of the network, input layer first
+   * @param path path of the file
+   * @throws IOException if the file can not be written
+   */
+  static void write(List<NeuralLayer> layers, Path path) throws IOException {
+    Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+    try {
+      try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+          StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + LAYER_ENTRY_SIZE * layers.size())
+            .order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(layers.size()).putInt(0);
+        long offset = align(header.capacity());
+        for (NeuralLayer layer : layers) {
+          header.putInt(layer.getInputCount()).putInt(layer.getLayerNeuronCount())
+              .putInt(layer.getActFcn().getTypeCode()).putInt(0)
+              .putDouble(layer.getActFcn().getParameter()).putLong(offset);
+          offset = align(offset + 8L * (layer.getWeightStorage().length() +
+              layer.getBiasStorage().length()));
+        }
+        header.flip();
+        writeFully(channel, header, 0);
+
+        ByteBuffer chunk = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+        long position = align(header.capacity());
+        for (NeuralLayer layer : layers) {
+          // the layers may be stored off-heap, the buffer views read either storage
+          position = writeDoubles(channel, chunk, layer.getWeightStorage().asBuffer(), position);
+          position = align(writeDoubles(channel, chunk, layer.getBiasStorage().asBuffer(),
+              position));
+        }
+        channel.force(true);
+      }
+      replace(temporary, path);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  /**
+   * renames a completely written file over its target in one step, and forces the directory
+   * entry to the disk, so after a crash the target is either the old or the new file
+   * @param source the new file, forced to the disk
+   * @param target path the file is renamed to, replaced if it exists
+   * @throws IOException if the file can not be renamed
+   */
+  static void replace(Path source, Path target) throws IOException {
+    Files.move(source, target, StandardCopyOption.ATOMIC_MOVE,
+        StandardCopyOption.REPLACE_EXISTING);
+    Path directory = target.toAbsolutePath().getParent();
+    try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+      channel.force(true);
+    } catch (IOException e) {
+      // some platforms (windows) can not open or force a directory, the rename is done anyway
+    }
+  }
+
+  /**
+   * reads and validates the header and the layer table of a model file
+   * @param channel channel of the file
+   * @return the layers, input layer first
+   * @throws IOException if the file can not be read or is not a valid model file
+   */
+  static LayerEntry[] readLayers(FileChannel channel) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    readFully(channel, header, 0);
+    if (header.getInt(0) != MAGIC) {
+      throw new IOException("Invalid model file: unknown magic number");
+    }
+    if (header.getInt(4) != VERSION) {
+      throw new IOException("Invalid model file: unsupported version " + header.getInt(4));
+    }
+    int layerCount = header.getInt(8);
+    if (layerCount < 2 || layerCount > (channel.size() - HEADER_SIZE) / LAYER_ENTRY_SIZE) {
+      throw new IOException("Invalid model file: bad layer count");
+    }
+    ByteBuffer table = ByteBuffer.allocate(LAYER_ENTRY_SIZE * layerCount)
+        .order(ByteOrder.LITTLE_ENDIAN);
+    readFully(channel, table, HEADER_SIZE);
+    LayerEntry[] ret = new LayerEntry[layerCount];
+    for (int i = 0; i < layerCount; i++) {
+      int base = i * LAYER_ENTRY_SIZE;
+      int inputCount = table.getInt(base);
+      int neuronCount = table.getInt(base + 4);
+      // the input layer has a single input per neuron, every other layer reads the one before it
+      int previousCount = (i == 0) ? 1 : ret[i - 1].neuronCount;
+      if (neuronCount < 1 || inputCount != previousCount) {
+        throw new IOException("Invalid model file: bad topology in layer " + i);
+      }
+      ActivationFunction actFcn;
+      try {
+        actFcn = ActivationFunction.fromTypeCode(table.getInt(base + 8),
+            table.getDouble(base + 16));
+      } catch (IllegalArgumentException e) {
+        throw new IOException("Invalid model file: " + e.getMessage());
+      }
+      ret[i] = new LayerEntry(inputCount, neuronCount, actFcn, table.getLong(base + 24));
+      // a layer is mapped on its own, and a mapping can not be larger than 2GB
+      if (ret[i].dataSize() > Integer.MAX_VALUE) {
+        throw new IOException("Invalid model file: layer " + i + " is too large");
+      }
+      if (ret[i].dataOffset < 0 || ret[i].dataOffset + ret[i].dataSize() > channel.size()) {
+        throw new IOException("Invalid model file: truncated data of layer " + i);
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * reads the layer table of a model file and maps the data of every layer read-only. the
+   * mappings stay valid after the file is closed
+   * @param path path of the model file
+   * @return the layers with their data, input layer first
+   * @throws IOException if the file can not be read or is not a valid model file
+   */
+  static LayerEntry[] map(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      LayerEntry[] ret = readLayers(channel);
+      for (int i = 0; i < ret.length; i++) {
+        LayerEntry entry = ret[i];
+        ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, entry.dataOffset,
+            entry.dataSize());
+        ret[i] = new LayerEntry(entry.inputCount, entry.neuronCount, entry.actFcn,
+            entry.dataOffset, data.order(ByteOrder.LITTLE_ENDIAN));
+      }
+      return ret;
+    }
+  }
+
+  private static long align(long offset) {
+    return (offset + DATA_ALIGNMENT - 1) / DATA_ALIGNMENT * DATA_ALIGNMENT;
+  }
+
+  /**
+   * writes an array through a little-endian chunk buffer
+   * @param channel channel of the file
+   * @param chunk buffer the values are copied through
+   * @param values values to write
+   * @param position position of the first value in the file
+   * @return position after the last value
+   * @throws IOException if the file can not be written
+   */
+  static long writeDoubles(FileChannel channel, ByteBuffer chunk, double[] values,
+                           long position) throws IOException {
+    return writeDoubles(channel, chunk, DoubleBuffer.wrap(values), position);
+  }
+
+  /**
+   * writes the remaining values of a buffer through a little-endian chunk buffer
+   * @param channel channel of the file
+   * @param chunk buffer the values are copied through
+   * @param values values to write, from the position to the limit, consumed
+   * @param position position of the first value in the file
+   * @return position after the last value
+   * @throws IOException if the file can not be written
+   */
+  static long writeDoubles(FileChannel channel, ByteBuffer chunk, DoubleBuffer values,
+                           long position) throws IOException {
+    while (values.hasRemaining()) {
+      chunk.clear();
+      int count = Math.min(values.remaining(), chunk.capacity() / 8);
+      DoubleBuffer part = values.duplicate();
+      part.limit(part.position() + count);
+      chunk.asDoubleBuffer().put(part);
+      values.position(values.position() + count);
+      chunk.limit(8 * count);
+      writeFully(channel, chunk, position);
+      position += 8L * count;
+    }
+    return position;
+  }
+
+  static void writeFully(FileChannel channel, ByteBuffer src, long position)
+      throws IOException {
+    while (src.hasRemaining()) {
+      channel.write(src, position + src.position());
+    }
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer dst, long position)
+      throws IOException {
+    while (dst.hasRemaining()) {
+      if (channel.read(dst, position + dst.position()) < 0) {
+        throw new IOException("Invalid model file: truncated header");
+      }
+    }
+  }
+}
@@ -1,7 +1,15 @@
 
+import java.util.Random;
+
 public abstract class NeuralLayer {
 
-  private Neuron[] neurons;
+  private final int inputCount;
+  // row-major weight block: row i holds the input weights of neuron i. heap arrays, or direct
+  // buffers after setOffHeap
+  private DoubleStorage weights;
+  private DoubleStorage biases;
+  // lightweight views of the rows, kept for API compatibility
+  private final Neuron[] neurons;
   private ActivationFunction actFcn;
 
   /**
@@ -11,11 +19,30 @@ public abstract class NeuralLayer {
    * @param actFcn activation function for the layer's neurons
    */
   public NeuralLayer(int inputCount, int neuronCount, ActivationFunction actFcn) {
-    neurons = new Neuron[neuronCount];
+    this(inputCount, neuronCount, actFcn, new Random());
+  }
+
+  /**
+   * layer constructor drawing the initial weights from the given generator, so networks built
+   * from a seeded generator are reproducible
+   * @param inputCount  number of inputs each neuron has to handle
+   * @param neuronCount number of neurons in the layer
+   * @param actFcn activation function for the layer's neurons
+   * @param rand random generator used for the weight initialization
+   */
+  protected NeuralLayer(int inputCount, int neuronCount, ActivationFunction actFcn, Random rand) {
+    this.inputCount = inputCount;
+    this.weights = DoubleStorage.allocate(neuronCount * inputCount, false);
+    this.biases = DoubleStorage.allocate(neuronCount, false);
+    this.neurons = new Neuron[neuronCount];
     this.actFcn = actFcn;
-    //initializing the neurons with random weights
-    for (int i = 0; i < neurons.length; i++) {
-      neurons[i] = new Neuron(inputCount);
+    //initializing the weights with random values
+    for (int i = 0; i < neuronCount; i++) {
+      for (int j = 0; j < inputCount; j++) {
+        weights.array[i * inputCount + j] = (rand.nextDouble() - 0.5) * 0.1;
+      }
+      biases.array[i] = (rand.nextDouble() - 0.5) * 0.1;
+      neurons[i] = new Neuron(weights, biases, i, inputCount);
     }
   }
 
@@ -44,10 +71,75 @@ public abstract class NeuralLayer {
     return neurons.length;
   }
 
+  /**
+   * getter for the number of inputs every neuron in the layer handles
+   * @return length of a row in the weight block
+   */
+  public int getInputCount() {
+    return inputCount;
+  }
+
+  /**
+   * getter for the weight block of a layer kept on the heap
+   * @return row-major weight block, row i holds the input weights of neuron i
+   * @throws IllegalStateException if the weights are stored off-heap, see getWeightStorage
+   */
+  double[] getWeightBlock() {
+    if (weights.array == null) {
+      throw new IllegalStateException("Layer weights are stored off-heap");
+    }
+    return weights.array;
+  }
+
+  /**
+   * getter for the bias vector of a layer kept on the heap
+   * @return bias of every neuron
+   * @throws IllegalStateException if the weights are stored off-heap, see getBiasStorage
+   */
+  double[] getBiasVector() {
+    if (biases.array == null) {
+      throw new IllegalStateException("Layer weights are stored off-heap");
+    }
+    return biases.array;
+  }
+
+  /**
+   * getter for the memory of the weight block, on the heap or off-heap, used by the network
+   * converters, model files, checkpoints and replicas
+   * @return row-major weight block, row i holds the input weights of neuron i
+   */
+  DoubleStorage getWeightStorage() {
+    return weights;
+  }
+
+  /**
+   * getter for the memory of the bias vector, on the heap or off-heap
+   * @return bias of every neuron
+   */
+  DoubleStorage getBiasStorage() {
+    return biases;
+  }
+
+  /**
+   * moves the weights and biases into direct buffers outside the java heap, or back into heap
+   * arrays. the neurons follow the move, storage taken from the layer before does not
+   * @param offHeap true to store the weights off-heap
+   */
+  void setOffHeap(boolean offHeap) {
+    if (weights.isDirect() == offHeap) {
+      return;
+    }
+    weights = weights.copy(offHeap);
+    biases = biases.copy(offHeap);
+    for (Neuron neuron : neurons) {
+      neuron.setStorage(weights, biases);
+    }
+  }
+
   /**
    * getter for individual neurons
    * @param index the index of the neuron returned
-   * @return neuron at index
+   * @return neuron at index, a view of its row in the weight block
    */
   public Neuron getNeuron(int index) {
     return neurons[index];
@@ -62,17 +154,144 @@ public abstract class NeuralLayer {
   public abstract double[] propagate(double[] in);
 
   /**
-   * modifies the neuron weights by delta
-   * @param delta array containing the weight modifications for each neuron (row) and each weight
-   *             in the neuron (column)
+   * computes the weighted input sums of the layer (W * in + b) without the activation function
+   * @param in input array, has to have as many elements as the neurons have inputs
+   * @param out array receiving one value per neuron
+   */
+  protected void weightedSum(double[] in, double[] out) {
+    if (weights.array != null) {
+      Kernels.gemv(weights.array, biases.array, neurons.length, inputCount, in, 0, out, 0);
+    } else {
+      Kernels.gemv(weights.buffer, biases.buffer, neurons.length, inputCount, in, 0, out, 0);
+    }
+  }
+
+  /**
+   * propagates a batch of inputs through the layer at once. the batch is stored row-major: every
+   * row is one example
+   * @param in input matrix, rows x (number of neuron inputs)
+   * @param inOffset index of the first element of the input matrix in the array
+   * @param rows number of examples in the batch
+   * @param out output matrix, rows x (number of neurons)
+   * @param outOffset index of the first element of the output matrix in the array
+   */
+  protected abstract void propagateBatch(double[] in, int inOffset, int rows, double[] out,
+                                         int outOffset);
+
+  /**
+   * computes the weighted input sums of a batch of inputs (in * W^T + b), matrix-matrix version
+   * of weightedSum
+   * @param in input matrix, rows x (number of neuron inputs)
+   * @param inOffset index of the first element of the input matrix in the array
+   * @param rows number of examples in the batch
+   * @param out output matrix, rows x (number of neurons)
+   * @param outOffset index of the first element of the output matrix in the array
+   */
+  protected void weightedSumBatch(double[] in, int inOffset, int rows, double[] out,
+                                  int outOffset) {
+    if (weights.array != null) {
+      Kernels.gemmABt(weights.array, biases.array, neurons.length, inputCount, in, inOffset,
+          rows, out, outOffset);
+    } else {
+      Kernels.gemmABt(weights.buffer, biases.buffer, neurons.length, inputCount, in, inOffset,
+          rows, out, outOffset, null);
+    }
+  }
+
+  /**
+   * computes the outputs of a batch of inputs (act(in * W^T + b)) with the fused kernel: the
+   * activation function is applied on the output rows while they are still in cache
+   * @param in input matrix, rows x (number of neuron inputs)
+   * @param inOffset index of the first element of the input matrix in the array
+   * @param rows number of examples in the batch
+   * @param out output matrix, rows x (number of neurons)
+   * @param outOffset index of the first element of the output matrix in the array
+   */
+  protected void activateBatch(double[] in, int inOffset, int rows, double[] out,
+                               int outOffset) {
+    if (weights.array != null) {
+      Kernels.gemmABt(weights.array, biases.array, neurons.length, inputCount, in, inOffset,
+          rows, out, outOffset, actFcn);
+    } else {
+      Kernels.gemmABt(weights.buffer, biases.buffer, neurons.length, inputCount, in, inOffset,
+          rows, out, outOffset, actFcn);
+    }
+  }
+
+  /**
+   * propagates a batch of sparse inputs through the layer: only the weights of the nonzero
+   * inputs are read. sparse version of propagateBatch
+   * @param in input rows, as many columns as the neurons have inputs
+   * @param firstRow index of the first row of the batch propagated
+   * @param rows number of rows propagated
+   * @param out output matrix, rows x (number of neurons)
+   * @param outOffset index of the first element of the output matrix in the array
    */
-  protected void updateLayerWeights(double[][] delta) {
-    if(delta.length != neurons.length) {
-      throw new IllegalArgumentException("Layer weight update error: inappropriate input");
+  protected void propagateBatch(SparseBatch in, int firstRow, int rows, double[] out,
+                                int outOffset) {
+    int neuronCount = neurons.length;
+    if (weights.array != null) {
+      Kernels.spmmABt(weights.array, biases.array, neuronCount, inputCount, in.rowStart,
+          in.index, in.value, firstRow, rows, out, outOffset);
+    } else {
+      Kernels.spmmABt(weights.buffer, biases.buffer, neuronCount, inputCount, in.rowStart,
+          in.index, in.value, firstRow, rows, out, outOffset);
+    }
+    for (int r = 0; r < rows; r++) {
+      actFcn.applyInPlace(out, outOffset + r * neuronCount, neuronCount);
     }
+  }
 
-    for(int i = 0; i < neurons.length; i++) {
-      neurons[i].updateWeights(delta[i]);
+  /**
+   * propagates the neuron errors of a batch back to the inputs of the layer (delta * W)
+   * @param delta error matrix, rows x (number of neurons)
+   * @param rows number of examples in the batch
+   * @param out matrix receiving the weighted error sums, rows x (number of neuron inputs)
+   */
+  protected void backpropagateBatch(double[] delta, int rows, double[] out) {
+    if (weights.array != null) {
+      Kernels.gemmAB(delta, rows, weights.array, neurons.length, inputCount, out);
+    } else {
+      Kernels.gemmAB(delta, rows, weights.buffer, neurons.length, inputCount, out);
+    }
+  }
+
+  /**
+   * computes the weight and bias updates of a batch (delta^T * in), summed over the examples
+   * @param delta error matrix, rows x (number of neurons)
+   * @param in input matrix the errors were computed on, rows x (number of neuron inputs)
+   * @param rows number of examples in the batch
+   * @param weightUpdate storage receiving the weight updates, same layout as the weight block
+   * @param biasUpdate storage receiving the bias updates
+   */
+  protected void computeUpdates(double[] delta, double[] in, int rows, DoubleStorage weightUpdate,
+                                DoubleStorage biasUpdate) {
+    if (weightUpdate.array != null) {
+      Kernels.gemmAtB(delta, neurons.length, rows, in, inputCount, weightUpdate.array,
+          biasUpdate.array);
+    } else {
+      Kernels.gemmAtB(delta, neurons.length, rows, in, inputCount, weightUpdate.buffer,
+          biasUpdate.buffer);
+    }
+  }
+
+  /**
+   * sparse version of computeUpdates: only the updates of the weights of the nonzero inputs are
+   * written, the other weight updates are left unchanged
+   * @param delta error matrix, rows x (number of neurons)
+   * @param in input rows the errors were computed on, starting from the first row
+   * @param rows number of examples in the batch
+   * @param weightUpdate storage receiving the weight updates, same layout as the weight block
+   * @param biasUpdate storage receiving the bias updates
+   */
+  protected void computeUpdates(double[] delta, SparseBatch in, int rows,
+                                DoubleStorage weightUpdate, DoubleStorage biasUpdate) {
+    if (weightUpdate.array != null) {
+      Kernels.spmmAtB(delta, neurons.length, rows, in.rowStart, in.index, in.value, inputCount,
+          weightUpdate.array, biasUpdate.array);
+    } else {
+      Kernels.spmmAtB(delta, neurons.length, rows, in.rowStart, in.index, in.value, inputCount,
+          weightUpdate.buffer, biasUpdate.buffer);
     }
   }
 
@@ -85,4 +304,3 @@ public abstract class NeuralLayer {
   }
 }
 
-
@@ -1,17 +1,75 @@
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.ArrayDeque;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * framework for MLP-s (Multiple Layer Perceptron)
  */
-public class NeuralNetwork {
+public class NeuralNetwork implements BatchClassifier {
+
+  // below this input density the sparse kernels of the first layer are faster than the dense ones
+  private static final double DEFAULT_SPARSE_THRESHOLD = 0.3;
 
   private int inputCount;
   private int outputCount;
   private ArrayList<NeuralLayer> layers;
+  // generator initializing the weights of the layers created by the network
+  private final Random random;
+  // parallel training settings
+  private int threadCount = 1;
+  private ForkJoinPool trainingPool;
+  private boolean hogwild;
+  // inference steps compiled from the layers, and training buffers. both are kept until the
+  // topology changes
+  private ExecutionPlan plan;
+  private TrainingWorkspace workspace;
+  // trained layers, their updates and the optimizer state in direct buffers outside the heap
+  private boolean offHeap;
+  // weight update rule and its state, the state is kept like the training buffers
+  private Optimizer optimizer = Optimizer.sgd();
+  private OptimizerState optimizerState;
+  // learning rate of every batch, relative to the rate given to train
+  private LearningRateSchedule schedule = LearningRateSchedule.constant();
+  // batches trained on since the start of the current training run, the schedule position
+  private long runBatches;
+  // input density below which training uses the sparse path of the first layer
+  private double sparseThreshold = DEFAULT_SPARSE_THRESHOLD;
+  // number of batches trained on since the network was created
+  private long trainedBatches;
+  // inference snapshots: published by the training thread, read by any thread
+  private int snapshotInterval;
+  private volatile InferenceSnapshot publishedSnapshot;
+  // receives the measurements of every epoch, null if nothing is measured
+  private TrainingTelemetry telemetry;
+  // validation settings of train: epochs between two validations, share of the validation data
+  // used and its seed, validations without improvement before training stops (0: never)
+  private int validationInterval = 1;
+  private double validationFraction = 1;
+  private long validationSeed;
+  private int patience;
+  private boolean restoreBestWeights;
+  // result of the validation of the weights the last training run ended with
+  private ValidationResult lastValidation;
+  // distributed training: connection to the other replicas (null when training alone), and
+  // batches between two averagings of the weights (0: the updates of every batch are summed)
+  private RingAllReduce ring;
+  private int averagingInterval;
+  // checkpoints: writer and batches between two checkpoints (null and 0 when not checkpointing)
+  private Checkpointer checkpointer;
+  private int checkpointInterval;
+  // position of the current training run, saved in its checkpoints: arguments of the run,
+  // finished epochs and batches of the current epoch
+  private double runRate;
+  private int runLength;
+  private int runEpoch;
+  private int epochBatches;
+  // checkpoint a loaded network continues from when resume is called
+  private Checkpoint resumePoint;
 
   /**
    * network constructor with arbitrary output layer activation function
@@ -21,9 +79,27 @@ public class NeuralNetwork {
    * @param outputCount number of outputs in the network
    */
   public NeuralNetwork(int inputCount, int outputCount, ActivationFunction actFcn) {
+    this(inputCount, outputCount, actFcn, new Random());
+  }
+
+  /**
+   * network constructor with seeded weight initialization: networks built with the same seed
+   * and topology start from the same weights
+   * @param inputCount number of inputs in the network
+   * @param outputCount number of outputs in the network
+   * @param actFcn activation function of the output layer
+   * @param seed seed of the random generator initializing the weights of every layer
+   */
+  public NeuralNetwork(int inputCount, int outputCount, ActivationFunction actFcn, long seed) {
+    this(inputCount, outputCount, actFcn, new Random(seed));
+  }
+
+  private NeuralNetwork(int inputCount, int outputCount, ActivationFunction actFcn,
+                        Random random) {
+    this.random = random;
     layers = new ArrayList<>();
     layers.add(new InputLayer(inputCount));
-    layers.add(new HiddenLayer(inputCount, outputCount, actFcn));
+    layers.add(new HiddenLayer(inputCount, outputCount, actFcn, random));
     this.inputCount = inputCount;
     this.outputCount = outputCount;
   }
@@ -39,6 +115,22 @@ public class NeuralNetwork {
     this(inputCount,outputCount, ActivationFunction.sigmoid());
   }
 
+  /**
+   * getter for the number of inputs
+   * @return number of inputs in the network
+   */
+  @Override public int getInputCount() {
+    return inputCount;
+  }
+
+  /**
+   * getter for the number of outputs
+   * @return number of outputs in the network
+   */
+  @Override public int getOutputCount() {
+    return outputCount;
+  }
+
   /**
    * getter for network size
    * @return number of layers in the network
@@ -75,15 +167,21 @@ public class NeuralNetwork {
    *          layer neurons have to have appropriate amount of inputs
    */
   public void addHiddenLayer(HiddenLayer l) {
-    if (l.getNeuron(0).getInputCount() != layers.get(getLastIndex() - 1).getLayerNeuronCount()) {
+    if (l.getInputCount() != layers.get(getLastIndex() - 1).getLayerNeuronCount()) {
       throw new IllegalArgumentException("Inappropriate input count");
     }
     // create the new output layer
     HiddenLayer newOutLayer = new HiddenLayer(l.getLayerNeuronCount(),
-        this.outputCount, this.layers.get(getLastIndex()).getActFcn());
+        this.outputCount, this.layers.get(getLastIndex()).getActFcn(), random);
+    l.setOffHeap(offHeap);
+    newOutLayer.setOffHeap(offHeap);
 
     layers.add(getLastIndex(), l);
     layers.set(getLastIndex(), newOutLayer);
+    // the plan, the training buffers and the optimizer state no longer fit the topology
+    plan = null;
+    workspace = null;
+    optimizerState = null;
   }
 
   /**
@@ -91,11 +189,285 @@ public class NeuralNetwork {
    * @param neuronCount number of neurons in the layer to be added
    */
   public void addHiddenLayer(int neuronCount) {
+    addHiddenLayer(neuronCount, ActivationFunction.sigmoid());
+  }
+
+  /**
+   * adds a hidden layer with n neurons and the given activation function
+   * @param neuronCount number of neurons in the layer to be added
+   * @param actFcn activation function of the layer's neurons
+   */
+  public void addHiddenLayer(int neuronCount, ActivationFunction actFcn) {
     int layerInputCount = layers.get(getLastIndex() - 1).getLayerNeuronCount();
-    HiddenLayer layer = new HiddenLayer(layerInputCount, neuronCount);
+    HiddenLayer layer = new HiddenLayer(layerInputCount, neuronCount, actFcn, random);
     addHiddenLayer(layer);
   }
 
+  /**
+   * moves the weights and biases of the trained layers, the buffers of their updates and the
+   * optimizer state into direct buffers outside the java heap, or back into heap arrays. wide
+   * layers then add neither to the heap size nor to the work of the garbage collector. the
+   * layers added later are stored the same way, and the optimizer state is kept.
+   * off-heap layers run scalar kernels on the buffers, which sum in the order of the scalar
+   * heap kernels, so training gives the same weights either way (up to rounding when the heap
+   * runs the vector kernels) but is slower than with the vector kernels. the input layer, the
+   * inference snapshots and the checkpoints stay on the heap
+   * @param offHeap true to store the trained layers off-heap, false (the default) for the heap
+   * @throws IllegalArgumentException if a layer has more than 2GB of weights
+   */
+  public void setOffHeap(boolean offHeap) {
+    this.offHeap = offHeap;
+    for (int l = 1; l < layers.size(); l++) {
+      layers.get(l).setOffHeap(offHeap);
+    }
+    // the plan and the training buffers read the old storage, the state is moved with it
+    plan = null;
+    workspace = null;
+    if (optimizerState != null) {
+      optimizerState.setOffHeap(offHeap);
+    }
+  }
+
+  /**
+   * sets the number of threads used by train. with more than one thread every mini-batch is
+   * split between the threads, which compute their updates in parallel; the results only depend
+   * on the thread count, so runs with the same seed and thread count are reproducible
+   * @param threadCount number of training threads, 1 trains on the calling thread
+   */
+  public void setParallelism(int threadCount) {
+    setParallelism(threadCount, null);
+  }
+
+  /**
+   * sets the number of threads used by train, and the pool running them
+   * @param threadCount number of training threads, 1 trains on the calling thread
+   * @param pool pool running the training threads. if null, a pool is created for every
+   *             training run and shut down when it ends
+   */
+  public void setParallelism(int threadCount, ForkJoinPool pool) {
+    if (threadCount < 1) {
+      throw new IllegalArgumentException("Invalid thread count");
+    }
+    this.threadCount = threadCount;
+    this.trainingPool = pool;
+  }
+
+  /**
+   * turns hogwild training on or off. in hogwild mode every training thread updates the shared
+   * weights with its part of the batch as soon as it is done, without synchronization. scales
+   * better than the default mode, but the results are not reproducible. has no effect with a
+   * single thread
+   * @param hogwild true to update the weights without synchronization
+   */
+  public void setHogwild(boolean hogwild) {
+    this.hogwild = hogwild;
+  }
+
+  /**
+   * makes train run as one replica of a distributed training run. every process of the run
+   * builds the same topology and calls train with the same settings, the same validation data
+   * and its own shard of the training data (see SubsetDataset.shard). training starts from the
+   * weights of rank 0, and the replicas end every epoch with the same weights.
+   * the replicas either sum the updates of every batch before applying them, which takes the
+   * same steps as one network trained on batches of every shard together, or train on their own
+   * and average their weights every few batches, which exchanges less data
+   * @param ring connection to the other processes, null to train alone
+   * @param averagingInterval 0 to sum the updates of every batch, otherwise number of local
+   *                          batches between two averagings of the weights
+   */
+  public void setDistributed(RingAllReduce ring, int averagingInterval) {
+    if (averagingInterval < 0) {
+      throw new IllegalArgumentException("Invalid averaging interval");
+    }
+    this.ring = ring;
+    this.averagingInterval = averagingInterval;
+  }
+
+  /**
+   * makes train save a checkpoint every given number of batches: the weights, the optimizer
+   * state and the position of the run. the training thread only copies the state, the
+   * checkpointer writes it in the background. a run stopped at any point can be continued from
+   * its last checkpoint with loadCheckpoint and resume
+   * @param checkpointer writer of the checkpoints, null to turn checkpointing off
+   * @param batches number of batches between two checkpoints
+   */
+  public void setCheckpointing(Checkpointer checkpointer, int batches) {
+    if (checkpointer != null && batches < 1) {
+      throw new IllegalArgumentException("Invalid checkpoint interval");
+    }
+    this.checkpointer = checkpointer;
+    this.checkpointInterval = (checkpointer != null) ? batches : 0;
+  }
+
+  /**
+   * sets the rule train uses to update the weights. the state of the previous optimizer (e.g.
+   * the momentum of the weights) is dropped
+   * @param optimizer weight update rule, plain gradient descent by default
+   */
+  public void setOptimizer(Optimizer optimizer) {
+    if (optimizer == null) {
+      throw new IllegalArgumentException("Invalid optimizer");
+    }
+    this.optimizer = optimizer;
+    optimizerState = null;
+  }
+
+  /**
+   * sets how the learning rate changes during a training run. the schedule scales the rate
+   * given to train, its steps are the batches of the run
+   * @param schedule learning rate schedule, constant by default
+   */
+  public void setLearningRateSchedule(LearningRateSchedule schedule) {
+    if (schedule == null) {
+      throw new IllegalArgumentException("Invalid learning rate schedule");
+    }
+    this.schedule = schedule;
+  }
+
+  /**
+   * sets the input density below which train skips the zero inputs: the first hidden layer then
+   * only reads and updates the weights of the nonzero inputs of a batch. the density is checked
+   * for every batch, so dense and sparse batches can be mixed. the input layer must not shift
+   * the inputs, otherwise training is always dense
+   * @param density largest ratio of nonzero inputs for the sparse path, 0 to turn it off
+   */
+  public void setSparseInputThreshold(double density) {
+    if (density < 0 || density > 1) {
+      throw new IllegalArgumentException("Invalid sparse input threshold");
+    }
+    this.sparseThreshold = density;
+  }
+
+  /**
+   * makes train publish an inference snapshot every given number of batches, and at the end of
+   * every training run. readers get the latest one with getPublishedSnapshot, so a network can
+   * keep serving while it trains
+   * @param batches number of batches between two snapshots, 0 turns publishing off
+   */
+  public void setSnapshotInterval(int batches) {
+    if (batches < 0) {
+      throw new IllegalArgumentException("Invalid snapshot interval");
+    }
+    this.snapshotInterval = batches;
+  }
+
+  /**
+   * copies the current weights into an immutable snapshot. the network must not be modified by
+   * another thread while the copy is made
+   * @return a snapshot of the network that is safe to use from any thread
+   */
+  public InferenceSnapshot snapshot() {
+    return new InferenceSnapshot(layers, trainedBatches);
+  }
+
+  /**
+   * takes a snapshot and publishes it: readers calling getPublishedSnapshot afterwards get the
+   * new snapshot, readers still using the previous one are not affected. the network must not
+   * be modified by another thread while the copy is made
+   * @return the published snapshot
+   */
+  public InferenceSnapshot publishSnapshot() {
+    InferenceSnapshot ret = snapshot();
+    // volatile write: the snapshot is completely built before any reader can see it
+    publishedSnapshot = ret;
+    return ret;
+  }
+
+  /**
+   * getter for the last published snapshot, safe to call from any thread
+   * @return the last snapshot published by publishSnapshot or by train, null if there is none
+   */
+  public InferenceSnapshot getPublishedSnapshot() {
+    return publishedSnapshot;
+  }
+
+  /**
+   * sets where train reports its measurements: the validation error, throughput, time spent in
+   * every layer and in the weight updates, and the allocations of every epoch. measuring adds
+   * a few timer reads per layer and batch
+   * @param telemetry telemetry receiving the metrics of every epoch, null to measure nothing
+   */
+  public void setTelemetry(TrainingTelemetry telemetry) {
+    this.telemetry = telemetry;
+  }
+
+  /**
+   * sets how often train validates the network. validating less often leaves more time for
+   * training; the last epoch of a run is always validated
+   * @param epochs number of epochs between two validations
+   */
+  public void setValidationInterval(int epochs) {
+    if (epochs < 1) {
+      throw new IllegalArgumentException("Invalid validation interval");
+    }
+    this.validationInterval = epochs;
+  }
+
+  /**
+   * makes train validate on a stratified sample of the validation data instead of all of it.
+   * the sample is drawn once per training run, so the validations of a run are comparable
+   * @param fraction share of the validation examples used, 1 uses all of them
+   * @param seed seed of the sampling
+   */
+  public void setValidationSubsample(double fraction, long seed) {
+    if (fraction <= 0 || fraction > 1) {
+      throw new IllegalArgumentException("Invalid sample fraction");
+    }
+    this.validationFraction = fraction;
+    this.validationSeed = seed;
+  }
+
+  /**
+   * makes train stop when the validation error has not improved for a number of validations
+   * @param patience number of validations without improvement before training stops, 0 trains
+   *                 for the full number of iterations
+   * @param restoreBestWeights true to end the run with the weights of the best validation
+   *                           instead of the last ones
+   */
+  public void setEarlyStopping(int patience, boolean restoreBestWeights) {
+    if (patience < 0) {
+      throw new IllegalArgumentException("Invalid patience");
+    }
+    this.patience = patience;
+    this.restoreBestWeights = restoreBestWeights;
+  }
+
+  /**
+   * getter for the result of the last training run
+   * @return validation of the weights the last run ended with, null before the first run
+   */
+  public ValidationResult getLastValidation() {
+    return lastValidation;
+  }
+
+  /**
+   * evaluates the network on a data set. with parallelism and a pool set by setParallelism, the
+   * examples are split between the threads of the pool
+   * @param data examples, first the inputs, then the expected outputs
+   * @return error, accuracy and confusion matrix of the network on the data
+   */
+  public ValidationResult validate(Dataset data) {
+    if (data.getInputCount() != inputCount || data.getOutputCount() != outputCount) {
+      throw new IllegalArgumentException("Invalid validation data");
+    }
+    return new Evaluator(getPlan(), (threadCount > 1) ? trainingPool : null, threadCount)
+        .evaluate(data);
+  }
+
+  /**
+   * getter for the execution plan, compiled on first use after the topology changed
+   * @return the plan running the layers of the network
+   */
+  private ExecutionPlan getPlan() {
+    ExecutionPlan ret = plan;
+    if (ret == null) {
+      // a plan only has final fields, so a racing thread sees either null or a complete plan
+      ret = new ExecutionPlan(layers);
+      plan = ret;
+    }
+    return ret;
+  }
+
   /**
    * feeds data through the network and returns the output
    * @param in input data
@@ -106,18 +478,110 @@ public class NeuralNetwork {
     if (in.length != inputCount) {
       throw new IllegalArgumentException("Cant classify: input number mismatch");
     }
+    double[] ret = new double[outputCount];
+    getPlan().run(in, 0, 1, ret, 0);
+    return ret;
+  }
 
-    // creating return array and feeding it through the layers
-    double[] ret = in;
-    for (NeuralLayer n : layers) {
-      ret = n.propagate(ret);
-    }
+  /**
+   * feeds a batch of examples through the network and returns the outputs
+   * @param in input data, one example per row
+   *           every row has to have as many elements as there are inputs in the network
+   * @return network output, one row per example
+   */
+  public double[][] classifyBatch(double[][] in) {
+    double[][] ret = new double[in.length][outputCount];
+    classifyBatch(in, ret);
     return ret;
   }
 
+  /**
+   * feeds a batch of examples through the network and writes the outputs into the given rows
+   * @param in input data, one example per row
+   *           every row has to have as many elements as there are inputs in the network
+   * @param out output buffer, has to have a row with outputCount elements for every example
+   */
+  public void classifyBatch(double[][] in, double[][] out) {
+    if (out.length != in.length) {
+      throw new IllegalArgumentException("Cant classify: output row number mismatch");
+    }
+    ExecutionPlan executionPlan = getPlan();
+    // sized for the batch, a single example only needs a row. the plan buffers are allocated
+    // once for every block
+    int blockSize = Math.min(in.length, ExecutionPlan.BLOCK_ROWS);
+    double[] inBlock = new double[blockSize * inputCount];
+    double[] outBlock = new double[blockSize * outputCount];
+    double[] bufferA = new double[blockSize * executionPlan.getWidth()];
+    double[] bufferB = new double[blockSize * executionPlan.getWidth()];
+    // pack the rows into a contiguous block, process it, then unpack the results
+    for (int start = 0; start < in.length; start += ExecutionPlan.BLOCK_ROWS) {
+      int rows = Math.min(ExecutionPlan.BLOCK_ROWS, in.length - start);
+      for (int r = 0; r < rows; r++) {
+        if (in[start + r].length != inputCount || out[start + r].length != outputCount) {
+          throw new IllegalArgumentException("Cant classify: input number mismatch");
+        }
+        System.arraycopy(in[start + r], 0, inBlock, r * inputCount, inputCount);
+      }
+      executionPlan.run(inBlock, 0, rows, outBlock, 0, bufferA, bufferB);
+      for (int r = 0; r < rows; r++) {
+        System.arraycopy(outBlock, r * outputCount, out[start + r], 0, outputCount);
+      }
+    }
+  }
+
+  /**
+   * feeds a batch of examples stored in a single row-major array through the network
+   * @param in input matrix, rows x inputCount elements
+   * @param rows number of examples
+   * @param out output matrix, rows x outputCount elements, receives the network output
+   */
+  @Override public void classifyBatch(double[] in, int rows, double[] out) {
+    if (rows < 0 || in.length < rows * inputCount || out.length < rows * outputCount) {
+      throw new IllegalArgumentException("Cant classify: input number mismatch");
+    }
+    getPlan().run(in, 0, rows, out, 0);
+  }
+
+  /**
+   * feeds a batch of sparse examples through the network. the first hidden layer only reads the
+   * weights of the nonzero inputs, which is faster than the dense version for inputs that are
+   * mostly zero
+   * @param in input rows, inputCount columns each
+   * @param out output matrix, rows x outputCount elements, receives the network output
+   */
+  public void classifyBatch(SparseBatch in, double[] out) {
+    int rows = in.getRowCount();
+    if (in.getColumnCount() != inputCount || out.length < rows * outputCount) {
+      throw new IllegalArgumentException("Cant classify: input number mismatch");
+    }
+    InputLayer inputLayer = (InputLayer) layers.get(0);
+    if (!inputLayer.preservesZeros()) {
+      // a shifted input is not sparse any more, run the dense version
+      double[] dense = new double[rows * inputCount];
+      for (int r = 0; r < rows; r++) {
+        in.getDenseRow(r, dense, r * inputCount);
+      }
+      classifyBatch(dense, rows, out);
+      return;
+    }
+    SparseBatch scaled = in;
+    if (!inputLayer.isIdentity()) {
+      // the input layer scales the inputs, apply it on a copy of the values
+      double[] scale = inputLayer.getWeightBlock();
+      scaled = new SparseBatch(inputCount, rows, in.getNonzeroCount());
+      double[] row = new double[inputCount];
+      for (int r = 0; r < rows; r++) {
+        in.getDenseRow(r, row, 0);
+        scaled.addDenseRow(row, 0, scale);
+      }
+    }
+    getPlan().run(scaled, out);
+  }
+
   /**
    * training algorithm for the MLP, implementing backpropogation. See any machine learning book
    * for details ('Tom M. Mitchell - Machine learning' is decent)
+   * the weights are updated after every example (stochastic gradient descent)
    * @param trainingData data to train the network on. format:
    *                     rows are independent training examples
    *                     columns are inputs/outputs, first the inputs, then the outputs
@@ -126,139 +590,450 @@ public class NeuralNetwork {
    */
   public void train(final double[][] trainingData, final double[][] validationData, double
       trainingRate, int maxIterations){
+    train(trainingData, validationData, trainingRate, maxIterations, 1);
+  }
+
+  /**
+   * mini-batch version of the training algorithm: the updates of batchSize examples are summed,
+   * and the weights are updated once per batch with their average
+   * @param trainingData data to train the network on. same form as in the other train method
+   * @param validationData data to validate the network. same form as the training data
+   * @param trainingRate see any ML book
+   * @param maxIterations number of passes over the training data
+   * @param batchSize number of examples per weight update
+   */
+  public void train(final double[][] trainingData, final double[][] validationData, double
+      trainingRate, int maxIterations, int batchSize){
     // only checking the first data pair, might have to put this in a loop to check each input
     if (trainingData[0].length != inputCount + outputCount || trainingRate <= 0 ||
-        trainingData[0].length != inputCount + outputCount) {
+        trainingData[0].length != inputCount + outputCount || batchSize < 1) {
+      throw new IllegalArgumentException("Invalid training data");
+    }
+    batchSize = Math.min(batchSize, trainingData.length);
+    train(new DatasetBatchSource(new ArrayDataset(trainingData, inputCount), batchSize),
+        new ArrayDataset(validationData, inputCount), trainingRate, maxIterations);
+  }
+
+  /**
+   * streaming version of the training algorithm: the training examples are fetched from the
+   * source one mini-batch at a time, so the training data does not have to fit in the heap.
+   * the weights are updated once per batch with the average of its updates
+   * @param training source of the training batches, restarted at the beginning of every pass
+   * @param validation data to validate the network. same form as the training data
+   * @param trainingRate see any ML book
+   * @param maxIterations number of passes over the training data
+   */
+  public void train(BatchSource training, Dataset validation, double trainingRate,
+                    int maxIterations) {
+    train(training, validation, trainingRate, maxIterations, null);
+  }
+
+  /**
+   * continues the training run a network loaded by loadCheckpoint was saved from, with the
+   * training rate and number of passes of that run. training starts again at the batch after
+   * the checkpoint, so the source must return the batches of the interrupted run: it must be
+   * built like the source of that run (e.g. with the same seed), and not be used before.
+   * the learning rate schedule, validation, early stopping, parallelism and checkpoint settings
+   * are not part of the checkpoint and have to be set again. early stopping starts counting
+   * again at the checkpoint
+   * @param training source of the training batches of the interrupted run
+   * @param validation data to validate the network. same form as the training data
+   */
+  public void resume(BatchSource training, Dataset validation) {
+    if (resumePoint == null) {
+      throw new IllegalStateException("No checkpoint to resume from");
+    }
+    Checkpoint from = resumePoint;
+    train(training, validation, from.trainingRate, from.maxIterations, from);
+    resumePoint = null;
+  }
+
+  /**
+   * runs or continues a training run
+   * @param training source of the training batches
+   * @param validation data to validate the network
+   * @param trainingRate see any ML book
+   * @param maxIterations number of passes over the training data
+   * @param from checkpoint the run continues from, null to start a new run
+   */
+  private void train(BatchSource training, Dataset validation, double trainingRate,
+                     int maxIterations, Checkpoint from) {
+    if (training.getInputCount() != inputCount || training.getOutputCount() != outputCount ||
+        validation.getInputCount() != inputCount || validation.getOutputCount() != outputCount ||
+        trainingRate <= 0) {
       throw new IllegalArgumentException("Invalid training data");
     }
-    String filePath = "error.txt";
-    try(final FileWriter outFile = new FileWriter(filePath)) {
-      double previousError;
-      double error = trainingValidation(validationData);
-      outFile.write(error + System.lineSeparator());
+    ReplicaSync replicas = (ring != null) ? new ReplicaSync(ring, layers, averagingInterval)
+        : null;
+    if (replicas != null && averagingInterval == 0 && hogwild && threadCount > 1) {
+      throw new IllegalArgumentException("Hogwild training can not sum the updates of replicas");
+    }
+    int batchSize = training.getBatchSize();
+    double[][] batch = new double[batchSize][];
+    if (optimizerState == null) {
+      optimizerState = new OptimizerState(layers, optimizer);
+    }
+    runBatches = (from != null) ? from.runBatches : 0;
+    runRate = trainingRate;
+    runLength = maxIterations;
+    ParallelTrainer parallelTrainer = null;
+    ForkJoinPool pool = null;
+    if (threadCount > 1) {
+      pool = (trainingPool != null) ? trainingPool : new ForkJoinPool(threadCount);
+      parallelTrainer = new ParallelTrainer(layers, pool, threadCount, batchSize, hogwild,
+          optimizerState);
+    } else if (workspace == null || workspace.getCapacity() < batchSize) {
+      workspace = new TrainingWorkspace(layers, batchSize);
+    }
+    boolean timed = telemetry != null;
+    // the sparse path skips the input layer, which is only possible if it keeps zeros
+    double threshold = ((InputLayer) layers.get(0)).preservesZeros() ? sparseThreshold : 0;
+    if (parallelTrainer != null) {
+      parallelTrainer.setTimed(timed);
+      parallelTrainer.setSparseThreshold(threshold);
+    } else {
+      workspace.timed = timed;
+      workspace.sparseThreshold = threshold;
+    }
+    Evaluator evaluator = new Evaluator(getPlan(), pool, threadCount);
+    if (validationFraction < 1) {
+      validation = SubsetDataset.stratified(validation, validationFraction, validationSeed);
+    }
+    long[] forwardNanos = new long[layers.size()];
+    long[] backwardNanos = new long[layers.size()];
+    try {
+      if (replicas != null) {
+        replicas.broadcastWeights();
+      }
+      // the starting weights are only validated when early stopping compares against them,
+      // the last epoch of a run is always validated
+      boolean tracksBest = patience > 0 || restoreBestWeights;
+      ValidationResult result = tracksBest ? evaluator.evaluate(validation) : null;
+      ValidationResult best = result;
+      double[][] bestWeights = restoreBestWeights ? copyWeights(null) : null;
+      int sinceBest = 0;
       int i = 0;
+      epochBatches = 0;
+      if (from != null) {
+        // replay the finished epochs, so the source is at the epoch of the checkpoint. the
+        // batches trained on in that epoch are skipped by startEpoch
+        for (; i < from.epoch; i++) {
+          training.startEpoch();
+        }
+        epochBatches = from.batch;
+      }
       do {
-        previousError = error;
-        trainOnBatch(trainingData, trainingRate);
-        error = trainingValidation(validationData);
-        outFile.write(error + System.lineSeparator());
+        runEpoch = i;
+        long allocatedBefore = timed ? allocatedBytes() : 0;
+        long start = System.nanoTime();
+        long examples = (replicas == null)
+            ? trainEpoch(training, batch, trainingRate, parallelTrainer)
+            : trainReplicaEpoch(training, batch, trainingRate, parallelTrainer, replicas);
+        long elapsed = System.nanoTime() - start;
+        long allocated = (allocatedBefore < 0) ? -1 : allocatedBytes() - allocatedBefore;
+        epochBatches = 0;
         i++;
-      } while (/*previousError > error && */i < maxIterations);
-    } catch (IOException e) {
-      System.out.println("IOException");
-    }
-  }
-
-  private void trainOnBatch(double[][] trainingData, double trainingRate) {
-    // stack to hold the layer results
-    ArrayDeque<double[]> results;
-    // array to hold the neuron output derivatives
-    double[] neuronDelta;
-    double[][] weightDelta;
-    // iterate over the examples one at a time, and update the weights using backpropagation
-    for (double[] example : trainingData) {
-      results = new ArrayDeque<>();
-      // separate input from output
-      double[] trainingInput = Arrays.copyOfRange(example, 0, inputCount);
-      double[] trainingOutput = Arrays.copyOfRange(example, inputCount, example.length);
-      results.push(trainingInput);
-      // propagating data through the network, while pushing every layer's output onto the stack
-      for (NeuralLayer n : layers) {
-        results.push(n.propagate(results.peek()));
+        boolean validated = i % validationInterval == 0 || i == maxIterations;
+        if (validated) {
+          result = evaluator.evaluate(validation);
+          if (best == null || result.getLoss() < best.getLoss()) {
+            best = result;
+            sinceBest = 0;
+            if (bestWeights != null) {
+              copyWeights(bestWeights);
+            }
+          } else {
+            sinceBest++;
+          }
+        }
+        if (timed) {
+          Arrays.fill(forwardNanos, 0);
+          Arrays.fill(backwardNanos, 0);
+          long updateNanos = (parallelTrainer != null)
+              ? parallelTrainer.collectTimings(forwardNanos, backwardNanos)
+              : workspace.collectTimings(forwardNanos, backwardNanos);
+          telemetry.publish(new TrainingMetrics(i, validated ? result.getLoss() : Double.NaN,
+              validated ? result.getAccuracy() : Double.NaN, examples, elapsed, forwardNanos,
+              backwardNanos, updateNanos, allocated));
+        }
+      } while ((patience == 0 || sinceBest < patience) && i < maxIterations);
+      if (bestWeights != null && best != result) {
+        restoreWeights(bestWeights);
+        result = best;
       }
+      lastValidation = result;
+    } finally {
+      if (snapshotInterval > 0) {
+        publishSnapshot();
+      }
+      // only shut down the pool if it was created for this run
+      if (pool != null && pool != trainingPool) {
+        pool.shutdown();
+      }
+    }
+  }
 
-      // process the output layer but do not update the weights yet
-      // variable to hold the current layer reference
-      NeuralLayer currentLayer = layers.get(layers.size() - 1);
-      neuronDelta = new double[currentLayer.getLayerNeuronCount()];
-      // 2D array to hold the weight updates
-      weightDelta = new double[currentLayer.getLayerNeuronCount()][currentLayer
-          .getNeuron(0).getInputCount() + 1];
-      // current layer's output, popped from the stack
-      double[] output = results.pop();
-      for (int i =  0; i < currentLayer.getLayerNeuronCount(); i++) {
-        // calculate the neuron's derivative which is the derivative of the error function
-        // multiplied by the derivative of the activation function at the weight and input vector
-        // dot product (chain rule)
-        neuronDelta[i] = (trainingOutput[i] - output[i]) * currentLayer.getActFcn().applyDerivative(
-            currentLayer.getNeuron(i).fire(results.peek()));
-        for (int j = 0; j < currentLayer.getNeuron(i).getInputCount(); j++) {
-          // calculate the gradient
-          weightDelta[i][j] = neuronDelta[i] * trainingRate * results.peek()[j];
-        }
-        // bias delta
-        weightDelta[i][currentLayer.getNeuron(i).getInputCount()] = neuronDelta[i] * trainingRate;
+  /**
+   * runs one pass over the training batches
+   * @param training source of the training batches
+   * @param batch array receiving the rows of a batch
+   * @param trainingRate base learning rate, scaled by the schedule for every batch
+   * @param parallelTrainer trainer running the batches, null to train on the calling thread with
+   *                        the workspace of the network
+   * @return number of examples trained on
+   */
+  private long trainEpoch(BatchSource training, double[][] batch, double trainingRate,
+                          ParallelTrainer parallelTrainer) {
+    long ret = 0;
+    startEpoch(training, batch);
+    int rows;
+    while ((rows = training.nextBatch(batch)) > 0) {
+      ret += rows;
+      trainOnBatch(batch, rows, schedule.rate(trainingRate, runBatches++), parallelTrainer);
+    }
+    return ret;
+  }
+
+  /**
+   * starts a pass over the training batches. when a run is resumed in the middle of an epoch,
+   * the batches trained on before the checkpoint are skipped
+   * @param training source of the training batches
+   * @param batch array receiving the rows of a batch
+   */
+  private void startEpoch(BatchSource training, double[][] batch) {
+    training.startEpoch();
+    for (int b = 0; b < epochBatches; b++) {
+      if (training.nextBatch(batch) == 0) {
+        break;
       }
-      // if there are no hidden layers in the network, we can update the weights since they wont
-      // be used in the next loop
-      if(layers.size() == 2) {
-        currentLayer.updateLayerWeights(weightDelta);
+    }
+  }
+
+  /**
+   * trains the network on a batch
+   * @param batch training examples, first the inputs, then the outputs in every row
+   * @param rows number of examples in the batch
+   * @param rate learning rate of the step
+   * @param parallelTrainer trainer running the batch, null to train on the calling thread with
+   *                        the workspace of the network
+   */
+  private void trainOnBatch(double[][] batch, int rows, double rate,
+                            ParallelTrainer parallelTrainer) {
+    if (parallelTrainer != null) {
+      parallelTrainer.trainOnBatch(batch, rows, rate);
+    } else {
+      // compute the updates of a batch with the old weights, then update the whole network
+      workspace.computeUpdates(batch, 0, rows);
+      workspace.applyUpdates(optimizerState, rows, rate);
+    }
+    batchTrained();
+  }
+
+  /**
+   * counts a trained batch, and publishes a snapshot or saves a checkpoint if one is due
+   */
+  private void batchTrained() {
+    trainedBatches++;
+    epochBatches++;
+    if (snapshotInterval > 0 && trainedBatches % snapshotInterval == 0) {
+      publishSnapshot();
+    }
+    if (checkpointInterval > 0 && trainedBatches % checkpointInterval == 0) {
+      checkpoint();
+    }
+  }
+
+  /**
+   * copies the state of the run into the memory of the checkpointer, which writes it in the
+   * background. the checkpoint is skipped if the previous one is still being written
+   */
+  private void checkpoint() {
+    Checkpoint ret = checkpointer.acquire();
+    if (ret == null) {
+      return;
+    }
+    ret.capture(layers, optimizerState);
+    ret.runBatches = runBatches;
+    ret.trainedBatches = trainedBatches;
+    ret.epoch = runEpoch;
+    ret.batch = epochBatches;
+    ret.trainingRate = runRate;
+    ret.maxIterations = runLength;
+    checkpointer.submit(ret);
+  }
+
+  /**
+   * runs one pass over the training batches of the local shard as a replica of a distributed
+   * run. the replicas stay in step until every shard is finished
+   * @param training source of the training batches
+   * @param batch array receiving the rows of a batch
+   * @param trainingRate base learning rate, scaled by the schedule for every batch
+   * @param parallelTrainer trainer running the batches, null to train on the calling thread with
+   *                        the workspace of the network
+   * @param replicas synchronization with the other replicas
+   * @return number of examples of the local shard trained on
+   */
+  private long trainReplicaEpoch(BatchSource training, double[][] batch, double trainingRate,
+                                 ParallelTrainer parallelTrainer, ReplicaSync replicas) {
+    if (replicas.getAveragingInterval() == 0) {
+      return trainEpochSummed(training, batch, trainingRate, parallelTrainer, replicas);
+    }
+    long ret = 0;
+    startEpoch(training, batch);
+    // a resumed run continues in the averaging round of the checkpoint
+    int localBatches = epochBatches;
+    int roundRows = 0;
+    while (true) {
+      int rows = training.nextBatch(batch);
+      if (rows > 0) {
+        ret += rows;
+        roundRows += rows;
+        trainOnBatch(batch, rows, schedule.rate(trainingRate, runBatches++), parallelTrainer);
       }
-      // repeat for hidden layers, if present (do not touch the input layer!)
-      for (int i = layers.size() - 2; i > 0; i--) {
-        // store the reference to the current and previous layer for future use
-        currentLayer = layers.get(i);
-        NeuralLayer previousLayer = layers.get(i + 1);
-        // new variable for holding the weight updates. can't use the old one, because the
-        // weights can only update when this layer is finished
-        double[][] newWeightDelta = new double[currentLayer.getLayerNeuronCount()][currentLayer
-            .getNeuron(0).getInputCount() + 1];
-        // new variable for holding the deltas. can't use the old one because we need its values
-        // to calculate the deltaSums
-        double[] newNeuronDelta = new double[currentLayer.getLayerNeuronCount()];
-        output = results.pop();
-        // take each neuron and calculate its error (derivative) and weight updates
-        for (int j =  0; j < currentLayer.getLayerNeuronCount(); j++) {
-          double deltaSum = 0;
-          // calculate the sum of output errors
-          for (int k = 0; k < previousLayer.getLayerNeuronCount(); k++) {
-            deltaSum += previousLayer.getNeuron(k).getWeight(j) * neuronDelta[k];
-          }
-          // calculate the neuron's derivative
-          newNeuronDelta[j] = output[j] * (1 - output[j]) * deltaSum;
-          for (int k = 0; k < currentLayer.getNeuron(j).getInputCount(); k++) {
-            // calculate the gradient
-            newWeightDelta[j][k] = newNeuronDelta[j] * trainingRate * results.peek()[k];
-          }
-          // bias delta
-          newWeightDelta[j][currentLayer.getNeuron(j).getInputCount()] = newNeuronDelta[j] *
-              trainingRate;
-        }
-        // the calculation is finished, we dont need the previous layer's old weights anymore, so
-        // we can update them
-        previousLayer.updateLayerWeights(weightDelta);
-        // on the last iteration update current layer's weights
-        if(i == 1) {
-          currentLayer.updateLayerWeights(newWeightDelta);
+      // the replicas average after the same number of steps. a replica whose shard is finished
+      // keeps stepping without training until every shard is finished
+      if (++localBatches % replicas.getAveragingInterval() == 0) {
+        int total = replicas.averageWeights(roundRows);
+        roundRows = 0;
+        if (total == 0) {
+          return ret;
         }
-        // otherwise update the variables and move onto the next iteration
-        else {
-          // move the data into the old variables so we can use them in the next iteration
-          weightDelta = newWeightDelta;
-          neuronDelta = newNeuronDelta;
+      }
+    }
+  }
+
+  /**
+   * runs one pass over the training batches as a replica summing the updates of every batch
+   * with the other replicas
+   * @param training source of the training batches
+   * @param batch array receiving the rows of a batch
+   * @param trainingRate base learning rate, scaled by the schedule for every batch
+   * @param parallelTrainer trainer running the batches, null to train on the calling thread with
+   *                        the workspace of the network
+   * @param replicas synchronization with the other replicas
+   * @return number of examples of the local shard trained on
+   */
+  private long trainEpochSummed(BatchSource training, double[][] batch, double trainingRate,
+                                ParallelTrainer parallelTrainer, ReplicaSync replicas) {
+    long ret = 0;
+    startEpoch(training, batch);
+    Gradients updates = (parallelTrainer != null) ? parallelTrainer.getUpdates()
+        : workspace.updates;
+    while (true) {
+      // a replica whose shard is finished sends empty updates until every shard is finished
+      int rows = training.nextBatch(batch);
+      if (rows > 0) {
+        if (parallelTrainer != null) {
+          parallelTrainer.computeUpdates(batch, rows);
+        } else {
+          workspace.computeUpdates(batch, 0, rows);
         }
       }
+      int total = replicas.reduceUpdates(updates, rows);
+      if (total == 0) {
+        return ret;
+      }
+      ret += rows;
+      // the replicas take the same steps, so their schedules stay in step
+      double rate = schedule.rate(trainingRate, runBatches++);
+      if (parallelTrainer != null) {
+        parallelTrainer.applyUpdates(total, rate);
+      } else {
+        workspace.applyUpdates(optimizerState, total, rate);
+      }
+      batchTrained();
+    }
+  }
+
+  /**
+   * bytes allocated by the current thread since it started
+   * @return allocated bytes, or -1 if the jvm can not measure it
+   */
+  private static long allocatedBytes() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(
+          Thread.currentThread().getId());
     }
+    return -1;
   }
 
   /**
-   * calculates the error function on a given set of validation data
-   * @param validationData valid input-output data
-   * @return sum of the error function (t-o)^2/2 over every output and example
+   * copies the weights and biases of the trained layers
+   * @param dest arrays of an earlier copy to overwrite, null to allocate new ones
+   * @return the weight block then the bias vector of every layer after the input layer
    */
-  private double trainingValidation(final double[][] validationData) {
-    double ret = 0;
-    double[][] output = new double[validationData.length][];
-    // separate input from output
-    for (int i = 0; i < validationData.length; i++) {
-      double[] validationInput = Arrays.copyOfRange(validationData[i],0, inputCount);
-      double[] validationOutput = Arrays.copyOfRange(validationData[i], inputCount,
-          validationData[i].length);
-      output[i] = this.classify(validationInput);
-      for (int j  = 0; j < output[i].length; j++) {
-        ret += Math.pow(output[i][j] - validationOutput[j], 2) / 2;
+  private double[][] copyWeights(double[][] dest) {
+    double[][] ret = (dest != null) ? dest : new double[2 * getLastIndex()][];
+    for (int l = 1; l < layers.size(); l++) {
+      DoubleStorage weights = layers.get(l).getWeightStorage();
+      DoubleStorage biases = layers.get(l).getBiasStorage();
+      if (dest == null) {
+        ret[2 * l - 2] = new double[weights.length()];
+        ret[2 * l - 1] = new double[biases.length()];
       }
+      weights.copyTo(ret[2 * l - 2], 0);
+      biases.copyTo(ret[2 * l - 1], 0);
+    }
+    return ret;
+  }
+
+  /**
+   * writes weights copied by copyWeights back into the layers
+   * @param source the copy
+   */
+  private void restoreWeights(double[][] source) {
+    for (int l = 1; l < layers.size(); l++) {
+      layers.get(l).getWeightStorage().copyFrom(source[2 * l - 2], 0);
+      layers.get(l).getBiasStorage().copyFrom(source[2 * l - 1], 0);
+    }
+  }
+
+  /**
+   * writes the network (topology, activation functions and weights) into a model file. the file
+   * can be loaded back with load, or mapped for inference with MappedModel
+   * @param path path of the model file, replaced if it exists
+   * @throws IOException if the file can not be written
+   */
+  public void save(Path path) throws IOException {
+    ModelFile.write(layers, path);
+  }
+
+  /**
+   * reads a network from a model file written by save
+   * @param path path of the model file
+   * @return the network, ready to be trained further
+   * @throws IOException if the file can not be read or is not a valid model file
+   */
+  public static NeuralNetwork load(Path path) throws IOException {
+    return new MappedModel(path).toNeuralNetwork();
+  }
+
+  /**
+   * reads a network from a checkpoint written during a training run (see setCheckpointing),
+   * with its optimizer and optimizer state. the run goes on with resume
+   * @param path path of the checkpoint file, e.g. Checkpointer.latest of the checkpoint
+   *             directory
+   * @return the network, ready to resume the run
+   * @throws IOException if the file can not be read or is not a valid checkpoint file
+   */
+  public static NeuralNetwork loadCheckpoint(Path path) throws IOException {
+    Checkpoint checkpoint = Checkpoint.read(path);
+    int last = checkpoint.neuronCounts.length - 1;
+    NeuralNetwork ret = new NeuralNetwork(checkpoint.neuronCounts[0],
+        checkpoint.neuronCounts[last], checkpoint.actFcns[last]);
+    for (int l = 1; l < last; l++) {
+      ret.addHiddenLayer(checkpoint.neuronCounts[l], checkpoint.actFcns[l]);
+    }
+    for (int l = 0; l <= last; l++) {
+      ret.layers.get(l).getWeightStorage().copyFrom(checkpoint.weights[l], 0);
+      ret.layers.get(l).getBiasStorage().copyFrom(checkpoint.biases[l], 0);
     }
+    ret.setOptimizer(checkpoint.optimizer);
+    ret.optimizerState = new OptimizerState(ret.layers, ret.optimizer);
+    checkpoint.restore(ret.optimizerState);
+    ret.trainedBatches = checkpoint.trainedBatches;
+    ret.resumePoint = checkpoint;
     return ret;
   }
 
@@ -1,30 +1,56 @@
-import java.util.Arrays;
 import java.util.Random;
 
 public class Neuron {
 
-  private double[] weights;
-  private double bias;
-  private int inputCount;
   /*
-   * question: is it a member of the neuron or the layer?
-   * there might be memory issues
+   * the neuron does not own its weights: it is a view of one row of the weight block of the layer
+   * it belongs to (see NeuralLayer), and of one element of the layer's bias vector
    */
+  private DoubleStorage weights;
+  private DoubleStorage biases;
+  private final int offset;
+  private final int index;
+  private final int inputCount;
 
   /**
-   * creates a neuron with randomly initialized weights
+   * creates a standalone neuron with randomly initialized weights
    * @param inputCount number of inputs the neuron accepts
    */
   public Neuron(int inputCount) {
-    this.inputCount = inputCount;
-    this.weights = new double[inputCount];
+    this(DoubleStorage.allocate(inputCount, false), DoubleStorage.allocate(1, false), 0,
+        inputCount);
     Random rand = new Random();
 
     //setting random weight values
-    for (int i = 0; i < weights.length; i++) {
-      weights[i] = (rand.nextDouble() - 0.5) * 0.1;
+    for (int i = 0; i < inputCount; i++) {
+      weights.array[i] = (rand.nextDouble() - 0.5) * 0.1;
     }
-    bias = (rand.nextDouble() - 0.5) * 0.1;
+    biases.array[0] = (rand.nextDouble() - 0.5) * 0.1;
+  }
+
+  /**
+   * creates a view of a neuron stored in a layer's weight block
+   * @param weights row-major weight block of the layer
+   * @param biases bias vector of the layer
+   * @param index row of the neuron in the weight block
+   * @param inputCount number of inputs the neuron accepts (row length)
+   */
+  Neuron(DoubleStorage weights, DoubleStorage biases, int index, int inputCount) {
+    this.weights = weights;
+    this.biases = biases;
+    this.index = index;
+    this.offset = index * inputCount;
+    this.inputCount = inputCount;
+  }
+
+  /**
+   * points the view at the new memory of the layer, after the layer moved its weights
+   * @param weights row-major weight block of the layer
+   * @param biases bias vector of the layer
+   */
+  void setStorage(DoubleStorage weights, DoubleStorage biases) {
+    this.weights = weights;
+    this.biases = biases;
   }
 
   /**
@@ -49,7 +75,7 @@ public class Neuron {
    * @return neuron output: dot product of weight and input vectors
    */
   public double fire(double[] in) {
-    if (in.length != this.weights.length) {
+    if (in.length != this.inputCount) {
       throw new IllegalArgumentException("Inappropriate input length: Neuron");
     }
 
@@ -57,10 +83,17 @@ public class Neuron {
 
     /* dot product of the weight and input arrays
     the loop multiplies the elements with same indices and adds them to the accumulator */
-    for (int i = 0; i < in.length; i++) {
-      sum += in[i] * this.weights[i];
+    double[] w = this.weights.array;
+    if (w != null) {
+      for (int i = 0; i < in.length; i++) {
+        sum += in[i] * w[offset + i];
+      }
+    } else {
+      for (int i = 0; i < in.length; i++) {
+        sum += in[i] * this.weights.buffer.get(offset + i);
+      }
     }
-    sum += bias;
+    sum += biases.get(index);
 
     return sum;
   }
@@ -71,39 +104,31 @@ public class Neuron {
    * @return weight and input vector dot product
    */
   public double fire(double in) {
-    if (1 != this.weights.length) {
+    if (1 != this.inputCount) {
       throw new IllegalArgumentException("Inappropriate input length: Neuron");
     }
-    return this.weights[0] * in + bias;
+    return this.weights.get(offset) * in + biases.get(index);
   }
 
   public double getWeight(int index) {
-    if (index > weights.length) {
+    if (index > inputCount) {
       throw new IndexOutOfBoundsException("Weight index problem: getWeight");
     }
 
-    if (index == weights.length) {
-      return bias;
+    if (index == inputCount) {
+      return biases.get(this.index);
     }
 
-    else return weights[index];
-  }
-
-  protected void updateWeights(double[] delta) {
-    if (delta.length != weights.length + 1) {
-      throw new IllegalArgumentException("Neuron weight update error: inappropriate input");
-    }
-    for (int i = 0; i < this.weights.length; i++) {
-      this.weights[i] += delta[i];
-    }
-    bias += delta[delta.length - 1];
+    else return weights.get(offset + index);
   }
 
   public void setWeights(double[] weights) {
-    if (weights.length != this.weights.length + 1) {
+    if (weights.length != inputCount + 1) {
       throw new IllegalArgumentException("......");
     }
-    this.weights = Arrays.copyOfRange(weights, 0, this.weights.length);
-    this.bias = weights[weights.length-1];
+    for (int i = 0; i < inputCount; i++) {
+      this.weights.set(offset + i, weights[i]);
+    }
+    this.biases.set(index, weights[weights.length-1]);
   }
-}
\ No newline at end of file
+}
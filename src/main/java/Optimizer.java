@@ -0,0 +1,350 @@
+import java.nio.DoubleBuffer;
+
+
+/**
+ * rule turning the weight updates of a batch into a change of the weights. plain gradient
+ * descent moves the weights along the averaged updates; the other rules keep state for every
+ * weight (a running average of the updates, of their squares, or both) to speed up training.
+ * every rule is a single fused loop over the weights of a layer, reading the update and state
+ * once and writing the state and weight once, without allocating memory
+ */
+public class Optimizer {
+
+  /*
+   * like the activation functions, the rules are selected with a switch so every update is a
+   * tight primitive loop the JIT can compile without a call per weight.
+   * the ordinals are stored in checkpoint files, new types have to be added at the end
+   */
+  private enum Type { SGD, MOMENTUM, NESTEROV, RMS_PROP, ADAM }
+
+  private final Type type;
+  // decay of the first moment (momentum) and of the second moment (squared updates)
+  private final double beta1;
+  private final double beta2;
+  // added to the root of the second moment so the division is safe
+  private final double epsilon;
+  private final String name;
+
+  private Optimizer(Type type, double beta1, double beta2, double epsilon, String name) {
+    if (beta1 < 0 || beta1 >= 1 || beta2 < 0 || beta2 >= 1 || epsilon < 0) {
+      throw new IllegalArgumentException("Invalid optimizer parameter");
+    }
+    this.type = type;
+    this.beta1 = beta1;
+    this.beta2 = beta2;
+    this.epsilon = epsilon;
+    this.name = name;
+  }
+
+  /**
+   * plain (mini-batch) gradient descent, the default of the networks
+   * @return gradient descent
+   */
+  public static Optimizer sgd() {
+    return new Optimizer(Type.SGD, 0, 0, 0, "SGD");
+  }
+
+  /**
+   * gradient descent with momentum: v = momentum * v + u, w += rate * v
+   * @param momentum share of the previous step kept, usually 0.9
+   * @return momentum optimizer
+   */
+  public static Optimizer momentum(double momentum) {
+    return new Optimizer(Type.MOMENTUM, momentum, 0, 0, "Momentum");
+  }
+
+  /**
+   * nesterov accelerated gradient: the step is taken from the point the momentum leads to,
+   * v = momentum * v + u, w += rate * (u + momentum * v)
+   * @param momentum share of the previous step kept, usually 0.9
+   * @return nesterov optimizer
+   */
+  public static Optimizer nesterov(double momentum) {
+    return new Optimizer(Type.NESTEROV, momentum, 0, 0, "Nesterov");
+  }
+
+  /**
+   * rmsprop: every weight's step is divided by the root of the running average of its squared
+   * updates, s = decay * s + (1 - decay) * u^2, w += rate * u / (sqrt(s) + epsilon)
+   * @param decay share of the previous average kept, usually 0.9
+   * @param epsilon added to the root, usually 1e-8
+   * @return rmsprop optimizer
+   */
+  public static Optimizer rmsProp(double decay, double epsilon) {
+    return new Optimizer(Type.RMS_PROP, 0, decay, epsilon, "RMSProp");
+  }
+
+  /**
+   * adam with the usual parameters (0.9, 0.999, 1e-8)
+   * @return adam optimizer
+   */
+  public static Optimizer adam() {
+    return adam(0.9, 0.999, 1e-8);
+  }
+
+  /**
+   * adam: momentum divided by the root of the average squared update, both averages corrected
+   * for their zero initialization
+   * @param beta1 decay of the average update
+   * @param beta2 decay of the average squared update
+   * @param epsilon added to the root
+   * @return adam optimizer
+   */
+  public static Optimizer adam(double beta1, double beta2, double epsilon) {
+    return new Optimizer(Type.ADAM, beta1, beta2, epsilon, "Adam");
+  }
+
+  /**
+   * getter for the rule name
+   * @return name of the optimizer
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * code of the rule in checkpoint files
+   * @return index of the rule type
+   */
+  int getTypeCode() {
+    return type.ordinal();
+  }
+
+  /**
+   * getter for the parameters, stored in checkpoint files
+   * @return decay of the first moment, decay of the second moment and epsilon
+   */
+  double[] getParameters() {
+    return new double[] {beta1, beta2, epsilon};
+  }
+
+  /**
+   * recreates a rule stored in a checkpoint file
+   * @param typeCode code returned by getTypeCode
+   * @param parameters parameters returned by getParameters
+   * @return the rule
+   */
+  static Optimizer fromTypeCode(int typeCode, double[] parameters) {
+    Type[] types = Type.values();
+    if (typeCode < 0 || typeCode >= types.length) {
+      throw new IllegalArgumentException("Unknown optimizer code: " + typeCode);
+    }
+    switch (types[typeCode]) {
+      case MOMENTUM:
+        return momentum(parameters[0]);
+      case NESTEROV:
+        return nesterov(parameters[0]);
+      case RMS_PROP:
+        return rmsProp(parameters[1], parameters[2]);
+      case ADAM:
+        return adam(parameters[0], parameters[1], parameters[2]);
+      default:
+        return sgd();
+    }
+  }
+
+  /**
+   * tells whether the rule keeps a running average of the updates
+   * @return true if a first moment buffer is needed
+   */
+  boolean hasFirstMoment() {
+    return type == Type.MOMENTUM || type == Type.NESTEROV || type == Type.ADAM;
+  }
+
+  /**
+   * tells whether the rule keeps a running average of the squared updates
+   * @return true if a second moment buffer is needed
+   */
+  boolean hasSecondMoment() {
+    return type == Type.RMS_PROP || type == Type.ADAM;
+  }
+
+  /**
+   * tells whether the rule keeps no state, so the weights without updates do not change
+   * @return true for plain gradient descent
+   */
+  boolean isStateless() {
+    return type == Type.SGD;
+  }
+
+  /**
+   * gradient descent update of some columns of a weight block, for layer updates computed from
+   * sparse inputs where the other columns have no updates. only valid if isStateless
+   * @param update summed updates of the batch (negative gradient)
+   * @param rows number of examples the updates were summed over
+   * @param rate learning rate of the step
+   * @param columns indexes of the updated columns
+   * @param count number of updated columns
+   * @param param weight block to be updated
+   * @param cols number of columns of the weight block
+   */
+  void updateColumns(double[] update, int rows, double rate, int[] columns, int count,
+                     double[] param, int cols) {
+    double scale = rate / rows;
+    for (int row = 0; row < param.length; row += cols) {
+      for (int k = 0; k < count; k++) {
+        int j = row + columns[k];
+        param[j] += scale * update[j];
+      }
+    }
+  }
+
+  /**
+   * updates the parameters of a layer (its weight block or bias vector)
+   * @param update summed updates of the batch (negative gradient)
+   * @param rows number of examples the updates were summed over
+   * @param rate learning rate of the step
+   * @param step number of steps taken before this one with the state
+   * @param first running average of the updates, null if the rule has none
+   * @param second running average of the squared updates, null if the rule has none
+   * @param param weights or biases to be updated
+   * @param len number of parameters
+   */
+  void update(double[] update, int rows, double rate, long step, double[] first,
+              double[] second, double[] param, int len) {
+    double scale = 1.0 / rows;
+    switch (type) {
+      case MOMENTUM:
+        for (int i = 0; i < len; i++) {
+          double v = beta1 * first[i] + update[i] * scale;
+          first[i] = v;
+          param[i] += rate * v;
+        }
+        break;
+      case NESTEROV:
+        for (int i = 0; i < len; i++) {
+          double u = update[i] * scale;
+          double v = beta1 * first[i] + u;
+          first[i] = v;
+          param[i] += rate * (u + beta1 * v);
+        }
+        break;
+      case RMS_PROP:
+        for (int i = 0; i < len; i++) {
+          double u = update[i] * scale;
+          double s = beta2 * second[i] + (1 - beta2) * u * u;
+          second[i] = s;
+          param[i] += rate * u / (Math.sqrt(s) + epsilon);
+        }
+        break;
+      case ADAM:
+        // the bias corrections are folded into two constants per step
+        double firstCorrection = rate / (1 - Math.pow(beta1, step + 1));
+        double secondCorrection = 1 / (1 - Math.pow(beta2, step + 1));
+        for (int i = 0; i < len; i++) {
+          double u = update[i] * scale;
+          double m = beta1 * first[i] + (1 - beta1) * u;
+          double s = beta2 * second[i] + (1 - beta2) * u * u;
+          first[i] = m;
+          second[i] = s;
+          param[i] += firstCorrection * m / (Math.sqrt(s * secondCorrection) + epsilon);
+        }
+        break;
+      default:
+        Kernels.axpy(rate / rows, update, 0, param, 0, len);
+        break;
+    }
+  }
+
+  /**
+   * updates some columns of a weight block stored on the heap or off-heap, see updateColumns.
+   * the updates are stored like the weights
+   * @param update summed updates of the batch (negative gradient)
+   * @param rows number of examples the updates were summed over
+   * @param rate learning rate of the step
+   * @param columns indexes of the updated columns
+   * @param count number of updated columns
+   * @param param weight block to be updated
+   * @param cols number of columns of the weight block
+   */
+  void updateColumns(DoubleStorage update, int rows, double rate, int[] columns, int count,
+                     DoubleStorage param, int cols) {
+    if (param.array != null) {
+      updateColumns(update.array, rows, rate, columns, count, param.array, cols);
+      return;
+    }
+    double scale = rate / rows;
+    for (int row = 0; row < param.buffer.capacity(); row += cols) {
+      for (int k = 0; k < count; k++) {
+        int j = row + columns[k];
+        param.buffer.put(j, param.buffer.get(j) + scale * update.buffer.get(j));
+      }
+    }
+  }
+
+  /**
+   * updates the parameters of a layer stored on the heap or off-heap, see update. the updates
+   * and the state are stored like the parameters, off-heap the same loops run on the buffers
+   * @param update summed updates of the batch (negative gradient)
+   * @param rows number of examples the updates were summed over
+   * @param rate learning rate of the step
+   * @param step number of steps taken before this one with the state
+   * @param first running average of the updates, null if the rule has none
+   * @param second running average of the squared updates, null if the rule has none
+   * @param param weights or biases to be updated
+   */
+  void update(DoubleStorage update, int rows, double rate, long step, DoubleStorage first,
+              DoubleStorage second, DoubleStorage param) {
+    if (param.array != null) {
+      update(update.array, rows, rate, step, (first != null) ? first.array : null,
+          (second != null) ? second.array : null, param.array, param.array.length);
+    } else {
+      update(update.buffer, rows, rate, step, (first != null) ? first.buffer : null,
+          (second != null) ? second.buffer : null, param.buffer, param.buffer.capacity());
+    }
+  }
+
+  private void update(DoubleBuffer update, int rows, double rate, long step, DoubleBuffer first,
+                      DoubleBuffer second, DoubleBuffer param, int len) {
+    double scale = 1.0 / rows;
+    switch (type) {
+      case MOMENTUM:
+        for (int i = 0; i < len; i++) {
+          double v = beta1 * first.get(i) + update.get(i) * scale;
+          first.put(i, v);
+          param.put(i, param.get(i) + rate * v);
+        }
+        break;
+      case NESTEROV:
+        for (int i = 0; i < len; i++) {
+          double u = update.get(i) * scale;
+          double v = beta1 * first.get(i) + u;
+          first.put(i, v);
+          param.put(i, param.get(i) + rate * (u + beta1 * v));
+        }
+        break;
+      case RMS_PROP:
+        for (int i = 0; i < len; i++) {
+          double u = update.get(i) * scale;
+          double s = beta2 * second.get(i) + (1 - beta2) * u * u;
+          second.put(i, s);
+          param.put(i, param.get(i) + rate * u / (Math.sqrt(s) + epsilon));
+        }
+        break;
+      case ADAM:
+        double firstCorrection = rate / (1 - Math.pow(beta1, step + 1));
+        double secondCorrection = 1 / (1 - Math.pow(beta2, step + 1));
+        for (int i = 0; i < len; i++) {
+          double u = update.get(i) * scale;
+          double m = beta1 * first.get(i) + (1 - beta1) * u;
+          double s = beta2 * second.get(i) + (1 - beta2) * u * u;
+          first.put(i, m);
+          second.put(i, s);
+          param.put(i, param.get(i) +
+              firstCorrection * m / (Math.sqrt(s * secondCorrection) + epsilon));
+        }
+        break;
+      default:
+        Kernels.axpy(rate / rows, update, 0, param, 0, len);
+        break;
+    }
+  }
+
+  /**
+   * Object string representation
+   * @return returns the name of the optimizer
+   */
+  @Override public String toString() {
+    return name;
+  }
+}
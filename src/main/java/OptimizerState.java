@@ -0,0 +1,111 @@
+import java.util.List;
+
+/**
+ * per weight state of an optimizer for every trained layer of a network, kept between batches
+ * and training runs until the topology or the optimizer changes. index i belongs to layer i,
+ * like in Gradients
+ */
+class OptimizerState {
+
+  private final List<NeuralLayer> layers;
+  private final Optimizer optimizer;
+  // running averages of the updates and of the squared updates, null if the rule has none
+  private final Gradients first;
+  private final Gradients second;
+  // number of steps taken, for the bias correction of adam
+  private long step;
+
+  /**
+   * allocates the state, sized from the network topology
+   * @param layers layers of the network, input layer first
+   * @param optimizer rule updating the weights
+   */
+  OptimizerState(List<NeuralLayer> layers, Optimizer optimizer) {
+    this.layers = layers;
+    this.optimizer = optimizer;
+    first = optimizer.hasFirstMoment() ? new Gradients(layers) : null;
+    second = optimizer.hasSecondMoment() ? new Gradients(layers) : null;
+  }
+
+  /**
+   * getter for the rule
+   * @return the optimizer the state belongs to
+   */
+  Optimizer getOptimizer() {
+    return optimizer;
+  }
+
+  /**
+   * getter for the running averages of the updates
+   * @return the first moment of every weight, null if the rule has none
+   */
+  Gradients getFirstMoments() {
+    return first;
+  }
+
+  /**
+   * getter for the running averages of the squared updates
+   * @return the second moment of every weight, null if the rule has none
+   */
+  Gradients getSecondMoments() {
+    return second;
+  }
+
+  /**
+   * getter for the step count
+   * @return number of steps taken
+   */
+  long getStep() {
+    return step;
+  }
+
+  /**
+   * sets the step count, when the state is restored from a checkpoint
+   * @param step number of steps taken
+   */
+  void setStep(long step) {
+    this.step = step;
+  }
+
+  /**
+   * moves the running averages next to the weights after the layers moved, see
+   * NeuralLayer.setOffHeap. the averages and the step count are kept
+   * @param offHeap true to store the averages off-heap
+   */
+  void setOffHeap(boolean offHeap) {
+    if (first != null) {
+      first.setOffHeap(offHeap);
+    }
+    if (second != null) {
+      second.setOffHeap(offHeap);
+    }
+  }
+
+  /**
+   * updates the weights of the network with the updates of a batch. in hogwild mode several
+   * threads call this at once, then the state is shared without synchronization just like the
+   * weights
+   * @param updates summed updates of the batch
+   * @param rows number of examples in the batch
+   * @param rate learning rate of the step
+   */
+  void apply(Gradients updates, int rows, double rate) {
+    for (int i = 1; i < layers.size(); i++) {
+      NeuralLayer layer = layers.get(i);
+      DoubleStorage weights = layer.getWeightStorage();
+      if (i == 1 && updates.getActiveInputCount() >= 0 && optimizer.isStateless()) {
+        // after sparse inputs only the weights of the active inputs have updates
+        optimizer.updateColumns(updates.weights[i], rows, rate, updates.getActiveInputs(),
+            updates.getActiveInputCount(), weights, layer.getInputCount());
+      } else {
+        optimizer.update(updates.weights[i], rows, rate, step,
+            (first != null) ? first.weights[i] : null,
+            (second != null) ? second.weights[i] : null, weights);
+      }
+      optimizer.update(updates.biases[i], rows, rate, step,
+          (first != null) ? first.biases[i] : null, (second != null) ? second.biases[i] : null,
+          layer.getBiasStorage());
+    }
+    step++;
+  }
+}
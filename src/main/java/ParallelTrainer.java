@@ -0,0 +1,175 @@
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * data-parallel training on a fork/join pool. every worker has its own workspace, so workers
+ * never share mutable state while computing updates.
+ * in the default mode every mini-batch is split into one shard per worker, the shard updates
+ * are summed by a tree reduction and the weights are updated once per batch. the shards and the
+ * order of the additions only depend on the worker count, so the results are reproducible for a
+ * given worker count and initial weights.
+ * in hogwild mode the workers skip the reduction: every worker writes the updates of its shard
+ * into the shared weights as soon as they are computed, without any synchronization. faster, but
+ * not reproducible
+ */
+class ParallelTrainer {
+
+  private final ForkJoinPool pool;
+  private final TrainingWorkspace[] workspaces;
+  private final boolean hogwild;
+  private final OptimizerState optimizer;
+  // the shard task tree is built once and reused for every batch
+  private final ShardTask shardTasks;
+  // the batch being processed by the shard tasks
+  private double[][] batchData;
+  private int batchRows;
+  private double batchRate;
+
+  /**
+   * @param layers layers of the network, input layer first
+   * @param pool pool running the workers
+   * @param workerCount number of workers (shards per batch)
+   * @param batchSize number of examples per weight update
+   * @param hogwild true for unsynchronized updates
+   * @param optimizer optimizer and its state, turning the updates into weight changes
+   */
+  ParallelTrainer(List<NeuralLayer> layers, ForkJoinPool pool, int workerCount, int batchSize,
+                  boolean hogwild, OptimizerState optimizer) {
+    this.pool = pool;
+    this.hogwild = hogwild;
+    this.optimizer = optimizer;
+    workspaces = new TrainingWorkspace[workerCount];
+    // a worker only gets its part of a batch
+    int capacity = (batchSize + workerCount - 1) / workerCount;
+    for (int i = 0; i < workerCount; i++) {
+      workspaces[i] = new TrainingWorkspace(layers, capacity);
+    }
+    shardTasks = new ShardTask(0, workerCount);
+  }
+
+  /**
+   * turns the timers of the workers on or off
+   * @param timed true to measure the time spent in every layer
+   */
+  void setTimed(boolean timed) {
+    for (TrainingWorkspace workspace : workspaces) {
+      workspace.timed = timed;
+    }
+  }
+
+  /**
+   * sets the input density below which the workers use the sparse path of the first layer
+   * @param threshold largest density of the sparse path, 0 to always use the dense path
+   */
+  void setSparseThreshold(double threshold) {
+    for (TrainingWorkspace workspace : workspaces) {
+      workspace.sparseThreshold = threshold;
+    }
+  }
+
+  /**
+   * adds the times measured by the workers to the given totals and resets the timers. the times
+   * of the workers are summed, so they are thread time, not elapsed time
+   * @param forward per layer totals of the forward pass
+   * @param backward per layer totals of the backward pass
+   * @return time spent in the weight updates
+   */
+  long collectTimings(long[] forward, long[] backward) {
+    long ret = 0;
+    for (TrainingWorkspace workspace : workspaces) {
+      ret += workspace.collectTimings(forward, backward);
+    }
+    return ret;
+  }
+
+  /**
+   * trains the network on a batch of examples
+   * @param batch training examples, first the inputs, then the outputs in every row
+   * @param rows number of examples in the batch, at most the batch size
+   * @param trainingRate learning rate of the step
+   */
+  void trainOnBatch(double[][] batch, int rows, double trainingRate) {
+    // the fields are written before the tasks are submitted, so the workers see them
+    batchRate = trainingRate;
+    computeUpdates(batch, rows);
+    if (!hogwild) {
+      applyUpdates(rows, trainingRate);
+    }
+  }
+
+  /**
+   * computes the summed updates of a batch without applying them (not in hogwild mode)
+   * @param batch training examples, first the inputs, then the outputs in every row
+   * @param rows number of examples in the batch, at most the batch size
+   */
+  void computeUpdates(double[][] batch, int rows) {
+    batchData = batch;
+    batchRows = rows;
+    shardTasks.reinitialize();
+    pool.invoke(shardTasks);
+  }
+
+  /**
+   * getter for the updates of the last batch
+   * @return the buffer holding the updates of the whole batch after computeUpdates
+   */
+  Gradients getUpdates() {
+    // after the reduction the first workspace holds the updates of the whole batch
+    return workspaces[0].updates;
+  }
+
+  /**
+   * updates the weights of the network with the updates of the last batch
+   * @param rows number of examples the updates are averaged over
+   * @param trainingRate learning rate of the step
+   */
+  void applyUpdates(int rows, double trainingRate) {
+    workspaces[0].applyUpdates(optimizer, rows, trainingRate);
+  }
+
+  /**
+   * computes the updates of the shards [lo, hi) of a batch, and sums them into the workspace of
+   * shard lo. in hogwild mode every shard applies its own updates instead
+   */
+  private class ShardTask extends RecursiveAction {
+    private final int lo;
+    private final int hi;
+    private final ShardTask left;
+    private final ShardTask right;
+
+    ShardTask(int lo, int hi) {
+      this.lo = lo;
+      this.hi = hi;
+      if (hi - lo > 1) {
+        int mid = (lo + hi) >>> 1;
+        left = new ShardTask(lo, mid);
+        right = new ShardTask(mid, hi);
+      } else {
+        left = null;
+        right = null;
+      }
+    }
+
+    @Override protected void compute() {
+      if (left == null) {
+        int from = lo * batchRows / workspaces.length;
+        int to = hi * batchRows / workspaces.length;
+        workspaces[lo].computeUpdates(batchData, from, to - from);
+        if (hogwild) {
+          // the shard updates are averaged over the whole batch, like in the default mode
+          workspaces[lo].applyUpdates(optimizer, batchRows, batchRate);
+        }
+        return;
+      }
+      // the subtasks completed in the previous batch, they have to be reset before reuse
+      left.reinitialize();
+      right.reinitialize();
+      invokeAll(left, right);
+      if (!hogwild) {
+        workspaces[lo].updates.add(workspaces[right.lo].updates);
+      }
+    }
+  }
+}
@@ -0,0 +1,191 @@
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * batch source preparing the next batches on a background thread while the current one is being
+ * trained on. a producer thread reads the batches of the wrapped source (decoding, normalizing,
+ * shuffling, whatever the source does) and copies them into a fixed set of reusable buffers.
+ * with two buffers one batch is prepared while the other is trained on, with three the producer
+ * can absorb a slow batch. when every buffer is full the producer waits for the trainer to
+ * release one, so it never runs further ahead than the buffers allow.
+ * the producer moves on to the next epoch as soon as an epoch is read, so the first batches of
+ * an epoch are prepared during validation. close stops the producer thread
+ */
+public class PrefetchingBatchSource implements BatchSource, AutoCloseable {
+
+  /**
+   * a prepared batch. rows == 0 marks the end of an epoch
+   */
+  private static final class Buffer {
+    final double[][] rows;
+    int rowCount;
+
+    Buffer(int batchSize, int rowLength) {
+      rows = new double[batchSize][rowLength];
+    }
+  }
+
+  // queued by a failed producer. allocated up front, so even an OutOfMemoryError is passed on
+  private static final Buffer FAILED = new Buffer(0, 0);
+
+  private final BatchSource source;
+  private final BlockingQueue<Buffer> free;
+  private final BlockingQueue<Buffer> filled;
+  private Thread producer;
+  private volatile boolean closed;
+  private volatile Throwable failure;
+  // buffer handed out by the last nextBatch call, released by the next one
+  private Buffer current;
+  private boolean epochDone = true;
+  // the trainer received the failure of the producer, every later call rethrows it
+  private boolean failed;
+
+  /**
+   * @param source source of the batches, only read by the producer thread after this call
+   * @param bufferCount number of batch buffers, 2 for double buffering, 3 for triple buffering
+   */
+  public PrefetchingBatchSource(BatchSource source, int bufferCount) {
+    if (bufferCount < 2) {
+      throw new IllegalArgumentException("At least two buffers are needed");
+    }
+    this.source = source;
+    this.free = new ArrayBlockingQueue<>(bufferCount);
+    // room for every buffer and the failure marker, so the producer never waits to fail
+    this.filled = new ArrayBlockingQueue<>(bufferCount + 1);
+    int rowLength = source.getInputCount() + source.getOutputCount();
+    for (int i = 0; i < bufferCount; i++) {
+      free.add(new Buffer(source.getBatchSize(), rowLength));
+    }
+  }
+
+  @Override public int getBatchSize() {
+    return source.getBatchSize();
+  }
+
+  @Override public int getInputCount() {
+    return source.getInputCount();
+  }
+
+  @Override public int getOutputCount() {
+    return source.getOutputCount();
+  }
+
+  @Override public void startEpoch() {
+    if (closed) {
+      throw new IllegalStateException("Batch source is closed");
+    }
+    if (failed) {
+      throw rethrowFailure();
+    }
+    if (producer == null) {
+      producer = new Thread(this::produce, "batch-prefetch");
+      // a source that is never closed must not keep the jvm alive
+      producer.setDaemon(true);
+      producer.start();
+    }
+    // the batches left over from an unfinished epoch are skipped
+    while (!epochDone) {
+      nextBatch(null);
+    }
+    epochDone = false;
+  }
+
+  @Override public int nextBatch(double[][] batch) {
+    if (failed) {
+      throw rethrowFailure();
+    }
+    if (epochDone) {
+      return 0;
+    }
+    if (current != null) {
+      free.add(current);
+      current = null;
+    }
+    Buffer next;
+    try {
+      next = filled.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for a batch");
+    }
+    if (next == FAILED) {
+      // the producer has stopped, later calls must not wait for it
+      failed = true;
+      epochDone = true;
+      throw rethrowFailure();
+    }
+    if (next.rowCount == 0) {
+      free.add(next);
+      epochDone = true;
+      return 0;
+    }
+    current = next;
+    if (batch != null) {
+      System.arraycopy(next.rows, 0, batch, 0, next.rowCount);
+    }
+    return next.rowCount;
+  }
+
+  /**
+   * body of the producer thread: reads the epochs of the source one after the other, until the
+   * source is closed
+   */
+  private void produce() {
+    double[][] batch = new double[source.getBatchSize()][];
+    try {
+      while (!closed) {
+        source.startEpoch();
+        int rows;
+        do {
+          Buffer buffer = free.take();
+          rows = source.nextBatch(batch);
+          // the rows of the source are only valid until its next call, so they are copied
+          for (int r = 0; r < rows; r++) {
+            System.arraycopy(batch[r], 0, buffer.rows[r], 0, buffer.rows[r].length);
+          }
+          buffer.rowCount = rows;
+          filled.put(buffer);
+        } while (rows > 0);
+      }
+    } catch (InterruptedException e) {
+      // closed while waiting for a buffer
+    } catch (Throwable e) {
+      // the failure is passed on to the trainer, which rethrows it from nextBatch. the queue
+      // has room for the marker, so adding it can not block or fail
+      failure = e;
+      filled.add(FAILED);
+    }
+  }
+
+  /**
+   * the failure of the producer, to be thrown on the trainer thread
+   * @return the failure if it is unchecked, otherwise an exception wrapping it
+   * @throws Error if the producer failed with an error
+   */
+  private RuntimeException rethrowFailure() {
+    if (failure instanceof Error) {
+      throw (Error) failure;
+    }
+    if (failure instanceof RuntimeException) {
+      return (RuntimeException) failure;
+    }
+    return new IllegalStateException("Batch source failed", failure);
+  }
+
+  /**
+   * stops the producer thread and waits for it to finish. the batches handed out before are no
+   * longer valid
+   */
+  @Override public void close() {
+    closed = true;
+    if (producer != null) {
+      producer.interrupt();
+      try {
+        producer.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
@@ -0,0 +1,109 @@
+
+/**
+ * comparison of a quantized network with the double network it was made from, on a set of
+ * examples. an example is classified correctly if its largest output is at the position of its
+ * largest expected output
+ */
+public class QuantizationReport {
+
+  private int examples;
+  private int referenceCorrect;
+  private int quantizedCorrect;
+  private int agreements;
+  private double maxDifference;
+  private double differenceSum;
+  private long differenceCount;
+
+  QuantizationReport() {
+  }
+
+  /**
+   * adds an example to the report
+   */
+  void add(double[] targets, double[] reference, double[] quantized, int off, int len) {
+    int target = argMax(targets, off, len);
+    int referenceClass = argMax(reference, off, len);
+    int quantizedClass = argMax(quantized, off, len);
+    examples++;
+    referenceCorrect += (referenceClass == target) ? 1 : 0;
+    quantizedCorrect += (quantizedClass == target) ? 1 : 0;
+    agreements += (referenceClass == quantizedClass) ? 1 : 0;
+    for (int i = off; i < off + len; i++) {
+      double diff = Math.abs(reference[i] - quantized[i]);
+      maxDifference = Math.max(maxDifference, diff);
+      differenceSum += diff;
+    }
+    differenceCount += len;
+  }
+
+  private static int argMax(double[] values, int off, int len) {
+    int ret = 0;
+    for (int i = 1; i < len; i++) {
+      if (values[off + i] > values[off + ret]) {
+        ret = i;
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * getter for the number of examples
+   * @return number of examples compared
+   */
+  public int getExampleCount() {
+    return examples;
+  }
+
+  /**
+   * getter for the accuracy of the double network
+   * @return ratio of the examples the double network classified correctly
+   */
+  public double getReferenceAccuracy() {
+    return examples == 0 ? 0 : (double) referenceCorrect / examples;
+  }
+
+  /**
+   * getter for the accuracy of the quantized network
+   * @return ratio of the examples the quantized network classified correctly
+   */
+  public double getQuantizedAccuracy() {
+    return examples == 0 ? 0 : (double) quantizedCorrect / examples;
+  }
+
+  /**
+   * getter for the agreement of the networks
+   * @return ratio of the examples both networks put in the same class
+   */
+  public double getAgreement() {
+    return examples == 0 ? 0 : (double) agreements / examples;
+  }
+
+  /**
+   * getter for the largest output difference
+   * @return largest absolute difference of an output of the two networks
+   */
+  public double getMaxDifference() {
+    return maxDifference;
+  }
+
+  /**
+   * getter for the average output difference
+   * @return average absolute difference of the outputs of the two networks
+   */
+  public double getMeanDifference() {
+    return differenceCount == 0 ? 0 : differenceSum / differenceCount;
+  }
+
+  /**
+   * Object string representation
+   * @return returns a summary of the comparison
+   */
+  @Override public String toString() {
+    return "Quantization report on " + examples + " examples" +
+        "\ndouble accuracy: " + getReferenceAccuracy() +
+        "\nint8 accuracy: " + getQuantizedAccuracy() +
+        "\nagreement: " + getAgreement() +
+        "\nmax output difference: " + maxDifference +
+        "\nmean output difference: " + getMeanDifference();
+  }
+}
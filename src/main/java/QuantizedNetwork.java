@@ -0,0 +1,291 @@
+
+/**
+ * int8 version of a trained network for inference. the weights of every neuron are quantized to
+ * bytes with a scale of their own (max |w| / 127), so the weights take 8 times less memory than
+ * doubles. the input of every layer is quantized to bytes as well, the products are summed in
+ * int accumulators, and the sums are converted back with the two scales before the bias and the
+ * activation function are applied, so the outputs are doubles.
+ * the scale of the layer inputs is either computed for every example from its largest value
+ * (dynamic quantization), or fixed by a calibration pass over a sample of the data.
+ * the input layer only scales and shifts the inputs, so it is folded into the first hidden layer.
+ * the weights can not change, so the network can be used by any number of threads at once
+ */
+public class QuantizedNetwork implements BatchClassifier {
+
+  // number of examples pushed through the layers together by classifyBatch
+  private static final int BATCH_BLOCK_ROWS = 64;
+  // longest layer input the int accumulators can sum without overflowing
+  private static final int MAX_INPUT_COUNT = Integer.MAX_VALUE / (127 * 127);
+
+  private final int inputCount;
+  private final int outputCount;
+  private final int maxLayerWidth;
+  // hidden and output layers
+  private final int[] inputCounts;
+  private final int[] neuronCounts;
+  private final ActivationFunction[] actFcns;
+  private final byte[][] weights;
+  private final double[][] weightScales;
+  private final double[][] biases;
+  // per layer value represented by an input byte of 1, 0 for dynamic quantization
+  private final double[] inputScales;
+
+  /**
+   * quantizes a network, the layer inputs are quantized dynamically
+   * @param network network to be quantized
+   */
+  public QuantizedNetwork(NeuralNetwork network) {
+    this(network, null);
+  }
+
+  /**
+   * quantizes a network, the layer inputs are quantized with fixed scales calibrated on a sample
+   * of the data: the largest input value seen by a layer is mapped to 127
+   * @param network network to be quantized
+   * @param calibration examples representative of the inputs the network will be used on, null
+   *                    for dynamic quantization
+   */
+  public QuantizedNetwork(NeuralNetwork network, Dataset calibration) {
+    int layerCount = network.getLayerCount() - 1;
+    inputCounts = new int[layerCount];
+    neuronCounts = new int[layerCount];
+    actFcns = new ActivationFunction[layerCount];
+    weights = new byte[layerCount][];
+    weightScales = new double[layerCount][];
+    biases = new double[layerCount][];
+    inputScales = new double[layerCount];
+    // the double weights with the input layer folded in, only needed until they are quantized
+    InferenceSnapshot folded = network.snapshot();
+    double[][] doubleWeights = new double[layerCount][];
+    int width = 0;
+    for (int l = 0; l < layerCount; l++) {
+      NeuralLayer layer = network.getLayer(l + 1);
+      inputCounts[l] = layer.getInputCount();
+      neuronCounts[l] = layer.getLayerNeuronCount();
+      if (inputCounts[l] > MAX_INPUT_COUNT) {
+        throw new IllegalArgumentException("Layer " + (l + 1) + " has too many inputs");
+      }
+      actFcns[l] = layer.getActFcn();
+      doubleWeights[l] = folded.getWeightBlock(l);
+      biases[l] = folded.getBiasVector(l);
+      width = Math.max(width, Math.max(inputCounts[l], neuronCounts[l]));
+    }
+    inputCount = inputCounts[0];
+    outputCount = neuronCounts[layerCount - 1];
+    maxLayerWidth = width;
+    if (calibration != null) {
+      calibrate(doubleWeights, calibration);
+    }
+    for (int l = 0; l < layerCount; l++) {
+      quantizeWeights(l, doubleWeights[l]);
+    }
+  }
+
+  /**
+   * quantizes the weights of a layer, every row with its own scale
+   */
+  private void quantizeWeights(int l, double[] w) {
+    int cols = inputCounts[l];
+    weights[l] = new byte[w.length];
+    weightScales[l] = new double[neuronCounts[l]];
+    for (int i = 0; i < neuronCounts[l]; i++) {
+      double max = 0;
+      for (int j = 0; j < cols; j++) {
+        max = Math.max(max, Math.abs(w[i * cols + j]));
+      }
+      double scale = (max > 0) ? max / 127 : 1;
+      weightScales[l][i] = scale;
+      for (int j = 0; j < cols; j++) {
+        weights[l][i * cols + j] = (byte) Math.round(w[i * cols + j] / scale);
+      }
+    }
+  }
+
+  /**
+   * calibration pass: runs the double network on the sample and records the largest absolute
+   * input value of every layer
+   */
+  private void calibrate(double[][] doubleWeights, Dataset data) {
+    if (data.getInputCount() != inputCount || data.size() == 0) {
+      throw new IllegalArgumentException("Invalid calibration data");
+    }
+    double[] max = new double[inputScales.length];
+    double[] buffer = new double[data.getInputCount() + data.getOutputCount()];
+    double[] bufferA = new double[maxLayerWidth];
+    double[] bufferB = new double[maxLayerWidth];
+    for (int e = 0; e < data.size(); e++) {
+      double[] src = data.getExample(e, buffer);
+      double[] dst = bufferA;
+      for (int l = 0; l < inputScales.length; l++) {
+        for (int j = 0; j < inputCounts[l]; j++) {
+          max[l] = Math.max(max[l], Math.abs(src[j]));
+        }
+        Kernels.gemv(doubleWeights[l], biases[l], neuronCounts[l], inputCounts[l], src, 0, dst,
+            0);
+        actFcns[l].applyInPlace(dst, 0, neuronCounts[l]);
+        src = dst;
+        dst = (dst == bufferA) ? bufferB : bufferA;
+      }
+    }
+    for (int l = 0; l < inputScales.length; l++) {
+      inputScales[l] = (max[l] > 0) ? max[l] / 127 : 1;
+    }
+  }
+
+  /**
+   * getter for the number of inputs
+   * @return number of inputs in the network
+   */
+  @Override public int getInputCount() {
+    return inputCount;
+  }
+
+  /**
+   * getter for the number of outputs
+   * @return number of outputs in the network
+   */
+  @Override public int getOutputCount() {
+    return outputCount;
+  }
+
+  /**
+   * getter for the memory taken by the weights and scales of the network
+   * @return number of bytes of the weights, weight scales and biases
+   */
+  public long getWeightBytes() {
+    long ret = 0;
+    for (int l = 0; l < weights.length; l++) {
+      ret += weights[l].length + 8L * (weightScales[l].length + biases[l].length);
+    }
+    return ret;
+  }
+
+  /**
+   * feeds data through the network and returns the output
+   * @param in input data, has to have as many elements as there are inputs in the network
+   * @return returns the network output
+   */
+  public double[] classify(double[] in) {
+    if (in.length != inputCount) {
+      throw new IllegalArgumentException("Cant classify: input number mismatch");
+    }
+    double[] ret = new double[outputCount];
+    classifyBatch(in, 1, ret);
+    return ret;
+  }
+
+  /**
+   * feeds a batch of examples stored in a single row-major array through the network
+   * @param in input matrix, rows x inputCount elements
+   * @param rows number of examples
+   * @param out output matrix, rows x outputCount elements, receives the network output
+   */
+  @Override public void classifyBatch(double[] in, int rows, double[] out) {
+    if (rows < 0 || in.length < rows * inputCount || out.length < rows * outputCount) {
+      throw new IllegalArgumentException("Cant classify: input number mismatch");
+    }
+    int blockSize = Math.min(rows, BATCH_BLOCK_ROWS);
+    // the buffers belong to the call, concurrent calls share nothing but the read-only weights
+    double[] buffer = new double[blockSize * maxLayerWidth];
+    byte[] quantized = new byte[blockSize * maxLayerWidth];
+    int[] sums = new int[blockSize * maxLayerWidth];
+    double[] rowScales = new double[blockSize];
+    int last = neuronCounts.length - 1;
+    for (int start = 0; start < rows; start += BATCH_BLOCK_ROWS) {
+      int blockRows = Math.min(BATCH_BLOCK_ROWS, rows - start);
+      double[] src = in;
+      int srcOffset = start * inputCount;
+      for (int l = 0; l <= last; l++) {
+        int cols = inputCounts[l];
+        int neurons = neuronCounts[l];
+        quantizeInputs(l, src, srcOffset, blockRows, quantized, rowScales);
+        Kernels.gemmABt(weights[l], neurons, cols, quantized, blockRows, sums);
+        // dequantize, then the bias and the activation function in double precision
+        double[] target = (l == last) ? out : buffer;
+        int targetOffset = (l == last) ? start * outputCount : 0;
+        for (int r = 0; r < blockRows; r++) {
+          int row = targetOffset + r * neurons;
+          for (int i = 0; i < neurons; i++) {
+            target[row + i] = sums[r * neurons + i] * (weightScales[l][i] * rowScales[r]) +
+                biases[l][i];
+          }
+          actFcns[l].applyInPlace(target, row, neurons);
+        }
+        src = buffer;
+        srcOffset = 0;
+      }
+    }
+  }
+
+  /**
+   * quantizes the inputs of a layer, with the calibrated scale or with the largest value of
+   * every row
+   */
+  private void quantizeInputs(int l, double[] src, int srcOffset, int rows, byte[] dst,
+                              double[] rowScales) {
+    int cols = inputCounts[l];
+    for (int r = 0; r < rows; r++) {
+      int row = srcOffset + r * cols;
+      double scale = inputScales[l];
+      if (scale == 0) {
+        double max = 0;
+        for (int j = 0; j < cols; j++) {
+          max = Math.max(max, Math.abs(src[row + j]));
+        }
+        scale = (max > 0) ? max / 127 : 1;
+      }
+      rowScales[r] = scale;
+      double inverse = 1 / scale;
+      for (int j = 0; j < cols; j++) {
+        // values beyond the calibrated range are clipped
+        long q = Math.round(src[row + j] * inverse);
+        dst[r * cols + j] = (byte) Math.max(-127, Math.min(127, q));
+      }
+    }
+  }
+
+  /**
+   * compares the network with the double network it was quantized from
+   * @param reference the double network
+   * @param data examples, first the inputs, then the expected outputs
+   * @return accuracy of both networks and the difference of their outputs
+   */
+  public QuantizationReport compare(NeuralNetwork reference, Dataset data) {
+    if (reference.getInputCount() != inputCount || reference.getOutputCount() != outputCount ||
+        data.getInputCount() != inputCount || data.getOutputCount() != outputCount) {
+      throw new IllegalArgumentException("Invalid comparison data");
+    }
+    QuantizationReport ret = new QuantizationReport();
+    double[] buffer = new double[inputCount + outputCount];
+    double[] in = new double[BATCH_BLOCK_ROWS * inputCount];
+    double[] targets = new double[BATCH_BLOCK_ROWS * outputCount];
+    double[] referenceOut = new double[BATCH_BLOCK_ROWS * outputCount];
+    double[] quantizedOut = new double[BATCH_BLOCK_ROWS * outputCount];
+    for (int start = 0; start < data.size(); start += BATCH_BLOCK_ROWS) {
+      int rows = Math.min(BATCH_BLOCK_ROWS, data.size() - start);
+      for (int r = 0; r < rows; r++) {
+        double[] example = data.getExample(start + r, buffer);
+        System.arraycopy(example, 0, in, r * inputCount, inputCount);
+        System.arraycopy(example, inputCount, targets, r * outputCount, outputCount);
+      }
+      reference.classifyBatch(in, rows, referenceOut);
+      classifyBatch(in, rows, quantizedOut);
+      for (int r = 0; r < rows; r++) {
+        ret.add(targets, referenceOut, quantizedOut, r * outputCount, outputCount);
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Object string representation
+   * @return returns a string with info about the network size
+   */
+  @Override public String toString() {
+    String ret = "Quantized network has " + (neuronCounts.length + 1) + " layers";
+    for (int n : neuronCounts) {
+      ret += "\nNumber of neurons: " + n;
+    }
+    return ret;
+  }
+}
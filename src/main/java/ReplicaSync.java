@@ -0,0 +1,151 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * keeps the replicas of a network in the processes of a distributed training run in step. every
+ * process trains the same network on its own shard of the training data, and either
+ * - sums the updates of every batch across the replicas before applying them, so the replicas
+ *   take the same steps as a single network trained on the union of the batches, or
+ * - trains on its own and averages the weights with the other replicas every few batches.
+ * the arrays of a network are packed into one buffer, so an exchange is a single all-reduce
+ * with an extra element carrying the number of examples behind it
+ */
+class ReplicaSync {
+
+  private final RingAllReduce ring;
+  private final List<NeuralLayer> layers;
+  // local batches between two averagings of the weights, 0 to sum the updates of every batch
+  private final int averagingInterval;
+  private final double[] buffer;
+
+  /**
+   * @param ring connection to the other replicas
+   * @param layers layers of the network, input layer first
+   * @param averagingInterval local batches between two averagings of the weights, 0 to sum the
+   *                          updates of every batch
+   */
+  ReplicaSync(RingAllReduce ring, List<NeuralLayer> layers, int averagingInterval) {
+    this.ring = ring;
+    this.layers = layers;
+    this.averagingInterval = averagingInterval;
+    int size = 1;
+    for (int i = 1; i < layers.size(); i++) {
+      size += layers.get(i).getWeightStorage().length() + layers.get(i).getBiasStorage().length();
+    }
+    buffer = new double[size];
+  }
+
+  /**
+   * getter for the synchronization mode
+   * @return local batches between two averagings of the weights, 0 if the updates of every
+   *         batch are summed
+   */
+  int getAveragingInterval() {
+    return averagingInterval;
+  }
+
+  /**
+   * copies the weights of rank 0 into every replica, so they all start from the same point
+   */
+  void broadcastWeights() {
+    if (ring.getRank() == 0) {
+      pack(null);
+    } else {
+      // the sum of the weights of rank 0 and zeros is exact
+      Arrays.fill(buffer, 0);
+    }
+    reduce(true);
+    unpack(null, 1);
+  }
+
+  /**
+   * sums the updates of a batch across the replicas
+   * @param updates updates of the local batch, overwritten with the sum
+   * @param rows number of examples in the local batch, 0 if the local shard is finished
+   * @return number of examples in the batches of every replica, 0 once every shard is finished
+   */
+  int reduceUpdates(Gradients updates, int rows) {
+    if (rows > 0) {
+      pack(updates);
+    } else {
+      Arrays.fill(buffer, 0);
+    }
+    buffer[buffer.length - 1] = rows;
+    reduce(false);
+    unpack(updates, 1);
+    // any column of the first layer may be nonzero in the updates of another replica
+    updates.setDenseInputs();
+    return (int) Math.round(buffer[buffer.length - 1]);
+  }
+
+  /**
+   * replaces the weights of every replica with their average
+   * @param rows number of examples trained on since the previous averaging
+   * @return number of examples every replica trained on since the previous averaging
+   */
+  int averageWeights(int rows) {
+    pack(null);
+    buffer[buffer.length - 1] = rows;
+    // the sums are the same on every replica, so the replicas end up with the same weights
+    reduce(true);
+    unpack(null, 1.0 / ring.getSize());
+    return (int) Math.round(buffer[buffer.length - 1]);
+  }
+
+  /**
+   * sums the buffer across the replicas
+   * @param exact true to never compress the transfers, false to follow the ring's setting
+   */
+  private void reduce(boolean exact) {
+    try {
+      if (exact) {
+        ring.allReduce(buffer, buffer.length, false);
+      } else {
+        ring.allReduce(buffer, buffer.length);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Replica synchronization failed", e);
+    }
+  }
+
+  /**
+   * copies the updates, or the weights of the network if updates is null, into the buffer
+   */
+  private void pack(Gradients updates) {
+    int offset = 0;
+    for (int i = 1; i < layers.size(); i++) {
+      DoubleStorage weights = (updates != null) ? updates.weights[i] :
+          layers.get(i).getWeightStorage();
+      DoubleStorage biases = (updates != null) ? updates.biases[i] :
+          layers.get(i).getBiasStorage();
+      weights.copyTo(buffer, offset);
+      offset += weights.length();
+      biases.copyTo(buffer, offset);
+      offset += biases.length();
+    }
+  }
+
+  /**
+   * copies the buffer multiplied by scale into the updates, or into the weights of the network
+   * if updates is null
+   */
+  private void unpack(Gradients updates, double scale) {
+    int offset = 0;
+    for (int i = 1; i < layers.size(); i++) {
+      DoubleStorage weights = (updates != null) ? updates.weights[i] :
+          layers.get(i).getWeightStorage();
+      DoubleStorage biases = (updates != null) ? updates.biases[i] :
+          layers.get(i).getBiasStorage();
+      for (int j = 0; j < weights.length(); j++) {
+        weights.set(j, scale * buffer[offset + j]);
+      }
+      offset += weights.length();
+      for (int j = 0; j < biases.length(); j++) {
+        biases.set(j, scale * buffer[offset + j]);
+      }
+      offset += biases.length();
+    }
+  }
+}
@@ -0,0 +1,344 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * sums arrays across the processes of a distributed training run (all-reduce) with the ring
+ * algorithm. the processes (ranks) form a ring over TCP: every rank sends to the next one and
+ * receives from the previous one. the array is split into one chunk per rank. in the first n-1
+ * steps (reduce-scatter) every rank passes a chunk on with its own values added, after which
+ * every rank holds the complete sum of one chunk. in the next n-1 steps (all-gather) the
+ * complete chunks travel around the ring. every rank sends and receives 2(n-1)/n times the
+ * array, so the time of an all-reduce hardly grows with the number of ranks.
+ * a chunk is streamed in segments on non-blocking channels: sending the next segment,
+ * receiving and adding the previous one overlap.
+ * the transfers can be compressed to 32-bit floats (see setCompression)
+ */
+public class RingAllReduce implements Closeable {
+
+  // size of the send and receive buffers, the unit of the pipelined transfers
+  private static final int SEGMENT_BYTES = 64 * 1024;
+  // time a rank keeps trying to reach the next one while the ring is being set up
+  private static final long CONNECT_TIMEOUT_MILLIS = 60_000;
+
+  private final int rank;
+  private final int size;
+  // null for a single rank
+  private final SocketChannel next;
+  private final SocketChannel previous;
+  private final Selector selector;
+  private final SelectionKey nextKey;
+  private final SelectionKey previousKey;
+  private final ByteBuffer sendBuffer;
+  // bytes received but not consumed yet, they may belong to the next step
+  private final ByteBuffer receiveBuffer;
+  private boolean compression;
+  // rounding errors of the last compressed all-reduce, added to the next one
+  private double[] residual = new double[0];
+
+  /**
+   * joins a ring: listens on the address of this rank, connects to the next rank and accepts
+   * the connection of the previous one. every rank has to be created with the same address
+   * list, the call returns once the neighbours are connected
+   * @param rank index of this process in the ring
+   * @param addresses addresses of every rank, indexed by rank
+   * @throws IOException if the ring can not be connected
+   */
+  public RingAllReduce(int rank, List<InetSocketAddress> addresses) throws IOException {
+    if (rank < 0 || rank >= addresses.size()) {
+      throw new IllegalArgumentException("Invalid rank");
+    }
+    this.rank = rank;
+    this.size = addresses.size();
+    sendBuffer = ByteBuffer.allocateDirect(SEGMENT_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    receiveBuffer = ByteBuffer.allocateDirect(SEGMENT_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    if (size == 1) {
+      next = null;
+      previous = null;
+      selector = null;
+      nextKey = null;
+      previousKey = null;
+      return;
+    }
+    SocketChannel nextChannel = null;
+    SocketChannel previousChannel = null;
+    Selector channelSelector = null;
+    try (ServerSocketChannel server = ServerSocketChannel.open()) {
+      server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+      server.bind(addresses.get(rank));
+      // the next rank may not listen yet. a connection waits in the backlog until it is
+      // accepted, so every rank can connect before accepting without a deadlock
+      nextChannel = connect(addresses.get((rank + 1) % size));
+      ByteBuffer hello = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+      hello.putInt(0, rank);
+      while (hello.hasRemaining()) {
+        nextChannel.write(hello);
+      }
+      previousChannel = server.accept();
+      hello.clear();
+      while (hello.hasRemaining()) {
+        if (previousChannel.read(hello) < 0) {
+          throw new IOException("Ring connection closed during setup");
+        }
+      }
+      if (hello.getInt(0) != (rank + size - 1) % size) {
+        throw new IOException("Unexpected rank " + hello.getInt(0) + " connected to rank " +
+            rank);
+      }
+      for (SocketChannel channel : new SocketChannel[] {nextChannel, previousChannel}) {
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        channel.configureBlocking(false);
+      }
+      channelSelector = Selector.open();
+      nextKey = nextChannel.register(channelSelector, 0);
+      previousKey = previousChannel.register(channelSelector, 0);
+    } catch (IOException | RuntimeException e) {
+      for (Closeable c : new Closeable[] {nextChannel, previousChannel, channelSelector}) {
+        if (c != null) {
+          c.close();
+        }
+      }
+      throw e;
+    }
+    next = nextChannel;
+    previous = previousChannel;
+    selector = channelSelector;
+  }
+
+  /**
+   * joins a ring of processes on this machine, rank i listening on the loopback port
+   * basePort + i
+   * @param rank index of this process in the ring
+   * @param size number of processes in the ring
+   * @param basePort port of rank 0
+   * @return the connected ring
+   * @throws IOException if the ring can not be connected
+   */
+  public static RingAllReduce loopback(int rank, int size, int basePort) throws IOException {
+    if (size < 1) {
+      throw new IllegalArgumentException("Invalid ring size");
+    }
+    List<InetSocketAddress> addresses = new ArrayList<>();
+    for (int i = 0; i < size; i++) {
+      addresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), basePort + i));
+    }
+    return new RingAllReduce(rank, addresses);
+  }
+
+  private static SocketChannel connect(InetSocketAddress address) throws IOException {
+    long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MILLIS;
+    while (true) {
+      SocketChannel channel = SocketChannel.open();
+      try {
+        channel.connect(address);
+        return channel;
+      } catch (IOException e) {
+        channel.close();
+        if (System.currentTimeMillis() > deadline) {
+          throw new IOException("Can not connect to " + address, e);
+        }
+      }
+      try {
+        Thread.sleep(50);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while connecting to " + address);
+      }
+    }
+  }
+
+  /**
+   * getter for the position of this process
+   * @return rank of this process
+   */
+  public int getRank() {
+    return rank;
+  }
+
+  /**
+   * getter for the ring size
+   * @return number of processes in the ring
+   */
+  public int getSize() {
+    return size;
+  }
+
+  /**
+   * turns the compression of the transfers on or off. compressed transfers send 32-bit floats,
+   * halving the traffic. the value a rank rounds is the same on every rank afterwards, so the
+   * results stay identical everywhere, and the rounding errors of a rank are added to its next
+   * compressed all-reduce of an array of the same length (error feedback), so they are delayed
+   * instead of lost. suited for gradients, which are summed over many steps
+   * @param compression true to send floats
+   */
+  public void setCompression(boolean compression) {
+    this.compression = compression;
+  }
+
+  /**
+   * sums an array across every rank. every rank has to call it with the same length, the
+   * calls of the ranks are matched in order
+   * @param data array holding the values of this rank, overwritten with the sums
+   * @param len number of elements summed
+   * @throws IOException if the connection to a neighbour fails
+   */
+  public void allReduce(double[] data, int len) throws IOException {
+    allReduce(data, len, compression);
+  }
+
+  /**
+   * sums an array across every rank
+   * @param data array holding the values of this rank, overwritten with the sums
+   * @param len number of elements summed
+   * @param compressed true to send floats, false for exact sums
+   * @throws IOException if the connection to a neighbour fails
+   */
+  void allReduce(double[] data, int len, boolean compressed) throws IOException {
+    if (len > data.length) {
+      throw new IllegalArgumentException("Invalid length");
+    }
+    if (size == 1) {
+      return;
+    }
+    if (compressed) {
+      if (residual.length != len) {
+        residual = new double[len];
+      }
+      for (int i = 0; i < len; i++) {
+        data[i] += residual[i];
+        residual[i] = 0;
+      }
+    }
+    // reduce-scatter: after step s the chunk received holds the sum of s + 2 ranks
+    for (int s = 0; s < size - 1; s++) {
+      int send = chunk(rank - s);
+      int receive = chunk(rank - s - 1);
+      exchange(data, chunkStart(send, len), chunkStart(send + 1, len) - chunkStart(send, len),
+          chunkStart(receive, len), chunkStart(receive + 1, len) - chunkStart(receive, len),
+          true, compressed);
+    }
+    // all-gather: the complete chunk of this rank is chunk rank + 1
+    for (int s = 0; s < size - 1; s++) {
+      int send = chunk(rank + 1 - s);
+      int receive = chunk(rank - s);
+      exchange(data, chunkStart(send, len), chunkStart(send + 1, len) - chunkStart(send, len),
+          chunkStart(receive, len), chunkStart(receive + 1, len) - chunkStart(receive, len),
+          false, compressed);
+    }
+  }
+
+  private int chunk(int index) {
+    return ((index % size) + size) % size;
+  }
+
+  private int chunkStart(int chunk, int len) {
+    return (int) ((long) chunk * len / size);
+  }
+
+  /**
+   * one step of the ring: streams a range of the array to the next rank while receiving a range
+   * from the previous one
+   * @param data the array
+   * @param sendFrom first element sent
+   * @param sendLen number of elements sent
+   * @param receiveFrom first element received
+   * @param receiveLen number of elements received
+   * @param add true to add the received values, false to overwrite the elements
+   * @param compressed true to transfer floats
+   * @throws IOException if the connection to a neighbour fails
+   */
+  private void exchange(double[] data, int sendFrom, int sendLen, int receiveFrom,
+                        int receiveLen, boolean add, boolean compressed) throws IOException {
+    int width = compressed ? 4 : 8;
+    int sent = 0;
+    int received = 0;
+    sendBuffer.clear().limit(0);
+    while (sent < sendLen || sendBuffer.hasRemaining() || received < receiveLen) {
+      boolean progress = false;
+      if (!sendBuffer.hasRemaining() && sent < sendLen) {
+        sendBuffer.clear();
+        int count = Math.min(sendLen - sent, SEGMENT_BYTES / width);
+        encode(data, sendFrom + sent, count, compressed, !add);
+        sendBuffer.flip();
+        sent += count;
+      }
+      if (sendBuffer.hasRemaining() && next.write(sendBuffer) > 0) {
+        progress = true;
+      }
+      if (received < receiveLen) {
+        int read = previous.read(receiveBuffer);
+        // decodes every complete element, bytes of the next step stay in the buffer
+        receiveBuffer.flip();
+        int count = Math.min(receiveLen - received, receiveBuffer.remaining() / width);
+        if (count > 0) {
+          progress = true;
+          decode(data, receiveFrom + received, count, compressed, add);
+          received += count;
+        }
+        receiveBuffer.compact();
+        // the previous rank closes the ring once it is done, which is only an error if bytes
+        // of this step are still missing. they may have been read before
+        if (read < 0 && received < receiveLen) {
+          throw new IOException("Ring connection closed by rank " + (rank + size - 1) % size);
+        }
+      }
+      if (!progress) {
+        nextKey.interestOps(sendBuffer.hasRemaining() ? SelectionKey.OP_WRITE : 0);
+        previousKey.interestOps(received < receiveLen ? SelectionKey.OP_READ : 0);
+        selector.select();
+        selector.selectedKeys().clear();
+      }
+    }
+  }
+
+  /**
+   * writes elements into the send buffer
+   * @param store true if every rank keeps the value sent (all-gather), then a rounded value
+   *              replaces the element
+   */
+  private void encode(double[] data, int from, int count, boolean compressed, boolean store) {
+    if (!compressed) {
+      for (int i = from; i < from + count; i++) {
+        sendBuffer.putDouble(data[i]);
+      }
+      return;
+    }
+    for (int i = from; i < from + count; i++) {
+      float value = (float) data[i];
+      residual[i] += data[i] - value;
+      if (store) {
+        data[i] = value;
+      }
+      sendBuffer.putFloat(value);
+    }
+  }
+
+  private void decode(double[] data, int from, int count, boolean compressed, boolean add) {
+    for (int i = from; i < from + count; i++) {
+      double value = compressed ? receiveBuffer.getFloat() : receiveBuffer.getDouble();
+      data[i] = add ? data[i] + value : value;
+    }
+  }
+
+  /**
+   * closes the connections to the neighbours
+   * @throws IOException if a connection can not be closed
+   */
+  @Override public void close() throws IOException {
+    if (size > 1) {
+      selector.close();
+      next.close();
+      previous.close();
+    }
+  }
+}
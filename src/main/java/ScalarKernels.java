@@ -0,0 +1,133 @@
+import java.util.Arrays;
+
+/**
+ * portable implementation of the dense kernels, and the reference the Vector API kernels are
+ * checked against.
+ * reductions use four independent accumulators: a single running sum is a chain of dependent
+ * additions that the JIT can not vectorize, four sums can be computed in parallel by the cpu
+ * (and in SIMD registers where the JIT manages it)
+ */
+final class ScalarKernels implements DenseKernels {
+
+  /**
+   * description of the implementation
+   * @return "scalar"
+   */
+  @Override public String toString() {
+    return "scalar";
+  }
+
+  @Override public double dot(double[] a, int aOff, double[] b, int bOff, int len) {
+    double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+    int i = 0;
+    for (; i + 4 <= len; i += 4) {
+      s0 += a[aOff + i] * b[bOff + i];
+      s1 += a[aOff + i + 1] * b[bOff + i + 1];
+      s2 += a[aOff + i + 2] * b[bOff + i + 2];
+      s3 += a[aOff + i + 3] * b[bOff + i + 3];
+    }
+    for (; i < len; i++) {
+      s0 += a[aOff + i] * b[bOff + i];
+    }
+    return (s0 + s1) + (s2 + s3);
+  }
+
+  @Override public void axpy(double alpha, double[] x, int xOff, double[] y, int yOff, int len) {
+    for (int i = 0; i < len; i++) {
+      y[yOff + i] += alpha * x[xOff + i];
+    }
+  }
+
+  @Override public void gemmABt4(double[] w, double[] b, int wRows, int cols, double[] x,
+                                 int xOff, double[] y, int yOff) {
+    int x1 = xOff + cols;
+    int x2 = x1 + cols;
+    int x3 = x2 + cols;
+    for (int i = 0; i < wRows; i++) {
+      int row = i * cols;
+      double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+      for (int j = 0; j < cols; j++) {
+        double wij = w[row + j];
+        s0 += wij * x[xOff + j];
+        s1 += wij * x[x1 + j];
+        s2 += wij * x[x2 + j];
+        s3 += wij * x[x3 + j];
+      }
+      double bi = b[i];
+      y[yOff + i] = s0 + bi;
+      y[yOff + wRows + i] = s1 + bi;
+      y[yOff + 2 * wRows + i] = s2 + bi;
+      y[yOff + 3 * wRows + i] = s3 + bi;
+    }
+  }
+
+  /**
+   * the weight matrix is walked row by row, so the memory is read sequentially, and every
+   * weight row is used for four rows of D at a time
+   */
+  @Override public void gemmAB(double[] d, int rows, double[] w, int wRows, int cols,
+                               double[] y) {
+    Arrays.fill(y, 0, rows * cols, 0);
+    int r = 0;
+    for (; r + 4 <= rows; r += 4) {
+      int y0 = r * cols;
+      int y1 = y0 + cols;
+      int y2 = y1 + cols;
+      int y3 = y2 + cols;
+      int d0 = r * wRows;
+      for (int i = 0; i < wRows; i++) {
+        int row = i * cols;
+        double a0 = d[d0 + i];
+        double a1 = d[d0 + wRows + i];
+        double a2 = d[d0 + 2 * wRows + i];
+        double a3 = d[d0 + 3 * wRows + i];
+        for (int j = 0; j < cols; j++) {
+          double wij = w[row + j];
+          y[y0 + j] += wij * a0;
+          y[y1 + j] += wij * a1;
+          y[y2 + j] += wij * a2;
+          y[y3 + j] += wij * a3;
+        }
+      }
+    }
+    for (; r < rows; r++) {
+      for (int i = 0; i < wRows; i++) {
+        axpy(d[r * wRows + i], w, i * cols, y, r * cols, cols);
+      }
+    }
+  }
+
+  /**
+   * every row of G is finished before moving on to the next, so it stays in cache while the rows
+   * of X are added to it
+   */
+  @Override public void gemmAtB(double[] d, int dCols, int rows, double[] x, int cols,
+                                double[] g, double[] colSums) {
+    for (int i = 0; i < dCols; i++) {
+      int row = i * cols;
+      Arrays.fill(g, row, row + cols, 0);
+      double sum = 0;
+      int r = 0;
+      for (; r + 4 <= rows; r += 4) {
+        double d0 = d[r * dCols + i];
+        double d1 = d[(r + 1) * dCols + i];
+        double d2 = d[(r + 2) * dCols + i];
+        double d3 = d[(r + 3) * dCols + i];
+        int x0 = r * cols;
+        int x1 = x0 + cols;
+        int x2 = x1 + cols;
+        int x3 = x2 + cols;
+        for (int j = 0; j < cols; j++) {
+          g[row + j] += d0 * x[x0 + j] + d1 * x[x1 + j] + d2 * x[x2 + j] + d3 * x[x3 + j];
+        }
+        sum += d0 + d1 + d2 + d3;
+      }
+      for (; r < rows; r++) {
+        double di = d[r * dCols + i];
+        axpy(di, x, r * cols, g, row, cols);
+        sum += di;
+      }
+      colSums[i] = sum;
+    }
+  }
+}
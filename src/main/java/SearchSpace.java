@@ -0,0 +1,137 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * values tried by a hyperparameter sweep: topologies, activation functions of the hidden
+ * layers, training rates and batch sizes. the trials are either every combination of the values
+ * (grid search) or random combinations (random search)
+ */
+public class SearchSpace {
+
+  private List<int[]> topologies = new ArrayList<>();
+  private List<ActivationFunction> activations = new ArrayList<>();
+  private double[] trainingRates = {0.1};
+  private int[] batchSizes = {32};
+
+  /**
+   * search space of networks without hidden layers, with sigmoid activation, training rate 0.1
+   * and batch size 32, until the values are set
+   */
+  public SearchSpace() {
+    topologies.add(new int[0]);
+    activations.add(ActivationFunction.sigmoid());
+  }
+
+  /**
+   * sets the topologies to try
+   * @param topologies number of neurons of every hidden layer, one array per topology
+   */
+  public void setTopologies(int[]... topologies) {
+    if (topologies.length == 0) {
+      throw new IllegalArgumentException("No topology");
+    }
+    List<int[]> values = new ArrayList<>();
+    for (int[] topology : topologies) {
+      for (int neuronCount : topology) {
+        if (neuronCount < 1) {
+          throw new IllegalArgumentException("Invalid hidden layer size");
+        }
+      }
+      values.add(topology.clone());
+    }
+    this.topologies = values;
+  }
+
+  /**
+   * sets the activation functions of the hidden layers to try
+   * @param activations activation functions
+   */
+  public void setActivations(ActivationFunction... activations) {
+    if (activations.length == 0) {
+      throw new IllegalArgumentException("No activation function");
+    }
+    this.activations = new ArrayList<>(Arrays.asList(activations));
+  }
+
+  /**
+   * sets the training rates to try. random search draws rates log-uniformly between the
+   * smallest and the largest one instead of picking one of them
+   * @param trainingRates training rates
+   */
+  public void setTrainingRates(double... trainingRates) {
+    if (trainingRates.length == 0) {
+      throw new IllegalArgumentException("No training rate");
+    }
+    for (double rate : trainingRates) {
+      if (!(rate > 0)) {
+        throw new IllegalArgumentException("Invalid training rate");
+      }
+    }
+    this.trainingRates = trainingRates.clone();
+  }
+
+  /**
+   * sets the batch sizes to try
+   * @param batchSizes numbers of examples per weight update
+   */
+  public void setBatchSizes(int... batchSizes) {
+    if (batchSizes.length == 0) {
+      throw new IllegalArgumentException("No batch size");
+    }
+    for (int batchSize : batchSizes) {
+      if (batchSize < 1) {
+        throw new IllegalArgumentException("Invalid batch size");
+      }
+    }
+    this.batchSizes = batchSizes.clone();
+  }
+
+  /**
+   * grid search: every combination of the values
+   * @return the trials, the topology changing slowest and the batch size fastest
+   */
+  public List<TrialConfig> grid() {
+    List<TrialConfig> ret = new ArrayList<>();
+    for (int[] topology : topologies) {
+      for (ActivationFunction activation : activations) {
+        for (double rate : trainingRates) {
+          for (int batchSize : batchSizes) {
+            ret.add(new TrialConfig(topology, activation, rate, batchSize));
+          }
+        }
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * random search: combinations of values picked at random. the rates are drawn log-uniformly
+   * between the smallest and the largest rate, so every order of magnitude is tried equally
+   * @param count number of trials
+   * @param seed seed of the draws, the same seed gives the same trials
+   * @return the trials
+   */
+  public List<TrialConfig> sample(int count, long seed) {
+    if (count < 0) {
+      throw new IllegalArgumentException("Invalid trial count");
+    }
+    double min = trainingRates[0];
+    double max = trainingRates[0];
+    for (double rate : trainingRates) {
+      min = Math.min(min, rate);
+      max = Math.max(max, rate);
+    }
+    Random random = new Random(seed);
+    List<TrialConfig> ret = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      int[] topology = topologies.get(random.nextInt(topologies.size()));
+      ActivationFunction activation = activations.get(random.nextInt(activations.size()));
+      double rate = min * Math.exp(random.nextDouble() * Math.log(max / min));
+      int batchSize = batchSizes[random.nextInt(batchSizes.length)];
+      ret.add(new TrialConfig(topology, activation, rate, batchSize));
+    }
+    return ret;
+  }
+}
@@ -0,0 +1,175 @@
+import java.util.Arrays;
+
+/**
+ * batch of sparse input vectors in compressed sparse row (CSR) form: the nonzero values of every
+ * row with their column indexes, rows one after the other. inputs that are mostly zero (pixels of
+ * a dark background, one-hot or bag-of-features encodings) take space and time proportional to
+ * their nonzero elements only.
+ * a batch is filled row by row and can be cleared and refilled, its arrays grow when needed and
+ * are kept, so a reused batch stops allocating once it is large enough
+ */
+public class SparseBatch {
+
+  private final int columnCount;
+  private int rowCount;
+  // row r holds the elements rowStart[r] .. rowStart[r + 1] - 1
+  int[] rowStart;
+  int[] index;
+  double[] value;
+
+  /**
+   * creates an empty batch
+   * @param columnCount number of elements of a row (the dense length of an input vector)
+   */
+  public SparseBatch(int columnCount) {
+    this(columnCount, 16, 16 * 16);
+  }
+
+  /**
+   * creates an empty batch with room for the given number of rows and nonzero elements
+   * @param columnCount number of elements of a row
+   * @param rowCapacity number of rows stored without growing the arrays
+   * @param nonzeroCapacity number of nonzero elements stored without growing the arrays
+   */
+  public SparseBatch(int columnCount, int rowCapacity, int nonzeroCapacity) {
+    if (columnCount < 1 || rowCapacity < 0 || nonzeroCapacity < 0) {
+      throw new IllegalArgumentException("Invalid sparse batch size");
+    }
+    this.columnCount = columnCount;
+    rowStart = new int[rowCapacity + 1];
+    index = new int[nonzeroCapacity];
+    value = new double[nonzeroCapacity];
+  }
+
+  /**
+   * getter for the row length
+   * @return number of elements of a row, zeros included
+   */
+  public int getColumnCount() {
+    return columnCount;
+  }
+
+  /**
+   * getter for the number of rows
+   * @return number of rows added since the last clear
+   */
+  public int getRowCount() {
+    return rowCount;
+  }
+
+  /**
+   * getter for the number of stored elements
+   * @return number of nonzero elements in the batch
+   */
+  public int getNonzeroCount() {
+    return rowStart[rowCount];
+  }
+
+  /**
+   * getter for the density
+   * @return ratio of the nonzero elements to all elements of the batch
+   */
+  public double getDensity() {
+    return rowCount == 0 ? 0 : (double) getNonzeroCount() / ((long) rowCount * columnCount);
+  }
+
+  /**
+   * removes every row, the arrays are kept
+   */
+  public void clear() {
+    rowCount = 0;
+  }
+
+  /**
+   * adds a row given by its nonzero elements
+   * @param indexes column indexes of the elements, increasing
+   * @param values values of the elements
+   * @param count number of elements
+   */
+  public void addRow(int[] indexes, double[] values, int count) {
+    int start = getNonzeroCount();
+    ensureCapacity(count);
+    for (int k = 0; k < count; k++) {
+      if (indexes[k] < 0 || indexes[k] >= columnCount ||
+          (k > 0 && indexes[k] <= indexes[k - 1])) {
+        throw new IllegalArgumentException("Invalid sparse row: indexes must be increasing");
+      }
+      index[start + k] = indexes[k];
+      value[start + k] = values[k];
+    }
+    rowStart[++rowCount] = start + count;
+  }
+
+  /**
+   * adds a dense row, keeping its nonzero elements
+   * @param row array holding the row
+   * @param offset index of the first element of the row
+   * @return number of nonzero elements in the row
+   */
+  public int addDenseRow(double[] row, int offset) {
+    return addDenseRow(row, offset, null);
+  }
+
+  /**
+   * adds a dense row, keeping its nonzero elements multiplied by a per column scale
+   * @param row array holding the row
+   * @param offset index of the first element of the row
+   * @param scale multiplier of every column, null to keep the values
+   * @return number of nonzero elements in the row
+   */
+  int addDenseRow(double[] row, int offset, double[] scale) {
+    int start = getNonzeroCount();
+    int n = start;
+    ensureCapacity(columnCount);
+    for (int j = 0; j < columnCount; j++) {
+      double x = row[offset + j];
+      if (x != 0) {
+        index[n] = j;
+        value[n++] = (scale != null) ? x * scale[j] : x;
+      }
+    }
+    rowStart[++rowCount] = n;
+    return n - start;
+  }
+
+  /**
+   * writes a row in dense form
+   * @param row index of the row
+   * @param dest array receiving the row, zeros included
+   * @param offset index of the first element in dest
+   */
+  public void getDenseRow(int row, double[] dest, int offset) {
+    if (row < 0 || row >= rowCount) {
+      throw new IndexOutOfBoundsException("Row index out of the batch");
+    }
+    Arrays.fill(dest, offset, offset + columnCount, 0);
+    for (int k = rowStart[row]; k < rowStart[row + 1]; k++) {
+      dest[offset + index[k]] = value[k];
+    }
+  }
+
+  /**
+   * makes room for one more row with the given number of elements
+   * @param count number of elements of the row
+   */
+  private void ensureCapacity(int count) {
+    if (rowCount + 2 > rowStart.length) {
+      rowStart = Arrays.copyOf(rowStart, Math.max(rowCount + 2, 2 * rowStart.length));
+    }
+    int needed = getNonzeroCount() + count;
+    if (needed > index.length) {
+      int size = Math.max(needed, 2 * index.length);
+      index = Arrays.copyOf(index, size);
+      value = Arrays.copyOf(value, size);
+    }
+  }
+
+  /**
+   * Object string representation
+   * @return returns a string with the size and density of the batch
+   */
+  @Override public String toString() {
+    return "Sparse batch of " + rowCount + " rows of " + columnCount + " columns, density: " +
+        getDensity();
+  }
+}
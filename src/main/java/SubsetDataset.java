@@ -0,0 +1,115 @@
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * view of a part of a data set, selected by example indexes. the examples are not copied
+ */
+public class SubsetDataset implements Dataset {
+
+  private final Dataset dataset;
+  private final int[] indexes;
+
+  /**
+   * @param dataset data set to take the examples from
+   * @param indexes indexes of the examples in the view, in view order
+   */
+  public SubsetDataset(Dataset dataset, int[] indexes) {
+    for (int index : indexes) {
+      if (index < 0 || index >= dataset.size()) {
+        throw new IndexOutOfBoundsException("Example index out of the data set");
+      }
+    }
+    this.dataset = dataset;
+    this.indexes = indexes.clone();
+  }
+
+  /**
+   * stratified random sample of a data set: every class (position of the largest expected
+   * output, or the expected output rounded for a single output) keeps the same share of the
+   * examples as in the whole data set
+   * @param dataset data set to sample
+   * @param fraction share of the examples kept, in (0, 1]
+   * @param seed seed of the sampling
+   * @return the sample, examples in their original order
+   */
+  public static SubsetDataset stratified(Dataset dataset, double fraction, long seed) {
+    if (fraction <= 0 || fraction > 1) {
+      throw new IllegalArgumentException("Invalid sample fraction");
+    }
+    int inputCount = dataset.getInputCount();
+    int outputCount = dataset.getOutputCount();
+    double[] buffer = new double[inputCount + outputCount];
+    List<List<Integer>> classes = new ArrayList<>();
+    for (int i = 0; i < Math.max(2, outputCount); i++) {
+      classes.add(new ArrayList<Integer>());
+    }
+    for (int i = 0; i < dataset.size(); i++) {
+      double[] example = dataset.getExample(i, buffer);
+      classes.get(Evaluator.classOf(example, inputCount, outputCount)).add(i);
+    }
+    Random random = new Random(seed);
+    boolean[] selected = new boolean[dataset.size()];
+    int count = 0;
+    for (List<Integer> members : classes) {
+      int keep = (int) Math.round(members.size() * fraction);
+      if (keep == 0 && !members.isEmpty()) {
+        keep = 1;
+      }
+      // partial Fisher-Yates shuffle: the first keep members are a uniform sample
+      for (int i = 0; i < keep; i++) {
+        int j = i + random.nextInt(members.size() - i);
+        Integer tmp = members.get(i);
+        members.set(i, members.get(j));
+        members.set(j, tmp);
+        selected[members.get(i)] = true;
+      }
+      count += keep;
+    }
+    int[] indexes = new int[count];
+    for (int i = 0, n = 0; i < selected.length; i++) {
+      if (selected[i]) {
+        indexes[n++] = i;
+      }
+    }
+    return new SubsetDataset(dataset, indexes);
+  }
+
+  /**
+   * shard of a data set for one process of a distributed training run: the data set is split
+   * into shardCount ranges of consecutive examples, their sizes differ by at most one
+   * @param dataset data set to split
+   * @param shard index of the shard, the rank of the process
+   * @param shardCount number of shards, the number of processes
+   * @return the examples of the shard, in their original order
+   */
+  public static SubsetDataset shard(Dataset dataset, int shard, int shardCount) {
+    if (shardCount < 1 || shard < 0 || shard >= shardCount) {
+      throw new IllegalArgumentException("Invalid shard");
+    }
+    int from = (int) ((long) shard * dataset.size() / shardCount);
+    int to = (int) ((long) (shard + 1) * dataset.size() / shardCount);
+    int[] indexes = new int[to - from];
+    for (int i = 0; i < indexes.length; i++) {
+      indexes[i] = from + i;
+    }
+    return new SubsetDataset(dataset, indexes);
+  }
+
+  @Override public int size() {
+    return indexes.length;
+  }
+
+  @Override public int getInputCount() {
+    return dataset.getInputCount();
+  }
+
+  @Override public int getOutputCount() {
+    return dataset.getOutputCount();
+  }
+
+  @Override public double[] getExample(int index, double[] buffer) {
+    return dataset.getExample(indexes[index], buffer);
+  }
+}
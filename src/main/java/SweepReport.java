@@ -0,0 +1,99 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * results of a hyperparameter sweep. the trials are ranked by how far they got (trials stopped
+ * by successive halving rank below the ones trained further) and then by their final validation
+ * loss, so the first trial is the best one
+ */
+public class SweepReport {
+
+  private final List<TrialResult> trials;
+  private final long elapsedNanos;
+
+  SweepReport(List<TrialResult> trials, long elapsedNanos) {
+    List<TrialResult> ranked = new ArrayList<>(trials);
+    // NaN losses (diverged trials) rank last
+    ranked.sort(Comparator.comparingInt(TrialResult::getEpochs).reversed()
+        .thenComparing(TrialResult::getLoss));
+    this.trials = Collections.unmodifiableList(ranked);
+    this.elapsedNanos = elapsedNanos;
+  }
+
+  /**
+   * getter for the results
+   * @return results of every trial, best first
+   */
+  public List<TrialResult> getTrials() {
+    return trials;
+  }
+
+  /**
+   * getter for the best trial
+   * @return result of the best trial, null if the sweep had no trials
+   */
+  public TrialResult getBest() {
+    return trials.isEmpty() ? null : trials.get(0);
+  }
+
+  /**
+   * getter for the duration of the sweep
+   * @return time the sweep took
+   */
+  public long getElapsedNanos() {
+    return elapsedNanos;
+  }
+
+  /**
+   * writes the loss curves into a csv file, one line per trial and epoch
+   * @param path path of the file, replaced if it exists
+   * @throws IOException if the file can not be written
+   */
+  public void writeLossCurves(Path path) throws IOException {
+    try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+      writer.write("rank,topology,activation,rate,batch,epoch,loss");
+      writer.newLine();
+      for (int i = 0; i < trials.size(); i++) {
+        TrialConfig config = trials.get(i).getConfig();
+        String prefix = (i + 1) + "," + config.getTopology() + "," +
+            config.getActivation().getFunctionType() + "," + config.getTrainingRate() + "," +
+            config.getBatchSize() + ",";
+        double[] curve = trials.get(i).getLossCurve();
+        for (int epoch = 0; epoch < curve.length; epoch++) {
+          writer.write(prefix + (epoch + 1) + "," + curve[epoch]);
+          writer.newLine();
+        }
+      }
+    }
+  }
+
+  /**
+   * Object string representation
+   * @return returns a table of the trials, best first
+   */
+  @Override public String toString() {
+    StringBuilder ret = new StringBuilder();
+    ret.append(String.format("Sweep of %d trials in %.1f s%n", trials.size(),
+        elapsedNanos / 1e9));
+    ret.append(String.format("%4s %-16s %-14s %10s %5s %6s %10s %8s %10s %s%n", "rank",
+        "topology", "activation", "rate", "batch", "epochs", "loss", "accuracy", "examples/s",
+        "status"));
+    for (int i = 0; i < trials.size(); i++) {
+      TrialResult trial = trials.get(i);
+      TrialConfig config = trial.getConfig();
+      ret.append(String.format("%4d %-16s %-14s %10.4g %5d %6d %10.5f %8.4f %10.0f %s%n", i + 1,
+          config.getTopology(), config.getActivation().getFunctionType(),
+          config.getTrainingRate(), config.getBatchSize(), trial.getEpochs(), trial.getLoss(),
+          trial.getAccuracy(), trial.getExamplesPerSecond(),
+          trial.isStopped() ? "stopped" : "done"));
+    }
+    return ret.toString();
+  }
+}
@@ -0,0 +1,146 @@
+
+/**
+ * measurements of a training epoch, reported to the telemetry of the network.
+ * layer times are indexed like the layers of the network, 0 is the input layer. with parallel
+ * training the layer and update times are summed over the training threads
+ */
+public class TrainingMetrics {
+
+  private final int epoch;
+  private final double loss;
+  private final double accuracy;
+  private final long exampleCount;
+  private final long elapsedNanos;
+  private final long[] forwardNanos;
+  private final long[] backwardNanos;
+  private final long updateNanos;
+  private final long allocatedBytes;
+
+  /**
+   * @param epoch index of the epoch in the training run, starting from 1
+   * @param loss validation error after the epoch, NaN if the epoch was not validated
+   * @param accuracy validation accuracy after the epoch, NaN if the epoch was not validated
+   * @param exampleCount number of examples trained on
+   * @param elapsedNanos time of the epoch, validation excluded
+   * @param forwardNanos time of the forward pass of every layer
+   * @param backwardNanos time of the backward pass of every layer
+   * @param updateNanos time of the weight updates
+   * @param allocatedBytes bytes allocated by the training thread during the epoch, -1 if the jvm
+   *                       can not measure it
+   */
+  public TrainingMetrics(int epoch, double loss, double accuracy, long exampleCount,
+                         long elapsedNanos,
+                         long[] forwardNanos, long[] backwardNanos, long updateNanos,
+                         long allocatedBytes) {
+    this.epoch = epoch;
+    this.loss = loss;
+    this.accuracy = accuracy;
+    this.exampleCount = exampleCount;
+    this.elapsedNanos = elapsedNanos;
+    this.forwardNanos = forwardNanos.clone();
+    this.backwardNanos = backwardNanos.clone();
+    this.updateNanos = updateNanos;
+    this.allocatedBytes = allocatedBytes;
+  }
+
+  /**
+   * getter for the epoch
+   * @return index of the epoch in the training run, starting from 1
+   */
+  public int getEpoch() {
+    return epoch;
+  }
+
+  /**
+   * getter for the validation error
+   * @return sum of the error function over the validation data after the epoch, NaN if the
+   *         epoch was not validated
+   */
+  public double getLoss() {
+    return loss;
+  }
+
+  /**
+   * getter for the validation accuracy
+   * @return ratio of the validation examples classified correctly after the epoch, NaN if the
+   *         epoch was not validated
+   */
+  public double getAccuracy() {
+    return accuracy;
+  }
+
+  /**
+   * getter for the size of the epoch
+   * @return number of examples trained on
+   */
+  public long getExampleCount() {
+    return exampleCount;
+  }
+
+  /**
+   * getter for the length of the epoch
+   * @return nanoseconds spent training, validation excluded
+   */
+  public long getElapsedNanos() {
+    return elapsedNanos;
+  }
+
+  /**
+   * getter for the training throughput
+   * @return examples trained on per second
+   */
+  public double getExamplesPerSecond() {
+    return elapsedNanos == 0 ? 0 : exampleCount * 1e9 / elapsedNanos;
+  }
+
+  /**
+   * getter for the number of layers the times are reported for
+   * @return number of layers in the network
+   */
+  public int getLayerCount() {
+    return forwardNanos.length;
+  }
+
+  /**
+   * getter for the forward time of a layer
+   * @param layer index of the layer, 0 is the input layer
+   * @return nanoseconds spent propagating the batches through the layer
+   */
+  public long getForwardNanos(int layer) {
+    return forwardNanos[layer];
+  }
+
+  /**
+   * getter for the backward time of a layer
+   * @param layer index of the layer, 0 is the input layer (always 0, it is not trained)
+   * @return nanoseconds spent computing the updates and errors of the layer
+   */
+  public long getBackwardNanos(int layer) {
+    return backwardNanos[layer];
+  }
+
+  /**
+   * getter for the update time
+   * @return nanoseconds spent adding the updates to the weights
+   */
+  public long getUpdateNanos() {
+    return updateNanos;
+  }
+
+  /**
+   * getter for the allocations
+   * @return bytes allocated by the training thread during the epoch, -1 if unknown
+   */
+  public long getAllocatedBytes() {
+    return allocatedBytes;
+  }
+
+  /**
+   * Object string representation
+   * @return returns a string with the main measurements
+   */
+  @Override public String toString() {
+    return "Epoch " + epoch + " loss: " + loss + " accuracy: " + accuracy + " examples/s: " +
+        getExamplesPerSecond() + " allocated bytes: " + allocatedBytes;
+  }
+}
@@ -0,0 +1,172 @@
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * delivers training metrics to sinks without slowing down training. publishing puts the metrics
+ * into a bounded lock-free ring buffer and returns immediately; a background thread takes them
+ * out and passes them to the sinks. when the ring is full the metrics are dropped and counted,
+ * the training thread never waits. a telemetry may be shared by several networks
+ */
+public class TrainingTelemetry implements AutoCloseable {
+
+  private final MetricSink[] sinks;
+  private final AtomicReferenceArray<TrainingMetrics> slots;
+  // sequence number of every slot: equal to the position while the slot is free, position + 1
+  // once it is filled
+  private final AtomicLongArray sequences;
+  private final int mask;
+  private final AtomicLong tail = new AtomicLong();
+  // only used by the consumer thread
+  private long head;
+  private final AtomicLong dropped = new AtomicLong();
+  private final Thread consumer;
+  private volatile boolean closed;
+  private volatile Exception lastError;
+
+  /**
+   * @param capacity number of metrics the ring can hold, rounded up to a power of two
+   * @param sinks sinks receiving every metric, in this order
+   */
+  public TrainingTelemetry(int capacity, MetricSink... sinks) {
+    if (capacity < 1 || capacity > (1 << 30)) {
+      throw new IllegalArgumentException("Invalid capacity");
+    }
+    int size = Integer.highestOneBit(capacity);
+    size = (size < capacity) ? size << 1 : size;
+    this.sinks = sinks.clone();
+    this.slots = new AtomicReferenceArray<>(size);
+    this.sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+    this.mask = size - 1;
+    this.consumer = new Thread(this::consume, "training-telemetry");
+    consumer.setDaemon(true);
+    consumer.start();
+  }
+
+  /**
+   * queues metrics for the sinks, without blocking
+   * @param metrics measurements to be delivered
+   * @return true if queued, false if dropped because the ring was full or the telemetry closed
+   */
+  public boolean publish(TrainingMetrics metrics) {
+    if (closed) {
+      dropped.incrementAndGet();
+      return false;
+    }
+    long position = tail.get();
+    while (true) {
+      int index = (int) position & mask;
+      long difference = sequences.get(index) - position;
+      if (difference == 0) {
+        // the slot is free, claim it
+        if (tail.compareAndSet(position, position + 1)) {
+          break;
+        }
+        position = tail.get();
+      } else if (difference < 0) {
+        // the slot still holds metrics from a lap ago: the ring is full
+        dropped.incrementAndGet();
+        return false;
+      } else {
+        // another producer claimed the slot first
+        position = tail.get();
+      }
+    }
+    int index = (int) position & mask;
+    slots.set(index, metrics);
+    sequences.set(index, position + 1);
+    LockSupport.unpark(consumer);
+    return true;
+  }
+
+  /**
+   * getter for the number of dropped metrics
+   * @return number of metrics that did not fit into the ring
+   */
+  public long getDroppedCount() {
+    return dropped.get();
+  }
+
+  /**
+   * getter for the last sink error
+   * @return last exception thrown by a sink, null if there was none
+   */
+  public Exception getLastError() {
+    return lastError;
+  }
+
+  /**
+   * takes the next metrics out of the ring
+   * @return the metrics, null if the ring is empty
+   */
+  private TrainingMetrics poll() {
+    int index = (int) head & mask;
+    if (sequences.get(index) != head + 1) {
+      return null;
+    }
+    TrainingMetrics ret = slots.get(index);
+    slots.set(index, null);
+    // free the slot for the next lap
+    sequences.set(index, head + mask + 1);
+    head++;
+    return ret;
+  }
+
+  /**
+   * body of the consumer thread: delivers the metrics until the telemetry is closed and the ring
+   * is empty
+   */
+  private void consume() {
+    while (true) {
+      TrainingMetrics metrics = poll();
+      if (metrics != null) {
+        deliver(metrics);
+      } else if (closed) {
+        // the last publish may have claimed a slot just before closing
+        if (tail.get() == head) {
+          break;
+        }
+        Thread.yield();
+      } else {
+        LockSupport.parkNanos(this, 10000000L);
+      }
+    }
+    for (MetricSink sink : sinks) {
+      try {
+        sink.close();
+      } catch (IOException | RuntimeException e) {
+        lastError = e;
+      }
+    }
+  }
+
+  private void deliver(TrainingMetrics metrics) {
+    for (MetricSink sink : sinks) {
+      try {
+        sink.accept(metrics);
+      } catch (IOException | RuntimeException e) {
+        // a failing sink must not stop the others
+        lastError = e;
+      }
+    }
+  }
+
+  /**
+   * delivers the metrics already published, closes the sinks and stops the background thread
+   */
+  @Override public void close() {
+    closed = true;
+    LockSupport.unpark(consumer);
+    try {
+      consumer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,203 @@
+
+import java.util.List;
+
+/**
+ * buffers needed to run backpropagation on a batch of examples: the outputs and errors of every
+ * layer (batch matrices, one example per row) and the resulting weight updates.
+ * a workspace belongs to a single thread, parallel training gives every worker its own.
+ * the buffers are allocated once, computing the updates of a batch does not allocate memory
+ */
+class TrainingWorkspace {
+
+  private final List<NeuralLayer> layers;
+  private final int inputCount;
+  private final int outputCount;
+  private final double[][] outputs;
+  private final double[][] deltas;
+  private final int capacity;
+  // inputs of the batch in sparse form, taken by the first trained layer instead of the dense
+  // output of the input layer when their density is below sparseThreshold (0 never)
+  private final SparseBatch sparseInputs;
+  double sparseThreshold;
+  final Gradients updates;
+  // time spent in every layer and in the weight updates, only measured when timed is set
+  final long[] forwardNanos;
+  final long[] backwardNanos;
+  long updateNanos;
+  boolean timed;
+
+  /**
+   * allocates the buffers, sized from the network topology
+   * @param layers layers of the network, input layer first
+   * @param capacity largest number of examples processed at once
+   */
+  TrainingWorkspace(List<NeuralLayer> layers, int capacity) {
+    this.layers = layers;
+    this.capacity = capacity;
+    int layerCount = layers.size();
+    this.inputCount = layers.get(0).getLayerNeuronCount();
+    this.outputCount = layers.get(layerCount - 1).getLayerNeuronCount();
+    outputs = new double[layerCount][];
+    deltas = new double[layerCount][];
+    // the input layer is not trained, only its output is needed
+    outputs[0] = new double[capacity * inputCount];
+    for (int i = 1; i < layerCount; i++) {
+      int size = capacity * layers.get(i).getLayerNeuronCount();
+      outputs[i] = new double[size];
+      deltas[i] = new double[size];
+    }
+    updates = new Gradients(layers);
+    // room for batches up to a quarter dense, denser thresholds grow the arrays once
+    sparseInputs = new SparseBatch(inputCount, capacity, capacity * inputCount / 4 + inputCount);
+    forwardNanos = new long[layerCount];
+    backwardNanos = new long[layerCount];
+  }
+
+  /**
+   * getter for the size of the buffers
+   * @return largest number of examples the workspace can process at once
+   */
+  int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * runs backpropagation on a range of examples, and stores the summed weight updates in the
+   * updates buffer. the weights of the network are not modified
+   * @param data training data, rows are examples: first the inputs, then the outputs
+   * @param start index of the first example
+   * @param rows number of examples, at most the capacity of the workspace
+   */
+  void computeUpdates(double[][] data, int start, int rows) {
+    int layerCount = layers.size();
+    NeuralLayer outputLayer = layers.get(layerCount - 1);
+    // the input layer reads the inputs straight from the examples, nothing is copied
+    NeuralLayer inputLayer = layers.get(0);
+    long time = timed ? System.nanoTime() : 0;
+    boolean sparse = sparseThreshold > 0 && compressInputs(data, start, rows);
+    if (!sparse) {
+      for (int r = 0; r < rows; r++) {
+        inputLayer.propagateBatch(data[start + r], 0, 1, outputs[0], r * inputCount);
+      }
+    }
+    time = lap(forwardNanos, 0, time);
+    // propagating the batch through the network, keeping every layer's output
+    for (int i = 1; i < layerCount; i++) {
+      if (i == 1 && sparse) {
+        layers.get(i).propagateBatch(sparseInputs, 0, rows, outputs[i], 0);
+      } else {
+        layers.get(i).propagateBatch(outputs[i - 1], 0, rows, outputs[i], 0);
+      }
+      time = lap(forwardNanos, i, time);
+    }
+
+    // the output layer's error is the derivative of the error function multiplied by the
+    // derivative of the activation function (chain rule). the expected outputs are read from
+    // the examples after the inputs
+    ActivationFunction outputFcn = outputLayer.getActFcn();
+    double[] output = outputs[layerCount - 1];
+    double[] delta = deltas[layerCount - 1];
+    for (int r = 0; r < rows; r++) {
+      int row = r * outputCount;
+      outputFcn.outputError(output, row, outputCount, data[start + r], inputCount, delta, row);
+    }
+    // go backwards through the hidden layers (do not touch the input layer!): compute the
+    // updates of the layer, then propagate its error to the layer before it
+    for (int i = layerCount - 1; i > 0; i--) {
+      NeuralLayer currentLayer = layers.get(i);
+      if (i == 1 && sparse) {
+        updates.clearInputs();
+        currentLayer.computeUpdates(deltas[i], sparseInputs, rows, updates.weights[i],
+            updates.biases[i]);
+        updates.markInputs(sparseInputs);
+      } else {
+        currentLayer.computeUpdates(deltas[i], outputs[i - 1], rows, updates.weights[i],
+            updates.biases[i]);
+        if (i == 1) {
+          updates.setDenseInputs();
+        }
+      }
+      if (i > 1) {
+        currentLayer.backpropagateBatch(deltas[i], rows, deltas[i - 1]);
+        // the error of the weighted sums, using the layer's own activation function
+        NeuralLayer previousLayer = layers.get(i - 1);
+        int neuronCount = previousLayer.getLayerNeuronCount();
+        for (int r = 0; r < rows; r++) {
+          previousLayer.getActFcn().derivativeFromOutput(outputs[i - 1], r * neuronCount,
+              neuronCount, deltas[i - 1], r * neuronCount);
+        }
+      }
+      // the output error is counted in the backward pass of the output layer
+      time = lap(backwardNanos, i, time);
+    }
+  }
+
+  /**
+   * packs the outputs of the input layer for a range of examples into the sparse inputs. the
+   * input layer has to preserve zeros, its output is then the scaled nonzero inputs
+   * @param data training data, rows are examples: first the inputs, then the outputs
+   * @param start index of the first example
+   * @param rows number of examples
+   * @return true if the inputs are sparse enough for the sparse path
+   */
+  private boolean compressInputs(double[][] data, int start, int rows) {
+    double[] scale = layers.get(0).getWeightBlock();
+    long limit = (long) (sparseThreshold * rows * inputCount);
+    sparseInputs.clear();
+    for (int r = 0; r < rows; r++) {
+      sparseInputs.addDenseRow(data[start + r], 0, scale);
+      if (sparseInputs.getNonzeroCount() > limit) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * adds the time since the previous lap to a layer's timer
+   * @param timer per layer timers
+   * @param layer index of the layer
+   * @param start time of the previous lap
+   * @return time of this lap
+   */
+  private long lap(long[] timer, int layer, long start) {
+    if (!timed) {
+      return 0;
+    }
+    long now = System.nanoTime();
+    timer[layer] += now - start;
+    return now;
+  }
+
+  /**
+   * updates the weights of the network with the stored updates
+   * @param optimizer optimizer and its state, turning the updates into weight changes
+   * @param rows number of examples the updates are averaged over (the batch size)
+   * @param rate learning rate of the step
+   */
+  void applyUpdates(OptimizerState optimizer, int rows, double rate) {
+    long time = timed ? System.nanoTime() : 0;
+    optimizer.apply(updates, rows, rate);
+    if (timed) {
+      updateNanos += System.nanoTime() - time;
+    }
+  }
+
+  /**
+   * adds the measured times to the given totals and resets the timers
+   * @param forward per layer totals of the forward pass
+   * @param backward per layer totals of the backward pass
+   * @return time spent in the weight updates
+   */
+  long collectTimings(long[] forward, long[] backward) {
+    for (int i = 0; i < forwardNanos.length; i++) {
+      forward[i] += forwardNanos[i];
+      backward[i] += backwardNanos[i];
+      forwardNanos[i] = 0;
+      backwardNanos[i] = 0;
+    }
+    long ret = updateNanos;
+    updateNanos = 0;
+    return ret;
+  }
+}
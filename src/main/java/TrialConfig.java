@@ -0,0 +1,107 @@
+/**
+ * hyperparameters of one trial of a sweep: the sizes of the hidden layers, their activation
+ * function, the training rate and the batch size
+ */
+public class TrialConfig {
+
+  private final int[] hiddenLayers;
+  private final ActivationFunction activation;
+  private final double trainingRate;
+  private final int batchSize;
+
+  /**
+   * @param hiddenLayers number of neurons of every hidden layer, first layer first. empty for a
+   *                     network without hidden layers
+   * @param activation activation function of the hidden layers
+   * @param trainingRate learning rate
+   * @param batchSize number of examples per weight update
+   */
+  public TrialConfig(int[] hiddenLayers, ActivationFunction activation, double trainingRate,
+                     int batchSize) {
+    for (int neuronCount : hiddenLayers) {
+      if (neuronCount < 1) {
+        throw new IllegalArgumentException("Invalid hidden layer size");
+      }
+    }
+    if (activation == null || !(trainingRate > 0) || batchSize < 1) {
+      throw new IllegalArgumentException("Invalid trial configuration");
+    }
+    this.hiddenLayers = hiddenLayers.clone();
+    this.activation = activation;
+    this.trainingRate = trainingRate;
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * getter for the topology
+   * @return number of neurons of every hidden layer
+   */
+  public int[] getHiddenLayers() {
+    return hiddenLayers.clone();
+  }
+
+  /**
+   * getter for the activation function
+   * @return activation function of the hidden layers
+   */
+  public ActivationFunction getActivation() {
+    return activation;
+  }
+
+  /**
+   * getter for the training rate
+   * @return learning rate
+   */
+  public double getTrainingRate() {
+    return trainingRate;
+  }
+
+  /**
+   * getter for the batch size
+   * @return number of examples per weight update
+   */
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  /**
+   * builds the network of the trial
+   * @param inputCount number of inputs
+   * @param outputCount number of outputs
+   * @param outputFcn activation function of the output layer
+   * @param seed seed of the weight initialization
+   * @return untrained network
+   */
+  NeuralNetwork buildNetwork(int inputCount, int outputCount, ActivationFunction outputFcn,
+                             long seed) {
+    NeuralNetwork ret = new NeuralNetwork(inputCount, outputCount, outputFcn, seed);
+    for (int neuronCount : hiddenLayers) {
+      ret.addHiddenLayer(neuronCount, activation);
+    }
+    return ret;
+  }
+
+  /**
+   * getter for the topology as text
+   * @return hidden layer sizes joined by dashes, "none" without hidden layers
+   */
+  String getTopology() {
+    if (hiddenLayers.length == 0) {
+      return "none";
+    }
+    StringBuilder ret = new StringBuilder();
+    for (int i = 0; i < hiddenLayers.length; i++) {
+      ret.append(i == 0 ? "" : "-").append(hiddenLayers[i]);
+    }
+    return ret.toString();
+  }
+
+  /**
+   * Object string representation
+   * @return returns the hyperparameters
+   */
+  @Override public String toString() {
+    return "hidden " + getTopology() + " " + activation.getFunctionType() + " rate " +
+        trainingRate + " batch " + batchSize;
+  }
+}
@@ -0,0 +1,117 @@
+import java.util.Arrays;
+
+/**
+ * outcome of one trial of a hyperparameter sweep: the validation loss after every epoch (the
+ * loss curve), the training throughput and whether successive halving stopped the trial
+ */
+public class TrialResult {
+
+  private final TrialConfig config;
+  private double[] lossCurve = new double[0];
+  private ValidationResult lastValidation;
+  private long examples;
+  private long trainingNanos;
+  private boolean stopped;
+  // dropped when the trial is stopped, so stopped trials do not hold on to their weights
+  private NeuralNetwork network;
+
+  TrialResult(TrialConfig config, NeuralNetwork network) {
+    this.config = config;
+    this.network = network;
+  }
+
+  /**
+   * records a trained epoch
+   * @param validation validation of the weights after the epoch
+   * @param epochExamples number of examples trained on
+   * @param epochNanos time the epoch took, validation included
+   */
+  void addEpoch(ValidationResult validation, long epochExamples, long epochNanos) {
+    lossCurve = Arrays.copyOf(lossCurve, lossCurve.length + 1);
+    lossCurve[lossCurve.length - 1] = validation.getMeanLoss();
+    lastValidation = validation;
+    examples += epochExamples;
+    trainingNanos += epochNanos;
+  }
+
+  /**
+   * stops the trial and releases its network
+   */
+  void stop() {
+    stopped = true;
+    network = null;
+  }
+
+  /**
+   * getter for the hyperparameters
+   * @return configuration of the trial
+   */
+  public TrialConfig getConfig() {
+    return config;
+  }
+
+  /**
+   * getter for the loss curve
+   * @return mean validation loss after every trained epoch
+   */
+  public double[] getLossCurve() {
+    return lossCurve.clone();
+  }
+
+  /**
+   * getter for the number of epochs
+   * @return number of epochs the trial was trained for
+   */
+  public int getEpochs() {
+    return lossCurve.length;
+  }
+
+  /**
+   * getter for the final loss
+   * @return mean validation loss after the last epoch, NaN before the first one
+   */
+  public double getLoss() {
+    return lastValidation == null ? Double.NaN : lastValidation.getMeanLoss();
+  }
+
+  /**
+   * getter for the final accuracy
+   * @return validation accuracy after the last epoch, NaN before the first one
+   */
+  public double getAccuracy() {
+    return lastValidation == null ? Double.NaN : lastValidation.getAccuracy();
+  }
+
+  /**
+   * getter for the throughput
+   * @return training examples per second, validation time included
+   */
+  public double getExamplesPerSecond() {
+    return trainingNanos == 0 ? 0 : examples * 1e9 / trainingNanos;
+  }
+
+  /**
+   * getter for the status
+   * @return true if successive halving stopped the trial before the last epoch
+   */
+  public boolean isStopped() {
+    return stopped;
+  }
+
+  /**
+   * getter for the trained network
+   * @return the network of the trial, null if the trial was stopped
+   */
+  public NeuralNetwork getNetwork() {
+    return network;
+  }
+
+  /**
+   * Object string representation
+   * @return returns the configuration and the results of the trial
+   */
+  @Override public String toString() {
+    return config + ": loss " + getLoss() + " accuracy " + getAccuracy() + " after " +
+        getEpochs() + " epochs" + (stopped ? " (stopped)" : "");
+  }
+}
@@ -0,0 +1,82 @@
+
+/**
+ * result of evaluating a network on a data set: the error function, and the accuracy and
+ * confusion matrix of the network used as a classifier. the class of an example is the position
+ * of its largest output (with a single output: 1 if the output is at least 0.5, otherwise 0)
+ */
+public class ValidationResult {
+
+  private final double loss;
+  private final int exampleCount;
+  private final long[][] confusion;
+
+  /**
+   * @param loss sum of the error function over the examples
+   * @param exampleCount number of examples
+   * @param confusion counts of the examples by expected class (row) and predicted class (column)
+   */
+  ValidationResult(double loss, int exampleCount, long[][] confusion) {
+    this.loss = loss;
+    this.exampleCount = exampleCount;
+    this.confusion = confusion;
+  }
+
+  /**
+   * getter for the error
+   * @return sum of the error function over every example: the cross-entropy for a softmax
+   *         output layer, (t-o)^2/2 summed over the outputs otherwise (see
+   *         ActivationFunction.loss), so early stopping compares the loss being minimized
+   */
+  public double getLoss() {
+    return loss;
+  }
+
+  /**
+   * getter for the average error
+   * @return error function per example
+   */
+  public double getMeanLoss() {
+    return exampleCount == 0 ? 0 : loss / exampleCount;
+  }
+
+  /**
+   * getter for the number of examples
+   * @return number of examples evaluated
+   */
+  public int getExampleCount() {
+    return exampleCount;
+  }
+
+  /**
+   * getter for the accuracy
+   * @return ratio of the examples classified correctly
+   */
+  public double getAccuracy() {
+    long correct = 0;
+    for (int i = 0; i < confusion.length; i++) {
+      correct += confusion[i][i];
+    }
+    return exampleCount == 0 ? 0 : (double) correct / exampleCount;
+  }
+
+  /**
+   * getter for the confusion matrix
+   * @return element [i][j] is the number of examples of class i classified as class j
+   */
+  public long[][] getConfusionMatrix() {
+    long[][] ret = new long[confusion.length][];
+    for (int i = 0; i < ret.length; i++) {
+      ret[i] = confusion[i].clone();
+    }
+    return ret;
+  }
+
+  /**
+   * Object string representation
+   * @return returns a string with the loss and accuracy
+   */
+  @Override public String toString() {
+    return "Validation on " + exampleCount + " examples loss: " + loss + " accuracy: " +
+        getAccuracy();
+  }
+}
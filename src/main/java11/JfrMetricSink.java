@@ -0,0 +1,75 @@
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * emits a JDK Flight Recorder event for every epoch, so training shows up in recordings next to
+ * the gc and jit events of the jvm. compiled for java 11, the rest of the library still runs on
+ * java 8
+ */
+public class JfrMetricSink implements MetricSink {
+
+  @Name("mlp.TrainingEpoch")
+  @Label("Training Epoch")
+  @Category("Neural Network")
+  @Description("Measurements of a training epoch")
+  static class EpochEvent extends Event {
+    @Label("Epoch")
+    int epoch;
+    @Label("Loss")
+    double loss;
+    @Label("Accuracy")
+    double accuracy;
+    @Label("Examples")
+    long examples;
+    @Label("Examples per Second")
+    double examplesPerSecond;
+    @Label("Epoch Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long elapsed;
+    @Label("Forward Time")
+    @Description("Forward pass time summed over the layers")
+    @Timespan(Timespan.NANOSECONDS)
+    long forward;
+    @Label("Backward Time")
+    @Description("Backward pass time summed over the layers")
+    @Timespan(Timespan.NANOSECONDS)
+    long backward;
+    @Label("Update Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long update;
+    @Label("Allocated Bytes")
+    long allocatedBytes;
+    @Label("Layer Times")
+    @Description("Forward/backward nanoseconds of every layer")
+    String layers;
+  }
+
+  @Override public void accept(TrainingMetrics metrics) {
+    EpochEvent event = new EpochEvent();
+    if (!event.isEnabled()) {
+      return;
+    }
+    event.epoch = metrics.getEpoch();
+    event.loss = metrics.getLoss();
+    event.accuracy = metrics.getAccuracy();
+    event.examples = metrics.getExampleCount();
+    event.examplesPerSecond = metrics.getExamplesPerSecond();
+    event.elapsed = metrics.getElapsedNanos();
+    event.update = metrics.getUpdateNanos();
+    event.allocatedBytes = metrics.getAllocatedBytes();
+    StringBuilder layers = new StringBuilder();
+    for (int i = 0; i < metrics.getLayerCount(); i++) {
+      event.forward += metrics.getForwardNanos(i);
+      event.backward += metrics.getBackwardNanos(i);
+      layers.append(i == 0 ? "" : " ").append(metrics.getForwardNanos(i)).append('/')
+          .append(metrics.getBackwardNanos(i));
+    }
+    event.layers = layers.toString();
+    event.commit();
+  }
+}
@@ -0,0 +1,185 @@
+import java.util.Arrays;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * dense kernels on the SIMD registers of the cpu, with the jdk.incubator.vector module. the
+ * vector width is the widest the cpu supports (SPECIES_PREFERRED: 2 doubles with SSE, 4 with
+ * AVX2, 8 with AVX-512), chosen when the class is loaded. the elements after the last full
+ * vector are handled by scalar loops.
+ * compiled for java 17 with the incubator module, and only loaded by Kernels when the jvm runs
+ * with --add-modules jdk.incubator.vector, otherwise ScalarKernels is used. the sums are
+ * added in another order than in ScalarKernels, so the results differ in the last bits.
+ * until the JIT has compiled the kernels the vectors are heap objects, so the first batches
+ * allocate
+ */
+final class VectorApiKernels implements DenseKernels {
+
+  private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+  private static final int LANES = SPECIES.length();
+
+  VectorApiKernels() {
+    // without SIMD registers the Vector API emulates the lanes, slower than the scalar loops
+    if (LANES < 2) {
+      throw new UnsupportedOperationException("No SIMD registers for doubles");
+    }
+  }
+
+  /**
+   * description of the vector width
+   * @return the species used
+   */
+  @Override public String toString() {
+    return "Vector API, " + LANES + " doubles per vector";
+  }
+
+  @Override public double dot(double[] a, int aOff, double[] b, int bOff, int len) {
+    // two accumulators hide the latency of the vector additions
+    DoubleVector s0 = DoubleVector.zero(SPECIES);
+    DoubleVector s1 = DoubleVector.zero(SPECIES);
+    int i = 0;
+    for (; i + 2 * LANES <= len; i += 2 * LANES) {
+      s0 = DoubleVector.fromArray(SPECIES, a, aOff + i)
+          .mul(DoubleVector.fromArray(SPECIES, b, bOff + i)).add(s0);
+      s1 = DoubleVector.fromArray(SPECIES, a, aOff + i + LANES)
+          .mul(DoubleVector.fromArray(SPECIES, b, bOff + i + LANES)).add(s1);
+    }
+    for (; i + LANES <= len; i += LANES) {
+      s0 = DoubleVector.fromArray(SPECIES, a, aOff + i)
+          .mul(DoubleVector.fromArray(SPECIES, b, bOff + i)).add(s0);
+    }
+    double ret = s0.add(s1).reduceLanes(VectorOperators.ADD);
+    for (; i < len; i++) {
+      ret += a[aOff + i] * b[bOff + i];
+    }
+    return ret;
+  }
+
+  @Override public void axpy(double alpha, double[] x, int xOff, double[] y, int yOff, int len) {
+    int i = 0;
+    for (; i + LANES <= len; i += LANES) {
+      DoubleVector.fromArray(SPECIES, x, xOff + i).mul(alpha)
+          .add(DoubleVector.fromArray(SPECIES, y, yOff + i)).intoArray(y, yOff + i);
+    }
+    for (; i < len; i++) {
+      y[yOff + i] += alpha * x[xOff + i];
+    }
+  }
+
+  @Override public void gemmABt4(double[] w, double[] b, int wRows, int cols, double[] x,
+                                 int xOff, double[] y, int yOff) {
+    int x1 = xOff + cols;
+    int x2 = x1 + cols;
+    int x3 = x2 + cols;
+    for (int i = 0; i < wRows; i++) {
+      int row = i * cols;
+      DoubleVector s0 = DoubleVector.zero(SPECIES);
+      DoubleVector s1 = DoubleVector.zero(SPECIES);
+      DoubleVector s2 = DoubleVector.zero(SPECIES);
+      DoubleVector s3 = DoubleVector.zero(SPECIES);
+      int j = 0;
+      for (; j + LANES <= cols; j += LANES) {
+        DoubleVector wij = DoubleVector.fromArray(SPECIES, w, row + j);
+        s0 = wij.mul(DoubleVector.fromArray(SPECIES, x, xOff + j)).add(s0);
+        s1 = wij.mul(DoubleVector.fromArray(SPECIES, x, x1 + j)).add(s1);
+        s2 = wij.mul(DoubleVector.fromArray(SPECIES, x, x2 + j)).add(s2);
+        s3 = wij.mul(DoubleVector.fromArray(SPECIES, x, x3 + j)).add(s3);
+      }
+      double t0 = s0.reduceLanes(VectorOperators.ADD);
+      double t1 = s1.reduceLanes(VectorOperators.ADD);
+      double t2 = s2.reduceLanes(VectorOperators.ADD);
+      double t3 = s3.reduceLanes(VectorOperators.ADD);
+      for (; j < cols; j++) {
+        double wij = w[row + j];
+        t0 += wij * x[xOff + j];
+        t1 += wij * x[x1 + j];
+        t2 += wij * x[x2 + j];
+        t3 += wij * x[x3 + j];
+      }
+      double bi = b[i];
+      y[yOff + i] = t0 + bi;
+      y[yOff + wRows + i] = t1 + bi;
+      y[yOff + 2 * wRows + i] = t2 + bi;
+      y[yOff + 3 * wRows + i] = t3 + bi;
+    }
+  }
+
+  @Override public void gemmAB(double[] d, int rows, double[] w, int wRows, int cols,
+                               double[] y) {
+    Arrays.fill(y, 0, rows * cols, 0);
+    int r = 0;
+    for (; r + 4 <= rows; r += 4) {
+      int y0 = r * cols;
+      int y1 = y0 + cols;
+      int y2 = y1 + cols;
+      int y3 = y2 + cols;
+      int d0 = r * wRows;
+      for (int i = 0; i < wRows; i++) {
+        int row = i * cols;
+        double a0 = d[d0 + i];
+        double a1 = d[d0 + wRows + i];
+        double a2 = d[d0 + 2 * wRows + i];
+        double a3 = d[d0 + 3 * wRows + i];
+        int j = 0;
+        for (; j + LANES <= cols; j += LANES) {
+          DoubleVector wij = DoubleVector.fromArray(SPECIES, w, row + j);
+          wij.mul(a0).add(DoubleVector.fromArray(SPECIES, y, y0 + j)).intoArray(y, y0 + j);
+          wij.mul(a1).add(DoubleVector.fromArray(SPECIES, y, y1 + j)).intoArray(y, y1 + j);
+          wij.mul(a2).add(DoubleVector.fromArray(SPECIES, y, y2 + j)).intoArray(y, y2 + j);
+          wij.mul(a3).add(DoubleVector.fromArray(SPECIES, y, y3 + j)).intoArray(y, y3 + j);
+        }
+        for (; j < cols; j++) {
+          double wij = w[row + j];
+          y[y0 + j] += wij * a0;
+          y[y1 + j] += wij * a1;
+          y[y2 + j] += wij * a2;
+          y[y3 + j] += wij * a3;
+        }
+      }
+    }
+    for (; r < rows; r++) {
+      for (int i = 0; i < wRows; i++) {
+        axpy(d[r * wRows + i], w, i * cols, y, r * cols, cols);
+      }
+    }
+  }
+
+  @Override public void gemmAtB(double[] d, int dCols, int rows, double[] x, int cols,
+                                double[] g, double[] colSums) {
+    for (int i = 0; i < dCols; i++) {
+      int row = i * cols;
+      Arrays.fill(g, row, row + cols, 0);
+      double sum = 0;
+      int r = 0;
+      for (; r + 4 <= rows; r += 4) {
+        double d0 = d[r * dCols + i];
+        double d1 = d[(r + 1) * dCols + i];
+        double d2 = d[(r + 2) * dCols + i];
+        double d3 = d[(r + 3) * dCols + i];
+        int x0 = r * cols;
+        int x1 = x0 + cols;
+        int x2 = x1 + cols;
+        int x3 = x2 + cols;
+        int j = 0;
+        for (; j + LANES <= cols; j += LANES) {
+          DoubleVector.fromArray(SPECIES, x, x0 + j).mul(d0)
+              .add(DoubleVector.fromArray(SPECIES, x, x1 + j).mul(d1))
+              .add(DoubleVector.fromArray(SPECIES, x, x2 + j).mul(d2))
+              .add(DoubleVector.fromArray(SPECIES, x, x3 + j).mul(d3))
+              .add(DoubleVector.fromArray(SPECIES, g, row + j)).intoArray(g, row + j);
+        }
+        for (; j < cols; j++) {
+          g[row + j] += d0 * x[x0 + j] + d1 * x[x1 + j] + d2 * x[x2 + j] + d3 * x[x3 + j];
+        }
+        sum += d0 + d1 + d2 + d3;
+      }
+      for (; r < rows; r++) {
+        double di = d[r * dCols + i];
+        axpy(di, x, r * cols, g, row, cols);
+        sum += di;
+      }
+      colSums[i] = sum;
+    }
+  }
+}
@@ -0,0 +1,145 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/*
+ * checkpoints: a training run is killed after some batches, and a network loaded from its
+ * latest checkpoint resumes the run. the resumed run has to end with exactly the weights of a run
+ * that was never interrupted, with adam (optimizer state in the checkpoint) and a cosine
+ * schedule (set again before resuming). the run is killed at several points, in the first epoch
+ * and in later ones
+ */
+public class checkpointtester {
+
+  private static final int INPUTS = 20;
+  private static final int CLASSES = 5;
+  private static final int BATCH_SIZE = 32;
+  private static final int EPOCHS = 3;
+  private static final double RATE = 0.003;
+
+  /*
+   * source failing after a number of batches, like a process killed in the middle of training
+   */
+  private static final class KilledSource implements BatchSource {
+    private final BatchSource source;
+    private int left;
+
+    KilledSource(BatchSource source, int batches) {
+      this.source = source;
+      this.left = batches;
+    }
+
+    @Override public int getBatchSize() {
+      return source.getBatchSize();
+    }
+
+    @Override public int getInputCount() {
+      return source.getInputCount();
+    }
+
+    @Override public int getOutputCount() {
+      return source.getOutputCount();
+    }
+
+    @Override public void startEpoch() {
+      source.startEpoch();
+    }
+
+    @Override public int nextBatch(double[][] batch) {
+      if (left-- == 0) {
+        throw new IllegalStateException("killed");
+      }
+      return source.nextBatch(batch);
+    }
+  }
+
+  public static void main(String... args) throws IOException {
+    double[][] data = testhelper.clusters(new Random(3), 1400, INPUTS, CLASSES, 1.2);
+    Dataset training = new ArrayDataset(Arrays.copyOf(data, 1200), INPUTS);
+    Dataset validation = new ArrayDataset(Arrays.copyOfRange(data, 1200, 1400), INPUTS);
+    NeuralNetwork reference = network();
+    reference.train(source(training), validation, RATE, EPOCHS);
+    boolean ok = true;
+    for (int kill : new int[] {12, 50, 100}) {
+      ok &= resume(training, validation, reference, kill);
+    }
+    System.out.println(ok ? "OK" : "FAILED");
+    if (!ok) {
+      System.exit(1);
+    }
+  }
+
+  /*
+   * kills a checkpointed run after the given number of batches, resumes it from its latest
+   * checkpoint and compares the result with the uninterrupted run
+   */
+  private static boolean resume(Dataset training, Dataset validation, NeuralNetwork reference,
+                                int kill) throws IOException {
+    Path dir = Files.createTempDirectory("checkpointtester");
+    try {
+      NeuralNetwork killed = network();
+      Checkpointer checkpointer = new Checkpointer(dir, 2);
+      try {
+        killed.setCheckpointing(checkpointer, 5);
+        killed.train(new KilledSource(source(training), kill), validation, RATE, EPOCHS);
+        return testhelper.fail("kill after " + kill + ": training was not killed");
+      } catch (IllegalStateException e) {
+        // the run stops like a killed process, the checkpoints written so far stay
+      } finally {
+        // waits for the checkpoint in flight
+        checkpointer.close();
+      }
+      if (checkpointer.getLastError() != null) {
+        return testhelper.fail("kill after " + kill + ": " + checkpointer.getLastError());
+      }
+      Path latest = Checkpointer.latest(dir);
+      if (latest == null) {
+        return testhelper.fail("kill after " + kill + ": no checkpoint written");
+      }
+      NeuralNetwork resumed = NeuralNetwork.loadCheckpoint(latest);
+      resumed.setLearningRateSchedule(schedule());
+      resumed.resume(source(training), validation);
+      for (int l = 0; l < reference.getLayerCount(); l++) {
+        if (!Arrays.equals(reference.getLayer(l).getWeightBlock(),
+            resumed.getLayer(l).getWeightBlock()) ||
+            !Arrays.equals(reference.getLayer(l).getBiasVector(),
+            resumed.getLayer(l).getBiasVector())) {
+          return testhelper.fail("kill after " + kill + ": resumed from " + latest.getFileName() +
+              ", layer " + l + " differs");
+        }
+      }
+      System.out.println("kill after " + kill + ": resumed from " + latest.getFileName() +
+          ", identical weights");
+      return true;
+    } finally {
+      try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+        for (Path file : files) {
+          Files.delete(file);
+        }
+      }
+      Files.delete(dir);
+    }
+  }
+
+  private static NeuralNetwork network() {
+    NeuralNetwork network = new NeuralNetwork(INPUTS, CLASSES, ActivationFunction.sigmoid(), 1);
+    network.addHiddenLayer(32, ActivationFunction.tanh());
+    network.setOptimizer(Optimizer.adam());
+    network.setLearningRateSchedule(schedule());
+    return network;
+  }
+
+  private static LearningRateSchedule schedule() {
+    return LearningRateSchedule.cosine(100, 0.1);
+  }
+
+  /*
+   * shuffled batches, the same on every call
+   */
+  private static BatchSource source(Dataset training) {
+    return new DatasetBatchSource(training, BATCH_SIZE, training.size(), 7);
+  }
+}
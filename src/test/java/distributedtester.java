@@ -0,0 +1,110 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/*
+ * distributed training on one machine: starts several processes, connected into a ring over
+ * loopback, every one training a replica of the same network on its shard of a synthetic data
+ * set. every replica saves its weights at the end, and the weights of every replica have to be
+ * identical. runs with summed updates, with compressed summed updates and with averaged weights.
+ * the replicas close the ring as soon as they are done, without waiting for each other
+ * usage: distributedtester [process count] [port of rank 0]
+ */
+public class distributedtester {
+
+  private static final String[] MODES = {"summed", "compressed", "averaged"};
+  private static final int INPUTS = 20;
+  private static final int CLASSES = 5;
+
+  public static void main(String... args) throws Exception {
+    if (args.length > 0 && args[0].equals("replica")) {
+      replica(Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+          args[4], new File(args[5]).toPath());
+      return;
+    }
+    int size = (args.length > 0) ? Integer.parseInt(args[0]) : 3;
+    int basePort = (args.length > 1) ? Integer.parseInt(args[1]) : 47000;
+    boolean ok = true;
+    for (int m = 0; m < MODES.length; m++) {
+      ok &= run(size, basePort + 16 * m, MODES[m]);
+    }
+    System.out.println(ok ? "OK" : "FAILED");
+    if (!ok) {
+      System.exit(1);
+    }
+  }
+
+  /*
+   * trains size replicas in their own processes and compares their weights
+   */
+  private static boolean run(int size, int basePort, String mode) throws Exception {
+    Path dir = Files.createTempDirectory("distributedtester");
+    String java = System.getProperty("java.home") + File.separator + "bin" + File.separator +
+        "java";
+    List<Process> processes = new ArrayList<>();
+    List<Path> models = new ArrayList<>();
+    for (int rank = 0; rank < size; rank++) {
+      Path model = dir.resolve("replica" + rank + ".mlp");
+      models.add(model);
+      processes.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+          "distributedtester", "replica", "" + rank, "" + size, "" + basePort, mode,
+          model.toString()).inheritIO().start());
+    }
+    boolean ok = true;
+    for (int rank = 0; rank < size; rank++) {
+      int exit = processes.get(rank).waitFor();
+      if (exit != 0) {
+        System.out.println(mode + ": rank " + rank + " exited with " + exit);
+        ok = false;
+      }
+    }
+    if (ok) {
+      NeuralNetwork first = NeuralNetwork.load(models.get(0));
+      for (int rank = 1; rank < size; rank++) {
+        NeuralNetwork other = NeuralNetwork.load(models.get(rank));
+        for (int l = 0; l < first.getLayerCount(); l++) {
+          if (!Arrays.equals(first.getLayer(l).getWeightBlock(),
+              other.getLayer(l).getWeightBlock()) ||
+              !Arrays.equals(first.getLayer(l).getBiasVector(),
+              other.getLayer(l).getBiasVector())) {
+            System.out.println(mode + ": weights of rank " + rank + " differ in layer " + l);
+            ok = false;
+          }
+        }
+      }
+    }
+    for (Path model : models) {
+      Files.deleteIfExists(model);
+    }
+    Files.delete(dir);
+    System.out.println(mode + ": " + size + " replicas " + (ok ? "identical" : "FAILED"));
+    return ok;
+  }
+
+  /*
+   * one replica: trains on the shard of its rank and saves the weights
+   */
+  private static void replica(int rank, int size, int basePort, String mode, Path model)
+      throws IOException {
+    // every replica starts from other weights, training starts from the weights of rank 0
+    NeuralNetwork network = new NeuralNetwork(INPUTS, CLASSES, ActivationFunction.sigmoid(),
+        rank);
+    network.addHiddenLayer(16);
+    network.setOptimizer(Optimizer.momentum(0.9));
+    double[][] data = testhelper.clusters(new Random(7), 2400, INPUTS, CLASSES, 1);
+    Dataset validation = new ArrayDataset(Arrays.copyOf(data, 400), INPUTS);
+    Dataset shard = SubsetDataset.shard(new ArrayDataset(data, INPUTS), rank, size);
+    try (RingAllReduce ring = RingAllReduce.loopback(rank, size, basePort)) {
+      ring.setCompression(mode.equals("compressed"));
+      network.setDistributed(ring, mode.equals("averaged") ? 4 : 0);
+      network.train(new DatasetBatchSource(shard, 16, shard.size(), 5), validation, 0.1, 3);
+    }
+    network.save(model);
+    System.out.println(mode + ": rank " + rank + " validation " + network.getLastValidation());
+  }
+}
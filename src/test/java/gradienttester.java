@@ -0,0 +1,90 @@
+import java.util.Random;
+
+/*
+ * backpropagation against finite differences. a single gradient descent step on the whole data
+ * set has to move every weight and bias by rate / examples times the negative derivative of the
+ * loss reported by validate, and the derivatives are estimated from the loss with central
+ * differences. checked with a sigmoid output layer (squared error) and a softmax output layer
+ * (cross-entropy)
+ */
+public class gradienttester {
+
+  private static final int INPUTS = 6;
+  private static final int OUTPUTS = 3;
+  private static final int EXAMPLES = 32;
+  private static final double RATE = 0.5;
+  private static final double STEP = 1e-5;
+  // relative to the largest step of a block: the differences of the loss lose about half of the
+  // digits, the truncation error of the central differences is around STEP^2
+  private static final double TOLERANCE = 1e-5;
+
+  public static void main(String... args) {
+    double[][] data = data(new Random(5));
+    Dataset dataset = new ArrayDataset(data, INPUTS);
+    boolean ok = true;
+    for (ActivationFunction output : new ActivationFunction[] {ActivationFunction.sigmoid(),
+        ActivationFunction.softmax()}) {
+      NeuralNetwork probed = network(output);
+      NeuralNetwork trained = network(output);
+      trained.train(data, data, RATE, 1, EXAMPLES);
+      for (int l = 1; l < probed.getLayerCount(); l++) {
+        NeuralLayer layer = probed.getLayer(l);
+        String name = output.getFunctionType() + " layer " + l;
+        ok &= check(name + " weights", probed, dataset, layer.getWeightBlock(),
+            trained.getLayer(l).getWeightBlock());
+        ok &= check(name + " biases", probed, dataset, layer.getBiasVector(),
+            trained.getLayer(l).getBiasVector());
+      }
+    }
+    System.out.println(ok ? "OK" : "FAILED");
+    if (!ok) {
+      System.exit(1);
+    }
+  }
+
+  /*
+   * two hidden layers with different activation functions, same weights on every call
+   */
+  private static NeuralNetwork network(ActivationFunction output) {
+    NeuralNetwork network = new NeuralNetwork(INPUTS, OUTPUTS, output, 3);
+    network.addHiddenLayer(5, ActivationFunction.tanh());
+    network.addHiddenLayer(4, ActivationFunction.sigmoid());
+    return network;
+  }
+
+  /*
+   * compares the step taken on every parameter of a block with the step expected from the
+   * central difference of the loss
+   */
+  private static boolean check(String name, NeuralNetwork network, Dataset dataset,
+                               double[] params, double[] trainedParams) {
+    double error = 0;
+    double largest = 0;
+    for (int i = 0; i < params.length; i++) {
+      double original = params[i];
+      params[i] = original + STEP;
+      double above = network.validate(dataset).getLoss();
+      params[i] = original - STEP;
+      double below = network.validate(dataset).getLoss();
+      params[i] = original;
+      double derivative = (above - below) / (2 * STEP);
+      double expected = -RATE / EXAMPLES * derivative;
+      double taken = trainedParams[i] - original;
+      error = Math.max(error, Math.abs(taken - expected));
+      largest = Math.max(largest, Math.abs(expected));
+    }
+    System.out.println(name + ": largest error " + error + " of steps up to " + largest);
+    return error <= TOLERANCE * largest;
+  }
+
+  private static double[][] data(Random random) {
+    double[][] ret = new double[EXAMPLES][INPUTS + OUTPUTS];
+    for (double[] row : ret) {
+      for (int i = 0; i < INPUTS; i++) {
+        row[i] = random.nextGaussian();
+      }
+      row[INPUTS + random.nextInt(OUTPUTS)] = 1;
+    }
+    return ret;
+  }
+}
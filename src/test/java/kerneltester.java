@@ -0,0 +1,138 @@
+import java.util.Random;
+
+/*
+ * checks the dense kernels the layers run on against the scalar reference kernels, on random
+ * matrices of awkward sizes, and times both on a 784 wide layer. the Vector API kernels are only
+ * used when the jvm runs with --add-modules jdk.incubator.vector
+ * usage: java --add-modules jdk.incubator.vector -cp ... kerneltester
+ */
+public class kerneltester {
+
+  // the kernels sum in another order than the reference, the error is relative to the sum of
+  // the magnitudes of the products
+  private static final double TOLERANCE = 1e-12;
+
+  public static void main(String... args) {
+    DenseKernels tested = Kernels.getDenseKernels();
+    DenseKernels reference = new ScalarKernels();
+    System.out.println("kernels: " + tested);
+    Random random = new Random(1);
+    boolean ok = true;
+    int[] sizes = {1, 3, 4, 7, 8, 9, 16, 31, 100, 784};
+    for (int rows : new int[] {1, 4, 5, 11}) {
+      for (int inner : sizes) {
+        for (int cols : sizes) {
+          ok &= check(tested, reference, random, rows, inner, cols);
+        }
+      }
+    }
+    time(tested, reference, random);
+    System.out.println(ok ? "OK" : "FAILED");
+    if (!ok) {
+      System.exit(1);
+    }
+  }
+
+  /*
+   * runs every kernel on a rows x inner by inner x cols problem with both implementations
+   */
+  private static boolean check(DenseKernels tested, DenseKernels reference, Random random,
+                               int rows, int inner, int cols) {
+    double[] x = random(random, rows * inner + 3);
+    double[] w = random(random, cols * inner + 3);
+    double[] b = random(random, cols);
+    double[] d = random(random, rows * cols);
+    boolean ok = true;
+    // dot and axpy at an offset
+    ok &= close("dot", tested.dot(x, 3, w, 1, inner), reference.dot(x, 3, w, 1, inner), inner);
+    double[] y = w.clone();
+    double[] expected = w.clone();
+    tested.axpy(0.3, x, 2, y, 1, inner);
+    reference.axpy(0.3, x, 2, expected, 1, inner);
+    ok &= close("axpy", y, expected, 1);
+    if (rows >= 4) {
+      y = new double[4 * cols + 2];
+      expected = new double[4 * cols + 2];
+      tested.gemmABt4(w, b, cols, inner, x, 1, y, 2);
+      reference.gemmABt4(w, b, cols, inner, x, 1, expected, 2);
+      ok &= close("gemmABt4", y, expected, inner);
+    }
+    y = new double[rows * inner];
+    expected = new double[rows * inner];
+    tested.gemmAB(d, rows, w, cols, inner, y);
+    reference.gemmAB(d, rows, w, cols, inner, expected);
+    ok &= close("gemmAB", y, expected, cols);
+    double[] g = new double[cols * inner];
+    double[] sums = new double[cols];
+    double[] expectedG = new double[cols * inner];
+    double[] expectedSums = new double[cols];
+    tested.gemmAtB(d, cols, rows, x, inner, g, sums);
+    reference.gemmAtB(d, cols, rows, x, inner, expectedG, expectedSums);
+    ok &= close("gemmAtB", g, expectedG, rows) & close("gemmAtB sums", sums, expectedSums, rows);
+    if (!ok) {
+      System.out.println("  at rows " + rows + " inner " + inner + " cols " + cols);
+    }
+    return ok;
+  }
+
+  private static double[] random(Random random, int count) {
+    double[] ret = new double[count];
+    for (int i = 0; i < count; i++) {
+      ret[i] = random.nextGaussian();
+    }
+    return ret;
+  }
+
+  private static boolean close(String kernel, double[] values, double[] expected, int terms) {
+    for (int i = 0; i < values.length; i++) {
+      if (!close(kernel, values[i], expected[i], terms)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean close(String kernel, double value, double expected, int terms) {
+    // the inputs are standard normal, a sum of terms products has a magnitude around terms
+    if (Math.abs(value - expected) > TOLERANCE * (terms + 1)) {
+      System.out.println(kernel + ": " + value + " instead of " + expected);
+      return false;
+    }
+    return true;
+  }
+
+  /*
+   * times the forward and backward kernels of a 784 wide layer with 128 neurons on 64 rows
+   */
+  private static void time(DenseKernels tested, DenseKernels reference, Random random) {
+    int rows = 64;
+    int inputs = 784;
+    int neurons = 128;
+    double[] x = random(random, rows * inputs);
+    double[] w = random(random, neurons * inputs);
+    double[] b = random(random, neurons);
+    double[] d = random(random, rows * neurons);
+    double[] y = new double[rows * neurons];
+    double[] back = new double[rows * inputs];
+    double[] g = new double[neurons * inputs];
+    double[] sums = new double[neurons];
+    for (DenseKernels kernels : new DenseKernels[] {reference, tested, reference, tested}) {
+      long forward = 0;
+      long backward = 0;
+      for (int it = 0; it < 200; it++) {
+        long start = System.nanoTime();
+        for (int r = 0; r < rows; r += 4) {
+          kernels.gemmABt4(w, b, neurons, inputs, x, r * inputs, y, r * neurons);
+        }
+        long middle = System.nanoTime();
+        kernels.gemmAB(d, rows, w, neurons, inputs, back);
+        kernels.gemmAtB(d, neurons, rows, x, inputs, g, sums);
+        long end = System.nanoTime();
+        forward += middle - start;
+        backward += end - middle;
+      }
+      System.out.printf("%-36s forward %8.1f us  backward %8.1f us%n", kernels,
+          forward / 200e3, backward / 200e3);
+    }
+  }
+}
@@ -0,0 +1,267 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+/*
+ * the micro-batcher against classifying one example at a time. requests submitted from several
+ * threads have to get the outputs of classify, in batches of more than one example. a full queue
+ * rejects new requests, closing while other threads submit completes every future (with the
+ * output or a rejection), and a failing model completes the futures of its batches with its
+ * exception
+ */
+public class microbatchertester {
+
+  private static final int INPUTS = 20;
+  private static final int CLASSES = 5;
+  private static final int THREADS = 4;
+  private static final int REQUESTS = 250;
+  // a single example and a batch go through different kernels, the sums agree up to rounding
+  private static final double TOLERANCE = 1e-12;
+
+  /*
+   * model failing on every batch
+   */
+  private static final class FailingModel implements BatchClassifier {
+    static final RuntimeException FAILURE = new IllegalStateException("failing model");
+
+    @Override public int getInputCount() {
+      return INPUTS;
+    }
+
+    @Override public int getOutputCount() {
+      return CLASSES;
+    }
+
+    @Override public void classifyBatch(double[] in, int rows, double[] out) {
+      throw FAILURE;
+    }
+  }
+
+  /*
+   * model blocking in its first batch until it is released
+   */
+  private static final class BlockingModel implements BatchClassifier {
+    final CountDownLatch entered = new CountDownLatch(1);
+    final CountDownLatch released = new CountDownLatch(1);
+    private final BatchClassifier model;
+
+    BlockingModel(BatchClassifier model) {
+      this.model = model;
+    }
+
+    @Override public int getInputCount() {
+      return model.getInputCount();
+    }
+
+    @Override public int getOutputCount() {
+      return model.getOutputCount();
+    }
+
+    @Override public void classifyBatch(double[] in, int rows, double[] out) {
+      entered.countDown();
+      try {
+        released.await();
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+      model.classifyBatch(in, rows, out);
+    }
+  }
+
+  public static void main(String... args) throws Exception {
+    double[][] data = testhelper.clusters(new Random(5), REQUESTS, INPUTS, CLASSES, 1);
+    NeuralNetwork network = new NeuralNetwork(INPUTS, CLASSES, ActivationFunction.sigmoid(), 1);
+    network.addHiddenLayer(16);
+    boolean ok = checkBatches(network, data);
+    ok &= checkFullQueue(network, data);
+    ok &= checkClose(network, data);
+    ok &= checkFailure(data);
+    System.out.println(ok ? "OK" : "FAILED");
+    if (!ok) {
+      System.exit(1);
+    }
+  }
+
+  /*
+   * requests from several threads get the outputs of classify, some of them in the same batch
+   */
+  private static boolean checkBatches(NeuralNetwork network, double[][] data) throws Exception {
+    MicroBatcher batcher = new MicroBatcher(network, 16, 2000, REQUESTS);
+    List<CompletableFuture<double[]>> results = submit(batcher, data);
+    // close processes the queued requests, the histogram is complete afterwards
+    batcher.close();
+    double difference = 0;
+    for (int r = 0; r < data.length; r++) {
+      double[] expected = network.classify(Arrays.copyOf(data[r], INPUTS));
+      difference = Math.max(difference, testhelper.difference(results.get(r).get(), expected));
+    }
+    long batches = 0;
+    for (long count : batcher.getBatchSizeHistogram()) {
+      batches += count;
+    }
+    System.out.println("batches: " + REQUESTS + " requests in " + batches + " batches, " +
+        "outputs differ by " + difference);
+    if (batches >= REQUESTS) {
+      return testhelper.fail("batches: every request was classified alone");
+    }
+    return difference <= TOLERANCE;
+  }
+
+  /*
+   * with the dispatcher blocked in a batch, the queue takes queueCapacity requests and rejects
+   * the next one. the accepted requests are classified once the model is released
+   */
+  private static boolean checkFullQueue(NeuralNetwork network, double[][] data) throws Exception {
+    int capacity = 8;
+    BlockingModel model = new BlockingModel(network);
+    List<CompletableFuture<double[]>> accepted = new ArrayList<>();
+    CompletableFuture<double[]> rejected;
+    try (MicroBatcher batcher = new MicroBatcher(model, 1, 0, capacity)) {
+      accepted.add(batcher.submit(Arrays.copyOf(data[0], INPUTS)));
+      model.entered.await();
+      for (int r = 1; r <= capacity; r++) {
+        accepted.add(batcher.submit(Arrays.copyOf(data[r], INPUTS)));
+      }
+      rejected = batcher.submit(Arrays.copyOf(data[capacity + 1], INPUTS));
+      if (batcher.getQueueDepth() != capacity) {
+        model.released.countDown();
+        return testhelper.fail("full queue: " + batcher.getQueueDepth() + " requests queued");
+      }
+      model.released.countDown();
+    }
+    if (!rejectedWith(rejected, "Request queue is full")) {
+      return testhelper.fail("full queue: request not rejected");
+    }
+    for (CompletableFuture<double[]> result : accepted) {
+      if (result.isCompletedExceptionally()) {
+        return testhelper.fail("full queue: accepted request failed");
+      }
+    }
+    System.out.println("full queue: " + accepted.size() + " requests accepted, next one " +
+        "rejected");
+    return true;
+  }
+
+  /*
+   * close while other threads keep submitting: every future is complete when the submitting
+   * threads are done, with the output of classify or a rejection
+   */
+  private static boolean checkClose(NeuralNetwork network, double[][] data) throws Exception {
+    List<List<CompletableFuture<double[]>>> results = new ArrayList<>();
+    List<Thread> threads = new ArrayList<>();
+    CountDownLatch started = new CountDownLatch(THREADS);
+    MicroBatcher batcher = new MicroBatcher(network, 8, 100, 32);
+    for (int t = 0; t < THREADS; t++) {
+      List<CompletableFuture<double[]>> thread = new ArrayList<>();
+      results.add(thread);
+      threads.add(new Thread(() -> {
+        started.countDown();
+        for (int i = 0; i < 20 * REQUESTS; i++) {
+          thread.add(batcher.submit(Arrays.copyOf(data[i % REQUESTS], INPUTS)));
+        }
+      }));
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    started.await();
+    batcher.close();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    int classified = 0;
+    int closed = 0;
+    double difference = 0;
+    for (List<CompletableFuture<double[]>> thread : results) {
+      for (int i = 0; i < thread.size(); i++) {
+        CompletableFuture<double[]> result = thread.get(i);
+        if (!result.isDone()) {
+          return testhelper.fail("close: request left waiting");
+        } else if (!result.isCompletedExceptionally()) {
+          double[] expected = network.classify(Arrays.copyOf(data[i % REQUESTS], INPUTS));
+          difference = Math.max(difference, testhelper.difference(result.get(), expected));
+          classified++;
+        } else if (rejectedWith(result, "Micro-batcher is closed")) {
+          closed++;
+        } else if (!rejectedWith(result, "Request queue is full")) {
+          return testhelper.fail("close: request failed");
+        }
+      }
+    }
+    System.out.println("close: " + classified + " requests classified, " + closed +
+        " rejected as closed, outputs differ by " + difference);
+    if (closed == 0) {
+      return testhelper.fail("close: no request raced with close");
+    }
+    return difference <= TOLERANCE;
+  }
+
+  /*
+   * every request of a failing model completes with the exception of the model, and the
+   * batcher keeps going with the next batches
+   */
+  private static boolean checkFailure(double[][] data) throws Exception {
+    List<CompletableFuture<double[]>> results;
+    try (MicroBatcher batcher = new MicroBatcher(new FailingModel(), 16, 2000, REQUESTS)) {
+      results = submit(batcher, data);
+    }
+    for (CompletableFuture<double[]> result : results) {
+      try {
+        result.get();
+        return testhelper.fail("failure: request completed normally");
+      } catch (ExecutionException e) {
+        if (e.getCause() != FailingModel.FAILURE) {
+          return testhelper.fail("failure: request failed with " + e.getCause());
+        }
+      }
+    }
+    System.out.println("failure: " + results.size() + " requests failed with the model");
+    return true;
+  }
+
+  /*
+   * submits every example, split between THREADS threads, and waits for the threads (not for
+   * the results)
+   * @return futures of the examples, in the order of the examples
+   */
+  private static List<CompletableFuture<double[]>> submit(MicroBatcher batcher, double[][] data)
+      throws InterruptedException {
+    // every thread sets its own elements, join makes them visible
+    List<CompletableFuture<double[]>> ret = new ArrayList<>(Collections.nCopies(data.length,
+        null));
+    Thread[] threads = new Thread[THREADS];
+    for (int t = 0; t < THREADS; t++) {
+      int first = t;
+      threads[t] = new Thread(() -> {
+        for (int r = first; r < data.length; r += THREADS) {
+          ret.set(r, batcher.submit(Arrays.copyOf(data[r], INPUTS)));
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    return ret;
+  }
+
+  /*
+   * the request was rejected with the given reason
+   */
+  private static boolean rejectedWith(CompletableFuture<double[]> result, String message)
+      throws InterruptedException {
+    try {
+      result.get();
+      return false;
+    } catch (ExecutionException e) {
+      return e.getCause() instanceof RejectedExecutionException &&
+          message.equals(e.getCause().getMessage());
+    }
+  }
+}
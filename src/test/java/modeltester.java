@@ -0,0 +1,137 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/*
+ * model files: a network saved and loaded again has to have the same weights and outputs, and
+ * the memory mapped model (and its direct buffer copy) has to classify like the network, in
+ * batches larger than its blocks too. saving over a mapped file replaces the file, the mapped
+ * model keeps classifying with the old weights and no temporary file is left behind. invalid
+ * files are rejected
+ */
+public class modeltester {
+
+  private static final int INPUTS = 30;
+  private static final int OUTPUTS = 4;
+  private static final int ROWS = 150;
+  // the mapped model runs its own loops on the buffers, the sums are added in another order
+  private static final double TOLERANCE = 1e-12;
+
+  public static void main(String... args) throws IOException {
+    Path dir = Files.createTempDirectory("modeltester");
+    Path path = dir.resolve("model.mlp");
+    boolean ok = true;
+    try {
+      NeuralNetwork network = network(1);
+      network.save(path);
+      double[] in = inputs(new Random(3));
+      double[] expected = new double[ROWS * OUTPUTS];
+      network.classifyBatch(in, ROWS, expected);
+
+      NeuralNetwork loaded = NeuralNetwork.load(path);
+      ok &= same("load", network, loaded);
+      double[] out = new double[ROWS * OUTPUTS];
+      loaded.classifyBatch(in, ROWS, out);
+      ok &= Arrays.equals(out, expected) || testhelper.fail("load: outputs differ");
+
+      MappedModel mapped = new MappedModel(path);
+      ok &= same("mapped", network, mapped.toNeuralNetwork());
+      ok &= classifies("mapped", mapped, in, expected);
+      ok &= classifies("direct", MappedModel.allocateDirect(network), in, expected);
+
+      // a new model saved over the mapped file, the mapping keeps the old one
+      NeuralNetwork other = network(2);
+      other.save(path);
+      ok &= classifies("mapped after save", mapped, in, expected);
+      ok &= same("load after save", other, NeuralNetwork.load(path));
+      try (Stream<Path> files = Files.list(dir)) {
+        ok &= (files.count() == 1) || testhelper.fail("save: temporary file left behind");
+      }
+
+      Path invalid = dir.resolve("invalid.mlp");
+      Files.write(invalid, new byte[64]);
+      try {
+        new MappedModel(invalid);
+        ok = testhelper.fail("invalid file accepted");
+      } catch (IOException e) {
+        // expected
+      } finally {
+        Files.delete(invalid);
+      }
+    } finally {
+      Files.deleteIfExists(path);
+      Files.delete(dir);
+    }
+    System.out.println(ok ? "OK" : "FAILED");
+    if (!ok) {
+      System.exit(1);
+    }
+  }
+
+  /*
+   * every activation function stored in the file, and an input layer that scales and shifts
+   */
+  private static NeuralNetwork network(long seed) {
+    NeuralNetwork network = new NeuralNetwork(INPUTS, OUTPUTS, ActivationFunction.softmax(),
+        seed);
+    network.addHiddenLayer(20, ActivationFunction.leakyRectifier(0.02));
+    network.addHiddenLayer(12, ActivationFunction.tanh());
+    network.addHiddenLayer(8, ActivationFunction.sigmoid());
+    double[] scale = network.getLayer(0).getWeightBlock();
+    double[] shift = network.getLayer(0).getBiasVector();
+    for (int i = 0; i < INPUTS; i++) {
+      scale[i] = 1 + 0.1 * (i % 3);
+      shift[i] = -0.05 * (i % 2);
+    }
+    return network;
+  }
+
+  private static double[] inputs(Random random) {
+    double[] ret = new double[ROWS * INPUTS];
+    for (int i = 0; i < ret.length; i++) {
+      ret[i] = random.nextGaussian();
+    }
+    return ret;
+  }
+
+  /*
+   * the weights, biases and activation functions of two networks are identical
+   */
+  private static boolean same(String name, NeuralNetwork a, NeuralNetwork b) {
+    if (a.getLayerCount() != b.getLayerCount()) {
+      return testhelper.fail(name + ": layer count differs");
+    }
+    for (int l = 0; l < a.getLayerCount(); l++) {
+      NeuralLayer x = a.getLayer(l);
+      NeuralLayer y = b.getLayer(l);
+      if (!Arrays.equals(x.getWeightBlock(), y.getWeightBlock()) ||
+          !Arrays.equals(x.getBiasVector(), y.getBiasVector()) ||
+          x.getActFcn().getTypeCode() != y.getActFcn().getTypeCode() ||
+          x.getActFcn().getParameter() != y.getActFcn().getParameter()) {
+        return testhelper.fail(name + ": layer " + l + " differs");
+      }
+    }
+    return true;
+  }
+
+  /*
+   * the whole batch, a single row, and a single example through classify
+   */
+  private static boolean classifies(String name, MappedModel model, double[] in,
+                                    double[] expected) {
+    double[] out = new double[ROWS * OUTPUTS];
+    model.classifyBatch(in, ROWS, out);
+    double difference = testhelper.difference(out, expected);
+    double[] row = new double[OUTPUTS];
+    model.classifyBatch(Arrays.copyOfRange(in, 7 * INPUTS, 8 * INPUTS), 1, row);
+    difference = Math.max(difference,
+        testhelper.difference(row, Arrays.copyOfRange(expected, 7 * OUTPUTS, 8 * OUTPUTS)));
+    row = model.classify(Arrays.copyOf(in, INPUTS));
+    difference = Math.max(difference, testhelper.difference(row, expected));
+    System.out.println(name + ": outputs differ by " + difference);
+    return difference <= TOLERANCE;
+  }
+}
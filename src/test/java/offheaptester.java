@@ -0,0 +1,218 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/*
+ * off-heap training against heap training. a network with its trained layers, updates and
+ * optimizer state in direct buffers has to end with the weights of the same network trained on
+ * the heap: with gradient descent, momentum and adam, dense and sparse inputs, on one thread and
+ * on several, and when it moves off-heap between two runs. the buffer kernels sum in the order
+ * of the scalar kernels, so the weights only differ by rounding when the heap runs the vector
+ * kernels. the off-heap network also has to save, load, checkpoint and snapshot like the heap
+ * network, and keep the layers added later off-heap
+ */
+public class offheaptester {
+
+  private static final int INPUTS = 40;
+  private static final int CLASSES = 5;
+  private static final int BATCH_SIZE = 25;
+  private static final double TOLERANCE = 1e-9;
+
+  public static void main(String... args) throws IOException {
+    double[][] data = testhelper.clusters(new Random(9), 1200, INPUTS, CLASSES, 1);
+    double[][] training = Arrays.copyOf(data, 1000);
+    double[][] validation = Arrays.copyOfRange(data, 1000, 1200);
+    double[][] sparse = sparse(training, new Random(10));
+    boolean ok = checkStorage();
+    for (String optimizer : new String[] {"sgd", "momentum", "adam"}) {
+      for (int threads : new int[] {1, 3}) {
+        ok &= checkTraining(optimizer, threads, false, training, validation);
+        ok &= checkTraining(optimizer, threads, true, sparse, validation);
+      }
+    }
+    ok &= checkMove(training, validation);
+    ok &= checkFiles(training, validation);
+    System.out.println(ok ? "OK" : "FAILED");
+    if (!ok) {
+      System.exit(1);
+    }
+  }
+
+  /*
+   * the trained layers are direct, the layers added later too, the input layer stays on the
+   * heap, and the weights are the same wherever they are stored
+   */
+  private static boolean checkStorage() {
+    NeuralNetwork heap = network("sgd", 1);
+    NeuralNetwork offHeap = network("sgd", 1);
+    offHeap.setOffHeap(true);
+    heap.addHiddenLayer(8);
+    offHeap.addHiddenLayer(8);
+    if (offHeap.getLayer(0).getWeightStorage().isDirect()) {
+      return testhelper.fail("storage: input layer moved off-heap");
+    }
+    for (int l = 1; l < offHeap.getLayerCount(); l++) {
+      if (!offHeap.getLayer(l).getWeightStorage().isDirect() ||
+          !offHeap.getLayer(l).getBiasStorage().isDirect()) {
+        return testhelper.fail("storage: layer " + l + " is on the heap");
+      }
+    }
+    try {
+      offHeap.getLayer(1).getWeightBlock();
+      return testhelper.fail("storage: off-heap weight block returned as an array");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    if (testhelper.difference(heap, offHeap) != 0) {
+      return testhelper.fail("storage: weights changed by the move");
+    }
+    double[] in = Arrays.copyOf(testhelper.clusters(new Random(1), 1, INPUTS, CLASSES, 1)[0],
+        INPUTS);
+    double difference = testhelper.difference(heap.classify(in), offHeap.classify(in));
+    offHeap.setOffHeap(false);
+    if (offHeap.getLayer(1).getWeightStorage().isDirect() ||
+        testhelper.difference(heap, offHeap) != 0) {
+      return testhelper.fail("storage: weights not moved back to the heap");
+    }
+    System.out.println("storage: outputs differ by " + difference);
+    return difference <= TOLERANCE;
+  }
+
+  /*
+   * two epochs on the heap and off-heap
+   */
+  private static boolean checkTraining(String optimizer, int threads, boolean sparseInputs,
+                                       double[][] training, double[][] validation) {
+    NeuralNetwork heap = network(optimizer, threads);
+    NeuralNetwork offHeap = network(optimizer, threads);
+    offHeap.setOffHeap(true);
+    if (sparseInputs) {
+      heap.setSparseInputThreshold(1);
+      offHeap.setSparseInputThreshold(1);
+    }
+    heap.train(training, validation, rate(optimizer), 2, BATCH_SIZE);
+    offHeap.train(training, validation, rate(optimizer), 2, BATCH_SIZE);
+    double difference = testhelper.difference(heap, offHeap);
+    System.out.println(optimizer + ", " + threads + " threads" + (sparseInputs ? ", sparse" : "") +
+        ": off-heap training differs by " + difference);
+    return difference <= TOLERANCE;
+  }
+
+  /*
+   * an adam network moved off-heap after a run keeps its optimizer state, and the next run
+   * continues like on the heap
+   */
+  private static boolean checkMove(double[][] training, double[][] validation) {
+    NeuralNetwork heap = network("adam", 1);
+    NeuralNetwork moved = network("adam", 1);
+    heap.train(training, validation, rate("adam"), 1, BATCH_SIZE);
+    moved.train(training, validation, rate("adam"), 1, BATCH_SIZE);
+    moved.setOffHeap(true);
+    heap.train(training, validation, rate("adam"), 1, BATCH_SIZE);
+    moved.train(training, validation, rate("adam"), 1, BATCH_SIZE);
+    double difference = testhelper.difference(heap, moved);
+    System.out.println("move: training after the move differs by " + difference);
+    return difference <= TOLERANCE;
+  }
+
+  /*
+   * model file, direct serving copy, snapshot and checkpoint of an off-heap network
+   */
+  private static boolean checkFiles(double[][] training, double[][] validation)
+      throws IOException {
+    NeuralNetwork network = network("adam", 1);
+    network.setOffHeap(true);
+    Path dir = Files.createTempDirectory("offheaptester");
+    try {
+      Checkpointer checkpointer = new Checkpointer(dir, 1);
+      try {
+        // one checkpoint, after the last batch of the epoch
+        network.setCheckpointing(checkpointer, training.length / BATCH_SIZE);
+        network.train(training, validation, rate("adam"), 1, BATCH_SIZE);
+      } finally {
+        checkpointer.close();
+      }
+      network.setCheckpointing(null, 0);
+      Path latest = Checkpointer.latest(dir);
+      if (latest == null) {
+        return testhelper.fail("checkpoint: " + checkpointer.getLastError());
+      }
+      NeuralNetwork restored = NeuralNetwork.loadCheckpoint(latest);
+      restored.setOffHeap(true);
+      if (testhelper.difference(network, restored) != 0) {
+        return testhelper.fail("checkpoint: weights differ");
+      }
+
+      Path path = dir.resolve("model.mlp");
+      network.save(path);
+      NeuralNetwork loaded = NeuralNetwork.load(path);
+      if (testhelper.difference(network, loaded) != 0) {
+        return testhelper.fail("load: weights differ");
+      }
+      int rows = validation.length;
+      double[] in = new double[rows * INPUTS];
+      for (int r = 0; r < rows; r++) {
+        System.arraycopy(validation[r], 0, in, r * INPUTS, INPUTS);
+      }
+      double[] expected = new double[rows * CLASSES];
+      loaded.classifyBatch(in, rows, expected);
+      double[] out = new double[rows * CLASSES];
+      network.classifyBatch(in, rows, out);
+      double difference = testhelper.difference(out, expected);
+      network.snapshot().classifyBatch(in, rows, out);
+      difference = Math.max(difference, testhelper.difference(out, expected));
+      MappedModel.allocateDirect(network).classifyBatch(in, rows, out);
+      difference = Math.max(difference, testhelper.difference(out, expected));
+
+      // the optimizer state of the checkpoint continues like the state of the network
+      network.train(training, validation, rate("adam"), 1, BATCH_SIZE);
+      restored.train(training, validation, rate("adam"), 1, BATCH_SIZE);
+      double trained = testhelper.difference(network, restored);
+      System.out.println("files: outputs differ by " + difference + ", training from the " +
+          "checkpoint differs by " + trained);
+      return difference <= TOLERANCE && trained <= TOLERANCE;
+    } finally {
+      try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+        for (Path file : files) {
+          Files.delete(file);
+        }
+      }
+      Files.delete(dir);
+    }
+  }
+
+  private static NeuralNetwork network(String optimizer, int threads) {
+    NeuralNetwork network = new NeuralNetwork(INPUTS, CLASSES, ActivationFunction.sigmoid(), 1);
+    network.addHiddenLayer(24, ActivationFunction.tanh());
+    if (optimizer.equals("momentum")) {
+      network.setOptimizer(Optimizer.momentum(0.9));
+    } else if (optimizer.equals("adam")) {
+      network.setOptimizer(Optimizer.adam());
+    }
+    network.setParallelism(threads);
+    return network;
+  }
+
+  private static double rate(String optimizer) {
+    return optimizer.equals("adam") ? 0.01 : 0.1;
+  }
+
+  /*
+   * the examples with most of their inputs set to zero, so the sparse path is taken
+   */
+  private static double[][] sparse(double[][] data, Random random) {
+    double[][] ret = new double[data.length][];
+    for (int r = 0; r < data.length; r++) {
+      ret[r] = data[r].clone();
+      for (int i = 0; i < INPUTS; i++) {
+        if (random.nextDouble() < 0.8) {
+          ret[r][i] = 0;
+        }
+      }
+    }
+    return ret;
+  }
+}
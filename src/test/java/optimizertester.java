@@ -0,0 +1,145 @@
+import java.util.Random;
+
+/*
+ * the optimizers and learning rate schedules against the textbook formulas. every optimizer
+ * takes a few steps on random updates and has to end at the parameters computed here step by
+ * step, with the bias corrections of adam applied to copies of the moments. the schedules are
+ * checked at known points
+ */
+public class optimizertester {
+
+  private static final int LEN = 7;
+  private static final int ROWS = 4;
+  private static final int STEPS = 5;
+  private static final double RATE = 0.1;
+  private static final double TOLERANCE = 1e-12;
+
+  public static void main(String... args) {
+    boolean ok = true;
+    ok &= check(Optimizer.sgd(), 0, 0, 0);
+    ok &= check(Optimizer.momentum(0.9), 0.9, 0, 0);
+    ok &= check(Optimizer.nesterov(0.8), 0.8, 0, 0);
+    ok &= check(Optimizer.rmsProp(0.95, 1e-8), 0, 0.95, 1e-8);
+    ok &= check(Optimizer.adam(0.9, 0.999, 1e-8), 0.9, 0.999, 1e-8);
+    ok &= checkColumns();
+    ok &= checkSchedules();
+    System.out.println(ok ? "OK" : "FAILED");
+    if (!ok) {
+      System.exit(1);
+    }
+  }
+
+  /*
+   * runs the optimizer and the reference formulas on the same summed updates
+   */
+  private static boolean check(Optimizer optimizer, double beta1, double beta2,
+                               double epsilon) {
+    Random random = new Random(11);
+    double[] param = new double[LEN];
+    for (int i = 0; i < LEN; i++) {
+      param[i] = random.nextGaussian();
+    }
+    double[] expected = param.clone();
+    double[] first = new double[LEN];
+    double[] second = new double[LEN];
+    double[] m = new double[LEN];
+    double[] v = new double[LEN];
+    String name = optimizer.getName();
+    for (int step = 0; step < STEPS; step++) {
+      double[] update = new double[LEN];
+      for (int i = 0; i < LEN; i++) {
+        update[i] = random.nextGaussian();
+      }
+      optimizer.update(update, ROWS, RATE, step, first, second, param, LEN);
+      for (int i = 0; i < LEN; i++) {
+        // the updates are summed over the rows of the batch, the rules use their mean
+        double g = update[i] / ROWS;
+        if (optimizer.hasFirstMoment() && optimizer.hasSecondMoment()) {
+          m[i] = beta1 * m[i] + (1 - beta1) * g;
+          v[i] = beta2 * v[i] + (1 - beta2) * g * g;
+          double mHat = m[i] / (1 - Math.pow(beta1, step + 1));
+          double vHat = v[i] / (1 - Math.pow(beta2, step + 1));
+          expected[i] += RATE * mHat / (Math.sqrt(vHat) + epsilon);
+        } else if (optimizer.hasSecondMoment()) {
+          v[i] = beta2 * v[i] + (1 - beta2) * g * g;
+          expected[i] += RATE * g / (Math.sqrt(v[i]) + epsilon);
+        } else if (optimizer.hasFirstMoment()) {
+          m[i] = beta1 * m[i] + g;
+          // nesterov looks ahead along the new velocity
+          expected[i] += RATE * (name.equals("Nesterov") ? g + beta1 * m[i] : m[i]);
+        } else {
+          expected[i] += RATE * g;
+        }
+      }
+    }
+    return close(name, param, expected);
+  }
+
+  /*
+   * the sparse column update of gradient descent against the full update, where the updates of
+   * the other columns are zero
+   */
+  private static boolean checkColumns() {
+    Random random = new Random(13);
+    int cols = 5;
+    int[] columns = {1, 3};
+    double[] update = new double[3 * cols];
+    for (int row = 0; row < update.length; row += cols) {
+      for (int column : columns) {
+        update[row + column] = random.nextGaussian();
+      }
+    }
+    double[] param = new double[update.length];
+    for (int i = 0; i < param.length; i++) {
+      param[i] = random.nextGaussian();
+    }
+    double[] expected = param.clone();
+    Optimizer sgd = Optimizer.sgd();
+    sgd.update(update, ROWS, RATE, 0, null, null, expected, expected.length);
+    sgd.updateColumns(update, ROWS, RATE, columns, columns.length, param, cols);
+    return close("sgd columns", param, expected);
+  }
+
+  private static boolean checkSchedules() {
+    boolean ok = true;
+    ok &= close("constant", LearningRateSchedule.constant().rate(0.5, 1000), 0.5);
+    LearningRateSchedule step = LearningRateSchedule.step(10, 0.5);
+    ok &= close("step", step.rate(2, 9), 2);
+    ok &= close("step", step.rate(2, 25), 0.5);
+    LearningRateSchedule cosine = LearningRateSchedule.cosine(100, 0.1);
+    ok &= close("cosine", cosine.rate(1, 0), 1);
+    ok &= close("cosine", cosine.rate(1, 50), 0.55);
+    ok &= close("cosine", cosine.rate(1, 100), 0.1);
+    ok &= close("cosine", cosine.rate(1, 400), 0.1);
+    LearningRateSchedule warmup = LearningRateSchedule.warmup(4, step);
+    ok &= close("warmup", warmup.rate(2, 0), 0.5);
+    ok &= close("warmup", warmup.rate(2, 3), 2);
+    // the next schedule starts from step 0 after the warmup
+    ok &= close("warmup", warmup.rate(2, 4 + 25), 0.5);
+    try {
+      LearningRateSchedule.warmup(4, null);
+      System.out.println("warmup: accepted a missing schedule");
+      ok = false;
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    return ok;
+  }
+
+  private static boolean close(String name, double[] values, double[] expected) {
+    for (int i = 0; i < values.length; i++) {
+      if (!close(name, values[i], expected[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean close(String name, double value, double expected) {
+    if (Math.abs(value - expected) > TOLERANCE * Math.max(1, Math.abs(expected))) {
+      System.out.println(name + ": " + value + " instead of " + expected);
+      return false;
+    }
+    return true;
+  }
+}
@@ -0,0 +1,63 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/*
+ * data-parallel training against training on a single thread, on a synthetic data set. with the
+ * default reduction a run has to be reproducible for a thread count, and has to end close to the
+ * single-threaded weights: the shard updates are the same sums, added in another order. hogwild
+ * runs are not reproducible, they have to learn about as well as the single-threaded run
+ * usage: paralleltester [thread count]
+ */
+public class paralleltester {
+
+  private static final int INPUTS = 20;
+  private static final int CLASSES = 5;
+  // largest difference to the single-threaded weights, the rounding differences of the sums grow
+  // a little with every update
+  private static final double TOLERANCE = 1e-9;
+
+  public static void main(String... args) {
+    int threads = (args.length > 0) ? Integer.parseInt(args[0]) : 4;
+    double[][] data = testhelper.clusters(new Random(7), 2400, INPUTS, CLASSES, 1);
+    double[][] validation = Arrays.copyOf(data, 400);
+    NeuralNetwork serial = train(data, validation, 1, false);
+    NeuralNetwork parallel = train(data, validation, threads, false);
+    NeuralNetwork again = train(data, validation, threads, false);
+    NeuralNetwork hogwild = train(data, validation, threads, true);
+    System.out.println("serial:   " + serial.getLastValidation());
+    System.out.println("parallel: " + parallel.getLastValidation());
+    System.out.println("hogwild:  " + hogwild.getLastValidation());
+    boolean ok = true;
+    double reproduced = testhelper.difference(parallel, again);
+    if (reproduced != 0) {
+      System.out.println("parallel runs differ by " + reproduced);
+      ok = false;
+    }
+    double reduced = testhelper.difference(serial, parallel);
+    System.out.println("parallel differs from serial by " + reduced);
+    if (!(reduced <= TOLERANCE)) {
+      ok = false;
+    }
+    // hogwild updates race, the accuracy only has to stay close
+    double accuracy = serial.getLastValidation().getAccuracy();
+    if (!(hogwild.getLastValidation().getAccuracy() >= accuracy - 0.05)) {
+      System.out.println("hogwild accuracy too low");
+      ok = false;
+    }
+    System.out.println(ok ? "OK" : "FAILED");
+    if (!ok) {
+      System.exit(1);
+    }
+  }
+
+  private static NeuralNetwork train(double[][] data, double[][] validation, int threads,
+                                     boolean hogwild) {
+    NeuralNetwork network = new NeuralNetwork(INPUTS, CLASSES, ActivationFunction.sigmoid(), 1);
+    network.addHiddenLayer(16);
+    network.setOptimizer(Optimizer.momentum(0.9));
+    network.setParallelism(threads);
+    network.setHogwild(hogwild);
+    network.train(data, validation, 0.1, 3, 32);
+    return network;
+  }
+}
@@ -0,0 +1,110 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/*
+ * the int8 network against the double network it was quantized from, on a synthetic data set.
+ * with dynamic scales and with scales calibrated on the training data, the outputs have to stay
+ * close to the double outputs, the two networks have to put almost every example in the same
+ * class, and the accuracy may only drop a little. inputs beyond the calibrated range are clamped
+ * to +-127 row by row: with calibrated scales a value beyond the range gives the outputs of the
+ * largest value of the range, the dynamic scales follow the row instead, and the other rows of
+ * a batch are not affected either way
+ */
+public class quantizationtester {
+
+  private static final int INPUTS = 20;
+  private static final int CLASSES = 5;
+  // largest difference of an output of the trained networks, the outputs are sigmoids
+  private static final double MAX_DIFFERENCE = 0.05;
+  private static final double MIN_AGREEMENT = 0.97;
+  private static final double MAX_ACCURACY_DROP = 0.02;
+  // largest difference of an output of the linear layer with dynamic scales, for inputs up to 5
+  private static final double LINEAR_DIFFERENCE = 0.01;
+
+  public static void main(String... args) {
+    double[][] data = testhelper.clusters(new Random(11), 2400, INPUTS, CLASSES, 1);
+    double[][] training = Arrays.copyOf(data, 2000);
+    double[][] validation = Arrays.copyOfRange(data, 2000, 2400);
+    NeuralNetwork network = new NeuralNetwork(INPUTS, CLASSES, ActivationFunction.sigmoid(), 1);
+    network.addHiddenLayer(32, ActivationFunction.tanh());
+    network.setOptimizer(Optimizer.momentum(0.9));
+    network.train(training, validation, 0.1, 3, 32);
+    // the input layer is folded into the first quantized layer
+    double[] scale = network.getLayer(0).getWeightBlock();
+    double[] shift = network.getLayer(0).getBiasVector();
+    for (int i = 0; i < INPUTS; i++) {
+      scale[i] = 1 + 0.1 * (i % 3);
+      shift[i] = -0.05 * (i % 2);
+    }
+    Dataset calibration = new ArrayDataset(training, INPUTS);
+    Dataset test = new ArrayDataset(validation, INPUTS);
+    boolean ok = compare("dynamic", network, new QuantizedNetwork(network), test);
+    ok &= compare("static", network, new QuantizedNetwork(network, calibration), test);
+    ok &= checkClamping();
+    System.out.println(ok ? "OK" : "FAILED");
+    if (!ok) {
+      System.exit(1);
+    }
+  }
+
+  /*
+   * outputs, agreement and accuracy of the quantized network against the double network
+   */
+  private static boolean compare(String name, NeuralNetwork network, QuantizedNetwork quantized,
+                                 Dataset test) {
+    QuantizationReport report = quantized.compare(network, test);
+    System.out.println(name + ": double accuracy " + report.getReferenceAccuracy() +
+        ", int8 accuracy " + report.getQuantizedAccuracy() + ", agreement " +
+        report.getAgreement() + ", outputs differ by " + report.getMaxDifference());
+    boolean ok = report.getExampleCount() == test.size();
+    ok &= report.getMaxDifference() <= MAX_DIFFERENCE;
+    ok &= report.getAgreement() >= MIN_AGREEMENT;
+    ok &= report.getQuantizedAccuracy() >= report.getReferenceAccuracy() - MAX_ACCURACY_DROP;
+    return ok;
+  }
+
+  /*
+   * one linear layer calibrated on inputs in [-1, 1]: with the calibrated scale 1 / 127, inputs
+   * beyond the range are clamped to +-127 and classify like +-1. the dynamic scale of a row is
+   * its largest value, so the row is not clamped. a batch with an out of range row gives every row
+   * the outputs it has alone
+   */
+  private static boolean checkClamping() {
+    NeuralNetwork network = new NeuralNetwork(4, 3, ActivationFunction.linear(), 5);
+    // the calibration only reads the inputs, the expected outputs are not used
+    double[][] range = {{1, -1, 0.5, 0, 0, 0, 0}, {-1, 1, 0, -0.5, 0, 0, 0}};
+    QuantizedNetwork fixed = new QuantizedNetwork(network, new ArrayDataset(range, 4));
+    QuantizedNetwork dynamic = new QuantizedNetwork(network);
+    double[] inRange = {0.25, -0.5, 0.75, 0.125};
+    double[] beyond = {5, -0.5, 0.75, -3};
+    double[] clamped = {1, -0.5, 0.75, -1};
+    if (!Arrays.equals(fixed.classify(beyond), fixed.classify(clamped))) {
+      return testhelper.fail("clamping: calibrated scale not clamped to +-127");
+    }
+    double[] expected = network.classify(beyond);
+    double difference = testhelper.difference(dynamic.classify(beyond), expected);
+    if (!(difference <= LINEAR_DIFFERENCE)) {
+      return testhelper.fail("clamping: dynamic scale differs by " + difference);
+    }
+    if (Arrays.equals(dynamic.classify(beyond), dynamic.classify(clamped))) {
+      return testhelper.fail("clamping: dynamic scale clamped");
+    }
+    double[] in = new double[3 * 4];
+    System.arraycopy(inRange, 0, in, 0, 4);
+    System.arraycopy(beyond, 0, in, 4, 4);
+    System.arraycopy(inRange, 0, in, 8, 4);
+    for (QuantizedNetwork quantized : new QuantizedNetwork[] {fixed, dynamic}) {
+      double[] out = new double[3 * 3];
+      quantized.classifyBatch(in, 3, out);
+      double[] alone = quantized.classify(inRange);
+      if (!Arrays.equals(Arrays.copyOfRange(out, 0, 3), alone) ||
+          !Arrays.equals(Arrays.copyOfRange(out, 3, 6), quantized.classify(beyond)) ||
+          !Arrays.equals(Arrays.copyOfRange(out, 6, 9), alone)) {
+        return testhelper.fail("clamping: a row of the batch changed the outputs of another");
+      }
+    }
+    System.out.println("clamping: calibrated inputs clamped, dynamic outputs differ by " +
+        difference);
+    return true;
+  }
+}
@@ -0,0 +1,128 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/*
+ * the sparse input paths against the dense ones, on inputs that are mostly zero. the input
+ * layer has to give the same outputs from a sparse batch as from the dense rows, with scaled and
+ * shifted inputs too. classification and training (gradient descent and adam, scaled inputs)
+ * only sum the nonzero products, in another order than the dense kernels, so the results have
+ * to agree up to rounding
+ */
+public class sparsetester {
+
+  private static final int INPUTS = 100;
+  private static final int CLASSES = 5;
+  private static final double DENSITY = 0.1;
+  private static final double TOLERANCE = 1e-9;
+
+  public static void main(String... args) {
+    double[][] data = data(new Random(7), 1200);
+    double[][] validation = Arrays.copyOf(data, 200);
+    boolean ok = checkInputLayer(data);
+    ok &= checkClassify(data);
+    for (String optimizer : new String[] {"sgd", "adam"}) {
+      for (boolean scaled : new boolean[] {false, true}) {
+        NeuralNetwork dense = train(data, validation, optimizer, scaled, 0);
+        NeuralNetwork sparse = train(data, validation, optimizer, scaled, 1);
+        double difference = testhelper.difference(dense, sparse);
+        String name = optimizer + (scaled ? " scaled" : "");
+        System.out.println(name + ": sparse training differs by " + difference);
+        ok &= difference <= TOLERANCE;
+      }
+    }
+    System.out.println(ok ? "OK" : "FAILED");
+    if (!ok) {
+      System.exit(1);
+    }
+  }
+
+  /*
+   * the input layer with scaled and shifted inputs, whole batch and single rows
+   */
+  private static boolean checkInputLayer(double[][] data) {
+    int rows = 8;
+    InputLayer layer = new InputLayer(INPUTS);
+    double[] scale = layer.getWeightBlock();
+    double[] shift = layer.getBiasVector();
+    for (int i = 0; i < INPUTS; i++) {
+      scale[i] = 0.5 + i % 3;
+      shift[i] = (i % 4 == 0) ? -0.25 : 0;
+    }
+    SparseBatch batch = new SparseBatch(INPUTS);
+    double[] in = new double[rows * INPUTS];
+    for (int r = 0; r < rows; r++) {
+      batch.addDenseRow(data[r], 0);
+      System.arraycopy(data[r], 0, in, r * INPUTS, INPUTS);
+    }
+    double[] dense = new double[rows * INPUTS];
+    double[] sparse = new double[rows * INPUTS];
+    layer.propagateBatch(in, 0, rows, dense, 0);
+    layer.propagateBatch(batch, 0, rows, sparse, 0);
+    boolean ok = Arrays.equals(dense, sparse);
+    double[] row = new double[INPUTS];
+    layer.propagateBatch(batch, 3, 1, row, 0);
+    ok &= Arrays.equals(row, Arrays.copyOfRange(dense, 3 * INPUTS, 4 * INPUTS));
+    if (!ok) {
+      System.out.println("input layer: sparse outputs differ from the dense ones");
+    }
+    return ok;
+  }
+
+  private static boolean checkClassify(double[][] data) {
+    int rows = 50;
+    NeuralNetwork network = network(false);
+    SparseBatch batch = new SparseBatch(INPUTS);
+    double[] in = new double[rows * INPUTS];
+    for (int r = 0; r < rows; r++) {
+      batch.addDenseRow(data[r], 0);
+      System.arraycopy(data[r], 0, in, r * INPUTS, INPUTS);
+    }
+    double[] dense = new double[rows * CLASSES];
+    double[] sparse = new double[rows * CLASSES];
+    network.classifyBatch(in, rows, dense);
+    network.classifyBatch(batch, sparse);
+    double difference = testhelper.difference(dense, sparse);
+    System.out.println("classify: sparse outputs differ by " + difference);
+    return difference <= TOLERANCE;
+  }
+
+  private static NeuralNetwork network(boolean scaled) {
+    NeuralNetwork network = new NeuralNetwork(INPUTS, CLASSES, ActivationFunction.sigmoid(), 1);
+    network.addHiddenLayer(16);
+    if (scaled) {
+      // zeros stay zero, so the sparse path is still taken
+      Arrays.fill(network.getLayer(0).getWeightBlock(), 0.5);
+    }
+    return network;
+  }
+
+  private static NeuralNetwork train(double[][] data, double[][] validation, String optimizer,
+                                     boolean scaled, double threshold) {
+    NeuralNetwork network = network(scaled);
+    if (optimizer.equals("adam")) {
+      network.setOptimizer(Optimizer.adam());
+    }
+    network.setSparseInputThreshold(threshold);
+    network.train(data, validation, optimizer.equals("adam") ? 0.01 : 0.5, 2, 16);
+    return network;
+  }
+
+  /*
+   * DENSITY of the inputs are nonzero, the output of a random class is 1
+   */
+  private static double[][] data(Random random, int count) {
+    double[][] ret = new double[count][INPUTS + CLASSES];
+    for (double[] row : ret) {
+      int c = random.nextInt(CLASSES);
+      for (int i = 0; i < INPUTS; i++) {
+        // the inputs of the class are nonzero more often
+        double density = (i % CLASSES == c) ? 3 * DENSITY : DENSITY / 2;
+        if (random.nextDouble() < density) {
+          row[i] = random.nextDouble();
+        }
+      }
+      row[INPUTS + c] = 1;
+    }
+    return ret;
+  }
+}
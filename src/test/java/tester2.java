@@ -1,5 +1,6 @@
 import java.io.IOException;
-import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.file.Paths;
 import java.util.Arrays;
 
 /*
@@ -22,9 +23,14 @@ public class tester2 {
       double[][] trainingData = trainingDataLoader();
       double[][] validationData = validationDataLoader();
 
-    long l = System.currentTimeMillis();
-    network.train(trainingData, validationData, 0.01, 100);
-    System.out.println("training time: " + (System.currentTimeMillis() - l));
+    // per epoch error and timings are written into error.csv
+    try (TrainingTelemetry telemetry = new TrainingTelemetry(128,
+        new CsvMetricSink(Paths.get("error.csv")))) {
+      network.setTelemetry(telemetry);
+      long l = System.currentTimeMillis();
+      network.train(trainingData, validationData, 0.01, 100);
+      System.out.println("training time: " + (System.currentTimeMillis() - l));
+    }
     for (int i = 0; i < 10; i++) {
       test(network, validationData[i]);
     }
@@ -34,49 +40,25 @@ public class tester2 {
   }
 
   public static double[][] trainingDataLoader() throws IOException {
-    // training set contains 60000 images
-    double[][] trainingData = new double[6000][28 * 28 + 10];
-    InputStream trainStream = tester2.class.getResourceAsStream("/train-images.idx3-ubyte");
-    InputStream trainLabelStream = tester2.class.getResourceAsStream("/train-labels.idx1-ubyte");
-    trainStream.skip(16);
-    trainLabelStream.skip(8);
-
-    // load training images
-    for (int i = 0; i < trainingData.length; i++) {
-      Arrays.fill(trainingData[i], 0.1);
-      for (int j = 0; j < 28 * 28; j++) {
-        trainingData[i][j] = (double) trainStream.read();
-      }
-      // set the expected output value to 0.9, rest stays 0;
-      trainingData[i][28 * 28 + trainLabelStream.read()] = 0.9;
-    }
-    trainStream.close();
-    trainLabelStream.close();
-
-    return trainingData;
+    // training set contains 60000 images, the first 6000 are used
+    IdxDataset trainingSet = openDataset("/train-images.idx3-ubyte", "/train-labels.idx1-ubyte");
+    return trainingSet.getExamples(0, Math.min(6000, trainingSet.size()));
   }
 
   public static double[][] validationDataLoader() throws IOException {
-    // test set contains 10000 images
-    double[][] validationData = new double[1000][28 * 28 + 10];
-    InputStream validStream = tester2.class.getResourceAsStream("/t10k-images.idx3-ubyte");
-    InputStream validLabelStream = tester2.class.getResourceAsStream("/t10k-labels.idx1-ubyte");
-    validStream.skip(16);
-    validLabelStream.skip(8);
+    // test set contains 10000 images, the first 1000 are used
+    IdxDataset validationSet = openDataset("/t10k-images.idx3-ubyte", "/t10k-labels.idx1-ubyte");
+    return validationSet.getExamples(0, Math.min(1000, validationSet.size()));
+  }
 
-    // load validation images
-    for (int i = 0; i < validationData.length; i++) {
-      Arrays.fill(validationData[i], 0.1);
-      for (int j = 0; j < 28 * 28; j++) {
-        validationData[i][j] = (double) validStream.read();
-      }
-      // set the expected output value to 1, rest stays 0;
-      validationData[i][28 * 28+ validLabelStream.read()] = 0.9;
+  private static IdxDataset openDataset(String images, String labels) throws IOException {
+    try {
+      // raw pixel values, expected output is 0.9 for the right digit, 0.1 for the rest
+      return new IdxDataset(Paths.get(tester2.class.getResource(images).toURI()),
+          Paths.get(tester2.class.getResource(labels).toURI()), 10, 1, 0.1, 0.9);
+    } catch (URISyntaxException e) {
+      throw new IOException(e);
     }
-    validStream.close();
-    validLabelStream.close();
-
-    return validationData;
   }
 
   public static void test(NeuralNetwork network, double[] testData) {
@@ -0,0 +1,73 @@
+import java.util.Random;
+
+/*
+ * data sets and comparisons shared by the tester programs
+ */
+final class testhelper {
+
+  private testhelper() {
+  }
+
+  /*
+   * examples around one center per class: the inputs are the center plus gaussian noise, the
+   * output of the class is 1 and the others 0
+   * @param random generator of the centers and the examples
+   * @param count number of examples
+   * @param inputCount number of inputs
+   * @param classCount number of classes (outputs)
+   * @param noise standard deviation of the noise
+   */
+  static double[][] clusters(Random random, int count, int inputCount, int classCount,
+                             double noise) {
+    double[][] centers = new double[classCount][inputCount];
+    for (double[] center : centers) {
+      for (int i = 0; i < inputCount; i++) {
+        center[i] = random.nextGaussian();
+      }
+    }
+    double[][] ret = new double[count][inputCount + classCount];
+    for (double[] row : ret) {
+      int c = random.nextInt(classCount);
+      for (int i = 0; i < inputCount; i++) {
+        row[i] = centers[c][i] + noise * random.nextGaussian();
+      }
+      row[inputCount + c] = 1;
+    }
+    return ret;
+  }
+
+  /*
+   * largest difference between the weights and biases of two networks of the same topology
+   */
+  static double difference(NeuralNetwork a, NeuralNetwork b) {
+    double ret = 0;
+    for (int l = 0; l < a.getLayerCount(); l++) {
+      // the storage of either network may be off-heap
+      ret = Math.max(ret, difference(a.getLayer(l).getWeightStorage().toArray(),
+          b.getLayer(l).getWeightStorage().toArray()));
+      ret = Math.max(ret, difference(a.getLayer(l).getBiasStorage().toArray(),
+          b.getLayer(l).getBiasStorage().toArray()));
+    }
+    return ret;
+  }
+
+  /*
+   * largest difference between the elements of two arrays of the same length
+   */
+  static double difference(double[] a, double[] b) {
+    double ret = 0;
+    for (int i = 0; i < a.length; i++) {
+      ret = Math.max(ret, Math.abs(a[i] - b[i]));
+    }
+    return ret;
+  }
+
+  /*
+   * prints a failed check
+   * @return false, the result of the check
+   */
+  static boolean fail(String message) {
+    System.out.println(message);
+    return false;
+  }
+}